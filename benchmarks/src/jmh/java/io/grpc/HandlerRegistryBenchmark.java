@@ -0,0 +1,104 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks dispatching an incoming call with {@link MutableHandlerRegistryImpl#lookupMethod}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HandlerRegistryBenchmark {
+  private static final int METHODS_PER_SERVICE = 10;
+
+  @Param({"1", "50"})
+  public int serviceCount;
+
+  private final MutableHandlerRegistryImpl registry = new MutableHandlerRegistryImpl();
+  private String[] fullMethodNames;
+
+  @Setup
+  public void setUp() {
+    Marshaller<Void> marshaller = new Marshaller<Void>() {
+      @Override
+      public InputStream stream(Void value) {
+        return new ByteArrayInputStream(new byte[0]);
+      }
+
+      @Override
+      public Void parse(InputStream stream) {
+        return null;
+      }
+    };
+    ServerCallHandler<Void, Void> handler = new ServerCallHandler<Void, Void>() {
+      @Override
+      public ServerCall.Listener<Void> startCall(String fullMethodName, ServerCall<Void> call,
+          Metadata.Headers headers) {
+        throw new UnsupportedOperationException();
+      }
+    };
+    fullMethodNames = new String[serviceCount * METHODS_PER_SERVICE];
+    for (int i = 0; i < serviceCount; i++) {
+      String serviceName = "grpc.benchmarks.Service" + i;
+      ServerServiceDefinition.Builder service = ServerServiceDefinition.builder(serviceName);
+      for (int j = 0; j < METHODS_PER_SERVICE; j++) {
+        service.addMethod("Method" + j, marshaller, marshaller, handler);
+        fullMethodNames[i * METHODS_PER_SERVICE + j] = "/" + serviceName + "/Method" + j;
+      }
+      registry.addService(service.build());
+    }
+  }
+
+  /**
+   * Looks up every registered method once.
+   */
+  @Benchmark
+  public void lookupMethod(Blackhole blackhole) {
+    for (String fullMethodName : fullMethodNames) {
+      blackhole.consume(registry.lookupMethod(fullMethodName));
+    }
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks building, reading and serializing {@link Metadata}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MetadataBenchmark {
+  @Param({"1", "10", "50"})
+  public int headerCount;
+
+  private Metadata.Key<String>[] keys;
+  private String[] values;
+  private Metadata.Headers headers;
+  private byte[][] serialized;
+
+  @Setup
+  @SuppressWarnings("unchecked")
+  public void setUp() {
+    keys = new Metadata.Key[headerCount];
+    values = new String[headerCount];
+    for (int i = 0; i < headerCount; i++) {
+      keys[i] = Metadata.Key.of("header-" + i, Metadata.ASCII_STRING_MARSHALLER);
+      values[i] = "value-" + i;
+    }
+    headers = put();
+    serialized = headers.serialize();
+  }
+
+  /**
+   * Builds the headers an application sends.
+   */
+  @Benchmark
+  public Metadata.Headers put() {
+    Metadata.Headers headers = new Metadata.Headers();
+    for (int i = 0; i < keys.length; i++) {
+      headers.put(keys[i], values[i]);
+    }
+    return headers;
+  }
+
+  /**
+   * Reads every header of headers built by the application.
+   */
+  @Benchmark
+  public void get(Blackhole blackhole) {
+    for (Metadata.Key<String> key : keys) {
+      blackhole.consume(headers.get(key));
+    }
+  }
+
+  /**
+   * Reads every header of headers received from the transport, which parses their values.
+   */
+  @Benchmark
+  public void getFromWire(Blackhole blackhole) {
+    Metadata.Headers received = new Metadata.Headers(serialized);
+    for (Metadata.Key<String> key : keys) {
+      blackhole.consume(received.get(key));
+    }
+  }
+
+  /**
+   * Serializes headers built by the application.
+   */
+  @Benchmark
+  public byte[][] serialize() {
+    return headers.serialize();
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.transport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks reading from a {@link CompositeReadableBuffer}, as the deframer does when a message
+ * arrives in several frames. Each operation assembles the composite from the same chunks, since
+ * reading consumes it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CompositeReadableBufferBenchmark {
+  @Param({"1", "16"})
+  public int chunkCount;
+
+  @Param({"64", "16384"})
+  public int chunkSize;
+
+  private byte[][] chunks;
+  private byte[] dest;
+
+  @Setup
+  public void setUp() {
+    chunks = new byte[chunkCount][];
+    for (int i = 0; i < chunkCount; i++) {
+      chunks[i] = new byte[chunkSize];
+    }
+    dest = new byte[chunkCount * chunkSize];
+  }
+
+  /**
+   * Copies the whole composite into an array.
+   */
+  @Benchmark
+  public byte[] readBytes() {
+    compose().readBytes(dest, 0, dest.length);
+    return dest;
+  }
+
+  /**
+   * Reads the composite one byte at a time, as the deframer reads message headers.
+   */
+  @Benchmark
+  public int readUnsignedByte() {
+    CompositeReadableBuffer buffer = compose();
+    int sum = 0;
+    while (buffer.readableBytes() > 0) {
+      sum += buffer.readUnsignedByte();
+    }
+    return sum;
+  }
+
+  /**
+   * Splits off the first half of the composite without copying it, as the deframer does for a
+   * message body.
+   */
+  @Benchmark
+  public CompositeReadableBuffer readSlice() {
+    return compose().readBytes(dest.length / 2);
+  }
+
+  private CompositeReadableBuffer compose() {
+    CompositeReadableBuffer buffer = new CompositeReadableBuffer();
+    for (byte[] chunk : chunks) {
+      buffer.addBuffer(ReadableBuffers.wrap(chunk));
+    }
+    return buffer;
+  }
+}
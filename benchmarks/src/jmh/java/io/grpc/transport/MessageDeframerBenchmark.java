@@ -0,0 +1,140 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.transport;
+
+import io.grpc.transport.MessageFramer.Compression;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks deframing a message with {@link MessageDeframer} and reading it to the end, as a
+ * marshaller would.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MessageDeframerBenchmark {
+  @Param({"10", "1000", "100000"})
+  public int messageSize;
+
+  @Param({"NONE", "GZIP"})
+  public Compression compression;
+
+  private byte[] frame;
+  private byte[] readBuffer;
+  private MessageDeframer deframer;
+  private Blackhole blackhole;
+
+  @Setup
+  public void setUp(Blackhole blackhole) {
+    this.blackhole = blackhole;
+    frame = frame(MessageFramerBenchmark.newMessage(messageSize), compression);
+    readBuffer = new byte[4096];
+    deframer = new MessageDeframer(new MessageDeframer.Listener() {
+      @Override
+      public void bytesRead(int numBytes) {}
+
+      @Override
+      public void messageRead(InputStream is) {
+        drain(is);
+      }
+
+      @Override
+      public void deliveryStalled() {}
+
+      @Override
+      public void endOfStream() {}
+    }, deframerCompression(compression));
+  }
+
+  /**
+   * Deframes a single message that arrives in one buffer.
+   */
+  @Benchmark
+  public void deframe() {
+    deframer.request(1);
+    deframer.deframe(ReadableBuffers.wrap(frame), false);
+  }
+
+  private void drain(InputStream is) {
+    try {
+      int total = 0;
+      for (int read; (read = is.read(readBuffer)) != -1; ) {
+        total += read;
+      }
+      is.close();
+      blackhole.consume(total);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static byte[] frame(byte[] message, Compression compression) {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    MessageFramer framer = new MessageFramer(new MessageFramer.Sink() {
+      @Override
+      public void deliverFrame(WritableBuffer frame, boolean endOfStream) {
+        out.write(((MessageFramerBenchmark.HeapWritableBuffer) frame).data, 0,
+            frame.readableBytes());
+      }
+    }, new MessageFramerBenchmark.HeapWritableBufferAllocator(),
+        MessageFramerBenchmark.MAX_FRAME_SIZE, compression);
+    framer.writePayload(new ByteArrayInputStream(message), message.length);
+    framer.flush();
+    return out.toByteArray();
+  }
+
+  private static MessageDeframer.Compression deframerCompression(Compression compression) {
+    switch (compression) {
+      case NONE:
+        return MessageDeframer.Compression.NONE;
+      case GZIP:
+        return MessageDeframer.Compression.GZIP;
+      default:
+        throw new AssertionError(compression);
+    }
+  }
+}
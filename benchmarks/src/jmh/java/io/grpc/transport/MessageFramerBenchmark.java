@@ -0,0 +1,140 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.transport;
+
+import io.grpc.transport.MessageFramer.Compression;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks framing a message with {@link MessageFramer}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MessageFramerBenchmark {
+  /** The HTTP/2 default maximum frame size, which the transports use for their frames. */
+  static final int MAX_FRAME_SIZE = 16384;
+
+  @Param({"10", "1000", "100000"})
+  public int messageSize;
+
+  @Param({"NONE", "GZIP"})
+  public Compression compression;
+
+  private byte[] message;
+  private MessageFramer framer;
+
+  @Setup
+  public void setUp() {
+    message = newMessage(messageSize);
+    framer = new MessageFramer(new MessageFramer.Sink() {
+      @Override
+      public void deliverFrame(WritableBuffer frame, boolean endOfStream) {
+        frame.release();
+      }
+    }, new HeapWritableBufferAllocator(), MAX_FRAME_SIZE, compression);
+  }
+
+  /**
+   * Frames a single message and flushes it to the sink.
+   */
+  @Benchmark
+  public void writePayload() {
+    framer.writePayload(new ByteArrayInputStream(message), message.length);
+    framer.flush();
+  }
+
+  /**
+   * Creates a message of the given size that compresses roughly like a typical protobuf.
+   */
+  static byte[] newMessage(int size) {
+    byte[] message = new byte[size];
+    Random random = new Random(1);
+    for (int i = 0; i < size; i++) {
+      // A small alphabet, so that GZIP has something to compress.
+      message[i] = (byte) ('a' + random.nextInt(16));
+    }
+    return message;
+  }
+
+  /**
+   * Allocates plain heap buffers, so that the benchmark measures the framer rather than a
+   * transport's allocator.
+   */
+  static final class HeapWritableBufferAllocator implements WritableBufferAllocator {
+    @Override
+    public WritableBuffer allocate(int capacity) {
+      return new HeapWritableBuffer(capacity);
+    }
+  }
+
+  static final class HeapWritableBuffer implements WritableBuffer {
+    final byte[] data;
+    private int writerIndex;
+
+    HeapWritableBuffer(int capacity) {
+      data = new byte[capacity];
+    }
+
+    @Override
+    public void write(byte[] src, int srcIndex, int length) {
+      System.arraycopy(src, srcIndex, data, writerIndex, length);
+      writerIndex += length;
+    }
+
+    @Override
+    public int writableBytes() {
+      return data.length - writerIndex;
+    }
+
+    @Override
+    public int readableBytes() {
+      return writerIndex;
+    }
+
+    @Override
+    public void release() {
+    }
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.transport;
+
+import io.grpc.Metadata;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks converting {@link Metadata} to HTTP/2 headers with {@link
+ * TransportFrameUtil#toHttp2Headers}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TransportFrameUtilBenchmark {
+  private static final Metadata.BinaryMarshaller<byte[]> BYTES_MARSHALLER =
+      new Metadata.BinaryMarshaller<byte[]>() {
+        @Override
+        public byte[] toBytes(byte[] value) {
+          return value;
+        }
+
+        @Override
+        public byte[] parseBytes(byte[] serialized) {
+          return serialized;
+        }
+      };
+
+  @Param({"1", "10", "50"})
+  public int headerCount;
+
+  /** Whether the headers are binary, which requires Base64 encoding them. */
+  @Param({"false", "true"})
+  public boolean binary;
+
+  private Metadata.Headers headers;
+
+  @Setup
+  public void setUp() {
+    headers = new Metadata.Headers();
+    for (int i = 0; i < headerCount; i++) {
+      if (binary) {
+        headers.put(Metadata.Key.of("header-" + i + Metadata.BINARY_HEADER_SUFFIX,
+            BYTES_MARSHALLER), new byte[] {(byte) i, 0, 1, 2, 3, 4, 5, 6});
+      } else {
+        headers.put(Metadata.Key.of("header-" + i, Metadata.ASCII_STRING_MARSHALLER),
+            "value-" + i);
+      }
+    }
+  }
+
+  @Benchmark
+  public byte[][] toHttp2Headers() {
+    return TransportFrameUtil.toHttp2Headers(headers);
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.transport.netty;
+
+import io.grpc.transport.ServerTransportListener;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http2.DefaultHttp2Connection;
+import io.netty.handler.codec.http2.DefaultHttp2FrameReader;
+import io.netty.handler.codec.http2.DefaultHttp2FrameWriter;
+import io.netty.handler.codec.http2.DefaultHttp2LocalFlowController;
+import io.netty.handler.codec.http2.Http2Connection;
+import io.netty.handler.codec.http2.Http2FrameWriter;
+import io.netty.util.ReferenceCountUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A {@link NettyClientHandler} and a {@link NettyServerHandler} on two {@link EmbeddedChannel}s
+ * that exchange their frames. The benchmarks use it to capture the HTTP/2 frames one handler
+ * produces, and then replay them through the other without any network in between.
+ */
+final class EmbeddedConnection {
+  private static final int HEADER_LENGTH = 5;
+  private static final int FRAME_HEADER_LENGTH = 9;
+  private static final int FLAG_END_STREAM = 0x1;
+  /** Where delivered messages are read to. Its contents don't matter, so it may be shared. */
+  private static final byte[] SCRATCH = new byte[4096];
+
+  final NettyClientHandler clientHandler;
+  final EmbeddedChannel clientChannel;
+  final EmbeddedChannel serverChannel;
+
+  EmbeddedConnection(ServerTransportListener serverListener) {
+    Http2Connection clientConnection = new DefaultHttp2Connection(false);
+    Http2FrameWriter clientWriter = new DefaultHttp2FrameWriter();
+    clientHandler = new NettyClientHandler(clientConnection, new DefaultHttp2FrameReader(),
+        clientWriter, new DefaultHttp2LocalFlowController(clientConnection, clientWriter));
+
+    Http2Connection serverConnection = new DefaultHttp2Connection(true);
+    Http2FrameWriter serverWriter = new DefaultHttp2FrameWriter();
+    NettyServerHandler serverHandler = new NettyServerHandler(serverListener, serverConnection,
+        new DefaultHttp2FrameReader(), serverWriter,
+        new DefaultHttp2LocalFlowController(serverConnection, serverWriter));
+
+    clientChannel = new EmbeddedChannel(clientHandler);
+    serverChannel = new EmbeddedChannel(serverHandler);
+    // Exchange the connection prefaces and settings.
+    exchange();
+  }
+
+  /**
+   * Delivers the frames written by either side to the other until neither has anything to send.
+   */
+  void exchange() {
+    boolean transferred;
+    do {
+      transferred = transfer(clientChannel, serverChannel);
+      transferred |= transfer(serverChannel, clientChannel);
+    } while (transferred);
+  }
+
+  private static boolean transfer(EmbeddedChannel from, EmbeddedChannel to) {
+    ByteBuf frames = readOutbound(from);
+    if (!frames.isReadable()) {
+      frames.release();
+      return false;
+    }
+    to.writeInbound(frames);
+    to.checkException();
+    return true;
+  }
+
+  /**
+   * Removes the frames written by the given channel and returns them as a single buffer.
+   */
+  static ByteBuf readOutbound(EmbeddedChannel channel) {
+    ByteBuf frames = Unpooled.buffer();
+    for (Object msg; (msg = channel.readOutbound()) != null; ) {
+      frames.writeBytes((ByteBuf) msg);
+      ReferenceCountUtil.release(msg);
+    }
+    return frames;
+  }
+
+  /**
+   * Discards the frames written by the given channel.
+   */
+  static void discardOutbound(EmbeddedChannel channel) {
+    for (Object msg; (msg = channel.readOutbound()) != null; ) {
+      ReferenceCountUtil.release(msg);
+    }
+  }
+
+  /**
+   * Rewrites the stream ID of every frame in the given buffer, so that captured frames can be
+   * replayed for a new stream.
+   */
+  static void setStreamId(ByteBuf frames, int streamId) {
+    for (int i = frames.readerIndex(); i < frames.writerIndex(); ) {
+      frames.setInt(i + 5, streamId);
+      i += FRAME_HEADER_LENGTH + frames.getUnsignedMedium(i);
+    }
+  }
+
+  /**
+   * Sets the END_STREAM flag on the last frame in the given buffer, which must be a DATA frame.
+   */
+  static ByteBuf endStream(ByteBuf frames) {
+    ByteBuf copy = frames.copy();
+    int last = copy.readerIndex();
+    for (int i = last; i < copy.writerIndex(); ) {
+      last = i;
+      i += FRAME_HEADER_LENGTH + copy.getUnsignedMedium(i);
+    }
+    copy.setByte(last + 4, copy.getByte(last + 4) | FLAG_END_STREAM);
+    return copy;
+  }
+
+  /**
+   * Returns an uncompressed gRPC message of the given size, including its 5-byte header, as
+   * carried by DATA frames.
+   */
+  static ByteBuf grpcFrame(int messageSize) {
+    ByteBuf frame = Unpooled.buffer(HEADER_LENGTH + messageSize);
+    frame.writeByte(0);
+    frame.writeInt(messageSize);
+    frame.writeZero(messageSize);
+    return frame;
+  }
+
+  /**
+   * Reads a delivered message to the end, as a marshaller would.
+   */
+  static void drain(InputStream message) {
+    try {
+      while (message.read(SCRATCH) != -1) {
+      }
+      message.close();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.transport.netty;
+
+import io.grpc.Metadata;
+import io.netty.handler.codec.AsciiString;
+import io.netty.handler.codec.http2.Http2Headers;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the conversions between {@link Metadata} and Netty's {@link Http2Headers} in {@link
+ * Utils}, which run on the event loop for every call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HeadersBenchmark {
+  private static final AsciiString PATH = new AsciiString("/grpc.testing.TestService/UnaryCall");
+  private static final AsciiString AUTHORITY = new AsciiString("localhost:8080");
+
+  /** The number of application headers, in addition to the ones gRPC always sends. */
+  @Param({"0", "10"})
+  public int headerCount;
+
+  private Metadata.Headers headers;
+  private Http2Headers http2Headers;
+
+  @Setup
+  public void setUp() {
+    headers = new Metadata.Headers();
+    for (int i = 0; i < headerCount; i++) {
+      headers.put(Metadata.Key.of("header-" + i, Metadata.ASCII_STRING_MARSHALLER), "value-" + i);
+    }
+    http2Headers = Utils.convertClientHeaders(headers, true, PATH, AUTHORITY);
+  }
+
+  /**
+   * Converts the headers of an outgoing call, as the client does.
+   */
+  @Benchmark
+  public Http2Headers convertClientHeaders() {
+    return Utils.convertClientHeaders(headers, true, PATH, AUTHORITY);
+  }
+
+  /**
+   * Converts the headers of an incoming call, as the server does.
+   */
+  @Benchmark
+  public Metadata.Headers convertHeaders() {
+    return Utils.convertHeaders(http2Headers);
+  }
+}
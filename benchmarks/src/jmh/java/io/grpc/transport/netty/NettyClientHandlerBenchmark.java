@@ -0,0 +1,195 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.transport.netty;
+
+import io.grpc.Metadata;
+import io.grpc.Status;
+import io.grpc.transport.ClientStreamListener;
+import io.grpc.transport.ServerStream;
+import io.grpc.transport.ServerStreamListener;
+import io.grpc.transport.ServerTransportListener;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.AsciiString;
+import io.netty.handler.codec.http2.DefaultHttp2FrameWriter;
+import io.netty.handler.codec.http2.Http2FrameWriter;
+import io.netty.handler.codec.http2.Http2Headers;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link NettyClientHandler} by replaying the frames a {@link NettyServerHandler}
+ * sends into an {@link EmbeddedChannel}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class NettyClientHandlerBenchmark {
+  @Param({"10", "1000"})
+  public int messageSize;
+
+  private EmbeddedConnection connection;
+  private EmbeddedChannel clientChannel;
+  private Http2Headers headers;
+  private NettyClientStream stream;
+  private ServerStream serverStream;
+  private ByteBuf message;
+  private ByteBuf dataFrame;
+  private ByteBuf windowUpdates;
+
+  @Setup
+  public void setUp() throws Exception {
+    connection = new EmbeddedConnection(new ServerTransportListener() {
+      @Override
+      public ServerStreamListener streamCreated(ServerStream stream, String method,
+          Metadata.Headers headers) {
+        serverStream = stream;
+        stream.request(Integer.MAX_VALUE);
+        return new ServerStreamListener() {
+          @Override
+          public void messageRead(InputStream message) {
+            EmbeddedConnection.drain(message);
+          }
+
+          @Override
+          public void halfClosed() {}
+
+          @Override
+          public void closed(Status status) {}
+        };
+      }
+    });
+    clientChannel = connection.clientChannel;
+    headers = Utils.convertClientHeaders(new Metadata.Headers(), false,
+        new AsciiString("/grpc.testing.TestService/StreamingCall"), new AsciiString("localhost"));
+    message = EmbeddedConnection.grpcFrame(messageSize);
+
+    // A stream that stays open for the DATA frames of dataFrame() and sendGrpcFrame(). Its
+    // response headers and first message fill the HPACK dynamic tables.
+    stream = newClientStream();
+    stream.request(Integer.MAX_VALUE);
+    clientChannel.writeAndFlush(new CreateStreamCommand(headers, stream)).sync();
+    connection.exchange();
+    serverStream.writeHeaders(new Metadata.Headers());
+    writeServerMessage();
+    connection.exchange();
+
+    writeServerMessage();
+    dataFrame = EmbeddedConnection.readOutbound(connection.serverChannel);
+
+    // The server returns the window that each message sent by sendGrpcFrame() consumes.
+    Http2FrameWriter frameWriter = new DefaultHttp2FrameWriter();
+    EmbeddedChannel scratch = new EmbeddedChannel(new ChannelOutboundHandlerAdapter());
+    ChannelHandlerContext ctx = scratch.pipeline().firstContext();
+    frameWriter.writeWindowUpdate(ctx, 0, message.readableBytes(), ctx.newPromise());
+    frameWriter.writeWindowUpdate(ctx, stream.id(), message.readableBytes(), ctx.newPromise());
+    scratch.flush();
+    windowUpdates = EmbeddedConnection.readOutbound(scratch);
+    scratch.finish();
+  }
+
+  @TearDown
+  public void tearDown() {
+    clientChannel.finish();
+    connection.serverChannel.finish();
+    message.release();
+    dataFrame.release();
+    windowUpdates.release();
+  }
+
+  /**
+   * Creates a stream, which encodes and writes its headers, and then cancels it so that streams
+   * don't accumulate.
+   */
+  @Benchmark
+  public void createStream() {
+    NettyClientStream stream = newClientStream();
+    clientChannel.writeAndFlush(new CreateStreamCommand(headers, stream));
+    clientChannel.writeAndFlush(new CancelStreamCommand(stream));
+    EmbeddedConnection.discardOutbound(clientChannel);
+  }
+
+  /**
+   * Receives a DATA frame carrying one message on an open stream.
+   */
+  @Benchmark
+  public void dataFrame() {
+    clientChannel.writeInbound(dataFrame.duplicate().retain());
+    EmbeddedConnection.discardOutbound(clientChannel);
+  }
+
+  /**
+   * Writes one message on an open stream with a {@link SendGrpcFrameCommand}, and receives the
+   * WINDOW_UPDATE frames that return its flow control window.
+   */
+  @Benchmark
+  public void sendGrpcFrame() {
+    clientChannel.writeAndFlush(new SendGrpcFrameCommand(stream, message.duplicate().retain(),
+        false));
+    clientChannel.writeInbound(windowUpdates.duplicate().retain());
+    EmbeddedConnection.discardOutbound(clientChannel);
+  }
+
+  private void writeServerMessage() {
+    serverStream.writeMessage(new ByteArrayInputStream(new byte[messageSize]), messageSize, null);
+    serverStream.flush();
+  }
+
+  private NettyClientStream newClientStream() {
+    return new NettyClientStream(new ClientStreamListener() {
+      @Override
+      public void headersRead(Metadata.Headers headers) {}
+
+      @Override
+      public void messageRead(InputStream message) {
+        EmbeddedConnection.drain(message);
+      }
+
+      @Override
+      public void closed(Status status, Metadata.Trailers trailers) {}
+    }, clientChannel, connection.clientHandler);
+  }
+}
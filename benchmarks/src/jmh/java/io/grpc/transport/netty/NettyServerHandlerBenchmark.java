@@ -0,0 +1,172 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.transport.netty;
+
+import io.grpc.Metadata;
+import io.grpc.Status;
+import io.grpc.transport.ClientStreamListener;
+import io.grpc.transport.ServerStream;
+import io.grpc.transport.ServerStreamListener;
+import io.grpc.transport.ServerTransportListener;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.AsciiString;
+import io.netty.handler.codec.http2.Http2Headers;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link NettyServerHandler} by replaying the frames a {@link NettyClientHandler}
+ * sends into an {@link EmbeddedChannel}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class NettyServerHandlerBenchmark {
+  @Param({"10", "1000"})
+  public int messageSize;
+
+  private EmbeddedConnection connection;
+  private EmbeddedChannel serverChannel;
+  private ByteBuf headersFrame;
+  private ByteBuf dataFrame;
+  private ByteBuf lastDataFrame;
+  private int nextStreamId;
+
+  @Setup
+  public void setUp() throws Exception {
+    connection = new EmbeddedConnection(new ServerTransportListener() {
+      @Override
+      public ServerStreamListener streamCreated(final ServerStream stream, String method,
+          Metadata.Headers headers) {
+        stream.request(Integer.MAX_VALUE);
+        return new ServerStreamListener() {
+          @Override
+          public void messageRead(InputStream message) {
+            EmbeddedConnection.drain(message);
+          }
+
+          @Override
+          public void halfClosed() {
+            stream.close(Status.OK, new Metadata.Trailers());
+          }
+
+          @Override
+          public void closed(Status status) {}
+        };
+      }
+    });
+    serverChannel = connection.serverChannel;
+    Http2Headers headers = Utils.convertClientHeaders(new Metadata.Headers(), false,
+        new AsciiString("/grpc.testing.TestService/UnaryCall"), new AsciiString("localhost"));
+
+    // The first stream fills the HPACK dynamic tables, so that the headers of the second are
+    // encoded like the headers of any later call.
+    NettyClientStream first = newClientStream();
+    connection.clientChannel.writeAndFlush(new CreateStreamCommand(headers, first)).sync();
+    connection.exchange();
+
+    // The second stream stays open to receive the DATA frames of dataFrame().
+    NettyClientStream second = newClientStream();
+    connection.clientChannel.writeAndFlush(new CreateStreamCommand(headers, second)).sync();
+    headersFrame = EmbeddedConnection.readOutbound(connection.clientChannel);
+    connection.clientChannel.writeAndFlush(new SendGrpcFrameCommand(second,
+        EmbeddedConnection.grpcFrame(messageSize), false)).sync();
+    dataFrame = EmbeddedConnection.readOutbound(connection.clientChannel);
+    lastDataFrame = EmbeddedConnection.endStream(dataFrame);
+    serverChannel.writeInbound(headersFrame.duplicate().retain());
+    serverChannel.writeInbound(dataFrame.duplicate().retain());
+    serverChannel.checkException();
+    EmbeddedConnection.discardOutbound(serverChannel);
+    nextStreamId = second.id() + 2;
+  }
+
+  @TearDown
+  public void tearDown() {
+    connection.clientChannel.finish();
+    serverChannel.finish();
+    headersFrame.release();
+    dataFrame.release();
+    lastDataFrame.release();
+  }
+
+  /**
+   * Receives a unary call: decodes its headers, creates the stream, deframes the request and
+   * writes the response trailers.
+   */
+  @Benchmark
+  public void unaryCall() {
+    int streamId = nextStreamId;
+    nextStreamId += 2;
+    EmbeddedConnection.setStreamId(headersFrame, streamId);
+    EmbeddedConnection.setStreamId(lastDataFrame, streamId);
+    serverChannel.writeInbound(headersFrame.duplicate().retain());
+    serverChannel.writeInbound(lastDataFrame.duplicate().retain());
+    EmbeddedConnection.discardOutbound(serverChannel);
+  }
+
+  /**
+   * Receives a DATA frame carrying one message on an open stream, including the WINDOW_UPDATE
+   * frames that return its flow control window.
+   */
+  @Benchmark
+  public void dataFrame() {
+    serverChannel.writeInbound(dataFrame.duplicate().retain());
+    EmbeddedConnection.discardOutbound(serverChannel);
+  }
+
+  private NettyClientStream newClientStream() {
+    return new NettyClientStream(new ClientStreamListener() {
+      @Override
+      public void headersRead(Metadata.Headers headers) {}
+
+      @Override
+      public void messageRead(InputStream message) {
+        EmbeddedConnection.drain(message);
+      }
+
+      @Override
+      public void closed(Status status, Metadata.Trailers trailers) {}
+    }, connection.clientChannel, connection.clientHandler);
+  }
+}
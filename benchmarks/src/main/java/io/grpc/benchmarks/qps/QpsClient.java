@@ -32,15 +32,27 @@
 package io.grpc.benchmarks.qps;
 
 import static grpc.testing.TestServiceGrpc.TestServiceStub;
+import static grpc.testing.Qpstest.Latencies;
+import static grpc.testing.Qpstest.ServerStats;
 import static grpc.testing.Qpstest.SimpleRequest;
 import static grpc.testing.Qpstest.SimpleResponse;
+import static grpc.testing.Qpstest.StartArgs;
+import static grpc.testing.Qpstest.StatsRequest;
+import static grpc.testing.Qpstest.StreamingOutputCallRequest;
+import static grpc.testing.Qpstest.StreamingOutputCallResponse;
 import static java.lang.Math.max;
 import static io.grpc.testing.integration.Util.loadCert;
 
 import com.google.common.base.Preconditions;
+import com.google.common.io.BaseEncoding;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.ByteString;
 
+import grpc.testing.Qpstest.Payload;
 import grpc.testing.Qpstest.PayloadType;
+import grpc.testing.Qpstest.ResponseParameters;
 import grpc.testing.TestServiceGrpc;
 import io.grpc.Channel;
 import io.grpc.ChannelImpl;
@@ -54,23 +66,43 @@ import org.HdrHistogram.Histogram;
 import org.HdrHistogram.HistogramIterationValue;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.IllegalFormatException;
 import java.util.List;
+import java.util.Random;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonWriter;
+import javax.json.stream.JsonGenerator;
 
 /**
  * Runs lots of RPCs against a QPS Server to test for throughput and latency.
  * It's a Java clone of the C version at
  * https://github.com/grpc/grpc/blob/master/test/cpp/qps/client.cc
+ *
+ * <p>With {@code --workers} it drives the load from several processes instead: every worker is a
+ * {@link QpsServer} that runs the load on behalf of this client when called with
+ * {@code StartTest}, and the client merges their histograms into a single report.
  */
 public class QpsClient {
   private static final Logger log = Logger.getLogger(QpsClient.class.getName());
@@ -79,6 +111,21 @@ public class QpsClient {
   private static final long HISTOGRAM_MAX_VALUE = 60000000000L;
   private static final int HISTOGRAM_PRECISION = 3;
 
+  private static final String UNARY = "unary";
+  private static final String STREAMING_PINGPONG = "streaming_pingpong";
+  private static final String STREAMING_THROUGHPUT = "streaming_throughput";
+
+  // Maximum number of messages in flight on one stream with --rpc_type=streaming_throughput.
+  private static final int STREAMING_WINDOW = 64;
+
+  private static final String CONSTANT = "constant";
+  private static final String POISSON = "poisson";
+
+  // Runs the callbacks of all channels, on threads whose allocations are still counted after they
+  // exit.
+  private static final ExecutorService CALLBACK_EXECUTOR =
+      Executors.newCachedThreadPool(ResourceUsage.threadFactory("qps-client"));
+
   private int clientChannels = 4;
   private int concurrentCalls = 4;
   private int payloadSize    = 1;
@@ -91,6 +138,38 @@ public class QpsClient {
   private int duration = 60;
   // seconds
   private int warmupDuration = 10;
+  private String rpcType = UNARY;
+  // Offered load in calls per second. 0 runs the closed loop.
+  private int targetQps;
+  private String distribution = CONSTANT;
+  // host:port of the QpsServers to run the load on, or null to run it in this process.
+  private List<String> workers;
+  // File to write the results to as JSON, or null.
+  private String jsonOutput;
+
+  /**
+   * Returns a client that runs the load described by {@code args}, as requested by a driver
+   * through {@code StartTest}.
+   */
+  static QpsClient forStartArgs(StartArgs args) {
+    QpsClient client = new QpsClient();
+    client.serverHost = args.getServerHost();
+    client.serverPort = args.getServerPort();
+    // The QPS server only supports TLS with the test certificate.
+    client.enableTls = args.getEnableSsl();
+    client.useTestCa = args.getEnableSsl();
+    client.concurrentCalls = max(args.getClientThreads(), 1);
+    if (args.getClientChannels() > 0) {
+      client.clientChannels = args.getClientChannels();
+    }
+    client.payloadSize = max(args.getPayloadSize(), 0);
+    client.duration = args.getDuration();
+    client.rpcType = args.getRpcType();
+    client.targetQps = max(args.getQps(), 0);
+    client.distribution = args.getDistribution();
+    client.okhttp = args.getOkhttp();
+    return client;
+  }
 
   public static void main(String... args) throws Exception {
     new QpsClient().run(args);
@@ -101,26 +180,106 @@ public class QpsClient {
       return;
     }
 
-    SimpleRequest req = SimpleRequest.newBuilder()
-                                     .setResponseType(PayloadType.COMPRESSABLE)
-                                     .setResponseSize(payloadSize)
-                                     .build();
+    if (workers != null) {
+      runOnWorkers();
+      return;
+    }
 
-    List<Channel> channels = new ArrayList<Channel>(clientChannels);
-    for (int i = 0; i < clientChannels; i++) {
-      channels.add(newChannel());
+    List<Channel> channels = newChannels();
+
+    warmup(channels);
+
+    ServerStats serverStatsBefore = collectServerStats(channels.get(0));
+    Latencies result = runLoad(channels);
+    ServerStats serverStatsAfter = collectServerStats(channels.get(0));
+
+    printStats(Collections.singletonList(result), serverStatsBefore, serverStatsAfter);
+
+    shutdown(channels);
+  }
+
+  /**
+   * Runs the warmup and then the load on every worker at the same time, collecting the server's
+   * stats around the measured run.
+   */
+  private void runOnWorkers() throws Exception {
+    List<Channel> workerChannels = new ArrayList<Channel>(workers.size());
+    for (String worker : workers) {
+      int colon = worker.lastIndexOf(':');
+      workerChannels.add(newChannel(worker.substring(0, colon),
+                                    Integer.parseInt(worker.substring(colon + 1))));
+    }
+    Channel serverChannel = newChannel(serverHost, serverPort);
+
+    if (warmupDuration > 0) {
+      startTests(workerChannels, warmupDuration);
+    }
+
+    ServerStats serverStatsBefore = collectServerStats(serverChannel);
+    List<Latencies> results = startTests(workerChannels, duration);
+    ServerStats serverStatsAfter = collectServerStats(serverChannel);
+
+    printStats(results, serverStatsBefore, serverStatsAfter);
+
+    shutdown(workerChannels);
+    shutdown(Collections.singletonList(serverChannel));
+  }
+
+  /**
+   * Starts this client's load, lasting {@code duration} seconds and split evenly across the
+   * workers, and waits for all workers to finish. In open-loop mode, the remainder of the target
+   * rate goes to the first workers, so that the total offered load is exactly {@code --qps}.
+   */
+  private List<Latencies> startTests(List<Channel> workerChannels, int duration)
+      throws Exception {
+    StartArgs.Builder args = StartArgs.newBuilder()
+                                      .setServerHost(serverHost)
+                                      .setServerPort(serverPort)
+                                      .setEnableSsl(enableTls)
+                                      .setClientThreads(concurrentCalls)
+                                      .setClientChannels(clientChannels)
+                                      .setPayloadSize(payloadSize)
+                                      .setDuration(duration)
+                                      .setRpcType(rpcType)
+                                      .setDistribution(distribution)
+                                      .setOkhttp(okhttp);
+    int workerCount = workerChannels.size();
+    List<ListenableFuture<Latencies>> futures =
+        new ArrayList<ListenableFuture<Latencies>>(workerCount);
+    for (int i = 0; i < workerCount; i++) {
+      if (targetQps > 0) {
+        int qps = targetQps / workerCount + (i < targetQps % workerCount ? 1 : 0);
+        if (qps == 0) {
+          // Fewer calls per second than workers; a rate of 0 would mean a closed loop.
+          continue;
+        }
+        args.setQps(qps);
+      }
+      futures.add(TestServiceGrpc.newFutureStub(workerChannels.get(i)).startTest(args.build()));
     }
+    return Futures.allAsList(futures).get();
+  }
 
-    warmup(req, channels.get(0));
+  /**
+   * Runs the configured load on {@code channels} for the configured duration, without a warmup.
+   */
+  Latencies runLoad(List<Channel> channels) throws Exception {
+    long userTimeBefore = ResourceUsage.userTimeNanos();
+    long systemTimeBefore = ResourceUsage.systemTimeNanos();
+    long allocatedBytesBefore = ResourceUsage.allocatedBytes();
 
     final long startTime = System.nanoTime();
     final long endTime = startTime + TimeUnit.SECONDS.toNanos(duration);
 
-    // Initiate the concurrent calls
     List<Future<Histogram>> futures = new ArrayList<Future<Histogram>>(concurrentCalls);
-    for (int i = 0; i < concurrentCalls; i++) {
-      Channel channel = channels.get(i % clientChannels);
-      futures.add(doRpcs(channel, req, endTime));
+    if (targetQps > 0) {
+      futures.add(doOpenLoopRpcs(channels, startTime, endTime));
+    } else {
+      // Initiate the concurrent calls
+      for (int i = 0; i < concurrentCalls; i++) {
+        Channel channel = channels.get(i % clientChannels);
+        futures.add(doRpcs(channel, endTime));
+      }
     }
 
     // Wait for completion
@@ -130,35 +289,78 @@ public class QpsClient {
     }
 
     long elapsedTime = System.nanoTime() - startTime;
+    long userTime = ResourceUsage.userTimeNanos() - userTimeBefore;
+    long systemTime = ResourceUsage.systemTimeNanos() - systemTimeBefore;
+    long allocatedBytes = ResourceUsage.allocatedBytes() - allocatedBytesBefore;
+
+    Histogram merged = merge(histograms);
+    ByteBuffer encoded = ByteBuffer.allocate(merged.getNeededByteBufferCapacity());
+    int length = merged.encodeIntoCompressedByteBuffer(encoded);
+    return Latencies.newBuilder()
+                    .setL50(merged.getValueAtPercentile(50))
+                    .setL90(merged.getValueAtPercentile(90))
+                    .setL99(merged.getValueAtPercentile(99))
+                    .setL999(merged.getValueAtPercentile(99.9))
+                    .setNumRpcs((int) merged.getTotalCount())
+                    .setTimeElapsed(elapsedTime / 1e9)
+                    .setTimeUser(userTime / 1e9)
+                    .setTimeSystem(systemTime / 1e9)
+                    .setHistogram(ByteString.copyFrom(encoded.array(), 0, length))
+                    .setAllocatedBytes(allocatedBytes)
+                    .build();
+  }
 
-    printStats(merge(histograms), elapsedTime);
-
-    shutdown(channels);
+  List<Channel> newChannels() throws IOException {
+    List<Channel> channels = new ArrayList<Channel>(clientChannels);
+    for (int i = 0; i < clientChannels; i++) {
+      channels.add(newChannel(serverHost, serverPort));
+    }
+    return channels;
   }
 
-  private void shutdown(List<Channel> channels) {
+  void shutdown(List<Channel> channels) {
     for (Channel channel : channels) {
       ((ChannelImpl) channel).shutdown();
     }
   }
 
-  private void warmup(SimpleRequest req, Channel ch) throws Exception {
-    long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmupDuration);
-    doRpcs(ch, req, end).get();
+  private void warmup(List<Channel> channels) throws Exception {
+    long start = System.nanoTime();
+    long end = start + TimeUnit.SECONDS.toNanos(warmupDuration);
+    if (targetQps > 0) {
+      doOpenLoopRpcs(channels, start, end).get();
+    } else {
+      doRpcs(channels.get(0), end).get();
+    }
+  }
+
+  /**
+   * Returns the current {@link ServerStats} of the server, or {@code null} if the server doesn't
+   * report them.
+   */
+  private ServerStats collectServerStats(Channel channel) {
+    try {
+      return TestServiceGrpc.newBlockingStub(channel)
+          .collectServerStats(StatsRequest.getDefaultInstance());
+    } catch (RuntimeException e) {
+      log.log(Level.WARNING, "Failed to collect server stats", e);
+      return null;
+    }
   }
 
-  private Channel newChannel() throws IOException {
+  private Channel newChannel(String host, int port) throws IOException {
     if (okhttp) {
       if (enableTls) {
         throw new IllegalStateException("TLS unsupported with okhttp");
       }
 
-      return OkHttpChannelBuilder.forAddress(serverHost, serverPort)
+      return OkHttpChannelBuilder.forAddress(host, port)
+                                 .executor(CALLBACK_EXECUTOR)
                                  .build();
     }
 
     SslContext context = null;
-    InetAddress address = InetAddress.getByName(serverHost);
+    InetAddress address = InetAddress.getByName(host);
     NegotiationType negotiationType = enableTls ? NegotiationType.TLS : NegotiationType.PLAINTEXT;
     if (enableTls && useTestCa) {
         // Force the hostname to match the cert the server uses.
@@ -167,9 +369,10 @@ public class QpsClient {
         context = SslContext.newClientContext(cert);
       }
 
-    return NettyChannelBuilder.forAddress(new InetSocketAddress(address, serverPort))
+    return NettyChannelBuilder.forAddress(new InetSocketAddress(address, port))
                               .negotiationType(negotiationType)
                               .sslContext(context)
+                              .executor(CALLBACK_EXECUTOR)
                               .build();
   }
 
@@ -215,6 +418,29 @@ public class QpsClient {
           duration = parseDuration(value);
         } else if ("warmup_duration".equals(key)) {
           warmupDuration = parseDuration(value);
+        } else if ("rpc_type".equals(key)) {
+          if (!UNARY.equals(value) && !STREAMING_PINGPONG.equals(value)
+              && !STREAMING_THROUGHPUT.equals(value)) {
+            throw new IllegalArgumentException("Unknown rpc_type " + value);
+          }
+          rpcType = value;
+        } else if ("qps".equals(key)) {
+          targetQps = max(Integer.parseInt(value), 0);
+        } else if ("distribution".equals(key)) {
+          if (!CONSTANT.equals(value) && !POISSON.equals(value)) {
+            throw new IllegalArgumentException("Unknown distribution " + value);
+          }
+          distribution = value;
+        } else if ("json_output".equals(key)) {
+          jsonOutput = value;
+        } else if ("workers".equals(key)) {
+          workers = new ArrayList<String>();
+          for (String worker : value.split(",")) {
+            if (worker.lastIndexOf(':') <= 0) {
+              throw new IllegalArgumentException("Worker must be host:port: " + worker);
+            }
+            workers.add(worker);
+          }
         } else {
           System.err.println("Unrecognized argument '" + key + "'.");
         }
@@ -225,6 +451,11 @@ public class QpsClient {
         printUsage();
         return false;
       }
+      if (targetQps > 0 && !UNARY.equals(rpcType)) {
+        System.err.println("'--qps' is only supported with '--rpc_type=" + UNARY + "'.");
+        printUsage();
+        return false;
+      }
     } catch (Exception e) {
       e.printStackTrace();
       printUsage();
@@ -269,12 +500,43 @@ public class QpsClient {
       + "\n                              Default " + c.duration + "s."
       + "\n  --warmup_duration=TIME      How long to run the warmup."
       + "\n                              Default " + c.warmupDuration + "s."
+      + "\n  --rpc_type=STR              The type of RPC to run: " + UNARY + ", "
+      + STREAMING_PINGPONG + " or"
+      + "\n                              " + STREAMING_THROUGHPUT + ". The streaming types"
+      + "\n                              reuse one stream per call and measure message"
+      + "\n                              latency and messages per second. Default " + c.rpcType
+      + "\n  --qps=INT                   Offered load in calls per second. Starts calls on a"
+      + "\n                              fixed schedule regardless of how many are still"
+      + "\n                              outstanding, instead of running --concurrent_calls"
+      + "\n                              back to back. Latency is measured from the time a"
+      + "\n                              call was scheduled to start. Default disabled."
+      + "\n  --distribution=STR          Arrival schedule for --qps: " + CONSTANT + " or "
+      + POISSON + "."
+      + "\n                              Default " + c.distribution
+      + "\n  --workers=HOST:PORT,...     Run the load on these QPS servers instead of in this"
+      + "\n                              process, each with --concurrent_calls calls and an"
+      + "\n                              equal share of --qps, and merge their results."
+      + "\n                              Default disabled."
+      + "\n  --json_output=FILE          Also write the results, the configuration and the full"
+      + "\n                              latency histogram to FILE as JSON, for use with"
+      + "\n                              qps_compare. Default disabled."
     );
   }
 
-  private Future<Histogram> doRpcs(Channel channel,
-                                   final SimpleRequest request,
-                                   final long endTime) {
+  private Future<Histogram> doRpcs(Channel channel, long endTime) {
+    if (STREAMING_PINGPONG.equals(rpcType)) {
+      return doStreamingRpcs(channel, endTime, 1);
+    } else if (STREAMING_THROUGHPUT.equals(rpcType)) {
+      return doStreamingRpcs(channel, endTime, STREAMING_WINDOW);
+    }
+    return doUnaryRpcs(channel, endTime);
+  }
+
+  private Future<Histogram> doUnaryRpcs(Channel channel, final long endTime) {
+    final SimpleRequest request = SimpleRequest.newBuilder()
+                                               .setResponseType(PayloadType.COMPRESSABLE)
+                                               .setResponseSize(payloadSize)
+                                               .build();
     final TestServiceStub stub = TestServiceGrpc.newStub(channel);
     final Histogram histogram = new Histogram(HISTOGRAM_MAX_VALUE, HISTOGRAM_PRECISION);
     final HistogramFuture future = new HistogramFuture(histogram);
@@ -284,18 +546,7 @@ public class QpsClient {
 
       @Override
       public void onValue(SimpleResponse value) {
-        PayloadType type = value.getPayload().getType();
-        int actualSize = value.getPayload().getBody().size();
-
-        if (!PayloadType.COMPRESSABLE.equals(type)) {
-          throw new RuntimeException("type was '" + type + "', expected '" +
-                                     PayloadType.COMPRESSABLE + "'.");
-        }
-
-        if (payloadSize != actualSize) {
-          throw new RuntimeException("size was '" + actualSize + "', expected '" +
-                                     payloadSize + "'");
-        }
+        checkPayload(value.getPayload());
       }
 
       @Override
@@ -323,6 +574,191 @@ public class QpsClient {
     return future;
   }
 
+  /**
+   * Starts unary calls at {@code targetQps} from {@code startTime} until {@code endTime},
+   * round-robin over {@code channels}, without waiting for earlier calls to complete.
+   *
+   * <p>Latency is measured from the time each call was scheduled to start rather than the time
+   * it actually started. If the client falls behind its schedule, say because of a GC pause,
+   * the calls it owes are started back to back as soon as it can and the delay counts against
+   * each of them. Every scheduled call is thus recorded, so the histogram does not need
+   * {@link Histogram#recordValueWithExpectedInterval} to back-fill samples that a stall would
+   * otherwise have omitted.
+   */
+  private Future<Histogram> doOpenLoopRpcs(List<Channel> channels, final long startTime,
+                                           final long endTime) {
+    final SimpleRequest request = SimpleRequest.newBuilder()
+                                               .setResponseType(PayloadType.COMPRESSABLE)
+                                               .setResponseSize(payloadSize)
+                                               .build();
+    final List<TestServiceStub> stubs = new ArrayList<TestServiceStub>(channels.size());
+    for (Channel channel : channels) {
+      stubs.add(TestServiceGrpc.newStub(channel));
+    }
+    final Histogram histogram = new Histogram(HISTOGRAM_MAX_VALUE, HISTOGRAM_PRECISION);
+    final HistogramFuture future = new HistogramFuture(histogram);
+    final double intervalNanos = TimeUnit.SECONDS.toNanos(1) / (double) targetQps;
+    final boolean poisson = POISSON.equals(distribution);
+
+    final class OpenLoop implements Runnable {
+      final Random random = new Random();
+      // Guarded by this.
+      int outstanding;
+      boolean finished;
+
+      @Override
+      public void run() {
+        double next = startTime;
+        // Index of the channel of the next call, advanced only when a call is issued.
+        int channel = 0;
+        while (next < endTime) {
+          final long scheduled = (long) next;
+          long delay = scheduled - System.nanoTime();
+          if (delay > 0) {
+            LockSupport.parkNanos(delay);
+            continue;
+          }
+          synchronized (this) {
+            outstanding++;
+          }
+          TestServiceStub stub = stubs.get(channel);
+          channel = (channel + 1) % stubs.size();
+          stub.unaryCall(request, new StreamObserver<SimpleResponse>() {
+            @Override
+            public void onValue(SimpleResponse value) {
+              checkPayload(value.getPayload());
+            }
+
+            @Override
+            public void onError(Throwable t) {
+              Status status = Status.fromThrowable(t);
+              System.err.println("onError called: " + status);
+
+              future.cancel(true);
+            }
+
+            @Override
+            public void onCompleted() {
+              long latency = System.nanoTime() - scheduled;
+              synchronized (histogram) {
+                histogram.recordValue(latency);
+              }
+              boolean done;
+              synchronized (OpenLoop.this) {
+                done = --outstanding == 0 && finished;
+              }
+              if (done) {
+                future.done();
+              }
+            }
+          });
+          next += poisson ? -Math.log(1 - random.nextDouble()) * intervalNanos : intervalNanos;
+        }
+        boolean done;
+        synchronized (this) {
+          finished = true;
+          done = outstanding == 0;
+        }
+        if (done) {
+          future.done();
+        }
+      }
+    }
+
+    // Exits before the load is measured again, so its counters must outlive it.
+    Thread thread = new Thread(ResourceUsage.tracked(new OpenLoop()), "qps-open-loop");
+    thread.setDaemon(true);
+    thread.start();
+    return future;
+  }
+
+  /**
+   * Sends messages on a single full duplex stream until {@code endTime}, keeping up to
+   * {@code window} of them in flight. Each message's latency is the time from sending it until
+   * the server's response arrives. A window of 1 is a ping-pong.
+   */
+  private Future<Histogram> doStreamingRpcs(Channel channel, final long endTime,
+                                            final int window) {
+    final StreamingOutputCallRequest request = StreamingOutputCallRequest.newBuilder()
+        .setResponseType(PayloadType.COMPRESSABLE)
+        .addResponseParameters(ResponseParameters.newBuilder()
+                                                 .setSize(payloadSize)
+                                                 .setIntervalUs(0))
+        .build();
+    final TestServiceStub stub = TestServiceGrpc.newStub(channel);
+    final Histogram histogram = new Histogram(HISTOGRAM_MAX_VALUE, HISTOGRAM_PRECISION);
+    final HistogramFuture future = new HistogramFuture(histogram);
+
+    final class ResponseObserver implements StreamObserver<StreamingOutputCallResponse> {
+      // Send times of the messages in flight. Responses arrive in order, so this is a ring
+      // buffer with the oldest message at 'head'.
+      final long[] sendTimes = new long[window];
+      int head;
+      int outstanding;
+      StreamObserver<StreamingOutputCallRequest> requestObserver;
+
+      synchronized void start() {
+        requestObserver = stub.fullDuplexCall(this);
+        while (outstanding < window) {
+          send();
+        }
+      }
+
+      private void send() {
+        sendTimes[(head + outstanding) % window] = System.nanoTime();
+        outstanding++;
+        requestObserver.onValue(request);
+      }
+
+      @Override
+      public synchronized void onValue(StreamingOutputCallResponse value) {
+        checkPayload(value.getPayload());
+
+        long now = System.nanoTime();
+        histogram.recordValue(now - sendTimes[head]);
+        head = (head + 1) % window;
+        outstanding--;
+
+        if (endTime > now) {
+          send();
+        } else if (outstanding == 0) {
+          requestObserver.onCompleted();
+        }
+      }
+
+      @Override
+      public void onError(Throwable t) {
+        Status status = Status.fromThrowable(t);
+        System.err.println("onError called: " + status);
+
+        future.cancel(true);
+      }
+
+      @Override
+      public void onCompleted() {
+        future.done();
+      }
+    }
+
+    new ResponseObserver().start();
+    return future;
+  }
+
+  private void checkPayload(Payload payload) {
+    PayloadType type = payload.getType();
+    int actualSize = payload.getBody().size();
+
+    if (!PayloadType.COMPRESSABLE.equals(type)) {
+      throw new RuntimeException("type was '" + type + "', expected '" +
+                                 PayloadType.COMPRESSABLE + "'.");
+    }
+
+    if (payloadSize != actualSize) {
+      throw new RuntimeException("size was '" + actualSize + "', expected '" +
+                                 payloadSize + "'");
+    }
+  }
+
   private Histogram merge(List<Histogram> histograms) {
     Histogram merged = new Histogram(HISTOGRAM_MAX_VALUE, HISTOGRAM_PRECISION);
     for (Histogram histogram : histograms) {
@@ -335,26 +771,142 @@ public class QpsClient {
     return merged;
   }
 
-  private void printStats(Histogram histogram, long elapsedTime) {
+  /**
+   * Prints the merged latency percentiles and the throughput of {@code results}, followed by the
+   * client CPU time, server CPU time and client allocated bytes per RPC, or per message for the
+   * streaming types. CPU times are in microseconds, and the server CPU time is -1 if the server
+   * didn't report its stats.
+   */
+  private void printStats(List<Latencies> results, ServerStats serverStatsBefore,
+                          ServerStats serverStatsAfter)
+      throws DataFormatException, IOException {
+    Histogram histogram = new Histogram(HISTOGRAM_MAX_VALUE, HISTOGRAM_PRECISION);
+    double qps = 0;
+    double clientCpuTime = 0;
+    long allocatedBytes = 0;
+    for (Latencies result : results) {
+      histogram.add(Histogram.decodeFromCompressedByteBuffer(
+          ByteBuffer.wrap(result.getHistogram().toByteArray()), HISTOGRAM_MAX_VALUE));
+      qps += result.getNumRpcs() / result.getTimeElapsed();
+      clientCpuTime += result.getTimeUser() + result.getTimeSystem();
+      allocatedBytes += result.getAllocatedBytes();
+    }
+    long rpcs = max(histogram.getTotalCount(), 1);
+    double clientCpuTimePerRpc = clientCpuTime * 1e6 / rpcs;
+    long allocatedBytesPerRpc = allocatedBytes / rpcs;
+
+    double serverCpuTimePerRpc = -1;
+    if (serverStatsBefore != null && serverStatsAfter != null) {
+      double cpuSeconds = serverStatsAfter.getTimeUser() - serverStatsBefore.getTimeUser()
+          + serverStatsAfter.getTimeSystem() - serverStatsBefore.getTimeSystem();
+      long serverRpcs = serverStatsAfter.getNumRpcs() - serverStatsBefore.getNumRpcs();
+      if (serverRpcs <= 0) {
+        // The server does not count RPCs, assume it only served this client.
+        serverRpcs = rpcs;
+      }
+      serverCpuTimePerRpc = cpuSeconds * 1e6 / serverRpcs;
+    }
+
     double percentiles[] = {50, 90, 95, 99, 99.9, 99.99};
 
     // Generate a comma-separated string of percentiles
     StringBuilder header = new StringBuilder();
     StringBuilder values = new StringBuilder();
 
-    header.append("Concurrent Calls, Channels, Payload Size, ");
-    values.append(String.format("%d, %d, %d, ", concurrentCalls, clientChannels, payloadSize));
+    header.append("RPC Type, Concurrent Calls, Channels, Payload Size, Target QPS, ");
+    values.append(String.format("%s, %d, %d, %d, %d, ", rpcType, concurrentCalls,
+                                clientChannels, payloadSize, targetQps));
 
     for (double percentile : percentiles) {
       header.append(percentile).append("%ile").append(", ");
       values.append(histogram.getValueAtPercentile(percentile)).append(", ");
     }
 
-    header.append("QPS");
-    values.append((histogram.getTotalCount() * 1000000000L) / elapsedTime);
+    // For the streaming types every recorded value is a message rather than a call.
+    header.append(UNARY.equals(rpcType) ? "QPS" : "Messages/s").append(", ");
+    values.append((long) qps).append(", ");
+
+    header.append("Client CPU us/RPC, Server CPU us/RPC, Client Bytes/RPC");
+    values.append(String.format("%.2f, %.2f, %d", clientCpuTimePerRpc, serverCpuTimePerRpc,
+                                allocatedBytesPerRpc));
 
     System.out.println(header.toString());
     System.out.println(values.toString());
+
+    if (jsonOutput != null) {
+      writeJson(histogram, qps, clientCpuTimePerRpc, serverCpuTimePerRpc, allocatedBytesPerRpc);
+    }
+  }
+
+  /**
+   * Writes the results to {@link #jsonOutput}. Latencies are in nanoseconds and CPU times in
+   * microseconds, and the histogram is encoded with
+   * {@link Histogram#encodeIntoCompressedByteBuffer} and base64.
+   */
+  private void writeJson(Histogram histogram, double qps, double clientCpuTimePerRpc,
+                         double serverCpuTimePerRpc, long allocatedBytesPerRpc)
+      throws IOException {
+    JsonArrayBuilder workerList = Json.createArrayBuilder();
+    if (workers != null) {
+      for (String worker : workers) {
+        workerList.add(worker);
+      }
+    }
+    JsonObjectBuilder scenario = Json.createObjectBuilder()
+        .add("server_host", serverHost)
+        .add("server_port", serverPort)
+        .add("transport", okhttp ? "okhttp" : "netty")
+        .add("tls", enableTls)
+        .add("rpc_type", rpcType)
+        .add("concurrent_calls", concurrentCalls)
+        .add("client_channels", clientChannels)
+        .add("payload_size", payloadSize)
+        .add("target_qps", targetQps)
+        .add("distribution", distribution)
+        .add("duration", duration)
+        .add("warmup_duration", warmupDuration)
+        .add("workers", workerList);
+
+    Runtime runtime = Runtime.getRuntime();
+    JsonObjectBuilder jvm = Json.createObjectBuilder()
+        .add("java_version", System.getProperty("java.version"))
+        .add("vm_name", System.getProperty("java.vm.name"))
+        .add("vm_version", System.getProperty("java.vm.version"))
+        .add("os", System.getProperty("os.name") + " " + System.getProperty("os.arch"))
+        .add("available_processors", runtime.availableProcessors())
+        .add("max_memory", runtime.maxMemory());
+
+    JsonObjectBuilder latency = Json.createObjectBuilder()
+        .add("count", histogram.getTotalCount())
+        .add("mean", histogram.getMean())
+        .add("max", histogram.getMaxValue());
+    String[] names = {"p50", "p90", "p95", "p99", "p99.9", "p99.99"};
+    double[] percentiles = {50, 90, 95, 99, 99.9, 99.99};
+    for (int i = 0; i < names.length; i++) {
+      latency.add(names[i], histogram.getValueAtPercentile(percentiles[i]));
+    }
+
+    ByteBuffer encoded = ByteBuffer.allocate(histogram.getNeededByteBufferCapacity());
+    int length = histogram.encodeIntoCompressedByteBuffer(encoded);
+
+    OutputStream out = new FileOutputStream(jsonOutput);
+    try {
+      JsonWriter writer = Json.createWriterFactory(
+          Collections.singletonMap(JsonGenerator.PRETTY_PRINTING, true)).createWriter(out);
+      writer.writeObject(Json.createObjectBuilder()
+          .add("scenario", scenario)
+          .add("jvm", jvm)
+          .add("latency_ns", latency)
+          .add("qps", qps)
+          .add("client_cpu_us_per_rpc", clientCpuTimePerRpc)
+          .add("server_cpu_us_per_rpc", serverCpuTimePerRpc)
+          .add("client_bytes_per_rpc", allocatedBytesPerRpc)
+          .add("histogram", BaseEncoding.base64().encode(encoded.array(), 0, length))
+          .build());
+      writer.close();
+    } finally {
+      out.close();
+    }
   }
 
   private static class HistogramFuture implements Future<Histogram> {
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.benchmarks.qps;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+
+/**
+ * Compares the JSON results of a {@link QpsClient} run, written with {@code --json_output},
+ * against a baseline, and exits with a non-zero status if the throughput or the 99th percentile
+ * latency regressed by more than the allowed percentage.
+ */
+public class QpsCompare {
+
+  // The fields of the scenario that change the load, unlike addresses, ports and durations.
+  private static final String[] LOAD_FIELDS = {"transport", "tls", "rpc_type", "concurrent_calls",
+      "client_channels", "payload_size", "target_qps", "distribution"};
+
+  private boolean help;
+  private String baseline;
+  private String result;
+  // percent
+  private double maxQpsRegression = 5;
+  // percent
+  private double maxP99Regression = 10;
+
+  public static void main(String... args) throws Exception {
+    QpsCompare compare = new QpsCompare();
+    if (!compare.run(args) && !compare.help) {
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Returns {@code true} if the result is within the allowed regression of the baseline.
+   */
+  public boolean run(String[] args) throws IOException {
+    if (!parseArgs(args)) {
+      return false;
+    }
+
+    JsonObject baselineJson = read(baseline);
+    JsonObject resultJson = read(result);
+
+    JsonObject baselineScenario = baselineJson.getJsonObject("scenario");
+    JsonObject resultScenario = resultJson.getJsonObject("scenario");
+    for (String field : LOAD_FIELDS) {
+      warnIfDifferent(field, baselineScenario.get(field), resultScenario.get(field));
+    }
+    warnIfDifferent("number of workers", baselineScenario.getJsonArray("workers").size(),
+                    resultScenario.getJsonArray("workers").size());
+
+    double baselineQps = baselineJson.getJsonNumber("qps").doubleValue();
+    double resultQps = resultJson.getJsonNumber("qps").doubleValue();
+    // Higher is better for the throughput, so a regression is a decrease.
+    boolean qpsOk = check("QPS", baselineQps, resultQps,
+                          percent(baselineQps - resultQps, baselineQps), maxQpsRegression);
+
+    double baselineP99 =
+        baselineJson.getJsonObject("latency_ns").getJsonNumber("p99").doubleValue();
+    double resultP99 = resultJson.getJsonObject("latency_ns").getJsonNumber("p99").doubleValue();
+    boolean p99Ok = check("p99 latency (ns)", baselineP99, resultP99,
+                          percent(resultP99 - baselineP99, baselineP99), maxP99Regression);
+
+    return qpsOk && p99Ok;
+  }
+
+  private static void warnIfDifferent(String name, Object baseline, Object result) {
+    if (baseline == null ? result != null : !baseline.equals(result)) {
+      System.err.println(String.format(
+          "Warning: the scenarios differ in %s: baseline %s, result %s", name, baseline, result));
+    }
+  }
+
+  private static double percent(double value, double of) {
+    return of == 0 ? 0 : value * 100 / of;
+  }
+
+  private static boolean check(String name, double baseline, double result, double regression,
+                               double maxRegression) {
+    boolean ok = regression <= maxRegression;
+    System.out.println(String.format(
+        "%s: baseline %.0f, result %.0f, regression %.2f%% (max %.2f%%) %s",
+        name, baseline, result, regression, maxRegression, ok ? "OK" : "FAILED"));
+    return ok;
+  }
+
+  private static JsonObject read(String file) throws IOException {
+    InputStream in = new FileInputStream(file);
+    try {
+      return Json.createReader(in).readObject();
+    } finally {
+      in.close();
+    }
+  }
+
+  private boolean parseArgs(String[] args) {
+    try {
+      for (String arg : args) {
+        if (!arg.startsWith("--")) {
+          System.err.println("All arguments must start with '--': " + arg);
+          printUsage();
+          return false;
+        }
+
+        String[] pair = arg.substring(2).split("=", 2);
+        String key = pair[0];
+        String value = "";
+        if (pair.length == 2) {
+          value = pair[1];
+        }
+
+        if ("help".equals(key)) {
+          help = true;
+          printUsage();
+          return false;
+        } else if ("baseline".equals(key)) {
+          baseline = value;
+        } else if ("result".equals(key)) {
+          result = value;
+        } else if ("max_qps_regression".equals(key)) {
+          maxQpsRegression = Double.parseDouble(value);
+        } else if ("max_p99_regression".equals(key)) {
+          maxP99Regression = Double.parseDouble(value);
+        } else {
+          System.err.println("Unrecognized argument '" + key + "'.");
+        }
+      }
+
+      if (baseline == null || result == null) {
+        System.err.println("'--baseline' and '--result' are required.");
+        printUsage();
+        return false;
+      }
+    } catch (Exception e) {
+      e.printStackTrace();
+      printUsage();
+      return false;
+    }
+
+    return true;
+  }
+
+  private void printUsage() {
+    QpsCompare c = new QpsCompare();
+    System.out.println(
+      "Usage: [ARGS...]"
+      + "\n"
+      + "\n  --baseline=FILE             JSON results of the baseline run. Required."
+      + "\n  --result=FILE               JSON results of the run to check. Required."
+      + "\n  --max_qps_regression=PCT    Maximum allowed drop in QPS, in percent."
+      + "\n                              Default " + c.maxQpsRegression
+      + "\n  --max_p99_regression=PCT    Maximum allowed increase in p99 latency, in percent."
+      + "\n                              Default " + c.maxP99Regression
+    );
+  }
+}
@@ -37,6 +37,7 @@ import static grpc.testing.Qpstest.Latencies;
 import static grpc.testing.Qpstest.StartArgs;
 import static grpc.testing.Qpstest.Payload;
 import static grpc.testing.Qpstest.PayloadType;
+import static grpc.testing.Qpstest.ResponseParameters;
 import static grpc.testing.Qpstest.SimpleResponse;
 import static grpc.testing.Qpstest.SimpleRequest;
 import static grpc.testing.Qpstest.StreamingInputCallResponse;
@@ -52,20 +53,26 @@ import com.google.protobuf.ByteString;
 
 import grpc.testing.Qpstest;
 import grpc.testing.TestServiceGrpc;
+import io.grpc.Channel;
 import io.grpc.ServerImpl;
 import io.grpc.Status;
 import io.grpc.stub.StreamObserver;
 import io.grpc.transport.netty.NettyServerBuilder;
+import io.grpc.transport.okhttp.OkHttpServerBuilder;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.handler.ssl.SslContext;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class QpsServer {
 
   private boolean enable_tls;
+  private boolean okhttp;
   private int port = 0;
 
   public static void main(String... args) throws Exception {
@@ -77,6 +84,11 @@ public class QpsServer {
       return;
     }
 
+    if (okhttp && enable_tls) {
+      System.err.println("TLS unsupported with okhttp");
+      return;
+    }
+
     SslContext sslContext = null;
     if (enable_tls) {
       System.out.println("Using fake CA for TLS certificate.\n"
@@ -91,11 +103,19 @@ public class QpsServer {
       port = pickUnusedPort();
     }
 
-    final ServerImpl server = NettyServerBuilder
-            .forPort(port)
-            .addService(TestServiceGrpc.bindService(new TestServiceImpl()))
-            .sslContext(sslContext)
-            .build();
+    final ServerImpl server;
+    if (okhttp) {
+      server = OkHttpServerBuilder
+              .forPort(port)
+              .addService(TestServiceGrpc.bindService(new TestServiceImpl()))
+              .build();
+    } else {
+      server = NettyServerBuilder
+              .forPort(port)
+              .addService(TestServiceGrpc.bindService(new TestServiceImpl()))
+              .sslContext(sslContext)
+              .build();
+    }
     server.start();
 
     System.out.println("QPS Server started on port " + port);
@@ -137,6 +157,8 @@ public class QpsServer {
           port = Integer.parseInt(value);
         } else if ("enable_tls".equals(key)) {
           enable_tls = true;
+        } else if ("okhttp".equals(key)) {
+          okhttp = true;
         } else {
           System.err.println("Unrecognized argument '" + key + "'.");
         }
@@ -157,14 +179,44 @@ public class QpsServer {
             + "\n"
             + "\n  --port             Port of the server. By default a random port is chosen."
             + "\n  --enable_tls       Enable TLS. Default disabled."
+            + "\n  --okhttp           Use OkHttp as the transport. Default netty"
     );
   }
 
   private static class TestServiceImpl implements TestServiceGrpc.TestService {
-
+    // Unary calls plus streamed request messages served so far.
+    private final AtomicInteger numRpcs = new AtomicInteger();
+
+    /**
+     * Runs the load described by {@code request} as a worker of a {@link QpsClient} started with
+     * {@code --workers}. The worker's CPU time is measured for the whole process, so workers
+     * should not serve the load themselves. The load runs on its own thread rather than on the
+     * server's executor, and the response is sent when it finishes.
+     */
     @Override
-    public void startTest(StartArgs request, StreamObserver<Latencies> responseObserver) {
-      throw Status.UNIMPLEMENTED.asRuntimeException();
+    public void startTest(StartArgs request, final StreamObserver<Latencies> responseObserver) {
+      final QpsClient client = QpsClient.forStartArgs(request);
+      Thread thread = new Thread(ResourceUsage.tracked(new Runnable() {
+        @Override
+        public void run() {
+          Latencies result;
+          try {
+            List<Channel> channels = client.newChannels();
+            try {
+              result = client.runLoad(channels);
+            } finally {
+              client.shutdown(channels);
+            }
+          } catch (Exception e) {
+            responseObserver.onError(Status.fromThrowable(e).asRuntimeException());
+            return;
+          }
+          responseObserver.onValue(result);
+          responseObserver.onCompleted();
+        }
+      }), "qps-worker");
+      thread.setDaemon(true);
+      thread.start();
     }
 
     @Override
@@ -174,8 +226,9 @@ public class QpsServer {
 
       ServerStats stats = ServerStats.newBuilder()
                                      .setTimeNow(nowSeconds)
-                                     .setTimeUser(0)
-                                     .setTimeSystem(0)
+                                     .setTimeUser(ResourceUsage.userTimeNanos() / 1e9)
+                                     .setTimeSystem(ResourceUsage.systemTimeNanos() / 1e9)
+                                     .setNumRpcs(numRpcs.get())
                                      .build();
       responseObserver.onValue(stats);
       responseObserver.onCompleted();
@@ -184,6 +237,7 @@ public class QpsServer {
     @Override
     public void unaryCall(SimpleRequest request,
                           StreamObserver<Qpstest.SimpleResponse> responseObserver) {
+      numRpcs.incrementAndGet();
       if (!request.hasResponseSize()) {
         throw Status.INTERNAL.augmentDescription("responseSize required").asRuntimeException();
       } else if (!request.hasResponseType()) {
@@ -211,25 +265,98 @@ public class QpsServer {
     @Override
     public void streamingOutputCall(StreamingOutputCallRequest request,
                                     StreamObserver<StreamingOutputCallResponse> responseObserver) {
-      throw Status.UNIMPLEMENTED.asRuntimeException();
+      respond(request, responseObserver);
+      responseObserver.onCompleted();
     }
 
     @Override
     public StreamObserver<StreamingInputCallRequest>
-    streamingInputCall(StreamObserver<StreamingInputCallResponse> responseObserver) {
-      throw Status.UNIMPLEMENTED.asRuntimeException();
+    streamingInputCall(final StreamObserver<StreamingInputCallResponse> responseObserver) {
+      return new StreamObserver<StreamingInputCallRequest>() {
+        int aggregatedPayloadSize;
+
+        @Override
+        public void onValue(StreamingInputCallRequest value) {
+          numRpcs.incrementAndGet();
+          aggregatedPayloadSize += value.getPayload().getBody().size();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+        }
+
+        @Override
+        public void onCompleted() {
+          responseObserver.onValue(StreamingInputCallResponse.newBuilder()
+              .setAggregatedPayloadSize(aggregatedPayloadSize).build());
+          responseObserver.onCompleted();
+        }
+      };
     }
 
     @Override
     public StreamObserver<StreamingOutputCallRequest>
-    fullDuplexCall(StreamObserver<StreamingOutputCallResponse> responseObserver) {
-      throw Status.UNIMPLEMENTED.asRuntimeException();
+    fullDuplexCall(final StreamObserver<StreamingOutputCallResponse> responseObserver) {
+      return new StreamObserver<StreamingOutputCallRequest>() {
+        @Override
+        public void onValue(StreamingOutputCallRequest value) {
+          respond(value, responseObserver);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+        }
+
+        @Override
+        public void onCompleted() {
+          responseObserver.onCompleted();
+        }
+      };
     }
 
     @Override
     public StreamObserver<StreamingOutputCallRequest>
-    halfDuplexCall(StreamObserver<StreamingOutputCallResponse> responseObserver) {
-      throw Status.UNIMPLEMENTED.asRuntimeException();
+    halfDuplexCall(final StreamObserver<StreamingOutputCallResponse> responseObserver) {
+      return new StreamObserver<StreamingOutputCallRequest>() {
+        final List<StreamingOutputCallRequest> requests =
+            new ArrayList<StreamingOutputCallRequest>();
+
+        @Override
+        public void onValue(StreamingOutputCallRequest value) {
+          requests.add(value);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+        }
+
+        @Override
+        public void onCompleted() {
+          for (StreamingOutputCallRequest request : requests) {
+            respond(request, responseObserver);
+          }
+          responseObserver.onCompleted();
+        }
+      };
+    }
+
+    /**
+     * Sends one response per {@link ResponseParameters} in the request. The requested intervals
+     * are ignored, the benchmark wants the responses as fast as the transport can deliver them.
+     */
+    private void respond(StreamingOutputCallRequest request,
+                         StreamObserver<StreamingOutputCallResponse> responseObserver) {
+      numRpcs.incrementAndGet();
+      if (!PayloadType.COMPRESSABLE.equals(request.getResponseType())) {
+        throw Status.INTERNAL.augmentDescription("Error creating payload.").asRuntimeException();
+      }
+      for (ResponseParameters params : request.getResponseParametersList()) {
+        ByteString body = ByteString.copyFrom(new byte[params.getSize()]);
+        Payload payload = Payload.newBuilder().setType(request.getResponseType())
+            .setBody(body).build();
+        responseObserver.onValue(
+            StreamingOutputCallResponse.newBuilder().setPayload(payload).build());
+      }
     }
   }
 }
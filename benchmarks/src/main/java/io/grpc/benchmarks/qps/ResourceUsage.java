@@ -0,0 +1,242 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.benchmarks.qps;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.CharStreams;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CPU time and allocation counters of the current process, for normalizing benchmark results by
+ * the number of RPCs.
+ *
+ * <p>Per-thread counters are lost when a thread exits. CPU time is therefore read for the whole
+ * process from {@code /proc/self/stat} where available. Allocations, and CPU time elsewhere, are
+ * the sum of the live threads plus the final counts of the threads created by {@link
+ * #threadFactory} that have exited, so benchmarks should run their load on such threads.
+ */
+final class ResourceUsage {
+  private static final File PROC_STAT = new File("/proc/self/stat");
+  /** Length of a clock tick of {@code /proc/self/stat}. */
+  private static final long NANOS_PER_TICK = TimeUnit.SECONDS.toNanos(1) / clockTicksPerSecond();
+
+  private static final AtomicLong exitedUserNanos = new AtomicLong();
+  private static final AtomicLong exitedSystemNanos = new AtomicLong();
+  private static final AtomicLong exitedAllocatedBytes = new AtomicLong();
+
+  private ResourceUsage() {
+  }
+
+  /**
+   * Returns a factory of daemon threads whose counters are kept after they exit.
+   */
+  static ThreadFactory threadFactory(final String namePrefix) {
+    final AtomicInteger count = new AtomicInteger();
+    return new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(tracked(runnable), namePrefix + "-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    };
+  }
+
+  /**
+   * Wraps {@code runnable} so that the counters of the thread running it are kept after it exits.
+   * The runnable must be the whole body of its thread.
+   */
+  static Runnable tracked(final Runnable runnable) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        try {
+          runnable.run();
+        } finally {
+          ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+          if (threads.isCurrentThreadCpuTimeSupported()) {
+            long cpu = threads.getCurrentThreadCpuTime();
+            long user = threads.getCurrentThreadUserTime();
+            if (cpu > 0 && user >= 0) {
+              exitedUserNanos.addAndGet(user);
+              exitedSystemNanos.addAndGet(cpu - user);
+            }
+          }
+          com.sun.management.ThreadMXBean allocations = allocationCounters();
+          if (allocations != null) {
+            long bytes = allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+            exitedAllocatedBytes.addAndGet(Math.max(bytes, 0));
+          }
+        }
+      }
+    };
+  }
+
+  /**
+   * Returns the system (kernel) CPU time used by this process, in nanoseconds, or 0 if it can't
+   * be measured.
+   */
+  static long systemTimeNanos() {
+    long[] ticks = readProcessTicks();
+    if (ticks != null) {
+      return ticks[1] * NANOS_PER_TICK;
+    }
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (!threads.isThreadCpuTimeSupported()) {
+      return 0;
+    }
+    long total = exitedSystemNanos.get();
+    for (long id : threads.getAllThreadIds()) {
+      long cpu = threads.getThreadCpuTime(id);
+      long user = threads.getThreadUserTime(id);
+      // -1 if the thread died or measurement is disabled.
+      if (cpu > 0 && user >= 0) {
+        total += cpu - user;
+      }
+    }
+    return total;
+  }
+
+  /**
+   * Returns the user CPU time used by this process, in nanoseconds, or 0 if it can't be measured.
+   * Only the process-wide time includes the GC and compiler threads, which {@link ThreadMXBean}
+   * does not report.
+   */
+  static long userTimeNanos() {
+    long[] ticks = readProcessTicks();
+    if (ticks != null) {
+      return ticks[0] * NANOS_PER_TICK;
+    }
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (!threads.isThreadCpuTimeSupported()) {
+      return 0;
+    }
+    long total = exitedUserNanos.get();
+    for (long id : threads.getAllThreadIds()) {
+      total += Math.max(threads.getThreadUserTime(id), 0);
+    }
+    return total;
+  }
+
+  /**
+   * Returns the number of bytes allocated so far by the live threads of this process and the
+   * exited threads of {@link #threadFactory}, or 0 if the JVM does not support measuring it.
+   */
+  static long allocatedBytes() {
+    com.sun.management.ThreadMXBean threads = allocationCounters();
+    if (threads == null) {
+      return 0;
+    }
+    long total = exitedAllocatedBytes.get();
+    for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+      total += Math.max(bytes, 0);
+    }
+    return total;
+  }
+
+  /**
+   * Returns the thread bean if it measures allocations, or {@code null}.
+   */
+  private static com.sun.management.ThreadMXBean allocationCounters() {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+      return null;
+    }
+    com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+    if (!sunThreads.isThreadAllocatedMemorySupported()
+        || !sunThreads.isThreadAllocatedMemoryEnabled()) {
+      return null;
+    }
+    return sunThreads;
+  }
+
+  /**
+   * Returns the kernel's USER_HZ, the unit of the CPU times in {@code /proc}, as reported by
+   * {@code getconf CLK_TCK}. Falls back to 100, the value on practically all Linux, if it can't
+   * be read.
+   */
+  private static long clockTicksPerSecond() {
+    if (!PROC_STAT.canRead()) {
+      return 100;
+    }
+    try {
+      Process getconf = new ProcessBuilder("getconf", "CLK_TCK").redirectErrorStream(true).start();
+      String output;
+      try {
+        output = CharStreams.toString(
+            new InputStreamReader(getconf.getInputStream(), Charsets.US_ASCII)).trim();
+      } finally {
+        getconf.getInputStream().close();
+      }
+      long ticks = Long.parseLong(output);
+      return getconf.waitFor() == 0 && ticks > 0 ? ticks : 100;
+    } catch (IOException e) {
+      return 100;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return 100;
+    } catch (RuntimeException e) {
+      return 100;
+    }
+  }
+
+  /**
+   * Returns the user and system CPU time of the process in clock ticks, or {@code null} if
+   * {@code /proc} is unavailable.
+   */
+  private static long[] readProcessTicks() {
+    if (!PROC_STAT.canRead()) {
+      return null;
+    }
+    try {
+      String stat = Files.toString(PROC_STAT, Charsets.US_ASCII);
+      // The command name in parentheses may contain spaces; the fields after it are numeric.
+      String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+      // utime and stime are the 14th and 15th fields, counting the pid and command name.
+      return new long[] {Long.parseLong(fields[11]), Long.parseLong(fields[12])};
+    } catch (IOException e) {
+      return null;
+    } catch (RuntimeException e) {
+      return null;
+    }
+  }
+}
@@ -36,6 +36,7 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import io.grpc.SharedResourceHolder.Resource;
 import io.grpc.transport.ClientTransportFactory;
+import io.grpc.transport.StreamTracer;
 
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -70,6 +71,10 @@ public abstract class AbstractChannelBuilder<BuilderT extends AbstractChannelBui
 
   @Nullable
   private ExecutorService userExecutor;
+  private int perCallRetryBufferSize = ChannelImpl.DEFAULT_PER_CALL_RETRY_BUFFER_SIZE;
+  private long retryBufferSize = ChannelImpl.DEFAULT_RETRY_BUFFER_SIZE;
+  @Nullable
+  private StreamTracer.Factory streamTracerFactory;
 
   /**
    * Provides a custom executor.
@@ -86,6 +91,39 @@ public abstract class AbstractChannelBuilder<BuilderT extends AbstractChannelBui
     return (BuilderT) this;
   }
 
+  /**
+   * Sets the limits on the request messages held by calls, so that calls that the server never
+   * processed can be transparently retried on a new connection. Only calls with a single request
+   * message are retried, and the message is only serialized again when a call is retried.
+   *
+   * <p>It's an optional parameter. By default each call may hold a message of 1 MiB, and all calls
+   * of the channel 16 MiB.
+   *
+   * @param perCallBytes the maximum size in bytes of the request message held for one call. Calls
+   *     that send more cannot be retried. {@code 0} disables transparent retries.
+   * @param totalBytes the maximum size in bytes of the request messages held for all calls
+   */
+  @SuppressWarnings("unchecked")
+  public final BuilderT retryBufferSize(int perCallBytes, long totalBytes) {
+    Preconditions.checkArgument(perCallBytes >= 0, "perCallBytes must be non-negative");
+    Preconditions.checkArgument(totalBytes >= 0, "totalBytes must be non-negative");
+    this.perCallRetryBufferSize = perCallBytes;
+    this.retryBufferSize = totalBytes;
+    return (BuilderT) this;
+  }
+
+  /**
+   * Installs a factory of tracers for the transport-level events of the streams of calls, such as
+   * when headers are written and the size of messages on the wire.
+   *
+   * <p>It's an optional parameter. Without it, streams are not traced.
+   */
+  @SuppressWarnings("unchecked")
+  public final BuilderT streamTracerFactory(StreamTracer.Factory factory) {
+    this.streamTracerFactory = Preconditions.checkNotNull(factory);
+    return (BuilderT) this;
+  }
+
   /**
    * Builds a channel using the given parameters.
    */
@@ -101,7 +139,8 @@ public abstract class AbstractChannelBuilder<BuilderT extends AbstractChannelBui
     }
 
     final ChannelEssentials essentials = buildEssentials();
-    ChannelImpl channel = new ChannelImpl(essentials.transportFactory, executor);
+    ChannelImpl channel = new ChannelImpl(essentials.transportFactory, executor,
+        perCallRetryBufferSize, retryBufferSize, streamTracerFactory);
     channel.setTerminationRunnable(new Runnable() {
       @Override
       public void run() {
@@ -37,6 +37,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.util.concurrent.Service;
 
 import io.grpc.transport.ServerListener;
+import io.grpc.transport.StreamTracer;
 
 import java.util.concurrent.ExecutorService;
 
@@ -52,6 +53,9 @@ public abstract class AbstractServerBuilder<BuilderT extends AbstractServerBuild
   private final HandlerRegistry registry;
   @Nullable
   private ExecutorService userExecutor;
+  private AdmissionController admissionController = AdmissionControllers.unlimited();
+  @Nullable
+  private StreamTracer.Factory streamTracerFactory;
 
   /**
    * Constructs using a given handler registry.
@@ -82,6 +86,20 @@ public abstract class AbstractServerBuilder<BuilderT extends AbstractServerBuild
     return (BuilderT) this;
   }
 
+  /**
+   * Provides an {@link AdmissionController} to limit the calls accepted by the server. Rejected
+   * calls fail with {@link Status#RESOURCE_EXHAUSTED}.
+   *
+   * <p>It's an optional parameter. By default every call is accepted.
+   *
+   * @see AdmissionControllers
+   */
+  @SuppressWarnings("unchecked")
+  public final BuilderT admissionController(AdmissionController admissionController) {
+    this.admissionController = Preconditions.checkNotNull(admissionController);
+    return (BuilderT) this;
+  }
+
   /**
    * Adds a service implementation to the handler registry.
    *
@@ -97,6 +115,18 @@ public abstract class AbstractServerBuilder<BuilderT extends AbstractServerBuild
     throw new UnsupportedOperationException("Underlying HandlerRegistry is not mutable");
   }
 
+  /**
+   * Installs a factory of tracers for the transport-level events of the streams of calls, such as
+   * the time messages wait for the executor and the size of messages on the wire.
+   *
+   * <p>It's an optional parameter. Without it, streams are not traced.
+   */
+  @SuppressWarnings("unchecked")
+  public final BuilderT streamTracerFactory(StreamTracer.Factory factory) {
+    this.streamTracerFactory = Preconditions.checkNotNull(factory);
+    return (BuilderT) this;
+  }
+
   /**
    * Builds a server using the given parameters.
    *
@@ -114,7 +144,8 @@ public abstract class AbstractServerBuilder<BuilderT extends AbstractServerBuild
       releaseExecutor = true;
     }
 
-    ServerImpl server = new ServerImpl(executor, registry);
+    ServerImpl server = new ServerImpl(executor, registry, admissionController,
+        streamTracerFactory);
     server.setTransportServer(buildTransportServer(server.serverListener()));
     server.setTerminationRunnable(new Runnable() {
       @Override
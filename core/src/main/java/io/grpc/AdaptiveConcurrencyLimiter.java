@@ -0,0 +1,158 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * An {@link AdmissionController} whose concurrency limit follows the latency of the calls it
+ * admits, using a gradient algorithm.
+ *
+ * <p>The shortest latency observed recently is taken as the latency of an unloaded server. While
+ * calls complete close to it the limit grows; as queueing raises their latency the limit shrinks
+ * in proportion. Calls that are cancelled, usually because the client gave up waiting, back the
+ * limit off further.
+ */
+public final class AdaptiveConcurrencyLimiter implements AdmissionController {
+  /** Weight given to each new limit estimate. */
+  private static final double SMOOTHING = 0.2;
+  /** Limits how much the limit may shrink after a single slow call. */
+  private static final double MIN_GRADIENT = 0.5;
+  private static final double CANCELLED_BACKOFF_RATIO = 0.9;
+  /** Number of samples after which the minimum latency is forgotten, to track slow drift. */
+  private static final int MIN_RTT_WINDOW = 1000;
+
+  private final Ticker ticker;
+  private final int minLimit;
+  private final int maxLimit;
+  @GuardedBy("this")
+  private double limit;
+  @GuardedBy("this")
+  private int inFlight;
+  @GuardedBy("this")
+  private long minRttNanos = Long.MAX_VALUE;
+  @GuardedBy("this")
+  private int samples;
+
+  /**
+   * Creates a limiter.
+   *
+   * @param initialLimit the limit to start with
+   * @param minLimit the limit never goes below this value
+   * @param maxLimit the limit never goes above this value
+   */
+  public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+    this(initialLimit, minLimit, maxLimit, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, Ticker ticker) {
+    Preconditions.checkArgument(minLimit > 0, "minLimit must be positive");
+    Preconditions.checkArgument(minLimit <= initialLimit && initialLimit <= maxLimit,
+        "initialLimit must be between minLimit and maxLimit");
+    this.limit = initialLimit;
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.ticker = Preconditions.checkNotNull(ticker);
+  }
+
+  /**
+   * Returns the current concurrency limit.
+   */
+  public synchronized int getLimit() {
+    return (int) limit;
+  }
+
+  /**
+   * Returns the number of admitted calls that have not yet been released.
+   */
+  public synchronized int getInFlight() {
+    return inFlight;
+  }
+
+  @Override
+  public synchronized Admission tryAdmit(String method) {
+    if (inFlight >= (int) limit) {
+      return null;
+    }
+    inFlight++;
+    final int inFlightAtStart = inFlight;
+    final long startNanos = ticker.read();
+    return new Admission() {
+      @Override
+      public void release(Status status) {
+        AdaptiveConcurrencyLimiter.this.release(
+            ticker.read() - startNanos, inFlightAtStart, status);
+      }
+    };
+  }
+
+  private synchronized void release(long rttNanos, int inFlightAtStart, Status status) {
+    inFlight--;
+    switch (status.getCode()) {
+      case OK:
+        sample(rttNanos, inFlightAtStart);
+        break;
+      case CANCELLED:
+      case DEADLINE_EXCEEDED:
+        limit = Math.max(minLimit, limit * CANCELLED_BACKOFF_RATIO);
+        break;
+      default:
+        // Other failures say nothing about the server's load.
+        break;
+    }
+  }
+
+  @GuardedBy("this")
+  private void sample(long rttNanos, int inFlightAtStart) {
+    rttNanos = Math.max(1, rttNanos);
+    if (++samples > MIN_RTT_WINDOW) {
+      samples = 1;
+      minRttNanos = rttNanos;
+    } else {
+      minRttNanos = Math.min(minRttNanos, rttNanos);
+    }
+    double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, (double) minRttNanos / rttNanos));
+    double newLimit = limit * gradient + Math.sqrt(limit);
+    if (inFlightAtStart * 2 < limit) {
+      // The limit isn't what bounds the concurrency at the moment, so there's no evidence that
+      // the server could handle more.
+      newLimit = Math.min(newLimit, limit);
+    }
+    newLimit = limit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+    limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+  }
+}
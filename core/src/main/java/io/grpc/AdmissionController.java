@@ -0,0 +1,68 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Decides whether a server accepts new calls. {@link ServerImpl} consults it as soon as a stream
+ * is created, before anything is dispatched to the application executor, so that calls exceeding
+ * the server's capacity are rejected cheaply with {@link Status#RESOURCE_EXHAUSTED} instead of
+ * queueing behind the calls already being processed.
+ *
+ * @see AdmissionControllers
+ */
+@ThreadSafe
+public interface AdmissionController {
+  /**
+   * Attempts to admit a new call.
+   *
+   * @param method fully qualified method name of the call, e.g. {@code /package.Service/Method}
+   * @return the admission of the call, which is released when the call closes, or {@code null}
+   *     to reject the call.
+   */
+  @Nullable
+  Admission tryAdmit(String method);
+
+  /**
+   * A call that was admitted by an {@link AdmissionController}.
+   */
+  interface Admission {
+    /**
+     * Called exactly once, when the call has closed.
+     *
+     * @param status the status the call closed with
+     */
+    void release(Status status);
+  }
+}
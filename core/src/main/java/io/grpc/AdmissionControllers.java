@@ -0,0 +1,125 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Utility methods for working with {@link AdmissionController}s.
+ */
+public class AdmissionControllers {
+  private static final AdmissionController.Admission NOOP_ADMISSION =
+      new AdmissionController.Admission() {
+        @Override
+        public void release(Status status) {}
+      };
+
+  private static final AdmissionController UNLIMITED = new AdmissionController() {
+    @Override
+    public Admission tryAdmit(String method) {
+      return NOOP_ADMISSION;
+    }
+  };
+
+  // Prevent instantiation
+  private AdmissionControllers() {}
+
+  /**
+   * Returns an {@link AdmissionController} that admits every call.
+   */
+  public static AdmissionController unlimited() {
+    return UNLIMITED;
+  }
+
+  /**
+   * Create a new {@link AdmissionController} that only admits a call if all of the given
+   * {@code controllers} admit it. They are consulted in order; if one rejects the call, the
+   * admissions already granted by the previous ones are released with
+   * {@link Status#RESOURCE_EXHAUSTED}.
+   *
+   * @param controllers the controllers to combine.
+   * @return the combined controller.
+   */
+  public static AdmissionController allOf(AdmissionController... controllers) {
+    return allOf(Arrays.asList(controllers));
+  }
+
+  /**
+   * Create a new {@link AdmissionController} that only admits a call if all of the given
+   * {@code controllers} admit it.
+   *
+   * @param controllers the controllers to combine.
+   * @return the combined controller.
+   * @see #allOf(AdmissionController...)
+   */
+  public static AdmissionController allOf(List<AdmissionController> controllers) {
+    final List<AdmissionController> immutableControllers = ImmutableList.copyOf(controllers);
+    if (immutableControllers.isEmpty()) {
+      return UNLIMITED;
+    }
+    if (immutableControllers.size() == 1) {
+      return immutableControllers.get(0);
+    }
+    return new AdmissionController() {
+      @Override
+      public Admission tryAdmit(String method) {
+        final List<Admission> admissions = new ArrayList<Admission>(immutableControllers.size());
+        for (AdmissionController controller : immutableControllers) {
+          Admission admission = controller.tryAdmit(method);
+          if (admission == null) {
+            release(admissions, Status.RESOURCE_EXHAUSTED);
+            return null;
+          }
+          admissions.add(admission);
+        }
+        return new Admission() {
+          @Override
+          public void release(Status status) {
+            AdmissionControllers.release(admissions, status);
+          }
+        };
+      }
+    };
+  }
+
+  private static void release(List<AdmissionController.Admission> admissions, Status status) {
+    Preconditions.checkNotNull(status, "status");
+    for (AdmissionController.Admission admission : admissions) {
+      admission.release(status);
+    }
+  }
+}
@@ -0,0 +1,460 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * A {@link ClientInterceptor} that caches the responses of idempotent unary methods. Responses
+ * are cached per method, serialized request and request headers, and calls that hit the cache are
+ * answered without creating a call on the underlying channel. Their callbacks are delivered on the
+ * executor given to the builder, as those of other calls are delivered on the channel's executor.
+ *
+ * <p>By default all request headers are part of the key, so that callers with different
+ * credentials never share responses. Credentials are only part of the key if they are added to the
+ * headers before this interceptor sees the call. {@link Builder#keyHeaders} restricts the key to
+ * the headers that affect the response. Calls with headers that can't be serialized, which are
+ * only sent by proxies, bypass the cache.
+ *
+ * <p>Only successful calls are cached. Calls answered from the cache receive empty headers and
+ * trailers, and the same response instance as the call that populated the cache, so responses
+ * must be immutable, as protobuf messages are.
+ *
+ * <p>The cache is bounded by the memory its entries use, estimated from the serialized size of
+ * their requests and responses. Least recently used entries are evicted first. The budget is
+ * divided between the segments of the cache, so it should be large compared to single entries.
+ */
+public final class CachingInterceptor implements ClientInterceptor {
+  /** Rough per-entry overhead of the cache, the key and the entry themselves. */
+  private static final int ENTRY_OVERHEAD_BYTES = 128;
+
+  private final Map<String, Long> methodTtlNanos;
+  private final Executor executor;
+  /** The headers that are part of the key, or {@code null} for all of them. */
+  @Nullable
+  private final Set<Metadata.Key<?>> keyHeaders;
+  private final Ticker ticker;
+  private final Cache<RequestKey, Entry> cache;
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong evictionCount = new AtomicLong();
+
+  /**
+   * Creates a builder for a cache holding at most {@code maxBytes} of requests and responses.
+   *
+   * @param executor delivers the callbacks of calls answered from the cache. Usually the executor
+   *     of the channel.
+   */
+  public static Builder newBuilder(long maxBytes, Executor executor) {
+    return new Builder(maxBytes, executor);
+  }
+
+  private CachingInterceptor(Builder builder) {
+    this.methodTtlNanos = ImmutableMap.copyOf(builder.methodTtlNanos);
+    this.executor = builder.executor;
+    this.keyHeaders = builder.keyHeaders == null ? null : ImmutableSet.copyOf(builder.keyHeaders);
+    this.ticker = builder.ticker;
+    long maxTtlNanos = 0;
+    for (long ttlNanos : methodTtlNanos.values()) {
+      maxTtlNanos = Math.max(maxTtlNanos, ttlNanos);
+    }
+    this.cache = CacheBuilder.newBuilder()
+        .maximumWeight(builder.maxBytes)
+        .weigher(new Weigher<RequestKey, Entry>() {
+          @Override
+          public int weigh(RequestKey key, Entry entry) {
+            return ENTRY_OVERHEAD_BYTES + key.requestSize() + entry.size;
+          }
+        })
+        // Entries expire individually according to their method's TTL; this only makes sure that
+        // expired entries don't hold on to memory.
+        .expireAfterWrite(maxTtlNanos, TimeUnit.NANOSECONDS)
+        .ticker(ticker)
+        .removalListener(new RemovalListener<RequestKey, Entry>() {
+          @Override
+          public void onRemoval(RemovalNotification<RequestKey, Entry> notification) {
+            if (notification.wasEvicted()) {
+              evictionCount.incrementAndGet();
+            }
+          }
+        })
+        .build();
+  }
+
+  /**
+   * Returns the number of calls answered from the cache.
+   */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /**
+   * Returns the number of calls to cached methods that were not answered from the cache.
+   */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /**
+   * Returns the number of entries removed from the cache because of its memory budget or because
+   * they expired.
+   */
+  public long getEvictionCount() {
+    // Expired entries are only removed lazily.
+    cache.cleanUp();
+    return evictionCount.get();
+  }
+
+  /**
+   * Removes all entries from the cache.
+   */
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  @Override
+  public <ReqT, RespT> Call<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method,
+      Channel next) {
+    Long ttlNanos = methodTtlNanos.get(method.getName());
+    if (ttlNanos == null || method.getType() != MethodType.UNARY) {
+      return next.newCall(method);
+    }
+    return new CachingCall<ReqT, RespT>(method, next, ttlNanos);
+  }
+
+  /**
+   * Builder for {@link CachingInterceptor}.
+   */
+  public static final class Builder {
+    private final long maxBytes;
+    private final Executor executor;
+    private final Map<String, Long> methodTtlNanos = new HashMap<String, Long>();
+    private Set<Metadata.Key<?>> keyHeaders;
+    private Ticker ticker = Ticker.systemTicker();
+
+    private Builder(long maxBytes, Executor executor) {
+      Preconditions.checkArgument(maxBytes > 0, "maxBytes must be positive");
+      this.maxBytes = maxBytes;
+      this.executor = Preconditions.checkNotNull(executor, "executor");
+    }
+
+    /**
+     * Caches the responses of a method. The method must be idempotent and unary.
+     *
+     * @param methodName fully qualified method name, as returned by {@link
+     *     MethodDescriptor#getName()}
+     * @param ttl how long responses are cached
+     */
+    public Builder cacheMethod(String methodName, long ttl, TimeUnit unit) {
+      Preconditions.checkArgument(ttl > 0, "ttl must be positive");
+      methodTtlNanos.put(Preconditions.checkNotNull(methodName), unit.toNanos(ttl));
+      return this;
+    }
+
+    /**
+     * Only makes the given request headers part of the key, instead of all of them. Headers that
+     * vary between calls without affecting the response, such as tracing ids, would otherwise keep
+     * calls from hitting the cache. Headers that affect the response, such as credentials, must
+     * be included.
+     */
+    public Builder keyHeaders(Metadata.Key<?>... keys) {
+      keyHeaders = ImmutableSet.<Metadata.Key<?>>copyOf(Arrays.asList(keys));
+      return this;
+    }
+
+    @VisibleForTesting
+    Builder ticker(Ticker ticker) {
+      this.ticker = Preconditions.checkNotNull(ticker);
+      return this;
+    }
+
+    public CachingInterceptor build() {
+      return new CachingInterceptor(this);
+    }
+  }
+
+  private static int serializedSize(InputStream stream) {
+    try {
+      try {
+        return stream.available();
+      } finally {
+        stream.close();
+      }
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  private static final class Entry {
+    private final Object response;
+    private final int size;
+    private final long expirationNanos;
+
+    Entry(Object response, int size, long expirationNanos) {
+      this.response = response;
+      this.size = size;
+      this.expirationNanos = expirationNanos;
+    }
+  }
+
+  /**
+   * Holds the call until the request is complete, to look it up in the cache. Only on a miss is a
+   * call created on the next channel, and the buffered call replayed on it.
+   */
+  private final class CachingCall<ReqT, RespT> extends Call<ReqT, RespT> {
+    private final MethodDescriptor<ReqT, RespT> method;
+    private final Channel next;
+    private final long ttlNanos;
+    private Listener<RespT> responseListener;
+    private Metadata.Headers headers;
+    private ReqT payload;
+    private boolean hasPayload;
+    // The following are accessed both by the application and by the delivery of callbacks.
+    @GuardedBy("this")
+    private int requested;
+    /** The call on the next channel, on a cache miss. */
+    @GuardedBy("this")
+    private Call<ReqT, RespT> delegate;
+    /** Serializes the callbacks delivered by this call rather than by the delegate. */
+    @GuardedBy("this")
+    private SerializingExecutor callExecutor;
+    /** The response found in the cache, until it is delivered. */
+    @GuardedBy("this")
+    private RespT cachedResponse;
+    @GuardedBy("this")
+    private boolean closed;
+
+    CachingCall(MethodDescriptor<ReqT, RespT> method, Channel next, long ttlNanos) {
+      this.method = method;
+      this.next = next;
+      this.ttlNanos = ttlNanos;
+    }
+
+    @Override
+    public void start(Listener<RespT> responseListener, Metadata.Headers headers) {
+      Preconditions.checkState(this.responseListener == null, "Already started");
+      this.responseListener = Preconditions.checkNotNull(responseListener, "responseListener");
+      this.headers = headers;
+    }
+
+    @Override
+    public void request(int numMessages) {
+      Call<ReqT, RespT> delegate;
+      synchronized (this) {
+        delegate = this.delegate;
+        if (delegate == null) {
+          requested += numMessages;
+          if (cachedResponse != null) {
+            callExecutor().execute(new Runnable() {
+              @Override
+              public void run() {
+                deliverCachedResponse();
+              }
+            });
+          }
+          return;
+        }
+      }
+      delegate.request(numMessages);
+    }
+
+    @Override
+    public void cancel() {
+      Call<ReqT, RespT> delegate;
+      synchronized (this) {
+        delegate = this.delegate;
+        if (delegate == null) {
+          if (responseListener == null || closed) {
+            return;
+          }
+          closed = true;
+          cachedResponse = null;
+          callExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+              responseListener.onClose(Status.CANCELLED, new Metadata.Trailers());
+            }
+          });
+          return;
+        }
+      }
+      delegate.cancel();
+    }
+
+    @Override
+    public void halfClose() {
+      Preconditions.checkState(responseListener != null, "Not started");
+      Preconditions.checkState(hasPayload, "Unary calls need a request");
+      synchronized (this) {
+        if (closed) {
+          return;
+        }
+        RequestKey key = key();
+        Entry entry = key == null ? null : cache.getIfPresent(key);
+        if (entry != null && entry.expirationNanos - ticker.read() <= 0) {
+          cache.invalidate(key);
+          evictionCount.incrementAndGet();
+          entry = null;
+        }
+        if (entry == null) {
+          missCount.incrementAndGet();
+          // Started while holding the lock, so that the application can't use the delegate before.
+          delegate = next.newCall(method);
+          delegate.start(new StoringListener(key), headers);
+          if (requested > 0) {
+            delegate.request(requested);
+          }
+          delegate.sendPayload(payload);
+          payload = null;
+          delegate.halfClose();
+          return;
+        }
+        hitCount.incrementAndGet();
+        @SuppressWarnings("unchecked")
+        RespT response = (RespT) entry.response;
+        cachedResponse = response;
+        payload = null;
+        callExecutor().execute(new Runnable() {
+          @Override
+          public void run() {
+            synchronized (CachingCall.this) {
+              if (closed) {
+                return;
+              }
+            }
+            responseListener.onHeaders(new Metadata.Headers());
+            deliverCachedResponse();
+          }
+        });
+      }
+    }
+
+    /**
+     * Returns the key of the call in the cache, or {@code null} if the call bypasses the cache.
+     */
+    @Nullable
+    private RequestKey key() {
+      if (!headers.isSerializable()) {
+        return null;
+      }
+      Metadata.Headers keyed = headers;
+      if (keyHeaders != null) {
+        keyed = new Metadata.Headers();
+        keyed.merge(headers, keyHeaders);
+      }
+      return RequestKey.of(method, payload, keyed);
+    }
+
+    @GuardedBy("this")
+    private Executor callExecutor() {
+      if (callExecutor == null) {
+        callExecutor = new SerializingExecutor(executor);
+      }
+      return callExecutor;
+    }
+
+    /** Runs on {@link #callExecutor}. */
+    private void deliverCachedResponse() {
+      RespT response;
+      synchronized (this) {
+        if (cachedResponse == null || requested == 0 || closed) {
+          return;
+        }
+        response = cachedResponse;
+        cachedResponse = null;
+        closed = true;
+      }
+      responseListener.onPayload(response);
+      responseListener.onClose(Status.OK, new Metadata.Trailers());
+    }
+
+    @Override
+    public void sendPayload(ReqT payload) {
+      Preconditions.checkState(responseListener != null, "Not started");
+      Preconditions.checkState(!hasPayload, "Unary calls take a single request");
+      this.payload = payload;
+      hasPayload = true;
+    }
+
+    /** Caches the response of a successful call. */
+    private final class StoringListener extends ClientInterceptors.ForwardingListener<RespT> {
+      /** {@code null} if the call bypasses the cache. */
+      @Nullable
+      private final RequestKey key;
+      private RespT response;
+      private int responses;
+
+      StoringListener(RequestKey key) {
+        super(responseListener);
+        this.key = key;
+      }
+
+      @Override
+      public void onPayload(RespT payload) {
+        response = payload;
+        responses++;
+        super.onPayload(payload);
+      }
+
+      @Override
+      public void onClose(Status status, Metadata.Trailers trailers) {
+        if (key != null && status.isOk() && responses == 1) {
+          int size = serializedSize(method.streamResponse(response));
+          cache.put(key, new Entry(response, size, ticker.read() + ttlNanos));
+        }
+        super.onClose(status, trailers);
+      }
+    }
+  }
+}
@@ -38,6 +38,8 @@ import io.grpc.transport.ClientStream;
 import io.grpc.transport.ClientStreamListener;
 import io.grpc.transport.ClientTransport;
 import io.grpc.transport.ClientTransportFactory;
+import io.grpc.transport.RefusedStreamException;
+import io.grpc.transport.StreamTracer;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -45,17 +47,34 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
-/** A communication channel for making outgoing RPCs. */
+/**
+ * A communication channel for making outgoing RPCs.
+ *
+ * <p>Calls with a single request message whose stream the server provably never processed, for
+ * example because the connection went away before the server accepted it, are transparently
+ * replayed on a new transport, as long as their timeout has not elapsed. To do so the channel
+ * holds on to the request message of each such call until the server responds, within the limits
+ * given to {@link #ChannelImpl(ClientTransportFactory, ExecutorService, int, long)}.
+ */
 @ThreadSafe
 public final class ChannelImpl implements Channel {
 
   private static final Logger log = Logger.getLogger(ChannelImpl.class.getName());
 
+  /** Default limit on the size of the message held for retrying one call. */
+  static final int DEFAULT_PER_CALL_RETRY_BUFFER_SIZE = 1 << 20;
+  /** Default limit on the size of the messages held for retrying all calls of a channel. */
+  static final long DEFAULT_RETRY_BUFFER_SIZE = 16L << 20;
+  /** Bounds the retries of a call that keeps being refused. */
+  private static final int MAX_TRANSPARENT_RETRIES = 3;
+
   private static class NoopClientStream implements ClientStream {
     @Override public void writeMessage(InputStream message, int length, Runnable accepted) {}
     @Override public void flush() {}
@@ -66,6 +85,11 @@ public final class ChannelImpl implements Channel {
 
   private final ClientTransportFactory transportFactory;
   private final ExecutorService executor;
+  private final int perCallRetryBufferSize;
+  private final long retryBufferSize;
+  @Nullable
+  private final StreamTracer.Factory streamTracerFactory;
+  private final AtomicLong retryBufferUsed = new AtomicLong();
   /**
    * All transports that are not stopped. At the very least {@link #activeTransport} will be
    * present, but previously used transports that still have streams or are stopping may also be
@@ -83,8 +107,44 @@ public final class ChannelImpl implements Channel {
   private Runnable terminationRunnable;
 
   public ChannelImpl(ClientTransportFactory transportFactory, ExecutorService executor) {
+    this(transportFactory, executor, DEFAULT_PER_CALL_RETRY_BUFFER_SIZE, DEFAULT_RETRY_BUFFER_SIZE);
+  }
+
+  /**
+   * Creates a channel that limits the memory used to buffer calls for transparent retries.
+   *
+   * @param perCallRetryBufferSize the maximum size in bytes of the request message held for
+   *     retrying one call. Calls that send more cannot be retried. {@code 0} disables transparent
+   *     retries.
+   * @param retryBufferSize the maximum size in bytes of the request messages held for all calls
+   */
+  public ChannelImpl(ClientTransportFactory transportFactory, ExecutorService executor,
+      int perCallRetryBufferSize, long retryBufferSize) {
+    this(transportFactory, executor, perCallRetryBufferSize, retryBufferSize, null);
+  }
+
+  /**
+   * Creates a channel that limits the memory used to buffer calls for transparent retries, and
+   * traces the streams of calls.
+   *
+   * @param perCallRetryBufferSize the maximum size in bytes of the request message held for
+   *     retrying one call. Calls that send more cannot be retried. {@code 0} disables transparent
+   *     retries.
+   * @param retryBufferSize the maximum size in bytes of the request messages held for all calls
+   * @param streamTracerFactory creates a tracer for the stream of each attempt of a call, or
+   *     {@code null} to not trace streams
+   */
+  public ChannelImpl(ClientTransportFactory transportFactory, ExecutorService executor,
+      int perCallRetryBufferSize, long retryBufferSize,
+      @Nullable StreamTracer.Factory streamTracerFactory) {
+    Preconditions.checkArgument(perCallRetryBufferSize >= 0,
+        "perCallRetryBufferSize must be non-negative");
+    Preconditions.checkArgument(retryBufferSize >= 0, "retryBufferSize must be non-negative");
     this.transportFactory = transportFactory;
     this.executor = executor;
+    this.perCallRetryBufferSize = perCallRetryBufferSize;
+    this.retryBufferSize = retryBufferSize;
+    this.streamTracerFactory = streamTracerFactory;
   }
 
   /** Hack to allow executors to auto-shutdown. Not for general use. */
@@ -172,6 +232,23 @@ public final class ChannelImpl implements Channel {
     return new CallImpl<ReqT, RespT>(method, new SerializingExecutor(executor));
   }
 
+  /**
+   * Reserves {@code bytes} of the channel's retry buffer.
+   *
+   * @return whether the bytes could be reserved without exceeding the limit
+   */
+  private boolean reserveRetryBuffer(long bytes) {
+    while (true) {
+      long used = retryBufferUsed.get();
+      if (used + bytes > retryBufferSize) {
+        return false;
+      }
+      if (retryBufferUsed.compareAndSet(used, used + bytes)) {
+        return true;
+      }
+    }
+  }
+
   private synchronized ClientTransport obtainActiveTransport() {
     if (shutdown) {
       return null;
@@ -228,7 +305,21 @@ public final class ChannelImpl implements Channel {
     private final MethodDescriptor<ReqT, RespT> method;
     private final SerializingExecutor callExecutor;
     private final boolean unaryRequest;
+    private Listener<RespT> observer;
+    /** The stream of the current attempt, replaced when the call is transparently retried. */
+    @GuardedBy("this")
     private ClientStream stream;
+    /**
+     * What the application has sent on the call, so that it can be replayed if the server refuses
+     * the stream. {@code null} once the call can no longer be retried.
+     */
+    @GuardedBy("this")
+    private RetryBuffer<ReqT> retryBuffer;
+    private long startNanos;
+    @GuardedBy("this")
+    private int retries;
+    @GuardedBy("this")
+    private boolean cancelled;
 
     public CallImpl(MethodDescriptor<ReqT, RespT> method, SerializingExecutor executor) {
       this.method = method;
@@ -238,34 +329,127 @@ public final class ChannelImpl implements Channel {
     }
 
     @Override
-    public void start(Listener<RespT> observer, Metadata.Headers headers) {
+    public synchronized void start(Listener<RespT> observer, Metadata.Headers headers) {
       Preconditions.checkState(stream == null, "Already started");
-      ClientStreamListener listener = new ClientStreamListenerImpl(observer);
-      ClientTransport transport = obtainActiveTransport();
-      if (transport == null) {
-        stream = new NoopClientStream();
-        listener.closed(Status.CANCELLED.withDescription("Channel is shutdown"),
-            new Metadata.Trailers());
-        return;
+      this.observer = Preconditions.checkNotNull(observer);
+      startNanos = System.nanoTime();
+      // Only calls with a single request message are retried, so that streaming calls don't hold
+      // on to their messages. Headers received from a transport can't be copied; they are only
+      // sent by proxies.
+      if (unaryRequest && perCallRetryBufferSize > 0 && headers.isSerializable()) {
+        retryBuffer = new RetryBuffer<ReqT>(headers);
       }
-      try {
-        stream = transport.newStream(method, headers, listener);
-      } catch (IllegalStateException ex) {
-        // We can race with the transport and end up trying to use a terminated transport.
-        // TODO(ejona86): Improve the API to remove the possibility of the race.
-        stream = new NoopClientStream();
-        listener.closed(Status.fromThrowable(ex), new Metadata.Trailers());
-        return;
+      startStream(headers);
+    }
+
+    /**
+     * Creates the stream of a new attempt on the active transport. Never leaves {@link #stream}
+     * {@code null}.
+     */
+    @GuardedBy("this")
+    private void startStream(Metadata.Headers headers) {
+      while (true) {
+        StreamTracer tracer = streamTracerFactory == null
+            ? StreamTracer.NOOP : streamTracerFactory.newStreamTracer(method.getName(), headers);
+        ClientStreamListener listener = new ClientStreamListenerImpl(observer, tracer);
+        ClientTransport transport = obtainActiveTransport();
+        if (transport == null) {
+          stream = new NoopClientStream();
+          listener.closed(Status.CANCELLED.withDescription("Channel is shutdown"),
+              new Metadata.Trailers());
+          return;
+        }
+        try {
+          stream = transport.newStream(method, headers, listener, tracer);
+          return;
+        } catch (RuntimeException ex) {
+          Status status = Status.fromThrowable(ex);
+          // We can race with the transport and end up trying to use a terminated transport, or the
+          // transport may go away before the stream is sent. Either way the server never saw it.
+          // TODO(ejona86): Improve the API to remove the possibility of the race.
+          if (!(ex instanceof IllegalStateException) && !RefusedStreamException.isRefused(status)) {
+            throw ex;
+          }
+          if (retryBuffer != null && consumeRetry()) {
+            headers = retryBuffer.copyHeaders();
+            continue;
+          }
+          stream = new NoopClientStream();
+          listener.closed(status, new Metadata.Trailers());
+          return;
+        }
       }
     }
 
+    @GuardedBy("this")
+    private boolean consumeRetry() {
+      if (retryBuffer == null || cancelled || retries >= MAX_TRANSPARENT_RETRIES) {
+        return false;
+      }
+      // The new attempt does not get a fresh timeout.
+      if (System.nanoTime() - startNanos >= TimeUnit.MICROSECONDS.toNanos(method.getTimeout())) {
+        return false;
+      }
+      retries++;
+      return true;
+    }
+
+    /**
+     * Replays the call on a new stream if {@code status} shows that the server never processed the
+     * current one.
+     *
+     * @return whether the call was replayed
+     */
+    private synchronized boolean retry(Status status) {
+      if (!RefusedStreamException.isRefused(status) || !consumeRetry()) {
+        return false;
+      }
+      RetryBuffer<ReqT> buffer = retryBuffer;
+      startStream(buffer.copyHeaders());
+      if (buffer.requested > 0) {
+        stream.request(buffer.requested);
+      }
+      if (buffer.sent) {
+        // Serialized again only now, so that calls which are never retried don't pay for a copy.
+        InputStream payloadIs = method.streamRequest(buffer.payload);
+        stream.writeMessage(payloadIs, available(payloadIs), null);
+      }
+      if (buffer.halfClosed) {
+        stream.halfClose();
+      } else if (buffer.sent) {
+        stream.flush();
+      }
+      return true;
+    }
+
+    /**
+     * Stops buffering the call for retries, once the server has processed it or the buffer limits
+     * are exceeded.
+     */
+    @GuardedBy("this")
+    private void releaseRetryBuffer() {
+      if (retryBuffer != null) {
+        retryBufferUsed.addAndGet(-retryBuffer.size);
+        retryBuffer = null;
+      }
+    }
+
+    private synchronized void commit() {
+      releaseRetryBuffer();
+    }
+
     @Override
-    public void request(int numMessages) {
+    public synchronized void request(int numMessages) {
       stream.request(numMessages);
+      if (retryBuffer != null) {
+        retryBuffer.requested += numMessages;
+      }
     }
 
     @Override
-    public void cancel() {
+    public synchronized void cancel() {
+      cancelled = true;
+      releaseRetryBuffer();
       // Cancel is called in exception handling cases, so it may be the case that the
       // stream was never successfully created.
       if (stream != null) {
@@ -274,9 +458,12 @@ public final class ChannelImpl implements Channel {
     }
 
     @Override
-    public void halfClose() {
+    public synchronized void halfClose() {
       Preconditions.checkState(stream != null, "Not started");
       stream.halfClose();
+      if (retryBuffer != null) {
+        retryBuffer.halfClosed = true;
+      }
     }
 
     private int available(InputStream is) {
@@ -288,12 +475,16 @@ public final class ChannelImpl implements Channel {
     }
 
     @Override
-    public void sendPayload(ReqT payload) {
+    public synchronized void sendPayload(ReqT payload) {
       Preconditions.checkState(stream != null, "Not started");
       boolean failed = true;
       try {
         InputStream payloadIs = method.streamRequest(payload);
-        stream.writeMessage(payloadIs, available(payloadIs), null);
+        int length = available(payloadIs);
+        if (retryBuffer != null) {
+          holdPayload(payload, length);
+        }
+        stream.writeMessage(payloadIs, length, null);
         failed = false;
       } finally {
         if (failed) {
@@ -308,13 +499,31 @@ public final class ChannelImpl implements Channel {
       }
     }
 
+    /**
+     * Keeps the request message for replaying the call. The message itself is kept rather than its
+     * serialized form, so the application must not modify it after sending it.
+     */
+    @GuardedBy("this")
+    private void holdPayload(ReqT payload, int length) {
+      // A broken application may send more than one message on a unary call.
+      if (retryBuffer.sent || length > perCallRetryBufferSize || !reserveRetryBuffer(length)) {
+        releaseRetryBuffer();
+        return;
+      }
+      retryBuffer.size = length;
+      retryBuffer.payload = payload;
+      retryBuffer.sent = true;
+    }
+
     private class ClientStreamListenerImpl implements ClientStreamListener {
       private final Listener<RespT> observer;
+      private final StreamTracer tracer;
       private boolean closed;
 
-      public ClientStreamListenerImpl(Listener<RespT> observer) {
+      public ClientStreamListenerImpl(Listener<RespT> observer, StreamTracer tracer) {
         Preconditions.checkNotNull(observer);
         this.observer = observer;
+        this.tracer = tracer;
       }
 
       @Override
@@ -327,6 +536,8 @@ public final class ChannelImpl implements Channel {
                 return;
               }
 
+              // The server has seen the call, so it can't be retried anymore.
+              commit();
               observer.onHeaders(headers);
             } catch (Throwable t) {
               cancel();
@@ -346,6 +557,7 @@ public final class ChannelImpl implements Channel {
                 return;
               }
 
+              tracer.inboundMessageDispatched();
               try {
                 observer.onPayload(method.parseResponse(message));
               } finally {
@@ -364,11 +576,41 @@ public final class ChannelImpl implements Channel {
         callExecutor.execute(new Runnable() {
           @Override
           public void run() {
+            if (retry(status)) {
+              // A new attempt has taken over the call's listener.
+              return;
+            }
             closed = true;
+            commit();
             observer.onClose(status, trailers);
           }
         });
       }
     }
   }
+
+  /** The state needed to replay a call. */
+  private static final class RetryBuffer<ReqT> {
+    private final Metadata.Headers headers;
+    private ReqT payload;
+    private boolean sent;
+    private long size;
+    private int requested;
+    private boolean halfClosed;
+
+    RetryBuffer(Metadata.Headers headers) {
+      // Copied, since transports may modify the headers of the first attempt.
+      this.headers = copy(headers);
+    }
+
+    Metadata.Headers copyHeaders() {
+      return copy(headers);
+    }
+
+    private static Metadata.Headers copy(Metadata.Headers headers) {
+      Metadata.Headers copy = new Metadata.Headers();
+      copy.merge(headers);
+      return copy;
+    }
+  }
 }
@@ -0,0 +1,383 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * A {@link ClientInterceptor} that coalesces identical concurrent calls of idempotent unary
+ * methods. Calls with the same method, serialized request and headers that are started while such
+ * a call is in flight share its underlying call, and all receive its response. This keeps a burst
+ * of identical requests, such as the one following the expiration of a popular cache entry, from
+ * reaching the server more than once.
+ *
+ * <p>A call can join an in-flight call until that call receives its response headers. Cancelling
+ * a call only cancels the underlying call once all the calls sharing it are cancelled.
+ *
+ * <p>The callbacks of coalesced calls are delivered on the executor given to the constructor, as
+ * those of other calls are delivered on the channel's executor. A slow listener therefore doesn't
+ * hold up the other calls sharing its underlying call.
+ */
+public final class CoalescingInterceptor implements ClientInterceptor {
+  private final Set<String> methods;
+  private final Executor executor;
+  @GuardedBy("this")
+  private final Map<RequestKey, Flight<?, ?>> flights = new HashMap<RequestKey, Flight<?, ?>>();
+  private final AtomicLong coalescedCount = new AtomicLong();
+
+  /**
+   * Creates an interceptor that coalesces calls of the given methods.
+   *
+   * @param executor delivers the callbacks of coalesced calls. Usually the executor of the channel.
+   * @param methodNames fully qualified names of idempotent unary methods, as returned by {@link
+   *     MethodDescriptor#getName()}
+   */
+  public CoalescingInterceptor(Executor executor, String... methodNames) {
+    this(executor, Arrays.asList(methodNames));
+  }
+
+  /**
+   * Creates an interceptor that coalesces calls of the given methods.
+   *
+   * @param executor delivers the callbacks of coalesced calls. Usually the executor of the channel.
+   * @param methodNames fully qualified names of idempotent unary methods, as returned by {@link
+   *     MethodDescriptor#getName()}
+   */
+  public CoalescingInterceptor(Executor executor, Collection<String> methodNames) {
+    this.executor = Preconditions.checkNotNull(executor, "executor");
+    this.methods = ImmutableSet.copyOf(methodNames);
+  }
+
+  /**
+   * Returns the number of calls that were served by another call's underlying call.
+   */
+  public long getCoalescedCount() {
+    return coalescedCount.get();
+  }
+
+  @Override
+  public <ReqT, RespT> Call<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method,
+      Channel next) {
+    if (method.getType() != MethodType.UNARY || !methods.contains(method.getName())) {
+      return next.newCall(method);
+    }
+    return new CoalescingCall<ReqT, RespT>(method, next);
+  }
+
+  /**
+   * An underlying call, and the calls waiting for its response.
+   */
+  private final class Flight<ReqT, RespT> extends Call.Listener<RespT> {
+    private final RequestKey key;
+    @GuardedBy("CoalescingInterceptor.this")
+    private final List<CoalescingCall<ReqT, RespT>> calls =
+        new ArrayList<CoalescingCall<ReqT, RespT>>();
+    @GuardedBy("CoalescingInterceptor.this")
+    private Call<ReqT, RespT> call;
+    @GuardedBy("CoalescingInterceptor.this")
+    private boolean cancelled;
+
+    Flight(RequestKey key) {
+      this.key = key;
+    }
+
+    /** Stops other calls from joining the flight, and returns the calls waiting for it. */
+    private List<CoalescingCall<ReqT, RespT>> close() {
+      synchronized (CoalescingInterceptor.this) {
+        if (flights.get(key) == this) {
+          flights.remove(key);
+        }
+        return new ArrayList<CoalescingCall<ReqT, RespT>>(calls);
+      }
+    }
+
+    private List<CoalescingCall<ReqT, RespT>> calls() {
+      synchronized (CoalescingInterceptor.this) {
+        return new ArrayList<CoalescingCall<ReqT, RespT>>(calls);
+      }
+    }
+
+    @Override
+    public void onHeaders(Metadata.Headers headers) {
+      for (CoalescingCall<ReqT, RespT> call : close()) {
+        call.deliverHeaders(headers);
+      }
+    }
+
+    @Override
+    public void onPayload(RespT payload) {
+      for (CoalescingCall<ReqT, RespT> call : calls()) {
+        call.deliverPayload(payload);
+      }
+    }
+
+    @Override
+    public void onClose(Status status, Metadata.Trailers trailers) {
+      for (CoalescingCall<ReqT, RespT> call : close()) {
+        call.deliverClose(status, trailers);
+      }
+    }
+  }
+
+  /**
+   * Holds the call until the request is complete, and then joins the in-flight call for the same
+   * request, or starts one.
+   */
+  private final class CoalescingCall<ReqT, RespT> extends Call<ReqT, RespT> {
+    private final MethodDescriptor<ReqT, RespT> method;
+    private final Channel next;
+    /**
+     * Serializes the callbacks of this call. They are scheduled while holding the lock, so that
+     * they are delivered in order, but run without it.
+     */
+    private final SerializingExecutor callExecutor = new SerializingExecutor(executor);
+    private Listener<RespT> responseListener;
+    private Metadata.Headers headers;
+    private ReqT payload;
+    private boolean hasPayload;
+    private Flight<ReqT, RespT> flight;
+    // The following are accessed both by the application and by the flight's callbacks.
+    @GuardedBy("this")
+    private int requested;
+    @GuardedBy("this")
+    private RespT pendingPayload;
+    @GuardedBy("this")
+    private boolean hasPendingPayload;
+    @GuardedBy("this")
+    private Status pendingStatus;
+    @GuardedBy("this")
+    private Metadata.Trailers pendingTrailers;
+    @GuardedBy("this")
+    private boolean closed;
+
+    CoalescingCall(MethodDescriptor<ReqT, RespT> method, Channel next) {
+      this.method = method;
+      this.next = next;
+    }
+
+    @Override
+    public void start(Listener<RespT> responseListener, Metadata.Headers headers) {
+      Preconditions.checkState(this.responseListener == null, "Already started");
+      this.responseListener = Preconditions.checkNotNull(responseListener, "responseListener");
+      this.headers = headers;
+    }
+
+    @Override
+    public void sendPayload(ReqT payload) {
+      Preconditions.checkState(responseListener != null, "Not started");
+      Preconditions.checkState(!hasPayload, "Unary calls take a single request");
+      this.payload = payload;
+      hasPayload = true;
+    }
+
+    @Override
+    public void halfClose() {
+      Preconditions.checkState(responseListener != null, "Not started");
+      Preconditions.checkState(hasPayload, "Unary calls need a request");
+      synchronized (this) {
+        if (closed) {
+          return;
+        }
+      }
+      if (!headers.isSerializable()) {
+        // Headers received from a transport can't be compared; they are only sent by proxies.
+        flight = new Flight<ReqT, RespT>(null);
+        synchronized (CoalescingInterceptor.this) {
+          flight.calls.add(this);
+        }
+        startFlight();
+        return;
+      }
+      RequestKey key = RequestKey.of(method, payload, headers);
+      boolean leader = false;
+      synchronized (CoalescingInterceptor.this) {
+        @SuppressWarnings("unchecked")
+        Flight<ReqT, RespT> existing = (Flight<ReqT, RespT>) flights.get(key);
+        if (existing == null) {
+          existing = new Flight<ReqT, RespT>(key);
+          flights.put(key, existing);
+          leader = true;
+        }
+        flight = existing;
+        flight.calls.add(this);
+      }
+      if (leader) {
+        startFlight();
+      } else {
+        coalescedCount.incrementAndGet();
+        payload = null;
+      }
+    }
+
+    /** Starts the underlying call of the flight this call leads. */
+    private void startFlight() {
+      Call<ReqT, RespT> call = next.newCall(method);
+      boolean cancelled;
+      synchronized (CoalescingInterceptor.this) {
+        flight.call = call;
+        cancelled = flight.cancelled;
+      }
+      call.start(flight, headers);
+      // A unary call has a single response, which is delivered to each call once it requests it.
+      call.request(1);
+      call.sendPayload(payload);
+      payload = null;
+      call.halfClose();
+      if (cancelled) {
+        call.cancel();
+      }
+    }
+
+    @Override
+    public void request(int numMessages) {
+      synchronized (this) {
+        requested += numMessages;
+        deliverPending();
+      }
+    }
+
+    @Override
+    public void cancel() {
+      Call<ReqT, RespT> underlyingCall = null;
+      if (flight != null) {
+        synchronized (CoalescingInterceptor.this) {
+          if (flight.calls.remove(this) && flight.calls.isEmpty()) {
+            flight.cancelled = true;
+            if (flight.key != null && flights.get(flight.key) == flight) {
+              flights.remove(flight.key);
+            }
+            underlyingCall = flight.call;
+          }
+        }
+      }
+      if (underlyingCall != null) {
+        underlyingCall.cancel();
+      }
+      synchronized (this) {
+        if (responseListener != null && !closed) {
+          closed = true;
+          callExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+              responseListener.onClose(Status.CANCELLED, new Metadata.Trailers());
+            }
+          });
+        }
+      }
+    }
+
+    private synchronized void deliverHeaders(final Metadata.Headers headers) {
+      if (!closed) {
+        callExecutor.execute(new Runnable() {
+          @Override
+          public void run() {
+            responseListener.onHeaders(headers);
+          }
+        });
+      }
+    }
+
+    private synchronized void deliverPayload(RespT payload) {
+      if (closed) {
+        return;
+      }
+      if (requested > 0) {
+        requested--;
+        schedulePayload(payload);
+      } else {
+        pendingPayload = payload;
+        hasPendingPayload = true;
+      }
+    }
+
+    private synchronized void deliverClose(Status status, Metadata.Trailers trailers) {
+      if (closed) {
+        return;
+      }
+      pendingStatus = status;
+      pendingTrailers = trailers;
+      deliverPending();
+    }
+
+    @GuardedBy("this")
+    private void deliverPending() {
+      if (closed) {
+        return;
+      }
+      if (hasPendingPayload) {
+        if (requested == 0) {
+          return;
+        }
+        requested--;
+        RespT payload = pendingPayload;
+        pendingPayload = null;
+        hasPendingPayload = false;
+        schedulePayload(payload);
+      }
+      if (pendingStatus != null) {
+        closed = true;
+        final Status status = pendingStatus;
+        final Metadata.Trailers trailers = pendingTrailers;
+        callExecutor.execute(new Runnable() {
+          @Override
+          public void run() {
+            responseListener.onClose(status, trailers);
+          }
+        });
+      }
+    }
+
+    /** Schedules the delivery of {@code payload}. */
+    @GuardedBy("this")
+    private void schedulePayload(final RespT payload) {
+      callExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          responseListener.onPayload(payload);
+        }
+      });
+    }
+  }
+}
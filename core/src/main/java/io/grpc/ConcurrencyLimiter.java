@@ -0,0 +1,108 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An {@link AdmissionController} with static limits on the number of concurrent calls. Methods
+ * can be given their own limit; calls to all other methods share a default limit.
+ */
+public final class ConcurrencyLimiter implements AdmissionController {
+  private final Limit defaultLimit;
+  private final Map<String, Limit> methodLimits;
+
+  /**
+   * Creates a limiter allowing at most {@code limit} concurrent calls in total.
+   */
+  public ConcurrencyLimiter(int limit) {
+    this(limit, Collections.<String, Integer>emptyMap());
+  }
+
+  /**
+   * Creates a limiter with per-method limits.
+   *
+   * @param defaultLimit the maximum number of concurrent calls, in total, to methods not in
+   *     {@code methodLimits}
+   * @param methodLimits the maximum number of concurrent calls to each method, keyed by fully
+   *     qualified method name, e.g. {@code /package.Service/Method}
+   */
+  public ConcurrencyLimiter(int defaultLimit, Map<String, Integer> methodLimits) {
+    this.defaultLimit = new Limit(defaultLimit);
+    ImmutableMap.Builder<String, Limit> builder = ImmutableMap.builder();
+    for (Map.Entry<String, Integer> entry : methodLimits.entrySet()) {
+      builder.put(entry.getKey(), new Limit(entry.getValue()));
+    }
+    this.methodLimits = builder.build();
+  }
+
+  @Override
+  public Admission tryAdmit(String method) {
+    Limit limit = methodLimits.get(method);
+    if (limit == null) {
+      limit = defaultLimit;
+    }
+    return limit.tryAcquire() ? limit : null;
+  }
+
+  private static final class Limit implements Admission {
+    private final int max;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    Limit(int max) {
+      Preconditions.checkArgument(max > 0, "limit must be positive");
+      this.max = max;
+    }
+
+    boolean tryAcquire() {
+      while (true) {
+        int current = inFlight.get();
+        if (current >= max) {
+          return false;
+        }
+        if (inFlight.compareAndSet(current, current + 1)) {
+          return true;
+        }
+      }
+    }
+
+    @Override
+    public void release(Status status) {
+      inFlight.decrementAndGet();
+    }
+  }
+}
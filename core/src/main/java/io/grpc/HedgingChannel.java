@@ -0,0 +1,466 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * A {@link Channel} that hedges idempotent unary calls: if a call has not received a response
+ * after a delay, a second copy of it is sent, and whichever copy responds first is used. The other
+ * copy is cancelled.
+ *
+ * <p>Hedges are paid for from a token bucket that is refilled by a fraction of a token with every
+ * call, so hedging can only amplify the load on the servers by that fraction, plus a small burst.
+ *
+ * <p>Hedging needs to create several calls for one call of the application, so it is implemented
+ * as a channel rather than as a {@link ClientInterceptor}. Interceptors can be applied either
+ * around it, to see each call once, or below it, to see every copy:
+ * <pre><code>Channel channel = ClientInterceptors.intercept(
+ *     HedgingChannel.newBuilder(ClientInterceptors.intercept(channelImpl, perAttempt), scheduler)
+ *         .hedgeMethods("package.Service/Lookup")
+ *         .percentileDelay(95, 10, TimeUnit.MILLISECONDS)
+ *         .build(),
+ *     perCall);</code></pre>
+ */
+public final class HedgingChannel implements Channel {
+  private final Channel channel;
+  private final ScheduledExecutorService scheduler;
+  private final Set<String> hedgedMethods;
+  private final HedgeDelay hedgeDelay;
+  private final Budget budget;
+  private final Ticker ticker;
+
+  /**
+   * Creates a builder for a channel that hedges the calls it makes on {@code channel}.
+   *
+   * @param channel the channel the calls and their hedges are made on
+   * @param scheduler used to send hedges once their delay elapses. The channel doesn't take
+   *     ownership of it.
+   */
+  public static Builder newBuilder(Channel channel, ScheduledExecutorService scheduler) {
+    return new Builder(channel, scheduler);
+  }
+
+  private HedgingChannel(Builder builder) {
+    this.channel = builder.channel;
+    this.scheduler = builder.scheduler;
+    this.hedgedMethods = ImmutableSet.copyOf(builder.hedgedMethods);
+    this.hedgeDelay = builder.hedgeDelay;
+    this.budget = new Budget(builder.maxTokens, builder.tokenRatio);
+    this.ticker = builder.ticker;
+  }
+
+  @Override
+  public <ReqT, RespT> Call<ReqT, RespT> newCall(MethodDescriptor<ReqT, RespT> method) {
+    if (method.getType() != MethodType.UNARY || !hedgedMethods.contains(method.getName())) {
+      return channel.newCall(method);
+    }
+    return new HedgingCall<ReqT, RespT>(method);
+  }
+
+  /**
+   * Builder for {@link HedgingChannel}.
+   */
+  public static final class Builder {
+    private final Channel channel;
+    private final ScheduledExecutorService scheduler;
+    private final Set<String> hedgedMethods = new HashSet<String>();
+    private HedgeDelay hedgeDelay = new FixedDelay(TimeUnit.MILLISECONDS.toNanos(100));
+    private int maxTokens = 10;
+    private double tokenRatio = 0.1;
+    private Ticker ticker = Ticker.systemTicker();
+
+    private Builder(Channel channel, ScheduledExecutorService scheduler) {
+      this.channel = Preconditions.checkNotNull(channel, "channel");
+      this.scheduler = Preconditions.checkNotNull(scheduler, "scheduler");
+    }
+
+    /**
+     * Adds methods to hedge. Only unary methods are hedged, and they must be idempotent, since the
+     * server may execute both copies of a call.
+     *
+     * @param methodNames fully qualified method names, as returned by {@link
+     *     MethodDescriptor#getName()}
+     */
+    public Builder hedgeMethods(String... methodNames) {
+      hedgedMethods.addAll(Arrays.asList(methodNames));
+      return this;
+    }
+
+    /**
+     * Sends hedges after a fixed delay. This is the default, with a delay of 100 milliseconds.
+     */
+    public Builder fixedDelay(long delay, TimeUnit unit) {
+      Preconditions.checkArgument(delay >= 0, "delay must be non-negative");
+      hedgeDelay = new FixedDelay(unit.toNanos(delay));
+      return this;
+    }
+
+    /**
+     * Sends hedges once a call has taken longer than the given percentile of the latencies of
+     * recent calls, e.g. {@code 95}.
+     *
+     * @param percentile the percentile of recent latencies to wait for, in (0, 100]
+     * @param initialDelay the delay to use until enough latencies have been observed
+     */
+    public Builder percentileDelay(double percentile, long initialDelay, TimeUnit unit) {
+      Preconditions.checkArgument(percentile > 0 && percentile <= 100,
+          "percentile must be in (0, 100]");
+      Preconditions.checkArgument(initialDelay >= 0, "initialDelay must be non-negative");
+      hedgeDelay = new PercentileDelay(percentile, unit.toNanos(initialDelay));
+      return this;
+    }
+
+    /**
+     * Sets the hedging budget. Every call adds {@code tokenRatio} tokens to a bucket holding at
+     * most {@code maxTokens}, and every hedge takes one token from it; hedges are not sent while
+     * the bucket is empty. The defaults are 10 tokens and a ratio of 0.1, which allow hedging at
+     * most 10% of the calls in the long term.
+     */
+    public Builder budget(int maxTokens, double tokenRatio) {
+      Preconditions.checkArgument(maxTokens > 0, "maxTokens must be positive");
+      Preconditions.checkArgument(tokenRatio >= 0 && tokenRatio <= 1,
+          "tokenRatio must be in [0, 1]");
+      this.maxTokens = maxTokens;
+      this.tokenRatio = tokenRatio;
+      return this;
+    }
+
+    @VisibleForTesting
+    Builder ticker(Ticker ticker) {
+      this.ticker = Preconditions.checkNotNull(ticker);
+      return this;
+    }
+
+    public HedgingChannel build() {
+      return new HedgingChannel(this);
+    }
+  }
+
+  /** Token bucket limiting the number of hedges. */
+  @VisibleForTesting
+  static final class Budget {
+    private final int maxTokens;
+    private final double tokenRatio;
+    @GuardedBy("this")
+    private double tokens;
+
+    Budget(int maxTokens, double tokenRatio) {
+      this.maxTokens = maxTokens;
+      this.tokenRatio = tokenRatio;
+      this.tokens = maxTokens;
+    }
+
+    synchronized void onCall() {
+      tokens = Math.min(maxTokens, tokens + tokenRatio);
+    }
+
+    synchronized boolean tryAcquire() {
+      if (tokens < 1) {
+        return false;
+      }
+      tokens--;
+      return true;
+    }
+  }
+
+  private interface HedgeDelay {
+    long delayNanos();
+
+    void recordLatency(long latencyNanos);
+  }
+
+  private static final class FixedDelay implements HedgeDelay {
+    private final long delayNanos;
+
+    FixedDelay(long delayNanos) {
+      this.delayNanos = delayNanos;
+    }
+
+    @Override
+    public long delayNanos() {
+      return delayNanos;
+    }
+
+    @Override
+    public void recordLatency(long latencyNanos) {}
+  }
+
+  /**
+   * Tracks a percentile over a window of recent latencies. The percentile is recomputed
+   * periodically rather than on every call, to keep recording cheap.
+   */
+  private static final class PercentileDelay implements HedgeDelay {
+    private static final int WINDOW = 1024;
+    private static final int MIN_SAMPLES = 100;
+    private static final int RECOMPUTE_INTERVAL = 64;
+
+    private final double percentile;
+    @GuardedBy("this")
+    private final long[] latencies = new long[WINDOW];
+    @GuardedBy("this")
+    private long count;
+    private volatile long delayNanos;
+
+    PercentileDelay(double percentile, long initialDelayNanos) {
+      this.percentile = percentile;
+      this.delayNanos = initialDelayNanos;
+    }
+
+    @Override
+    public long delayNanos() {
+      return delayNanos;
+    }
+
+    @Override
+    public synchronized void recordLatency(long latencyNanos) {
+      latencies[(int) (count % WINDOW)] = latencyNanos;
+      count++;
+      if (count >= MIN_SAMPLES && count % RECOMPUTE_INTERVAL == 0) {
+        long[] sorted = Arrays.copyOf(latencies, (int) Math.min(count, WINDOW));
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        delayNanos = sorted[Math.max(0, index)];
+      }
+    }
+  }
+
+  /**
+   * The call returned to the application. It forwards to the original call, and once the hedge
+   * delay elapses after the request was sent, also to the hedge.
+   */
+  private final class HedgingCall<ReqT, RespT> extends Call<ReqT, RespT> {
+    private final MethodDescriptor<ReqT, RespT> method;
+    private final Object lock = new Object();
+    private Listener<RespT> responseListener;
+    /** Copy of the headers for the hedge, since transports may modify the original's. */
+    private Metadata.Headers hedgeHeaders;
+    private ReqT payload;
+    private long startNanos;
+    @GuardedBy("lock")
+    private final List<Attempt> attempts = new ArrayList<Attempt>(2);
+    @GuardedBy("lock")
+    private int requested;
+    @GuardedBy("lock")
+    private Attempt committed;
+    @GuardedBy("lock")
+    private boolean cancelled;
+    @GuardedBy("lock")
+    private ScheduledFuture<?> hedgeFuture;
+
+    HedgingCall(MethodDescriptor<ReqT, RespT> method) {
+      this.method = method;
+    }
+
+    @Override
+    public void start(Listener<RespT> responseListener, Metadata.Headers headers) {
+      Preconditions.checkState(this.responseListener == null, "Already started");
+      this.responseListener = Preconditions.checkNotNull(responseListener, "responseListener");
+      hedgeHeaders = new Metadata.Headers();
+      hedgeHeaders.merge(headers);
+      startNanos = ticker.read();
+      budget.onCall();
+      Attempt attempt = new Attempt(channel.newCall(method));
+      synchronized (lock) {
+        attempts.add(attempt);
+        attempt.call.start(attempt, headers);
+      }
+    }
+
+    @Override
+    public void request(int numMessages) {
+      synchronized (lock) {
+        requested += numMessages;
+        for (Attempt attempt : attempts) {
+          attempt.call.request(numMessages);
+        }
+      }
+    }
+
+    @Override
+    public void cancel() {
+      synchronized (lock) {
+        cancelled = true;
+        cancelHedge();
+        for (Attempt attempt : attempts) {
+          attempt.call.cancel();
+        }
+      }
+    }
+
+    @Override
+    public void halfClose() {
+      synchronized (lock) {
+        Preconditions.checkState(!attempts.isEmpty(), "Not started");
+        attempts.get(0).call.halfClose();
+        if (committed == null && !cancelled) {
+          hedgeFuture = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+              sendHedge();
+            }
+          }, hedgeDelay.delayNanos(), TimeUnit.NANOSECONDS);
+        }
+      }
+    }
+
+    @Override
+    public void sendPayload(ReqT payload) {
+      synchronized (lock) {
+        Preconditions.checkState(!attempts.isEmpty(), "Not started");
+        this.payload = payload;
+        attempts.get(0).call.sendPayload(payload);
+      }
+    }
+
+    private void sendHedge() {
+      synchronized (lock) {
+        hedgeFuture = null;
+        if (committed != null || cancelled || !budget.tryAcquire()) {
+          return;
+        }
+        Attempt hedge = new Attempt(channel.newCall(method));
+        attempts.add(hedge);
+        hedge.call.start(hedge, hedgeHeaders);
+        if (requested > 0) {
+          hedge.call.request(requested);
+        }
+        hedge.call.sendPayload(payload);
+        hedge.call.halfClose();
+      }
+    }
+
+    @GuardedBy("lock")
+    private void cancelHedge() {
+      if (hedgeFuture != null) {
+        hedgeFuture.cancel(false);
+        hedgeFuture = null;
+      }
+    }
+
+    /**
+     * Makes {@code attempt} the one whose response is delivered to the application, unless another
+     * attempt already is, and cancels the others.
+     *
+     * @return whether {@code attempt} is the committed attempt
+     */
+    @GuardedBy("lock")
+    private boolean commit(Attempt attempt) {
+      if (committed == null) {
+        committed = attempt;
+        cancelHedge();
+        for (Attempt other : attempts) {
+          if (other != attempt) {
+            other.call.cancel();
+          }
+        }
+      }
+      return committed == attempt;
+    }
+
+    private boolean tryCommit(Attempt attempt) {
+      synchronized (lock) {
+        return commit(attempt);
+      }
+    }
+
+    /**
+     * Called when {@code attempt} closes. A failed attempt is ignored if another attempt may still
+     * succeed.
+     */
+    private boolean tryCommitOnClose(Attempt attempt, Status status) {
+      synchronized (lock) {
+        attempt.closed = true;
+        if (committed == null && !status.isOk()) {
+          for (Attempt other : attempts) {
+            if (!other.closed) {
+              return false;
+            }
+          }
+        }
+        return commit(attempt);
+      }
+    }
+
+    private final class Attempt extends Call.Listener<RespT> {
+      private final Call<ReqT, RespT> call;
+      @GuardedBy("lock")
+      private boolean closed;
+
+      Attempt(Call<ReqT, RespT> call) {
+        this.call = call;
+      }
+
+      @Override
+      public void onHeaders(Metadata.Headers headers) {
+        if (tryCommit(this)) {
+          responseListener.onHeaders(headers);
+        }
+      }
+
+      @Override
+      public void onPayload(RespT payload) {
+        if (tryCommit(this)) {
+          responseListener.onPayload(payload);
+        }
+      }
+
+      @Override
+      public void onClose(Status status, Metadata.Trailers trailers) {
+        if (tryCommitOnClose(this, status)) {
+          if (status.isOk()) {
+            // Always record the latency of the primary attempt, from the start of the call. If a
+            // hedge won, the primary had not responded yet, so the time until now is a lower bound
+            // for it. Recording the hedge's own, shorter latency instead would lower the delay and
+            // cause ever more hedging.
+            hedgeDelay.recordLatency(ticker.read() - startNanos);
+          }
+          responseListener.onClose(status, trailers);
+        }
+      }
+    }
+  }
+}
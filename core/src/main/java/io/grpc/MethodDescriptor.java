@@ -115,6 +115,16 @@ public class MethodDescriptor<RequestT, ResponseT> {
     return requestMarshaller.stream(requestMessage);
   }
 
+  /**
+   * Convert a response message to an {@link InputStream}.
+   *
+   * @param response to serialize using the response {@link io.grpc.Marshaller}.
+   * @return serialized response message.
+   */
+  public InputStream streamResponse(ResponseT response) {
+    return responseMarshaller.stream(response);
+  }
+
   /**
    * Create a new descriptor with a different timeout.
    *
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * The metrics recorded by a {@link MetricsInterceptor} for one method. Recording is wait-free:
+ * counters are atomics and distributions are recorded into HdrHistogram {@link Recorder}s, which
+ * are only locked by the reader. Each snapshot folds the values recorded since the previous one
+ * into cumulative histograms.
+ */
+@ThreadSafe
+final class MethodMetrics {
+  /** Significant digits kept by the histograms, giving a relative error of 0.1%. */
+  private static final int SIGNIFICANT_DIGITS = 3;
+
+  private final String method;
+  private final AtomicLong callsStarted = new AtomicLong();
+  private final AtomicLongArray statusCounts = new AtomicLongArray(Status.Code.values().length);
+  private final AtomicLong messagesSent = new AtomicLong();
+  private final AtomicLong messagesReceived = new AtomicLong();
+  private final AtomicLong bytesSent = new AtomicLong();
+  private final AtomicLong bytesReceived = new AtomicLong();
+  private final Distribution latencyMicros = new Distribution();
+  private final Distribution sentMessageSizes = new Distribution();
+  private final Distribution receivedMessageSizes = new Distribution();
+
+  MethodMetrics(String method) {
+    this.method = method;
+  }
+
+  void callStarted() {
+    callsStarted.incrementAndGet();
+  }
+
+  void callFinished(Status status, long latencyNanos) {
+    statusCounts.incrementAndGet(status.getCode().ordinal());
+    latencyMicros.recorder.recordValue(Math.max(0, latencyNanos / 1000));
+  }
+
+  /**
+   * Records a sent message.
+   *
+   * @param size serialized size of the message, or {@code -1} if it is not known
+   */
+  void messageSent(int size) {
+    messagesSent.incrementAndGet();
+    if (size >= 0) {
+      bytesSent.addAndGet(size);
+      sentMessageSizes.recorder.recordValue(size);
+    }
+  }
+
+  /**
+   * Records a received message.
+   *
+   * @param size serialized size of the message, or {@code -1} if it is not known
+   */
+  void messageReceived(int size) {
+    messagesReceived.incrementAndGet();
+    if (size >= 0) {
+      bytesReceived.addAndGet(size);
+      receivedMessageSizes.recorder.recordValue(size);
+    }
+  }
+
+  synchronized MethodMetricsSnapshot snapshot() {
+    // Read the histograms before the counters, so that a snapshot never has more latencies than
+    // finished calls.
+    Histogram latencies = latencyMicros.accumulate();
+    Histogram sentSizes = sentMessageSizes.accumulate();
+    Histogram receivedSizes = receivedMessageSizes.accumulate();
+    long[] statuses = new long[statusCounts.length()];
+    for (int i = 0; i < statuses.length; i++) {
+      statuses[i] = statusCounts.get(i);
+    }
+    return new MethodMetricsSnapshot(method, callsStarted.get(), statuses, messagesSent.get(),
+        messagesReceived.get(), bytesSent.get(), bytesReceived.get(), latencies, sentSizes,
+        receivedSizes);
+  }
+
+  /** A distribution of values, recorded since creation. */
+  private static final class Distribution {
+    final Recorder recorder = new Recorder(SIGNIFICANT_DIGITS);
+    @GuardedBy("this")
+    private final Histogram total = new Histogram(SIGNIFICANT_DIGITS);
+    /** Recycled for reading the interval histograms of the recorder. */
+    @GuardedBy("this")
+    private Histogram interval;
+
+    /** Folds the values recorded since the last call into the total and returns a copy of it. */
+    synchronized Histogram accumulate() {
+      interval = recorder.getIntervalHistogram(interval);
+      total.add(interval);
+      return total.copy();
+    }
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc;
+
+import com.google.common.collect.ImmutableMap;
+
+import org.HdrHistogram.Histogram;
+
+import java.util.Map;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * The metrics of a method, as recorded by a {@link MetricsInterceptor} up to the time of the
+ * snapshot. Counts and histograms are cumulative since the interceptor was created.
+ *
+ * <p>Message sizes are only known for messages that are protobufs; other messages are counted but
+ * don't add to the byte counts or the size histograms.
+ */
+@Immutable
+public final class MethodMetricsSnapshot {
+  private static final double[] REPORTED_PERCENTILES = {50, 90, 99, 99.9};
+
+  private final String method;
+  private final long callsStarted;
+  private final long[] statusCounts;
+  private final long messagesSent;
+  private final long messagesReceived;
+  private final long bytesSent;
+  private final long bytesReceived;
+  private final Histogram latencyMicros;
+  private final Histogram sentMessageSizes;
+  private final Histogram receivedMessageSizes;
+
+  MethodMetricsSnapshot(String method, long callsStarted, long[] statusCounts, long messagesSent,
+      long messagesReceived, long bytesSent, long bytesReceived, Histogram latencyMicros,
+      Histogram sentMessageSizes, Histogram receivedMessageSizes) {
+    this.method = method;
+    this.callsStarted = callsStarted;
+    this.statusCounts = statusCounts;
+    this.messagesSent = messagesSent;
+    this.messagesReceived = messagesReceived;
+    this.bytesSent = bytesSent;
+    this.bytesReceived = bytesReceived;
+    this.latencyMicros = latencyMicros;
+    this.sentMessageSizes = sentMessageSizes;
+    this.receivedMessageSizes = receivedMessageSizes;
+  }
+
+  /** The fully qualified name of the method, without a leading slash. */
+  public String getMethod() {
+    return method;
+  }
+
+  /** The number of calls that were started. */
+  public long getCallsStarted() {
+    return callsStarted;
+  }
+
+  /** The number of calls that finished, with any status. */
+  public long getCallsFinished() {
+    long finished = 0;
+    for (long count : statusCounts) {
+      finished += count;
+    }
+    return finished;
+  }
+
+  /** The number of calls that finished with status {@code code}. */
+  public long getStatusCount(Status.Code code) {
+    return statusCounts[code.ordinal()];
+  }
+
+  /** The number of finished calls for each status code that occurred at least once. */
+  public Map<Status.Code, Long> getStatusCounts() {
+    ImmutableMap.Builder<Status.Code, Long> counts = ImmutableMap.builder();
+    for (Status.Code code : Status.Code.values()) {
+      if (statusCounts[code.ordinal()] != 0) {
+        counts.put(code, statusCounts[code.ordinal()]);
+      }
+    }
+    return counts.build();
+  }
+
+  public long getMessagesSent() {
+    return messagesSent;
+  }
+
+  public long getMessagesReceived() {
+    return messagesReceived;
+  }
+
+  /** The serialized size of the sent messages whose size is known. */
+  public long getBytesSent() {
+    return bytesSent;
+  }
+
+  /** The serialized size of the received messages whose size is known. */
+  public long getBytesReceived() {
+    return bytesReceived;
+  }
+
+  /** The latency of finished calls at {@code percentile}, in microseconds. */
+  public long getLatencyMicrosAtPercentile(double percentile) {
+    return latencyMicros.getValueAtPercentile(percentile);
+  }
+
+  /** Returns a copy of the histogram of the latencies of finished calls, in microseconds. */
+  public Histogram getLatencyMicros() {
+    return latencyMicros.copy();
+  }
+
+  /** Returns a copy of the histogram of the sizes of sent messages, in bytes. */
+  public Histogram getSentMessageSizes() {
+    return sentMessageSizes.copy();
+  }
+
+  /** Returns a copy of the histogram of the sizes of received messages, in bytes. */
+  public Histogram getReceivedMessageSizes() {
+    return receivedMessageSizes.copy();
+  }
+
+  /**
+   * Returns a one-line summary of the snapshot, with the latency from the 50th to the 99.9th
+   * percentile.
+   */
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder(method)
+        .append(" started=").append(callsStarted)
+        .append(" finished=").append(getStatusCounts())
+        .append(" messagesSent=").append(messagesSent)
+        .append(" messagesReceived=").append(messagesReceived)
+        .append(" bytesSent=").append(bytesSent)
+        .append(" bytesReceived=").append(bytesReceived);
+    for (double percentile : REPORTED_PERCENTILES) {
+      sb.append(" p").append(percentile == (long) percentile
+          ? Long.toString((long) percentile) : Double.toString(percentile))
+          .append("=").append(getLatencyMicrosAtPercentile(percentile)).append("us");
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.protobuf.MessageLite;
+
+import io.grpc.ClientInterceptors.ForwardingCall;
+import io.grpc.ClientInterceptors.ForwardingListener;
+import io.grpc.ServerInterceptors.ForwardingServerCall;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Records per-method metrics of calls: the number of calls started and finished with each status,
+ * the number and serialized size of messages, and the latency of calls. It can intercept either a
+ * client, via {@link ClientInterceptors#intercept}, or services of a server, via
+ * {@link ServerInterceptors#intercept}; use separate instances for the client and server side of a
+ * process.
+ *
+ * <p>Recording doesn't take locks, so the interceptor can stay installed on hot paths. The metrics
+ * can be read with {@link #snapshot()}, or served with {@link MetricsService}.
+ */
+@ThreadSafe
+public final class MetricsInterceptor implements ClientInterceptor, ServerInterceptor {
+  private final ConcurrentMap<String, MethodMetrics> methods =
+      new ConcurrentHashMap<String, MethodMetrics>();
+  private final Ticker ticker;
+
+  public MetricsInterceptor() {
+    this(Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  MetricsInterceptor(Ticker ticker) {
+    this.ticker = ticker;
+  }
+
+  /**
+   * Returns the metrics of all methods that had calls, keyed and sorted by fully qualified method
+   * name.
+   */
+  public Map<String, MethodMetricsSnapshot> snapshot() {
+    ImmutableSortedMap.Builder<String, MethodMetricsSnapshot> snapshots =
+        ImmutableSortedMap.naturalOrder();
+    for (Map.Entry<String, MethodMetrics> entry : methods.entrySet()) {
+      snapshots.put(entry.getKey(), entry.getValue().snapshot());
+    }
+    return snapshots.build();
+  }
+
+  /**
+   * Returns the metrics of {@code method}, or {@code null} if it didn't have calls.
+   *
+   * @param method fully qualified method name, with or without a leading slash
+   */
+  @Nullable
+  public MethodMetricsSnapshot snapshot(String method) {
+    MethodMetrics metrics = methods.get(normalize(method));
+    return metrics == null ? null : metrics.snapshot();
+  }
+
+  @Override
+  public <ReqT, RespT> Call<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method,
+      Channel next) {
+    return new MetricsCall<ReqT, RespT>(next.newCall(method), metricsFor(method.getName()));
+  }
+
+  @Override
+  public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(String method,
+      ServerCall<RespT> call, Metadata.Headers headers, ServerCallHandler<ReqT, RespT> next) {
+    MethodMetrics metrics = metricsFor(method);
+    metrics.callStarted();
+    MetricsServerCall<RespT> metricsCall = new MetricsServerCall<RespT>(call, metrics);
+    return new MetricsServerListener<ReqT>(next.startCall(method, metricsCall, headers),
+        metricsCall);
+  }
+
+  private MethodMetrics metricsFor(String method) {
+    String name = normalize(method);
+    MethodMetrics metrics = methods.get(name);
+    if (metrics == null) {
+      MethodMetrics newMetrics = new MethodMetrics(name);
+      metrics = methods.putIfAbsent(name, newMetrics);
+      if (metrics == null) {
+        metrics = newMetrics;
+      }
+    }
+    return metrics;
+  }
+
+  /** Server-side method names start with a slash, while client-side ones don't. */
+  private static String normalize(String method) {
+    return method.startsWith("/") ? method.substring(1) : method;
+  }
+
+  /**
+   * Returns the serialized size of {@code message} if it can be known without serializing it.
+   * Protobufs memoize their size, which their serialization uses in any case.
+   */
+  private static int sizeOf(Object message) {
+    return message instanceof MessageLite ? ((MessageLite) message).getSerializedSize() : -1;
+  }
+
+  private final class MetricsCall<ReqT, RespT> extends ForwardingCall<ReqT, RespT> {
+    private final MethodMetrics metrics;
+
+    MetricsCall(Call<ReqT, RespT> delegate, MethodMetrics metrics) {
+      super(delegate);
+      this.metrics = metrics;
+    }
+
+    @Override
+    public void start(Listener<RespT> responseListener, Metadata.Headers headers) {
+      final long startNanos = ticker.read();
+      metrics.callStarted();
+      super.start(new ForwardingListener<RespT>(responseListener) {
+        @Override
+        public void onPayload(RespT payload) {
+          metrics.messageReceived(sizeOf(payload));
+          super.onPayload(payload);
+        }
+
+        @Override
+        public void onClose(Status status, Metadata.Trailers trailers) {
+          metrics.callFinished(status, ticker.read() - startNanos);
+          super.onClose(status, trailers);
+        }
+      }, headers);
+    }
+
+    @Override
+    public void sendPayload(ReqT payload) {
+      metrics.messageSent(sizeOf(payload));
+      super.sendPayload(payload);
+    }
+  }
+
+  private final class MetricsServerCall<RespT> extends ForwardingServerCall<RespT> {
+    private final MethodMetrics metrics;
+    private final long startNanos = ticker.read();
+    private final AtomicBoolean finished = new AtomicBoolean();
+
+    MetricsServerCall(ServerCall<RespT> delegate, MethodMetrics metrics) {
+      super(delegate);
+      this.metrics = metrics;
+    }
+
+    @Override
+    public void sendPayload(RespT payload) {
+      metrics.messageSent(sizeOf(payload));
+      super.sendPayload(payload);
+    }
+
+    @Override
+    public void sendSerializedPayload(SerializedMessage<RespT> message) {
+      metrics.messageSent(message.size());
+      super.sendSerializedPayload(message);
+    }
+
+    @Override
+    public void close(Status status, Metadata.Trailers trailers) {
+      finish(status);
+      super.close(status, trailers);
+    }
+
+    /** Records the status of the call, unless it was already recorded. */
+    void finish(Status status) {
+      if (finished.compareAndSet(false, true)) {
+        metrics.callFinished(status, ticker.read() - startNanos);
+      }
+    }
+  }
+
+  private static final class MetricsServerListener<ReqT>
+      extends ServerInterceptors.ForwardingListener<ReqT> {
+    private final MetricsServerCall<?> call;
+
+    MetricsServerListener(ServerCall.Listener<ReqT> delegate, MetricsServerCall<?> call) {
+      super(delegate);
+      this.call = call;
+    }
+
+    @Override
+    public void onPayload(ReqT payload) {
+      call.metrics.messageReceived(sizeOf(payload));
+      super.onPayload(payload);
+    }
+
+    @Override
+    public void onCancel() {
+      // The application may never close a cancelled call.
+      call.finish(Status.CANCELLED);
+      super.onCancel();
+    }
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An admin service that serves the metrics of {@link MetricsInterceptor}s as text, so that they can
+ * be scraped without an agent in the process.
+ *
+ * <p>The service has one unary method, {@value #SERVICE_NAME}/{@value #GET_SNAPSHOT}, whose request
+ * and response are UTF-8 strings. The request is a prefix of the fully qualified names of the
+ * methods to report; an empty prefix reports all methods. The response has one line per method,
+ * as formatted by {@link MethodMetricsSnapshot#toString()}.
+ */
+public final class MetricsService {
+  public static final String SERVICE_NAME = "grpc.admin.Metrics";
+  public static final String GET_SNAPSHOT = "GetSnapshot";
+
+  /** Marshals the request and response of the service. */
+  public static final Marshaller<String> UTF8_MARSHALLER = new Marshaller<String>() {
+    @Override
+    public InputStream stream(String value) {
+      return new ByteArrayInputStream(value.getBytes(Charsets.UTF_8));
+    }
+
+    @Override
+    public String parse(InputStream stream) {
+      try {
+        return new String(ByteStreams.toByteArray(stream), Charsets.UTF_8);
+      } catch (IOException e) {
+        throw Status.INTERNAL.withDescription("Failed to read message").withCause(e)
+            .asRuntimeException();
+      }
+    }
+  };
+
+  // Prevent instantiation
+  private MetricsService() {}
+
+  /**
+   * Creates the definition of the service, which reports the metrics of {@code metrics}.
+   */
+  public static ServerServiceDefinition createServiceDefinition(final MetricsInterceptor metrics) {
+    return ServerServiceDefinition.builder(SERVICE_NAME)
+        .addMethod(GET_SNAPSHOT, UTF8_MARSHALLER, UTF8_MARSHALLER,
+            new ServerCallHandler<String, String>() {
+              @Override
+              public ServerCall.Listener<String> startCall(String method,
+                  final ServerCall<String> call, Metadata.Headers headers) {
+                call.request(1);
+                return new ServerCall.Listener<String>() {
+                  private String prefix;
+
+                  @Override
+                  public void onPayload(String payload) {
+                    prefix = payload;
+                  }
+
+                  @Override
+                  public void onHalfClose() {
+                    if (prefix == null) {
+                      call.close(Status.INVALID_ARGUMENT.withDescription(
+                          "Half-closed without a request"), new Metadata.Trailers());
+                      return;
+                    }
+                    call.sendPayload(report(metrics, prefix));
+                    call.close(Status.OK, new Metadata.Trailers());
+                  }
+
+                  @Override
+                  public void onCancel() {
+                  }
+
+                  @Override
+                  public void onComplete() {
+                  }
+                };
+              }
+            })
+        .build();
+  }
+
+  static String report(MetricsInterceptor metrics, String prefix) {
+    StringBuilder sb = new StringBuilder();
+    for (MethodMetricsSnapshot snapshot : metrics.snapshot().values()) {
+      if (snapshot.getMethod().startsWith(prefix)) {
+        sb.append(snapshot).append('\n');
+      }
+    }
+    return sb.toString();
+  }
+}
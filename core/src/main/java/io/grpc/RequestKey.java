@@ -0,0 +1,110 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc;
+
+import com.google.common.io.ByteStreams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Identifies a unary request by its method and serialized request message, and optionally its
+ * headers.
+ */
+final class RequestKey {
+  private static final byte[][] NO_HEADERS = new byte[0][];
+
+  private final String method;
+  private final byte[] request;
+  private final byte[][] headers;
+  private final int hashCode;
+
+  private RequestKey(String method, byte[] request, byte[][] headers) {
+    this.method = method;
+    this.request = request;
+    this.headers = headers;
+    this.hashCode = 31 * (31 * method.hashCode() + Arrays.hashCode(request))
+        + Arrays.deepHashCode(headers);
+  }
+
+  /**
+   * Creates the key of a request to {@code method}.
+   */
+  static <ReqT> RequestKey of(MethodDescriptor<ReqT, ?> method, ReqT request) {
+    return new RequestKey(method.getName(), toByteArray(method.streamRequest(request)), NO_HEADERS);
+  }
+
+  /**
+   * Creates the key of a request to {@code method} with the given headers, which must be
+   * {@link Metadata#isSerializable serializable}.
+   */
+  static <ReqT> RequestKey of(MethodDescriptor<ReqT, ?> method, ReqT request,
+      Metadata.Headers headers) {
+    return new RequestKey(method.getName(), toByteArray(method.streamRequest(request)),
+        headers.serialize());
+  }
+
+  /**
+   * Returns the size of the serialized request message.
+   */
+  int requestSize() {
+    return request.length;
+  }
+
+  private static byte[] toByteArray(InputStream stream) {
+    try {
+      try {
+        return ByteStreams.toByteArray(stream);
+      } finally {
+        stream.close();
+      }
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  @Override
+  public int hashCode() {
+    return hashCode;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (!(other instanceof RequestKey)) {
+      return false;
+    }
+    RequestKey that = (RequestKey) other;
+    return hashCode == that.hashCode && method.equals(that.method)
+        && Arrays.equals(request, that.request) && Arrays.deepEquals(headers, that.headers);
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A message that has been serialized once, ahead of being sent on any number of calls. Sending it
+ * with {@link ServerCall#sendSerializedPayload} writes the serialized bytes to the call without
+ * running the marshaller again, so broadcasting the same message to many calls costs a copy of
+ * its bytes per call rather than a serialization.
+ *
+ * <p>Instances are immutable and may be sent concurrently on any number of calls.
+ *
+ * @param <T> type of the serialized message
+ */
+public final class SerializedMessage<T> {
+  private final T value;
+  private final byte[] bytes;
+
+  /**
+   * Serializes {@code value} with {@code marshaller}, which must be the response marshaller of
+   * the methods the message will be sent on.
+   */
+  public static <T> SerializedMessage<T> create(Marshaller<T> marshaller, T value) {
+    Preconditions.checkNotNull(value, "value");
+    InputStream stream = marshaller.stream(value);
+    try {
+      try {
+        return new SerializedMessage<T>(value, ByteStreams.toByteArray(stream));
+      } finally {
+        stream.close();
+      }
+    } catch (IOException e) {
+      throw Status.INTERNAL.withDescription("Failed to serialize message").withCause(e)
+          .asRuntimeException();
+    }
+  }
+
+  private SerializedMessage(T value, byte[] bytes) {
+    this.value = value;
+    this.bytes = bytes;
+  }
+
+  /**
+   * Returns the message that was serialized.
+   */
+  public T getValue() {
+    return value;
+  }
+
+  /**
+   * Returns the number of bytes of the serialized message.
+   */
+  public int size() {
+    return bytes.length;
+  }
+
+  /**
+   * Returns a new stream over the serialized bytes. The bytes are shared, not copied, until the
+   * stream is read.
+   */
+  public InputStream stream() {
+    return new SerializedInputStream(bytes);
+  }
+
+  /**
+   * A stream over the shared bytes which can be flushed to the transport's buffers in a single
+   * write.
+   */
+  private static final class SerializedInputStream extends DeferredInputStream<Void> {
+    private final byte[] bytes;
+    private int pos;
+
+    SerializedInputStream(byte[] bytes) {
+      this.bytes = bytes;
+    }
+
+    @Override
+    public int flushTo(OutputStream target) throws IOException {
+      int written = bytes.length - pos;
+      target.write(bytes, pos, written);
+      pos = bytes.length;
+      return written;
+    }
+
+    /**
+     * Returns {@code null}, the bytes must not be handed out since they are shared.
+     */
+    @Override
+    public Void getDeferred() {
+      return null;
+    }
+
+    @Override
+    public int read() {
+      return pos < bytes.length ? bytes[pos++] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (pos == bytes.length) {
+        return len == 0 ? 0 : -1;
+      }
+      int read = Math.min(len, bytes.length - pos);
+      System.arraycopy(bytes, pos, b, off, read);
+      pos += read;
+      return read;
+    }
+
+    @Override
+    public int available() {
+      return bytes.length - pos;
+    }
+  }
+}
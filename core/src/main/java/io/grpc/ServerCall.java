@@ -124,6 +124,22 @@ public abstract class ServerCall<ResponseT> {
    */
   public abstract void sendPayload(ResponseT payload);
 
+  /**
+   * Send a response message that has already been serialized, for example because the same
+   * message is sent on many calls. Transports write the serialized bytes without marshalling the
+   * message again.
+   *
+   * <p>The default implementation sends {@link SerializedMessage#getValue} with
+   * {@link #sendPayload}, which serializes the message again.
+   *
+   * @param message response message, serialized with the response marshaller of this call's
+   *        method.
+   * @throws IllegalStateException if call is {@link #close}d
+   */
+  public void sendSerializedPayload(SerializedMessage<ResponseT> message) {
+    sendPayload(message.getValue());
+  }
+
   /**
    * Close the call with the provided status. No further sending or receiving will occur. If {@code
    * status} is not equal to {@link Status#OK}, then the call is said to have failed.
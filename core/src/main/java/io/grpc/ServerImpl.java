@@ -40,14 +40,20 @@ import io.grpc.transport.ServerListener;
 import io.grpc.transport.ServerStream;
 import io.grpc.transport.ServerStreamListener;
 import io.grpc.transport.ServerTransportListener;
+import io.grpc.transport.StreamTracer;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
+import javax.annotation.Nullable;
+
 /**
  * Default implementation of {@link Server}, for creation by transports.
  *
@@ -62,7 +68,12 @@ import java.util.concurrent.TimeUnit;
  * }</code></pre>
  *
  * <p>Starting the server starts the underlying transport for servicing requests. Stopping the
- * server stops servicing new requests and waits for all connections to terminate.
+ * server stops servicing new requests and waits for all connections to terminate. Transports
+ * drain their connections during shutdown, so calls already in flight are allowed to complete;
+ * {@link #getInFlightCallCount()} can be used to follow the progress of the drain.
+ *
+ * <p>Each new call is first offered to the server's {@link AdmissionController}. Calls it rejects
+ * are closed with {@link Status#RESOURCE_EXHAUSTED} without ever reaching the application.
  */
 public class ServerImpl implements Server {
   private static final ServerStreamListener NOOP_LISTENER = new NoopListener();
@@ -72,6 +83,9 @@ public class ServerImpl implements Server {
   /** Executor for application processing. */
   private final Executor executor;
   private final HandlerRegistry registry;
+  private final AdmissionController admissionController;
+  @Nullable
+  private final StreamTracer.Factory streamTracerFactory;
   private boolean started;
   private boolean shutdown;
   private boolean terminated;
@@ -80,6 +94,10 @@ public class ServerImpl implements Server {
   private Service transportServer;
   /** {@code transportServer} and services encapsulating something similar to a TCP connection. */
   private final Collection<Service> transports = new HashSet<Service>();
+  /** Calls that have been created, but whose stream has not yet closed. */
+  private final Set<JumpToApplicationThreadServerStreamListener> activeCalls =
+      Collections.newSetFromMap(
+          new ConcurrentHashMap<JumpToApplicationThreadServerStreamListener, Boolean>());
 
   /**
    * Construct a server. {@link #setTransportServer(Service)} must be called before starting the
@@ -89,8 +107,39 @@ public class ServerImpl implements Server {
    * @param registry of methods to expose to remote clients.
    */
   public ServerImpl(Executor executor, HandlerRegistry registry) {
+    this(executor, registry, AdmissionControllers.unlimited());
+  }
+
+  /**
+   * Construct a server that limits the calls it accepts. {@link #setTransportServer(Service)} must
+   * be called before starting the server.
+   *
+   * @param executor to call methods on behalf of remote clients
+   * @param registry of methods to expose to remote clients.
+   * @param admissionController decides which new calls are accepted
+   */
+  public ServerImpl(Executor executor, HandlerRegistry registry,
+      AdmissionController admissionController) {
+    this(executor, registry, admissionController, null);
+  }
+
+  /**
+   * Construct a server that limits the calls it accepts and traces their streams.
+   * {@link #setTransportServer(Service)} must be called before starting the server.
+   *
+   * @param executor to call methods on behalf of remote clients
+   * @param registry of methods to expose to remote clients.
+   * @param admissionController decides which new calls are accepted
+   * @param streamTracerFactory creates a tracer for the stream of each call, or {@code null} to
+   *     not trace streams
+   */
+  public ServerImpl(Executor executor, HandlerRegistry registry,
+      AdmissionController admissionController,
+      @Nullable StreamTracer.Factory streamTracerFactory) {
     this.executor = Preconditions.checkNotNull(executor);
     this.registry = Preconditions.checkNotNull(registry);
+    this.admissionController = Preconditions.checkNotNull(admissionController);
+    this.streamTracerFactory = streamTracerFactory;
   }
 
   /**
@@ -151,6 +200,8 @@ public class ServerImpl implements Server {
 
   /**
    * Initiates an orderly shutdown in which preexisting calls continue but new calls are rejected.
+   * Connections are drained: clients are told to stop sending new calls on them, and they are
+   * closed once their preexisting calls complete.
    */
   public synchronized ServerImpl shutdown() {
     shutdown = true;
@@ -167,14 +218,26 @@ public class ServerImpl implements Server {
    * forceful, the shutdown process is still not instantaneous; {@link #isTerminated()} will likely
    * return {@code false} immediately after this method returns.
    *
-   * <p>NOT YET IMPLEMENTED. This method currently behaves identically to shutdown().
+   * <p>Preexisting calls are closed with {@link Status#UNAVAILABLE}, which allows the connections
+   * being drained by {@link #shutdown()} to close.
    */
-  // TODO(ejona86): cancel preexisting calls.
   public synchronized ServerImpl shutdownNow() {
     shutdown();
+    Status status = Status.UNAVAILABLE.withDescription("Server shutdownNow invoked");
+    for (JumpToApplicationThreadServerStreamListener call : activeCalls) {
+      call.cancel(status);
+    }
     return this;
   }
 
+  /**
+   * Returns the number of calls that have started but whose streams have not yet closed. While the
+   * server is shutting down, this is the number of calls its connections are still draining.
+   */
+  public int getInFlightCallCount() {
+    return activeCalls.size();
+  }
+
   /**
    * Returns whether the server is shutdown. Shutdown servers reject any new calls, but may still
    * have some calls being processed.
@@ -288,9 +351,26 @@ public class ServerImpl implements Server {
     @Override
     public ServerStreamListener streamCreated(final ServerStream stream, final String methodName,
         final Metadata.Headers headers) {
+      StreamTracer tracer = StreamTracer.NOOP;
+      if (streamTracerFactory != null) {
+        tracer = streamTracerFactory.newStreamTracer(
+            methodName.startsWith("/") ? methodName.substring(1) : methodName, headers);
+        stream.setTracer(tracer);
+        tracer.inboundHeaders();
+      }
+      final AdmissionController.Admission admission = admissionController.tryAdmit(methodName);
+      if (admission == null) {
+        // Shed the call on the transport thread, without touching the application executor that
+        // admission control is protecting.
+        stream.close(Status.RESOURCE_EXHAUSTED.withDescription("Call rejected: " + methodName),
+            new Metadata.Trailers());
+        return NOOP_LISTENER;
+      }
       SerializingExecutor serializingExecutor = new SerializingExecutor(executor);
       final JumpToApplicationThreadServerStreamListener jumpListener
-          = new JumpToApplicationThreadServerStreamListener(serializingExecutor, stream);
+          = new JumpToApplicationThreadServerStreamListener(serializingExecutor, stream, admission,
+              tracer);
+      activeCalls.add(jumpListener);
       // Run in serializingExecutor so jumpListener.setListener() is called before any callbacks
       // are delivered, including any errors. Callbacks can still be triggered, but they will be
       // queued.
@@ -354,16 +434,21 @@ public class ServerImpl implements Server {
    * Dispatches callbacks onto an application-provided executor and correctly propagates
    * exceptions.
    */
-  private static class JumpToApplicationThreadServerStreamListener implements ServerStreamListener {
+  private class JumpToApplicationThreadServerStreamListener implements ServerStreamListener {
     private final SerializingExecutor callExecutor;
     private final ServerStream stream;
+    private final AdmissionController.Admission admission;
+    private final StreamTracer tracer;
     // Only accessed from callExecutor.
     private ServerStreamListener listener;
 
     public JumpToApplicationThreadServerStreamListener(SerializingExecutor executor,
-        ServerStream stream) {
+        ServerStream stream, AdmissionController.Admission admission,
+        StreamTracer tracer) {
       this.callExecutor = executor;
       this.stream = stream;
+      this.admission = admission;
+      this.tracer = tracer;
     }
 
     private ServerStreamListener getListener() {
@@ -387,12 +472,26 @@ public class ServerImpl implements Server {
       stream.close(status, trailers);
     }
 
+    /**
+     * Closes the stream with the given status from the call's executor, so that it is serialized
+     * with the application's use of the stream.
+     */
+    private void cancel(final Status status) {
+      callExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          internalClose(status, new Metadata.Trailers());
+        }
+      });
+    }
+
     @Override
     public void messageRead(final InputStream message) {
       callExecutor.execute(new Runnable() {
         @Override
         public void run() {
           try {
+            tracer.inboundMessageDispatched();
             getListener().messageRead(message);
           } catch (Throwable t) {
             internalClose(Status.fromThrowable(t), new Metadata.Trailers());
@@ -419,6 +518,8 @@ public class ServerImpl implements Server {
 
     @Override
     public void closed(final Status status) {
+      activeCalls.remove(this);
+      admission.release(status);
       callExecutor.execute(new Runnable() {
         @Override
         public void run() {
@@ -431,11 +532,14 @@ public class ServerImpl implements Server {
   private class ServerCallImpl<ReqT, RespT> extends ServerCall<RespT> {
     private final ServerStream stream;
     private final ServerMethodDefinition<ReqT, RespT> methodDef;
+    private final boolean unaryResponse;
     private volatile boolean cancelled;
 
     public ServerCallImpl(ServerStream stream, ServerMethodDefinition<ReqT, RespT> methodDef) {
       this.stream = stream;
       this.methodDef = methodDef;
+      this.unaryResponse = methodDef.getType() == MethodType.UNARY
+          || methodDef.getType() == MethodType.CLIENT_STREAMING;
     }
 
     @Override
@@ -453,13 +557,32 @@ public class ServerImpl implements Server {
       try {
         InputStream message = methodDef.streamResponse(payload);
         stream.writeMessage(message, message.available(), null);
-        stream.flush();
+        flushIfStreaming();
+      } catch (Throwable t) {
+        close(Status.fromThrowable(t), new Metadata.Trailers());
+        throw Throwables.propagate(t);
+      }
+    }
+
+    @Override
+    public void sendSerializedPayload(SerializedMessage<RespT> message) {
+      try {
+        stream.writeMessage(message.stream(), message.size(), null);
+        flushIfStreaming();
       } catch (Throwable t) {
         close(Status.fromThrowable(t), new Metadata.Trailers());
         throw Throwables.propagate(t);
       }
     }
 
+    private void flushIfStreaming() {
+      // For unary responses, we don't flush since we know that close should be coming soon. This
+      // lets the transport write the headers, the message and the trailers together.
+      if (!unaryResponse) {
+        stream.flush();
+      }
+    }
+
     @Override
     public void close(Status status, Metadata.Trailers trailers) {
       stream.close(status, trailers);
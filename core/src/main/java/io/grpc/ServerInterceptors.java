@@ -169,6 +169,11 @@ public class ServerInterceptors {
       delegate.sendPayload(payload);
     }
 
+    @Override
+    public void sendSerializedPayload(SerializedMessage<RespT> message) {
+      delegate.sendSerializedPayload(message);
+    }
+
     @Override
     public void close(Status status, Metadata.Trailers trailers) {
       delegate.close(status, trailers);
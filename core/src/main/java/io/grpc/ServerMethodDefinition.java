@@ -38,6 +38,7 @@ import java.io.InputStream;
  * by a {@link Server}.
  */
 public final class ServerMethodDefinition<RequestT, ResponseT> {
+  private final MethodType type;
   private final String name;
   private final Marshaller<RequestT> requestMarshaller;
   private final Marshaller<ResponseT> responseMarshaller;
@@ -45,8 +46,9 @@ public final class ServerMethodDefinition<RequestT, ResponseT> {
 
   // ServerMethodDefinition has no form of public construction. It is only created within the
   // context of a ServerServiceDefinition.Builder.
-  ServerMethodDefinition(String name, Marshaller<RequestT> requestMarshaller,
+  ServerMethodDefinition(MethodType type, String name, Marshaller<RequestT> requestMarshaller,
       Marshaller<ResponseT> responseMarshaller, ServerCallHandler<RequestT, ResponseT> handler) {
+    this.type = type;
     this.name = name;
     this.requestMarshaller = requestMarshaller;
     this.responseMarshaller = responseMarshaller;
@@ -54,7 +56,7 @@ public final class ServerMethodDefinition<RequestT, ResponseT> {
   }
 
   /**
-   * Create a new instance.
+   * Create a new instance of a method whose call type is {@link MethodType#UNKNOWN}.
    *
    * @param name the simple name of a method.
    * @param requestMarshaller marshaller for request messages.
@@ -65,10 +67,31 @@ public final class ServerMethodDefinition<RequestT, ResponseT> {
   public static <RequestT, ResponseT> ServerMethodDefinition<RequestT, ResponseT> create(
       String name, Marshaller<RequestT> requestMarshaller,
       Marshaller<ResponseT> responseMarshaller, ServerCallHandler<RequestT, ResponseT> handler) {
-    return new ServerMethodDefinition<RequestT, ResponseT>(name, requestMarshaller,
+    return create(MethodType.UNKNOWN, name, requestMarshaller, responseMarshaller, handler);
+  }
+
+  /**
+   * Create a new instance.
+   *
+   * @param type the call type of the method, which lets the server buffer single responses.
+   * @param name the simple name of a method.
+   * @param requestMarshaller marshaller for request messages.
+   * @param responseMarshaller marshaller for response messages.
+   * @param handler to dispatch calls to.
+   * @return a new instance.
+   */
+  public static <RequestT, ResponseT> ServerMethodDefinition<RequestT, ResponseT> create(
+      MethodType type, String name, Marshaller<RequestT> requestMarshaller,
+      Marshaller<ResponseT> responseMarshaller, ServerCallHandler<RequestT, ResponseT> handler) {
+    return new ServerMethodDefinition<RequestT, ResponseT>(type, name, requestMarshaller,
         responseMarshaller, handler);
   }
 
+  /** The call type of the method. */
+  public MethodType getType() {
+    return type;
+  }
+
   /** The simple name of the method. It is not an absolute path. */
   public String getName() {
     return name;
@@ -108,6 +131,6 @@ public final class ServerMethodDefinition<RequestT, ResponseT> {
   public ServerMethodDefinition<RequestT, ResponseT> withServerCallHandler(
       ServerCallHandler<RequestT, ResponseT> handler) {
     return new ServerMethodDefinition<RequestT, ResponseT>(
-        name, requestMarshaller, responseMarshaller, handler);
+        type, name, requestMarshaller, responseMarshaller, handler);
   }
 }
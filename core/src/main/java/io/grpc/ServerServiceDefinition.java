@@ -91,6 +91,7 @@ public final class ServerServiceDefinition {
     public <ReqT, RespT> Builder addMethod(String name, Marshaller<ReqT> requestMarshaller,
         Marshaller<RespT> responseMarshaller, ServerCallHandler<ReqT, RespT> handler) {
       return addMethod(new ServerMethodDefinition<ReqT, RespT>(
+          MethodType.UNKNOWN,
           Preconditions.checkNotNull(name, "name must not be null"),
           Preconditions.checkNotNull(requestMarshaller, "requestMarshaller must not be null"),
           Preconditions.checkNotNull(responseMarshaller, "responseMarshaller must not be null"),
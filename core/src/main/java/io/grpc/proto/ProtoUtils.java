@@ -55,7 +55,16 @@ public class ProtoUtils {
       }
 
       @Override
+      @SuppressWarnings("unchecked")
       public T parse(InputStream stream) {
+        if (stream instanceof DeferredProtoInputStream) {
+          // A stream that was never read still holds the original message, as happens when it is
+          // handed over by the in-process transport. Messages are immutable, so share it.
+          MessageLite message = ((DeferredProtoInputStream) stream).getDeferred();
+          if (message != null && message.getParserForType() == parser) {
+            return (T) message;
+          }
+        }
         try {
           return parser.parseFrom(stream);
         } catch (InvalidProtocolBufferException ipbe) {
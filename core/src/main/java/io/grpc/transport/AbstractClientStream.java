@@ -115,6 +115,7 @@ public abstract class AbstractClientStream<IdT> extends AbstractStream<IdT>
           new Object[]{id(), headers});
     }
     inboundPhase(Phase.MESSAGE);
+    tracer().inboundHeaders();
     listener.headersRead(headers);
   }
 
@@ -252,6 +253,7 @@ public abstract class AbstractClientStream<IdT> extends AbstractStream<IdT>
     if (!listenerClosed) {
       listenerClosed = true;
       closeDeframer();
+      tracer().streamClosed(newStatus);
       listener.closed(newStatus, trailers);
     }
   }
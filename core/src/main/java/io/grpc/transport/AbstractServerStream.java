@@ -54,6 +54,11 @@ public abstract class AbstractServerStream<IdT> extends AbstractStream<IdT>
   private ServerStreamListener listener;
 
   private boolean headersSent = false;
+  /**
+   * Default response headers implied by the first message, which are sent along with the first
+   * frame.
+   */
+  private Metadata.Headers pendingHeaders;
   /**
    * Whether the stream was closed gracefully by the application (vs. a transport-level failure).
    */
@@ -85,13 +90,15 @@ public abstract class AbstractServerStream<IdT> extends AbstractStream<IdT>
     outboundPhase(Phase.HEADERS);
     headersSent = true;
     internalSendHeaders(headers);
+    tracer().outboundHeaders();
     outboundPhase(Phase.MESSAGE);
   }
 
   @Override
   public final void writeMessage(InputStream message, int length, @Nullable Runnable accepted) {
     if (!headersSent) {
-      writeHeaders(new Metadata.Headers());
+      outboundPhase(Phase.HEADERS);
+      pendingHeaders = new Metadata.Headers();
       headersSent = true;
     }
     super.writeMessage(message, length, accepted);
@@ -143,14 +150,29 @@ public abstract class AbstractServerStream<IdT> extends AbstractStream<IdT>
 
   @Override
   protected final void internalSendFrame(WritableBuffer frame, boolean endOfStream) {
-    if (frame.readableBytes() > 0) {
-      sendFrame(frame, false);
+    Metadata.Headers headers = pendingHeaders;
+    pendingHeaders = null;
+    if (headers != null) {
+      tracer().outboundHeaders();
     }
-    if (endOfStream) {
-      sendTrailers(stashedTrailers, headersSent);
-      headersSent = true;
-      stashedTrailers = null;
+    boolean hasData = frame.readableBytes() > 0;
+    if (!endOfStream) {
+      if (headers != null) {
+        sendBatch(headers, hasData ? frame : null, null);
+      } else if (hasData) {
+        sendFrame(frame, false);
+      }
+      return;
+    }
+    Metadata.Trailers trailers = stashedTrailers;
+    stashedTrailers = null;
+    if (headers != null || hasData) {
+      // Usually a unary response, whose only message is still buffered in the framer.
+      sendBatch(headers, hasData ? frame : null, trailers);
+    } else {
+      sendTrailers(trailers, headersSent);
     }
+    headersSent = true;
   }
 
   /**
@@ -177,6 +199,32 @@ public abstract class AbstractServerStream<IdT> extends AbstractStream<IdT>
    */
   protected abstract void sendTrailers(Metadata.Trailers trailers, boolean headersSent);
 
+  /**
+   * Sends response headers, a frame and trailers that are ready at the same time, such as the
+   * whole of a unary response. Transports should write them together and flush once. Response
+   * headers have always been sent before the trailers, either earlier or as part of the batch.
+   *
+   * <p>The default implementation calls {@link #internalSendHeaders}, {@link #sendFrame} and
+   * {@link #sendTrailers} in turn.
+   *
+   * @param headers response headers to send first, or {@code null} if they were already sent.
+   * @param frame a buffer containing the chunk of data to send, or {@code null}.
+   * @param trailers trailers to send last, ending the stream, or {@code null} if the stream
+   *        continues.
+   */
+  protected void sendBatch(@Nullable Metadata.Headers headers, @Nullable WritableBuffer frame,
+      @Nullable Metadata.Trailers trailers) {
+    if (headers != null) {
+      internalSendHeaders(headers);
+    }
+    if (frame != null) {
+      sendFrame(frame, false);
+    }
+    if (trailers != null) {
+      sendTrailers(trailers, true);
+    }
+  }
+
   /**
    * Indicates the stream is considered completely closed and there is no further opportunity for
    * error. It calls the listener's {@code closed()} if it was not already done by {@link
@@ -185,7 +233,7 @@ public abstract class AbstractServerStream<IdT> extends AbstractStream<IdT>
    * {@code abortStream()} for abnormal.
    */
   public void complete() {
-    if (!gracefulClose) {
+    if (!gracefulClose && !listenerClosed) {
       closeListener(Status.INTERNAL.withDescription("successful complete() without close()"));
       throw new IllegalStateException("successful complete() without close()");
     }
@@ -251,7 +299,12 @@ public abstract class AbstractServerStream<IdT> extends AbstractStream<IdT>
     if (!listenerClosed) {
       listenerClosed = true;
       closeDeframer();
-      listener.closed(newStatus);
+      tracer().streamClosed(newStatus);
+      // The listener is unset if the stream was closed from within streamCreated(), as when the
+      // server rejects it, and the transport completed the close before returning.
+      if (listener != null) {
+        listener.closed(newStatus);
+      }
     }
   }
 }
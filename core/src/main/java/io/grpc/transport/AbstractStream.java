@@ -53,6 +53,7 @@ public abstract class AbstractStream<IdT> implements Stream {
   private volatile IdT id;
   private final MessageFramer framer;
   private final MessageDeframer deframer;
+  private StreamTracer tracer = StreamTracer.NOOP;
 
   /**
    * Inbound phase is exclusively written to by the transport thread.
@@ -115,6 +116,23 @@ public abstract class AbstractStream<IdT> implements Stream {
     this.id = id;
   }
 
+  /**
+   * Sets the tracer of this stream. It must be set before the stream is used, by the thread that
+   * created the stream or the transport thread.
+   */
+  public final void setTracer(StreamTracer tracer) {
+    this.tracer = Preconditions.checkNotNull(tracer, "tracer");
+    framer.setTracer(tracer);
+    deframer.setTracer(tracer);
+  }
+
+  /**
+   * Returns the tracer of this stream, which is {@link StreamTracer#NOOP} unless one was set.
+   */
+  public StreamTracer tracer() {
+    return tracer;
+  }
+
   @Override
   public void writeMessage(InputStream message, int length, @Nullable Runnable accepted) {
     Preconditions.checkNotNull(message, "message");
@@ -52,13 +52,15 @@ public interface ClientTransport {
    * @param method the descriptor of the remote method to be called for this stream.
    * @param headers to send at the beginning of the call
    * @param listener the listener for the newly created stream.
+   * @param tracer the tracer of the newly created stream, {@link StreamTracer#NOOP} for none.
    * @throws IllegalStateException if the service is already stopped.
    * @return the newly created stream.
    */
   // TODO(nmittler): Consider also throwing for stopping.
   ClientStream newStream(MethodDescriptor<?, ?> method,
                          Metadata.Headers headers,
-                         ClientStreamListener listener);
+                         ClientStreamListener listener,
+                         StreamTracer tracer);
 
   /**
    * Starts transport. Implementations must not call {@code listener} until after {@code start()} returns.
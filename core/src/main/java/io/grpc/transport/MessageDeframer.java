@@ -95,6 +95,7 @@ public class MessageDeframer implements Closeable {
 
   private final Listener listener;
   private final Compression compression;
+  private StreamTracer tracer = StreamTracer.NOOP;
   private State state = State.HEADER;
   private int requiredLength = HEADER_LENGTH;
   private boolean compressedFlag;
@@ -125,6 +126,13 @@ public class MessageDeframer implements Closeable {
     this.compression = Preconditions.checkNotNull(compression, "compression");
   }
 
+  /**
+   * Sets the tracer that is notified of each message deframed.
+   */
+  public void setTracer(StreamTracer tracer) {
+    this.tracer = Preconditions.checkNotNull(tracer, "tracer");
+  }
+
   /**
    * Requests up to the given number of messages from the call to be delivered to
    * {@link Listener#messageRead(InputStream)}. No additional messages will be delivered.
@@ -321,6 +329,7 @@ public class MessageDeframer implements Closeable {
    * several GRPC messages within it.
    */
   private void processBody() {
+    tracer.inboundMessage(requiredLength, compressedFlag);
     InputStream stream = compressedFlag ? getCompressedBody() : getUncompressedBody();
     nextFrame = null;
     listener.messageRead(stream);
@@ -79,6 +79,7 @@ public class MessageFramer {
   private final byte[] headerScratch = new byte[HEADER_LENGTH];
   private final WritableBufferAllocator bufferAllocator;
   private final int maxFrameSize;
+  private StreamTracer tracer = StreamTracer.NOOP;
   private boolean closed;
 
   /**
@@ -105,6 +106,13 @@ public class MessageFramer {
     this.compression = Preconditions.checkNotNull(compression, "compression");
   }
 
+  /**
+   * Sets the tracer that is notified of each message written.
+   */
+  public void setTracer(StreamTracer tracer) {
+    this.tracer = Preconditions.checkNotNull(tracer, "tracer");
+  }
+
   /**
    * Writes out a payload message.
    *
@@ -117,6 +125,7 @@ public class MessageFramer {
       switch(compression) {
         case NONE:
           writeFrame(message, messageLength, false);
+          tracer.outboundMessage(messageLength, messageLength);
           break;
         case GZIP:
           DirectAccessByteArrayOutputStream out = new DirectAccessByteArrayOutputStream();
@@ -124,6 +133,7 @@ public class MessageFramer {
           InputStream compressedMessage =
                   new DeferredByteArrayInputStream(out.getBuf(), 0, out.getCount());
           writeFrame(compressedMessage, out.getCount(), true);
+          tracer.outboundMessage(messageLength, out.getCount());
           break;
         default:
           throw new AssertionError("Unknown compression type");
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.transport;
+
+import io.grpc.Status;
+
+import javax.annotation.Nullable;
+
+/**
+ * Cause of the {@link Status} of a client stream that the server provably never processed, for
+ * example because it was not yet sent when the connection went away, its id was above the last
+ * stream id of a GOAWAY, or it was reset with {@code REFUSED_STREAM}. Such a stream can safely be
+ * replayed on another transport.
+ */
+public final class RefusedStreamException extends Exception {
+  private static final long serialVersionUID = 1L;
+
+  private RefusedStreamException(@Nullable Throwable cause) {
+    super("Stream was not processed by the server", cause);
+  }
+
+  /**
+   * Returns {@code status}, marked as the status of a stream that the server never processed.
+   */
+  public static Status markRefused(Status status) {
+    if (isRefused(status)) {
+      return status;
+    }
+    return status.withCause(new RefusedStreamException(status.getCause()));
+  }
+
+  /**
+   * Returns whether {@code status} is the status of a stream that the server never processed.
+   */
+  public static boolean isRefused(Status status) {
+    return status.getCause() instanceof RefusedStreamException;
+  }
+
+  @Override
+  public synchronized Throwable fillInStackTrace() {
+    // Only used as a marker; the stack trace would not be useful.
+    return this;
+  }
+}
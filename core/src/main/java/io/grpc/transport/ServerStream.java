@@ -57,4 +57,10 @@ public interface ServerStream extends Stream {
    * @param trailers an additional block of metadata to pass to the client on stream closure.
    */
   void close(Status status, Metadata.Trailers trailers);
+
+  /**
+   * Sets the tracer of the stream. It is called by the server when the stream is created, before
+   * any messages are requested or sent.
+   */
+  void setTracer(StreamTracer tracer);
 }
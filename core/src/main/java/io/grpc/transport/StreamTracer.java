@@ -0,0 +1,107 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.transport;
+
+import io.grpc.Metadata;
+import io.grpc.Status;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Receives transport-level events of a single stream, such as when its headers hit the wire and
+ * the wire size of its messages, which are not visible to interceptors. Comparing the times of the
+ * events attributes latency to queueing in the transport, the network or the application's
+ * executor.
+ *
+ * <p>Events are reported synchronously from transport and application threads, so
+ * implementations must be thread-safe and return quickly; they are expected to read a clock and
+ * record the values. All methods do nothing by default, and streams without a tracer use
+ * {@link #NOOP}.
+ */
+@ThreadSafe
+public abstract class StreamTracer {
+  /** A tracer that ignores all events. */
+  public static final StreamTracer NOOP = new StreamTracer() {};
+
+  /**
+   * Creates a tracer for each stream of a channel or server.
+   */
+  @ThreadSafe
+  public interface Factory {
+    /**
+     * Creates the tracer of a new stream. On the client this happens before the stream is queued
+     * by the transport; on the server it happens when its headers are received.
+     *
+     * @param method the fully qualified name of the method of the stream, without a leading
+     *     slash
+     * @param headers the headers of the stream, which must not be modified
+     */
+    StreamTracer newStreamTracer(String method, Metadata.Headers headers);
+  }
+
+  /**
+   * The headers of the stream were enqueued for writing by the transport. They may still wait
+   * behind other frames, or for the connection to be established, before reaching the socket. On
+   * the client, the time since the tracer was created includes the time the stream waited for the
+   * peer to allow more concurrent streams.
+   */
+  public void outboundHeaders() {}
+
+  /**
+   * A message was framed for sending.
+   *
+   * @param uncompressedSize the serialized size of the message
+   * @param wireSize the size of the message on the wire, not counting the framing header
+   */
+  public void outboundMessage(int uncompressedSize, int wireSize) {}
+
+  /** The headers of the stream were received. */
+  public void inboundHeaders() {}
+
+  /**
+   * A message was deframed by the transport thread. Its uncompressed size is only known once the
+   * application reads it.
+   *
+   * @param wireSize the size of the message on the wire, not counting the framing header
+   * @param compressed whether the message was compressed on the wire
+   */
+  public void inboundMessage(int wireSize, boolean compressed) {}
+
+  /**
+   * The last message received was handed to the application, on the call's executor. The time
+   * since {@link #inboundMessage} is the time the message waited for the executor.
+   */
+  public void inboundMessageDispatched() {}
+
+  /** The stream was closed, and no further events will be reported. */
+  public void streamClosed(Status status) {}
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.transport.inprocess;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.AbstractService;
+
+import io.grpc.transport.ServerListener;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Implementation of the {@link com.google.common.util.concurrent.Service} interface for an
+ * in-process server. While running, the server is registered under its name so that
+ * {@link InProcessTransport}s created by {@link InProcessChannelBuilder} can find it.
+ */
+class InProcessServer extends AbstractService {
+  private static final ConcurrentMap<String, InProcessServer> registry
+      = new ConcurrentHashMap<String, InProcessServer>();
+
+  /**
+   * Returns the running server registered with the given name, or {@code null} if there is none.
+   */
+  static InProcessServer findServer(String name) {
+    return registry.get(name);
+  }
+
+  private final String name;
+  private final ServerListener serverListener;
+
+  InProcessServer(String name, ServerListener serverListener) {
+    this.name = Preconditions.checkNotNull(name, "name");
+    this.serverListener = Preconditions.checkNotNull(serverListener, "serverListener");
+  }
+
+  ServerListener serverListener() {
+    return serverListener;
+  }
+
+  @Override
+  protected void doStart() {
+    if (registry.putIfAbsent(name, this) != null) {
+      notifyFailed(new IOException("name already registered: " + name));
+      return;
+    }
+    notifyStarted();
+  }
+
+  @Override
+  protected void doStop() {
+    // Existing transports are stopped by the ServerImpl; only prevent new ones from connecting.
+    registry.remove(name, this);
+    notifyStopped();
+  }
+}
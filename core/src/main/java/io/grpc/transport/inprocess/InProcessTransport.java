@@ -0,0 +1,498 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.transport.inprocess;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.AbstractService;
+
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.grpc.transport.ClientStream;
+import io.grpc.transport.ClientStreamListener;
+import io.grpc.transport.ClientTransport;
+import io.grpc.transport.ServerStream;
+import io.grpc.transport.ServerStreamListener;
+import io.grpc.transport.ServerTransportListener;
+import io.grpc.transport.StreamTracer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A {@link ClientTransport} connected directly to an {@link InProcessServer} in the same JVM. It
+ * doubles as the server-side transport {@link com.google.common.util.concurrent.Service} seen by
+ * {@link io.grpc.ServerImpl}.
+ *
+ * <p>There is no framing and no copying: each message is handed to the remote listener as the very
+ * {@link InputStream} produced by the sender's {@link io.grpc.Marshaller}. Marshallers that
+ * recognize their own deferred streams (like the protobuf marshaller from
+ * {@link io.grpc.proto.ProtoUtils}) can then skip serialization altogether.
+ */
+@ThreadSafe
+class InProcessTransport implements ClientTransport {
+  private static final Logger log = Logger.getLogger(InProcessTransport.class.getName());
+
+  private final String name;
+  private final ServerTransport serverTransport = new ServerTransport();
+  private ClientTransport.Listener clientTransportListener;
+  @GuardedBy("this")
+  private ServerTransportListener serverTransportListener;
+  /** Whether {@link #start} has returned, so that the client listener may be called. */
+  @GuardedBy("this")
+  private boolean started;
+  /** Non-{@code null} once the transport is shutdown; used to fail new streams. */
+  @GuardedBy("this")
+  private Status shutdownStatus;
+  @GuardedBy("this")
+  private boolean shutdownNotified;
+  @GuardedBy("this")
+  private boolean terminated;
+  @GuardedBy("this")
+  private final Set<InProcessStream> streams = new HashSet<InProcessStream>();
+
+  InProcessTransport(String name) {
+    this.name = Preconditions.checkNotNull(name, "name");
+  }
+
+  @Override
+  public void start(ClientTransport.Listener listener) {
+    clientTransportListener = Preconditions.checkNotNull(listener, "listener");
+    InProcessServer server = InProcessServer.findServer(name);
+    ServerTransportListener transportListener = null;
+    if (server != null) {
+      serverTransport.startAsync().awaitRunning();
+      transportListener = server.serverListener().transportCreated(serverTransport);
+    }
+    synchronized (this) {
+      serverTransportListener = transportListener;
+      if (server == null) {
+        shutdownStatus = Status.UNAVAILABLE.withDescription("Could not find server: " + name);
+      }
+      // Any shutdown that happened while starting is reported on the next newStream(), since the
+      // listener must not be called before start() returns.
+      started = true;
+    }
+  }
+
+  @Override
+  public ClientStream newStream(MethodDescriptor<?, ?> method, Metadata.Headers headers,
+      ClientStreamListener listener, StreamTracer tracer) {
+    Preconditions.checkNotNull(method, "method");
+    Preconditions.checkNotNull(headers, "headers");
+    Preconditions.checkNotNull(listener, "listener");
+    Preconditions.checkNotNull(tracer, "tracer");
+
+    InProcessStream stream = null;
+    Status failure;
+    ServerTransportListener transportListener;
+    synchronized (this) {
+      failure = shutdownStatus;
+      transportListener = serverTransportListener;
+      if (failure == null) {
+        stream = new InProcessStream(listener, tracer);
+        streams.add(stream);
+      }
+    }
+    if (failure != null) {
+      listener.closed(failure, new Metadata.Trailers());
+      notifyStateChanges();
+      return new NoopClientStream();
+    }
+
+    String path = "/" + method.getName();
+    if (headers.getPath() == null) {
+      headers.setPath(path);
+    }
+    if (headers.getAuthority() == null) {
+      headers.setAuthority(name);
+    }
+    synchronized (stream) {
+      // Hold the stream lock so that the server cannot use the stream before its listener is set.
+      tracer.outboundHeaders();
+      stream.serverStreamListener =
+          transportListener.streamCreated(stream.serverStream, path, headers);
+    }
+    return stream.clientStream;
+  }
+
+  @Override
+  public void shutdown() {
+    shutdown(Status.UNAVAILABLE.withDescription("transport shutdown"));
+  }
+
+  private void shutdown(Status status) {
+    synchronized (this) {
+      if (shutdownStatus == null) {
+        shutdownStatus = status;
+      }
+    }
+    notifyStateChanges();
+  }
+
+  private void streamClosed(InProcessStream stream) {
+    synchronized (this) {
+      streams.remove(stream);
+    }
+    notifyStateChanges();
+  }
+
+  /**
+   * Reports shutdown and termination to both sides if they were not yet reported. Must not be
+   * called while holding a lock, since listeners of both the channel and the server are invoked.
+   */
+  private void notifyStateChanges() {
+    boolean notifyShutdown;
+    boolean notifyTerminated;
+    synchronized (this) {
+      if (!started || shutdownStatus == null) {
+        return;
+      }
+      notifyShutdown = !shutdownNotified;
+      shutdownNotified = true;
+      notifyTerminated = !terminated && streams.isEmpty();
+      terminated |= notifyTerminated;
+    }
+    if (notifyShutdown) {
+      clientTransportListener.transportShutdown();
+    }
+    if (notifyTerminated) {
+      clientTransportListener.transportTerminated();
+      serverTransport.stopAsync();
+      serverTransport.transportTerminated();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "(" + name + ")";
+  }
+
+  /** The server-side view of this transport. */
+  private class ServerTransport extends AbstractService {
+    @Override
+    protected void doStart() {
+      notifyStarted();
+    }
+
+    @Override
+    protected void doStop() {
+      // No explicit call to notifyStopped() here, since this is done once all streams are closed.
+      shutdown(Status.UNAVAILABLE.withDescription("server shutdown"));
+    }
+
+    void transportTerminated() {
+      if (state() == State.STOPPING) {
+        notifyStopped();
+      }
+    }
+  }
+
+  /**
+   * Both halves of a single call. All state of both halves is guarded by the {@code
+   * InProcessStream} itself. Listeners are called while holding the lock, which is safe because
+   * the listeners of both {@link io.grpc.ChannelImpl} and {@link io.grpc.ServerImpl} only enqueue
+   * work onto their executors, and it keeps callbacks for each listener strictly serialized.
+   */
+  private class InProcessStream {
+    private final InProcessClientStream clientStream = new InProcessClientStream();
+    private final InProcessServerStream serverStream = new InProcessServerStream();
+    private final ClientStreamListener clientStreamListener;
+    private final StreamTracer clientTracer;
+    @GuardedBy("this")
+    private ServerStreamListener serverStreamListener;
+    @GuardedBy("this")
+    private StreamTracer serverTracer = StreamTracer.NOOP;
+
+    /** Messages from the server not yet requested by the client. */
+    @GuardedBy("this")
+    private final Queue<InputStream> clientReceiveQueue = new ArrayDeque<InputStream>();
+    @GuardedBy("this")
+    private int clientRequested;
+    /** Status to deliver to the client once {@link #clientReceiveQueue} is drained. */
+    @GuardedBy("this")
+    private Status clientNotifyStatus;
+    @GuardedBy("this")
+    private Metadata.Trailers clientNotifyTrailers;
+    /** Whether the client listener was closed. No further client callbacks are made. */
+    @GuardedBy("this")
+    private boolean clientClosed;
+
+    /** Messages from the client not yet requested by the server. */
+    @GuardedBy("this")
+    private final Queue<InputStream> serverReceiveQueue = new ArrayDeque<InputStream>();
+    @GuardedBy("this")
+    private int serverRequested;
+    /**
+     * Whether to deliver a half-close to the server once {@link #serverReceiveQueue} is drained.
+     */
+    @GuardedBy("this")
+    private boolean serverNotifyHalfClose;
+    /** Whether the server listener was closed. No further server callbacks are made. */
+    @GuardedBy("this")
+    private boolean serverClosed;
+    @GuardedBy("this")
+    private boolean headersSent;
+
+    InProcessStream(ClientStreamListener clientStreamListener, StreamTracer clientTracer) {
+      this.clientStreamListener = clientStreamListener;
+      this.clientTracer = clientTracer;
+    }
+
+    /** Delivers as many server-to-client messages and as much status as the client allows. */
+    @GuardedBy("this")
+    private void drainClient() {
+      while (!clientClosed && clientRequested > 0 && !clientReceiveQueue.isEmpty()) {
+        clientRequested--;
+        clientStreamListener.messageRead(clientReceiveQueue.poll());
+      }
+      if (!clientClosed && clientNotifyStatus != null && clientReceiveQueue.isEmpty()) {
+        closeClient(clientNotifyStatus, clientNotifyTrailers);
+      }
+    }
+
+    /** Delivers as many client-to-server messages and half-close as the server allows. */
+    @GuardedBy("this")
+    private void drainServer() {
+      while (!serverClosed && serverRequested > 0 && !serverReceiveQueue.isEmpty()) {
+        serverRequested--;
+        serverStreamListener.messageRead(serverReceiveQueue.poll());
+      }
+      if (!serverClosed && serverNotifyHalfClose && serverReceiveQueue.isEmpty()) {
+        serverNotifyHalfClose = false;
+        serverStreamListener.halfClosed();
+      }
+    }
+
+    @GuardedBy("this")
+    private void closeClient(Status status, Metadata.Trailers trailers) {
+      clientClosed = true;
+      discard(clientReceiveQueue);
+      clientTracer.streamClosed(status);
+      clientStreamListener.closed(status, trailers);
+    }
+
+    @GuardedBy("this")
+    private void closeServer(Status status) {
+      serverClosed = true;
+      discard(serverReceiveQueue);
+      serverTracer.streamClosed(status);
+      // Null if the server closed the stream from within streamCreated(), e.g. to reject it.
+      if (serverStreamListener != null) {
+        serverStreamListener.closed(status);
+      }
+    }
+
+    private class InProcessClientStream implements ClientStream {
+      @Override
+      public void request(int numMessages) {
+        boolean clientDone;
+        synchronized (InProcessStream.this) {
+          boolean wasClosed = clientClosed;
+          clientRequested += numMessages;
+          drainClient();
+          // A pending status may have been delivered along with the last messages.
+          clientDone = !wasClosed && clientClosed;
+        }
+        if (clientDone) {
+          streamClosed(InProcessStream.this);
+        }
+      }
+
+      @Override
+      public void writeMessage(InputStream message, int length, @Nullable Runnable accepted) {
+        synchronized (InProcessStream.this) {
+          if (serverClosed) {
+            closeQuietly(message);
+            return;
+          }
+          clientTracer.outboundMessage(length, length);
+          serverReceiveQueue.add(message);
+          drainServer();
+        }
+        if (accepted != null) {
+          accepted.run();
+        }
+      }
+
+      @Override
+      public void flush() {}
+
+      @Override
+      public void halfClose() {
+        synchronized (InProcessStream.this) {
+          if (serverClosed) {
+            return;
+          }
+          serverNotifyHalfClose = true;
+          drainServer();
+        }
+      }
+
+      @Override
+      public void cancel() {
+        synchronized (InProcessStream.this) {
+          if (clientClosed) {
+            return;
+          }
+          if (!serverClosed) {
+            closeServer(Status.CANCELLED);
+          }
+          closeClient(Status.CANCELLED, new Metadata.Trailers());
+        }
+        streamClosed(InProcessStream.this);
+      }
+    }
+
+    private class InProcessServerStream implements ServerStream {
+      @Override
+      public void request(int numMessages) {
+        synchronized (InProcessStream.this) {
+          serverRequested += numMessages;
+          drainServer();
+        }
+      }
+
+      @Override
+      public void setTracer(StreamTracer tracer) {
+        Preconditions.checkNotNull(tracer, "tracer");
+        synchronized (InProcessStream.this) {
+          serverTracer = tracer;
+        }
+      }
+
+      @Override
+      public void writeHeaders(Metadata.Headers headers) {
+        Preconditions.checkNotNull(headers, "headers");
+        synchronized (InProcessStream.this) {
+          if (clientClosed) {
+            return;
+          }
+          headersSent = true;
+          serverTracer.outboundHeaders();
+          clientTracer.inboundHeaders();
+          clientStreamListener.headersRead(headers);
+        }
+      }
+
+      @Override
+      public void writeMessage(InputStream message, int length, @Nullable Runnable accepted) {
+        synchronized (InProcessStream.this) {
+          if (clientClosed || serverClosed) {
+            closeQuietly(message);
+            return;
+          }
+          if (!headersSent) {
+            writeHeaders(new Metadata.Headers());
+          }
+          serverTracer.outboundMessage(length, length);
+          clientReceiveQueue.add(message);
+          drainClient();
+        }
+        if (accepted != null) {
+          accepted.run();
+        }
+      }
+
+      @Override
+      public void flush() {}
+
+      @Override
+      public void close(Status status, Metadata.Trailers trailers) {
+        Preconditions.checkNotNull(status, "status");
+        Preconditions.checkNotNull(trailers, "trailers");
+        trailers.removeAll(Status.CODE_KEY);
+        trailers.removeAll(Status.MESSAGE_KEY);
+        trailers.put(Status.CODE_KEY, status);
+        if (status.getDescription() != null) {
+          trailers.put(Status.MESSAGE_KEY, status.getDescription());
+        }
+        boolean clientDone;
+        synchronized (InProcessStream.this) {
+          if (serverClosed) {
+            return;
+          }
+          // As far as the server is concerned, the status has been sent.
+          closeServer(Status.OK);
+          if (!clientClosed) {
+            if (status.isOk()) {
+              // Messages already sent must reach the client before the status.
+              clientNotifyStatus = status;
+              clientNotifyTrailers = trailers;
+              drainClient();
+            } else {
+              closeClient(status, trailers);
+            }
+          }
+          clientDone = clientClosed;
+        }
+        if (clientDone) {
+          streamClosed(InProcessStream.this);
+        }
+      }
+    }
+  }
+
+  /** Drops messages that will never be delivered, as their listener would have closed them. */
+  private static void discard(Queue<InputStream> queue) {
+    InputStream message;
+    while ((message = queue.poll()) != null) {
+      closeQuietly(message);
+    }
+  }
+
+  private static void closeQuietly(InputStream message) {
+    try {
+      message.close();
+    } catch (IOException ex) {
+      log.log(Level.WARNING, "Exception closing undelivered message", ex);
+    }
+  }
+
+  private static class NoopClientStream implements ClientStream {
+    @Override public void writeMessage(InputStream message, int length, Runnable accepted) {}
+    @Override public void flush() {}
+    @Override public void cancel() {}
+    @Override public void halfClose() {}
+    @Override public void request(int numMessages) {}
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Unit tests for {@link AdaptiveConcurrencyLimiter}. */
+@RunWith(JUnit4.class)
+public class AdaptiveConcurrencyLimiterTest {
+  private final FakeTicker ticker = new FakeTicker();
+  private final AdaptiveConcurrencyLimiter limiter =
+      new AdaptiveConcurrencyLimiter(10, 2, 100, ticker);
+
+  @Test
+  public void rejectsAboveLimit() {
+    for (int i = 0; i < 10; i++) {
+      assertNotNull(limiter.tryAdmit("/a/a"));
+    }
+    assertNull(limiter.tryAdmit("/a/a"));
+    assertEquals(10, limiter.getInFlight());
+  }
+
+  @Test
+  public void limitGrowsWhileLatencyIsStable() {
+    for (int i = 0; i < 20; i++) {
+      runBatch(limiter.getLimit(), 10);
+    }
+    assertTrue("limit: " + limiter.getLimit(), limiter.getLimit() > 20);
+  }
+
+  @Test
+  public void limitShrinksWhenLatencyRises() {
+    runBatch(10, 10);
+    int before = limiter.getLimit();
+    for (int i = 0; i < 20; i++) {
+      runBatch(limiter.getLimit(), 40);
+    }
+    assertTrue("limit: " + limiter.getLimit(), limiter.getLimit() < before);
+    assertTrue(limiter.getLimit() >= 2);
+  }
+
+  @Test
+  public void limitDoesNotGrowWhenUnderused() {
+    for (int i = 0; i < 20; i++) {
+      runBatch(1, 10);
+    }
+    assertEquals(10, limiter.getLimit());
+  }
+
+  @Test
+  public void cancellationBacksOff() {
+    AdmissionController.Admission admission = limiter.tryAdmit("/a/a");
+    admission.release(Status.CANCELLED);
+    assertEquals(9, limiter.getLimit());
+    assertEquals(0, limiter.getInFlight());
+  }
+
+  private void runBatch(int calls, long latencyMillis) {
+    List<AdmissionController.Admission> admissions = new ArrayList<AdmissionController.Admission>();
+    for (int i = 0; i < calls; i++) {
+      admissions.add(limiter.tryAdmit("/a/a"));
+    }
+    ticker.advance(latencyMillis, TimeUnit.MILLISECONDS);
+    for (AdmissionController.Admission admission : admissions) {
+      admission.release(Status.OK);
+    }
+  }
+}
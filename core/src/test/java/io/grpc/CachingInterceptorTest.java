@@ -0,0 +1,268 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/** Unit tests for {@link CachingInterceptor}. */
+@RunWith(JUnit4.class)
+public class CachingInterceptorTest {
+  private final MethodDescriptor<String, String> method = MethodDescriptor.create(
+      MethodType.UNARY, "Service/get", 1, TimeUnit.SECONDS,
+      new StringMarshaller(), new StringMarshaller());
+  private static final Metadata.Key<String> USER_KEY =
+      Metadata.Key.of("user", Metadata.ASCII_STRING_MARSHALLER);
+  private static final Metadata.Key<String> TRACE_KEY =
+      Metadata.Key.of("trace", Metadata.ASCII_STRING_MARSHALLER);
+
+  private final FakeTicker ticker = new FakeTicker();
+  private final Queue<Runnable> tasks = new ArrayDeque<Runnable>();
+  private final Executor executor = new Executor() {
+    @Override
+    public void execute(Runnable task) {
+      tasks.add(task);
+    }
+  };
+
+  @Mock
+  private Channel channel;
+  @Mock
+  private Call<String, String> call;
+  @Mock
+  private Call.Listener<String> listener;
+
+  private CachingInterceptor interceptor;
+  private Channel intercepted;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    when(channel.newCall(Mockito.<MethodDescriptor<String, String>>any())).thenReturn(call);
+    interceptor = CachingInterceptor.newBuilder(1024, executor)
+        .cacheMethod("Service/get", 10, TimeUnit.SECONDS)
+        .ticker(ticker)
+        .build();
+    intercepted = ClientInterceptors.intercept(channel, interceptor);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void hitIsAnsweredWithoutChannel() {
+    startCall("key");
+    respond("value", Status.OK);
+    verify(listener).onPayload("value");
+
+    Call.Listener<String> listener2 = Mockito.mock(Call.Listener.class);
+    startCall("key", listener2);
+    // Delivered on the executor, not on the caller's stack.
+    Mockito.verifyZeroInteractions(listener2);
+    runTasks();
+    verify(listener2).onHeaders(any(Metadata.Headers.class));
+    verify(listener2).onPayload("value");
+    verify(listener2).onClose(same(Status.OK), any(Metadata.Trailers.class));
+    verify(channel, times(1)).newCall(method);
+    assertEquals(1, interceptor.getHitCount());
+    assertEquals(1, interceptor.getMissCount());
+  }
+
+  @Test
+  public void differentRequestsMiss() {
+    startCall("key");
+    respond("value", Status.OK);
+    startCall("other");
+    verify(channel, times(2)).newCall(method);
+    assertEquals(0, interceptor.getHitCount());
+    assertEquals(2, interceptor.getMissCount());
+  }
+
+  @Test
+  public void failuresAreNotCached() {
+    startCall("key");
+    respond(null, Status.UNAVAILABLE);
+    startCall("key");
+    verify(channel, times(2)).newCall(method);
+  }
+
+  @Test
+  public void entriesExpire() {
+    startCall("key");
+    respond("value", Status.OK);
+    ticker.advance(11, TimeUnit.SECONDS);
+    startCall("key");
+    verify(channel, times(2)).newCall(method);
+    assertEquals(1, interceptor.getEvictionCount());
+  }
+
+  @Test
+  public void memoryBudgetEvictsEntries() {
+    // Each entry weighs a bit over 200 bytes, so at most 20 fit.
+    interceptor = CachingInterceptor.newBuilder(4096, executor)
+        .cacheMethod("Service/get", 10, TimeUnit.SECONDS)
+        .build();
+    intercepted = ClientInterceptors.intercept(channel, interceptor);
+    for (int i = 0; i < 40; i++) {
+      startCall("key" + i);
+      respond(new String(new char[100]), Status.OK);
+    }
+    assertTrue(interceptor.getEvictionCount() >= 20);
+  }
+
+  @Test
+  public void otherMethodsAreNotIntercepted() {
+    MethodDescriptor<String, String> other = MethodDescriptor.create(
+        MethodType.UNARY, "Service/put", 1, TimeUnit.SECONDS,
+        new StringMarshaller(), new StringMarshaller());
+    Call<String, String> returned = intercepted.newCall(other);
+    assertEquals(call, returned);
+  }
+
+  @Test
+  public void cancelBeforeHalfCloseClosesCall() {
+    Call<String, String> cachingCall = intercepted.newCall(method);
+    cachingCall.start(listener, new Metadata.Headers());
+    cachingCall.cancel();
+    runTasks();
+    verify(listener).onClose(same(Status.CANCELLED), any(Metadata.Trailers.class));
+    verify(channel, never()).newCall(method);
+  }
+
+  @Test
+  public void differentHeadersMiss() {
+    startCall("key", listener, headers("alice", "1"));
+    respond("value", Status.OK);
+    startCall("key", listener, headers("bob", "2"));
+    verify(channel, times(2)).newCall(method);
+    assertEquals(0, interceptor.getHitCount());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void keyHeadersIgnoreOtherHeaders() {
+    interceptor = CachingInterceptor.newBuilder(1024, executor)
+        .cacheMethod("Service/get", 10, TimeUnit.SECONDS)
+        .keyHeaders(USER_KEY)
+        .build();
+    intercepted = ClientInterceptors.intercept(channel, interceptor);
+    startCall("key", listener, headers("alice", "1"));
+    respond("value", Status.OK);
+
+    Call.Listener<String> listener2 = Mockito.mock(Call.Listener.class);
+    startCall("key", listener2, headers("alice", "2"));
+    runTasks();
+    verify(listener2).onPayload("value");
+    startCall("key", listener, headers("bob", "2"));
+    verify(channel, times(2)).newCall(method);
+    assertEquals(1, interceptor.getHitCount());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void cancelAfterHitDeliversCancelled() {
+    startCall("key");
+    respond("value", Status.OK);
+
+    Call.Listener<String> listener2 = Mockito.mock(Call.Listener.class);
+    Call<String, String> cachingCall = intercepted.newCall(method);
+    cachingCall.start(listener2, new Metadata.Headers());
+    cachingCall.sendPayload("key");
+    cachingCall.halfClose();
+    cachingCall.cancel();
+    cachingCall.request(1);
+    runTasks();
+    verify(listener2, never()).onPayload(any(String.class));
+    verify(listener2).onClose(same(Status.CANCELLED), any(Metadata.Trailers.class));
+  }
+
+  private static Metadata.Headers headers(String user, String trace) {
+    Metadata.Headers headers = new Metadata.Headers();
+    headers.put(USER_KEY, user);
+    headers.put(TRACE_KEY, trace);
+    return headers;
+  }
+
+  private void runTasks() {
+    Runnable task;
+    while ((task = tasks.poll()) != null) {
+      task.run();
+    }
+  }
+
+  private void startCall(String request) {
+    startCall(request, listener);
+  }
+
+  private void startCall(String request, Call.Listener<String> listener) {
+    startCall(request, listener, new Metadata.Headers());
+  }
+
+  private void startCall(String request, Call.Listener<String> listener,
+      Metadata.Headers headers) {
+    Call<String, String> cachingCall = intercepted.newCall(method);
+    cachingCall.start(listener, headers);
+    cachingCall.request(1);
+    cachingCall.sendPayload(request);
+    cachingCall.halfClose();
+  }
+
+  @SuppressWarnings("unchecked")
+  private void respond(String response, Status status) {
+    ArgumentCaptor<Call.Listener> captor = ArgumentCaptor.forClass(Call.Listener.class);
+    verify(call, Mockito.atLeastOnce()).start(captor.capture(), any(Metadata.Headers.class));
+    Call.Listener<String> callListener = captor.getValue();
+    callListener.onHeaders(new Metadata.Headers());
+    if (response != null) {
+      callListener.onPayload(response);
+    }
+    callListener.onClose(status, new Metadata.Trailers());
+  }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import io.grpc.transport.ClientStream;
+import io.grpc.transport.ClientStreamListener;
+import io.grpc.transport.ClientTransport;
+import io.grpc.transport.ClientTransportFactory;
+import io.grpc.transport.RefusedStreamException;
+import io.grpc.transport.StreamTracer;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Unit tests for {@link ChannelImpl}. */
+@RunWith(JUnit4.class)
+public class ChannelImplTest {
+  private static final Status REFUSED =
+      RefusedStreamException.markRefused(Status.UNAVAILABLE.withDescription("Go away"));
+
+  private final MethodDescriptor<String, String> method = MethodDescriptor.create(
+      MethodType.UNARY, "Service/method", 1, TimeUnit.SECONDS,
+      new StringMarshaller(), new StringMarshaller());
+
+  @Mock
+  private ClientTransportFactory transportFactory;
+  @Mock
+  private ClientTransport transport1;
+  @Mock
+  private ClientTransport transport2;
+  @Mock
+  private ClientStream stream1;
+  @Mock
+  private ClientStream stream2;
+  @Mock
+  private Call.Listener<String> observer;
+
+  private ChannelImpl channel;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    when(transportFactory.newClientTransport()).thenReturn(transport1, transport2);
+    when(transport1.newStream(same(method), any(Metadata.Headers.class),
+        any(ClientStreamListener.class), same(StreamTracer.NOOP))).thenReturn(stream1);
+    when(transport2.newStream(same(method), any(Metadata.Headers.class),
+        any(ClientStreamListener.class), same(StreamTracer.NOOP))).thenReturn(stream2);
+    channel = new ChannelImpl(transportFactory, MoreExecutors.sameThreadExecutor());
+  }
+
+  @Test
+  public void refusedStreamIsReplayedOnNewTransport() throws Exception {
+    startUnaryCall("hello");
+    ClientStreamListener listener1 = captureListener(transport1);
+    captureTransportListener(transport1).transportShutdown();
+
+    listener1.closed(REFUSED, new Metadata.Trailers());
+    verify(observer, never()).onClose(any(Status.class), any(Metadata.Trailers.class));
+    ClientStreamListener listener2 = captureListener(transport2);
+    verify(stream2).request(1);
+    ArgumentCaptor<InputStream> message = ArgumentCaptor.forClass(InputStream.class);
+    verify(stream2).writeMessage(message.capture(), eq(5), isNull(Runnable.class));
+    assertEquals("hello", new String(ByteStreams.toByteArray(message.getValue()), UTF_8));
+    verify(stream2).halfClose();
+
+    listener2.closed(Status.OK, new Metadata.Trailers());
+    verify(observer).onClose(same(Status.OK), any(Metadata.Trailers.class));
+  }
+
+  @Test
+  public void otherFailuresAreNotRetried() {
+    startUnaryCall("hello");
+    captureListener(transport1).closed(Status.UNAVAILABLE, new Metadata.Trailers());
+    verify(observer).onClose(same(Status.UNAVAILABLE), any(Metadata.Trailers.class));
+    verify(transportFactory).newClientTransport();
+  }
+
+  @Test
+  public void callIsNotRetriedAfterHeaders() {
+    startUnaryCall("hello");
+    ClientStreamListener listener1 = captureListener(transport1);
+    listener1.headersRead(new Metadata.Headers());
+    listener1.closed(REFUSED, new Metadata.Trailers());
+    verify(observer).onClose(same(REFUSED), any(Metadata.Trailers.class));
+    verify(transport1).newStream(same(method), any(Metadata.Headers.class),
+        any(ClientStreamListener.class), same(StreamTracer.NOOP));
+  }
+
+  @Test
+  public void callIsNotRetriedWhenBufferIsExceeded() {
+    channel = new ChannelImpl(transportFactory, MoreExecutors.sameThreadExecutor(), 4, 1024);
+    startUnaryCall("hello");
+    captureListener(transport1).closed(REFUSED, new Metadata.Trailers());
+    verify(observer).onClose(same(REFUSED), any(Metadata.Trailers.class));
+  }
+
+  @Test
+  public void retriesAreBounded() {
+    startUnaryCall("hello");
+    // The transport is not shut down, so every attempt uses it.
+    ArgumentCaptor<ClientStreamListener> listeners =
+        ArgumentCaptor.forClass(ClientStreamListener.class);
+    for (int i = 1; i <= 4; i++) {
+      verify(transport1, times(i)).newStream(same(method),
+          any(Metadata.Headers.class), listeners.capture(), same(StreamTracer.NOOP));
+      listeners.getValue().closed(REFUSED, new Metadata.Trailers());
+    }
+    verify(observer).onClose(same(REFUSED), any(Metadata.Trailers.class));
+  }
+
+  @Test
+  public void requestIsOnlySerializedAgainWhenRetried() {
+    final AtomicInteger serialized = new AtomicInteger();
+    MethodDescriptor<String, String> countingMethod = MethodDescriptor.create(
+        MethodType.UNARY, "Service/method", 1, TimeUnit.SECONDS,
+        new StringMarshaller() {
+          @Override
+          public InputStream stream(String value) {
+            serialized.incrementAndGet();
+            return super.stream(value);
+          }
+        }, new StringMarshaller());
+    when(transport1.newStream(same(countingMethod), any(Metadata.Headers.class),
+        any(ClientStreamListener.class), same(StreamTracer.NOOP))).thenReturn(stream1);
+    when(transport2.newStream(same(countingMethod), any(Metadata.Headers.class),
+        any(ClientStreamListener.class), same(StreamTracer.NOOP))).thenReturn(stream2);
+    startCall(countingMethod, "hello");
+    assertEquals(1, serialized.get());
+
+    captureTransportListener(transport1).transportShutdown();
+    captureListener(transport1).closed(REFUSED, new Metadata.Trailers());
+    assertEquals(2, serialized.get());
+    verify(stream2).writeMessage(any(InputStream.class), eq(5), isNull(Runnable.class));
+  }
+
+  @Test
+  public void streamingCallIsNotRetried() {
+    MethodDescriptor<String, String> streamingMethod = MethodDescriptor.create(
+        MethodType.CLIENT_STREAMING, "Service/method", 1, TimeUnit.SECONDS,
+        new StringMarshaller(), new StringMarshaller());
+    when(transport1.newStream(same(streamingMethod), any(Metadata.Headers.class),
+        any(ClientStreamListener.class), same(StreamTracer.NOOP))).thenReturn(stream1);
+    startCall(streamingMethod, "hello");
+    captureListener(transport1).closed(REFUSED, new Metadata.Trailers());
+    verify(observer).onClose(same(REFUSED), any(Metadata.Trailers.class));
+    verify(transportFactory).newClientTransport();
+  }
+
+  @Test
+  public void callIsNotRetriedAfterTimeout() throws Exception {
+    MethodDescriptor<String, String> shortMethod = MethodDescriptor.create(
+        MethodType.UNARY, "Service/method", 1, TimeUnit.MILLISECONDS,
+        new StringMarshaller(), new StringMarshaller());
+    when(transport1.newStream(same(shortMethod), any(Metadata.Headers.class),
+        any(ClientStreamListener.class), same(StreamTracer.NOOP))).thenReturn(stream1);
+    startCall(shortMethod, "hello");
+    Thread.sleep(2);
+    captureListener(transport1).closed(REFUSED, new Metadata.Trailers());
+    verify(observer).onClose(same(REFUSED), any(Metadata.Trailers.class));
+  }
+
+  private void startUnaryCall(String request) {
+    startCall(method, request);
+  }
+
+  private void startCall(MethodDescriptor<String, String> method, String request) {
+    Call<String, String> call = channel.newCall(method);
+    call.start(observer, new Metadata.Headers());
+    call.request(1);
+    call.sendPayload(request);
+    call.halfClose();
+  }
+
+  private static ClientStreamListener captureListener(ClientTransport transport) {
+    ArgumentCaptor<ClientStreamListener> captor =
+        ArgumentCaptor.forClass(ClientStreamListener.class);
+    verify(transport).newStream(any(MethodDescriptor.class), any(Metadata.Headers.class),
+        captor.capture(), same(StreamTracer.NOOP));
+    return captor.getValue();
+  }
+
+  private static ClientTransport.Listener captureTransportListener(ClientTransport transport) {
+    ArgumentCaptor<ClientTransport.Listener> captor =
+        ArgumentCaptor.forClass(ClientTransport.Listener.class);
+    verify(transport).start(captor.capture());
+    return captor.getValue();
+  }
+}
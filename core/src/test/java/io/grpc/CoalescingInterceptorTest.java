@@ -0,0 +1,213 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/** Unit tests for {@link CoalescingInterceptor}. */
+@RunWith(JUnit4.class)
+public class CoalescingInterceptorTest {
+  private static final Metadata.Key<String> USER_KEY =
+      Metadata.Key.of("user", Metadata.ASCII_STRING_MARSHALLER);
+
+  private final MethodDescriptor<String, String> method = MethodDescriptor.create(
+      MethodType.UNARY, "Service/get", 1, TimeUnit.SECONDS,
+      new StringMarshaller(), new StringMarshaller());
+
+  @Mock
+  private Channel channel;
+  @Mock
+  private Call<String, String> call;
+  @Mock
+  private Call.Listener<String> listener1;
+  @Mock
+  private Call.Listener<String> listener2;
+
+  private final Queue<Runnable> tasks = new ArrayDeque<Runnable>();
+  private final Executor executor = new Executor() {
+    @Override
+    public void execute(Runnable task) {
+      tasks.add(task);
+    }
+  };
+  private CoalescingInterceptor interceptor = new CoalescingInterceptor(executor, "Service/get");
+  private Channel intercepted;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    when(channel.newCall(Mockito.<MethodDescriptor<String, String>>any())).thenReturn(call);
+    intercepted = ClientInterceptors.intercept(channel, interceptor);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void identicalCallsShareOneCall() {
+    startCall("key", listener1);
+    startCall("key", listener2);
+    verify(channel, times(1)).newCall(method);
+    verify(call).sendPayload("key");
+    assertEquals(1, interceptor.getCoalescedCount());
+
+    Call.Listener<String> callListener = captureListener();
+    Metadata.Headers headers = new Metadata.Headers();
+    callListener.onHeaders(headers);
+    callListener.onPayload("value");
+    callListener.onClose(Status.OK, new Metadata.Trailers());
+    runTasks();
+    for (Call.Listener<String> listener : new Call.Listener[] {listener1, listener2}) {
+      verify(listener).onHeaders(same(headers));
+      verify(listener).onPayload("value");
+      verify(listener).onClose(same(Status.OK), any(Metadata.Trailers.class));
+    }
+  }
+
+  @Test
+  public void callsAfterHeadersStartNewCall() {
+    startCall("key", listener1);
+    captureListener().onHeaders(new Metadata.Headers());
+    startCall("key", listener2);
+    runTasks();
+    verify(channel, times(2)).newCall(method);
+    verify(listener2, never()).onHeaders(any(Metadata.Headers.class));
+  }
+
+  @Test
+  public void differentRequestsAreNotCoalesced() {
+    startCall("key", listener1);
+    startCall("other", listener2);
+    verify(channel, times(2)).newCall(method);
+  }
+
+  @Test
+  public void differentHeadersAreNotCoalesced() {
+    Metadata.Headers alice = new Metadata.Headers();
+    alice.put(USER_KEY, "alice");
+    Metadata.Headers bob = new Metadata.Headers();
+    bob.put(USER_KEY, "bob");
+    startCall("key", listener1, alice);
+    startCall("key", listener2, bob);
+    verify(channel, times(2)).newCall(method);
+  }
+
+  @Test
+  public void responseWaitsForRequest() {
+    Call<String, String> coalescingCall = intercepted.newCall(method);
+    coalescingCall.start(listener1, new Metadata.Headers());
+    coalescingCall.sendPayload("key");
+    coalescingCall.halfClose();
+    Call.Listener<String> callListener = captureListener();
+    callListener.onHeaders(new Metadata.Headers());
+    callListener.onPayload("value");
+    callListener.onClose(Status.OK, new Metadata.Trailers());
+    runTasks();
+    verify(listener1, never()).onPayload(any(String.class));
+    verify(listener1, never()).onClose(any(Status.class), any(Metadata.Trailers.class));
+
+    coalescingCall.request(1);
+    // Delivered on the executor, not on the caller's stack.
+    verify(listener1, never()).onPayload(any(String.class));
+    runTasks();
+    verify(listener1).onPayload("value");
+    verify(listener1).onClose(same(Status.OK), any(Metadata.Trailers.class));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void underlyingCallIsCancelledWithLastCall() {
+    Call<String, String> first = startCall("key", listener1);
+    Call<String, String> second = startCall("key", listener2);
+
+    first.cancel();
+    runTasks();
+    verify(listener1).onClose(same(Status.CANCELLED), any(Metadata.Trailers.class));
+    verify(call, never()).cancel();
+
+    second.cancel();
+    runTasks();
+    verify(call).cancel();
+    verify(listener2).onClose(same(Status.CANCELLED), any(Metadata.Trailers.class));
+
+    // A cancelled flight is not joined.
+    startCall("key", mock(Call.Listener.class));
+    verify(channel, times(2)).newCall(method);
+  }
+
+  private Call<String, String> startCall(String request, Call.Listener<String> listener) {
+    return startCall(request, listener, new Metadata.Headers());
+  }
+
+  private Call<String, String> startCall(String request, Call.Listener<String> listener,
+      Metadata.Headers headers) {
+    Call<String, String> coalescingCall = intercepted.newCall(method);
+    coalescingCall.start(listener, headers);
+    coalescingCall.request(1);
+    coalescingCall.sendPayload(request);
+    coalescingCall.halfClose();
+    return coalescingCall;
+  }
+
+  private void runTasks() {
+    Runnable task;
+    while ((task = tasks.poll()) != null) {
+      task.run();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private Call.Listener<String> captureListener() {
+    ArgumentCaptor<Call.Listener> captor = ArgumentCaptor.forClass(Call.Listener.class);
+    verify(call, Mockito.atLeastOnce()).start(captor.capture(), any(Metadata.Headers.class));
+    return captor.getValue();
+  }
+}
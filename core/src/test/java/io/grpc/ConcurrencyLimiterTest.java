@@ -0,0 +1,86 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link ConcurrencyLimiter}. */
+@RunWith(JUnit4.class)
+public class ConcurrencyLimiterTest {
+  @Test
+  public void rejectsAboveLimit() {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(2);
+    AdmissionController.Admission first = limiter.tryAdmit("/a/a");
+    assertNotNull(first);
+    assertNotNull(limiter.tryAdmit("/b/b"));
+    assertNull(limiter.tryAdmit("/a/a"));
+
+    first.release(Status.OK);
+    assertNotNull(limiter.tryAdmit("/a/a"));
+    assertNull(limiter.tryAdmit("/b/b"));
+  }
+
+  @Test
+  public void methodLimitsAreIndependent() {
+    ConcurrencyLimiter limiter =
+        new ConcurrencyLimiter(1, ImmutableMap.of("/Service/slow", 1, "/Service/fast", 2));
+    assertNotNull(limiter.tryAdmit("/Service/slow"));
+    assertNull(limiter.tryAdmit("/Service/slow"));
+
+    assertNotNull(limiter.tryAdmit("/Service/fast"));
+    assertNotNull(limiter.tryAdmit("/Service/fast"));
+    assertNull(limiter.tryAdmit("/Service/fast"));
+
+    assertNotNull(limiter.tryAdmit("/Service/other"));
+    assertNull(limiter.tryAdmit("/Service/another"));
+  }
+
+  @Test
+  public void allOfReleasesWhenRejected() {
+    ConcurrencyLimiter global = new ConcurrencyLimiter(2);
+    ConcurrencyLimiter perMethod = new ConcurrencyLimiter(10, ImmutableMap.of("/Service/slow", 1));
+    AdmissionController controller = AdmissionControllers.allOf(global, perMethod);
+
+    assertNotNull(controller.tryAdmit("/Service/slow"));
+    // Rejected by perMethod; must not leak the global admission.
+    assertNull(controller.tryAdmit("/Service/slow"));
+    assertNotNull(controller.tryAdmit("/Service/fast"));
+    assertNull(controller.tryAdmit("/Service/fast"));
+  }
+}
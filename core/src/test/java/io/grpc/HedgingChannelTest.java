@@ -0,0 +1,237 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/** Unit tests for {@link HedgingChannel}. */
+@RunWith(JUnit4.class)
+public class HedgingChannelTest {
+  private final MethodDescriptor<String, Integer> method = MethodDescriptor.create(
+      MethodType.UNARY, "Service/lookup", 1, TimeUnit.SECONDS, null, null);
+
+  @Mock
+  private Channel channel;
+  @Mock
+  private ScheduledExecutorService scheduler;
+  @Mock
+  private ScheduledFuture<?> hedgeFuture;
+  @Mock
+  private Call<String, Integer> primary;
+  @Mock
+  private Call<String, Integer> hedge;
+  @Mock
+  private Call.Listener<Integer> listener;
+
+  private HedgingChannel hedgingChannel;
+
+  @Before
+  @SuppressWarnings("unchecked")
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    when(channel.newCall(same(method))).thenReturn(primary, hedge);
+    when(scheduler.schedule(any(Runnable.class), anyLong(), any(TimeUnit.class)))
+        .thenReturn((ScheduledFuture) hedgeFuture);
+    hedgingChannel = HedgingChannel.newBuilder(channel, scheduler)
+        .hedgeMethods("Service/lookup")
+        .fixedDelay(50, TimeUnit.MILLISECONDS)
+        .build();
+  }
+
+  @Test
+  public void nonHedgedMethodIsNotWrapped() {
+    MethodDescriptor<String, Integer> other = MethodDescriptor.create(
+        MethodType.UNARY, "Service/update", 1, TimeUnit.SECONDS, null, null);
+    when(channel.newCall(same(other))).thenReturn(primary);
+    assertSame(primary, hedgingChannel.newCall(other));
+  }
+
+  @Test
+  public void firstResponseWinsAndLoserIsCancelled() {
+    startCall();
+    Runnable sendHedge = captureHedge(50);
+    sendHedge.run();
+    Call.Listener<Integer> hedgeListener = captureListener(hedge);
+    verify(hedge).request(1);
+    verify(hedge).sendPayload("request");
+    verify(hedge).halfClose();
+
+    Metadata.Headers headers = new Metadata.Headers();
+    hedgeListener.onHeaders(headers);
+    verify(primary).cancel();
+    verify(listener).onHeaders(same(headers));
+
+    captureListener(primary).onClose(Status.CANCELLED, new Metadata.Trailers());
+    hedgeListener.onPayload(1);
+    hedgeListener.onClose(Status.OK, new Metadata.Trailers());
+    verify(listener).onPayload(1);
+    verify(listener).onClose(same(Status.OK), any(Metadata.Trailers.class));
+    verify(listener, never()).onClose(same(Status.CANCELLED), any(Metadata.Trailers.class));
+    verify(hedge, never()).cancel();
+  }
+
+  @Test
+  public void responseBeforeDelayCancelsHedge() {
+    startCall();
+    captureHedge(50);
+    Call.Listener<Integer> primaryListener = captureListener(primary);
+    primaryListener.onHeaders(new Metadata.Headers());
+    verify(hedgeFuture).cancel(false);
+    primaryListener.onClose(Status.OK, new Metadata.Trailers());
+    verify(listener).onClose(same(Status.OK), any(Metadata.Trailers.class));
+  }
+
+  @Test
+  public void failureIsIgnoredWhileHedgeIsRunning() {
+    startCall();
+    captureHedge(50).run();
+    captureListener(primary).onClose(Status.UNAVAILABLE, new Metadata.Trailers());
+    verify(listener, never()).onClose(any(Status.class), any(Metadata.Trailers.class));
+
+    captureListener(hedge).onClose(Status.INTERNAL, new Metadata.Trailers());
+    verify(listener).onClose(same(Status.INTERNAL), any(Metadata.Trailers.class));
+  }
+
+  @Test
+  public void failureIsDeliveredWhenNoHedgeIsRunning() {
+    startCall();
+    captureHedge(50);
+    captureListener(primary).onClose(Status.UNAVAILABLE, new Metadata.Trailers());
+    verify(listener).onClose(same(Status.UNAVAILABLE), any(Metadata.Trailers.class));
+    verify(hedgeFuture).cancel(false);
+  }
+
+  @Test
+  public void budgetLimitsHedges() {
+    HedgingChannel.Budget budget = new HedgingChannel.Budget(2, 0.5);
+    assertTrue(budget.tryAcquire());
+    assertTrue(budget.tryAcquire());
+    assertFalse(budget.tryAcquire());
+    budget.onCall();
+    assertFalse(budget.tryAcquire());
+    budget.onCall();
+    assertTrue(budget.tryAcquire());
+  }
+
+  @Test
+  public void hedgeIsNotSentWithoutBudget() {
+    hedgingChannel = HedgingChannel.newBuilder(channel, scheduler)
+        .hedgeMethods("Service/lookup")
+        .budget(1, 0)
+        .build();
+    startCall();
+    captureHedge(100).run();
+    verify(channel, Mockito.times(2)).newCall(same(method));
+
+    Mockito.reset(scheduler);
+    when(channel.newCall(same(method))).thenReturn(primary);
+    startCall();
+    ArgumentCaptor<Runnable> captor = ArgumentCaptor.forClass(Runnable.class);
+    verify(scheduler).schedule(captor.capture(), anyLong(), any(TimeUnit.class));
+    captor.getValue().run();
+    verify(channel, Mockito.times(3)).newCall(same(method));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void hedgeWinningRecordsLatencyFromCallStart() {
+    FakeTicker ticker = new FakeTicker();
+    hedgingChannel = HedgingChannel.newBuilder(channel, scheduler)
+        .hedgeMethods("Service/lookup")
+        .percentileDelay(50, 10, TimeUnit.MILLISECONDS)
+        .budget(1, 1)
+        .ticker(ticker)
+        .build();
+    for (int i = 0; i < 128; i++) {
+      Call<String, Integer> slowPrimary = mock(Call.class);
+      Call<String, Integer> fastHedge = mock(Call.class);
+      when(channel.newCall(same(method))).thenReturn(slowPrimary, fastHedge);
+      Mockito.reset(scheduler);
+      startCall();
+      ticker.advance(10, TimeUnit.MILLISECONDS);
+      captureHedge(10).run();
+      ticker.advance(1, TimeUnit.MILLISECONDS);
+      captureListener(fastHedge).onClose(Status.OK, new Metadata.Trailers());
+      verify(slowPrimary).cancel();
+    }
+
+    // The hedge only took 1 ms, but the primary had not responded after 11 ms.
+    Mockito.reset(scheduler);
+    startCall();
+    captureHedge(11);
+  }
+
+  private void startCall() {
+    Call<String, Integer> call = hedgingChannel.newCall(method);
+    call.start(listener, new Metadata.Headers());
+    call.request(1);
+    call.sendPayload("request");
+    call.halfClose();
+  }
+
+  private Runnable captureHedge(long delayMillis) {
+    ArgumentCaptor<Runnable> captor = ArgumentCaptor.forClass(Runnable.class);
+    verify(scheduler).schedule(captor.capture(),
+        eq(TimeUnit.MILLISECONDS.toNanos(delayMillis)), eq(TimeUnit.NANOSECONDS));
+    return captor.getValue();
+  }
+
+  @SuppressWarnings("unchecked")
+  private Call.Listener<Integer> captureListener(Call<String, Integer> call) {
+    ArgumentCaptor<Call.Listener> captor = ArgumentCaptor.forClass(Call.Listener.class);
+    verify(call).start(captor.capture(), any(Metadata.Headers.class));
+    return captor.getValue();
+  }
+}
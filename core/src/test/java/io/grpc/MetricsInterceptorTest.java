@@ -0,0 +1,214 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.protobuf.MessageLite;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import java.util.concurrent.TimeUnit;
+
+/** Unit tests for {@link MetricsInterceptor}. */
+@RunWith(JUnit4.class)
+public class MetricsInterceptorTest {
+  private final MethodDescriptor<MessageLite, MessageLite> method = MethodDescriptor.create(
+      MethodType.UNARY, "Service/vote", 1, TimeUnit.SECONDS, null, null);
+  private final FakeTicker ticker = new FakeTicker();
+  private final MetricsInterceptor interceptor = new MetricsInterceptor(ticker);
+
+  @Mock
+  private Channel channel;
+  @Mock
+  private Call<MessageLite, MessageLite> call;
+  @Mock
+  private Call.Listener<MessageLite> listener;
+  @Mock
+  private ServerCall<String> serverCall;
+  @Mock
+  private ServerCallHandler<String, String> handler;
+  @Mock
+  private ServerCall.Listener<String> serverListener;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    when(channel.newCall(same(method))).thenReturn(call);
+    when(handler.startCall(any(String.class), Mockito.<ServerCall<String>>any(),
+        any(Metadata.Headers.class)))
+        .thenReturn(serverListener);
+  }
+
+  @Test
+  public void recordsClientCall() {
+    Call<MessageLite, MessageLite> interceptedCall =
+        ClientInterceptors.intercept(channel, interceptor).newCall(method);
+    interceptedCall.start(listener, new Metadata.Headers());
+    interceptedCall.sendPayload(message(10));
+    Call.Listener<MessageLite> callListener = captureListener();
+    ticker.advance(5, TimeUnit.MILLISECONDS);
+    callListener.onPayload(message(300));
+    callListener.onClose(Status.OK, new Metadata.Trailers());
+    verify(listener).onClose(same(Status.OK), any(Metadata.Trailers.class));
+
+    MethodMetricsSnapshot snapshot = interceptor.snapshot("Service/vote");
+    assertEquals("Service/vote", snapshot.getMethod());
+    assertEquals(1, snapshot.getCallsStarted());
+    assertEquals(ImmutableMap.of(Status.Code.OK, 1L), snapshot.getStatusCounts());
+    assertEquals(1, snapshot.getMessagesSent());
+    assertEquals(10, snapshot.getBytesSent());
+    assertEquals(1, snapshot.getMessagesReceived());
+    assertEquals(300, snapshot.getBytesReceived());
+    assertEquals(300, snapshot.getReceivedMessageSizes().getMaxValue());
+    assertTrue(Math.abs(snapshot.getLatencyMicrosAtPercentile(50) - 5000) <= 5);
+  }
+
+  @Test
+  public void recordsServerCall() {
+    ServerCall.Listener<String> listener =
+        interceptor.interceptCall("/Service/vote", serverCall, new Metadata.Headers(), handler);
+    ArgumentCaptor<ServerCall<String>> callCaptor = ArgumentCaptor.forClass(null);
+    verify(handler).startCall(same("/Service/vote"), callCaptor.capture(),
+        any(Metadata.Headers.class));
+    ServerCall<String> interceptedCall = callCaptor.getValue();
+
+    listener.onPayload("request");
+    listener.onHalfClose();
+    ticker.advance(2, TimeUnit.MILLISECONDS);
+    interceptedCall.sendPayload("response");
+    interceptedCall.close(Status.NOT_FOUND, new Metadata.Trailers());
+    verify(serverListener).onPayload("request");
+    verify(serverCall).sendPayload("response");
+
+    MethodMetricsSnapshot snapshot = interceptor.snapshot("Service/vote");
+    assertEquals(1, snapshot.getCallsStarted());
+    assertEquals(1, snapshot.getStatusCount(Status.Code.NOT_FOUND));
+    assertEquals(1, snapshot.getMessagesReceived());
+    assertEquals(1, snapshot.getMessagesSent());
+    // Sizes of messages that aren't protobufs are not known.
+    assertEquals(0, snapshot.getBytesSent());
+    assertTrue(Math.abs(snapshot.getLatencyMicrosAtPercentile(99) - 2000) <= 2);
+  }
+
+  @Test
+  public void recordsSerializedServerPayload() {
+    interceptor.interceptCall("/Service/vote", serverCall, new Metadata.Headers(), handler);
+    ArgumentCaptor<ServerCall<String>> callCaptor = ArgumentCaptor.forClass(null);
+    verify(handler).startCall(same("/Service/vote"), callCaptor.capture(),
+        any(Metadata.Headers.class));
+    ServerCall<String> interceptedCall = callCaptor.getValue();
+
+    SerializedMessage<String> message =
+        SerializedMessage.create(new StringMarshaller(), "response");
+    interceptedCall.sendSerializedPayload(message);
+    verify(serverCall).sendSerializedPayload(same(message));
+
+    MethodMetricsSnapshot snapshot = interceptor.snapshot("Service/vote");
+    assertEquals(1, snapshot.getMessagesSent());
+    assertEquals(message.size(), snapshot.getBytesSent());
+  }
+
+  @Test
+  public void cancelledServerCallIsRecordedOnce() {
+    ServerCall.Listener<String> listener =
+        interceptor.interceptCall("/Service/vote", serverCall, new Metadata.Headers(), handler);
+    listener.onCancel();
+    verify(serverListener).onCancel();
+
+    MethodMetricsSnapshot snapshot = interceptor.snapshot("/Service/vote");
+    assertEquals(1, snapshot.getCallsFinished());
+    assertEquals(1, snapshot.getStatusCount(Status.Code.CANCELLED));
+  }
+
+  @Test
+  public void snapshotsAreCumulative() {
+    Channel intercepted = ClientInterceptors.intercept(channel, interceptor);
+    for (int i = 1; i <= 3; i++) {
+      Call<MessageLite, MessageLite> interceptedCall = intercepted.newCall(method);
+      interceptedCall.start(listener, new Metadata.Headers());
+      ticker.advance(i, TimeUnit.MILLISECONDS);
+      captureListener(i).onClose(Status.OK, new Metadata.Trailers());
+      assertEquals(i, interceptor.snapshot("Service/vote").getLatencyMicros().getTotalCount());
+    }
+    assertEquals(1, interceptor.snapshot().size());
+    assertNull(interceptor.snapshot("Service/other"));
+  }
+
+  @Test
+  public void serviceReportsMatchingMethods() {
+    Channel intercepted = ClientInterceptors.intercept(channel, interceptor);
+    intercepted.newCall(method).start(listener, new Metadata.Headers());
+    MethodDescriptor<MessageLite, MessageLite> other = MethodDescriptor.create(
+        MethodType.UNARY, "Other/vote", 1, TimeUnit.SECONDS, null, null);
+    when(channel.newCall(same(other))).thenReturn(call);
+    intercepted.newCall(other).start(listener, new Metadata.Headers());
+
+    String report = MetricsService.report(interceptor, "Service/");
+    assertTrue(report, report.startsWith("Service/vote started=1 "));
+    assertTrue(report, report.contains(" p99.9="));
+    assertEquals(1, report.split("\n").length);
+  }
+
+  private Call.Listener<MessageLite> captureListener() {
+    return captureListener(1);
+  }
+
+  private Call.Listener<MessageLite> captureListener(int times) {
+    ArgumentCaptor<Call.Listener<MessageLite>> captor = ArgumentCaptor.forClass(null);
+    verify(call, times(times))
+        .start(captor.capture(), any(Metadata.Headers.class));
+    return captor.getValue();
+  }
+
+  private static MessageLite message(int size) {
+    MessageLite message = mock(MessageLite.class);
+    when(message.getSerializedSize()).thenReturn(size);
+    return message;
+  }
+}
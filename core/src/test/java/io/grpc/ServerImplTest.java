@@ -35,12 +35,14 @@ import static com.google.common.base.Charsets.UTF_8;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isNull;
 import static org.mockito.Matchers.notNull;
 import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -66,12 +68,16 @@ import org.mockito.MockitoAnnotations;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 /** Unit tests for {@link ServerImpl}. */
@@ -279,6 +285,157 @@ public class ServerImplTest {
     verifyNoMoreInteractions(stream);
   }
 
+  @Test
+  public void inFlightCallCountTracksOpenStreams() throws Exception {
+    registry.addService(ServerServiceDefinition.builder("Waiter")
+        .addMethod("serve", STRING_MARSHALLER, INTEGER_MARSHALLER,
+          new ServerCallHandler<String, Integer>() {
+            @Override
+            public ServerCall.Listener<String> startCall(String fullMethodName,
+                ServerCall<Integer> call, Metadata.Headers headers) {
+              return callListener;
+            }
+          }).build());
+    ServerTransportListener transportListener = newTransport(server);
+    assertEquals(0, server.getInFlightCallCount());
+
+    ServerStreamListener streamListener1
+        = transportListener.streamCreated(stream, "/Waiter/serve", new Metadata.Headers());
+    ServerStreamListener streamListener2
+        = transportListener.streamCreated(stream, "/Waiter/serve", new Metadata.Headers());
+    assertEquals(2, server.getInFlightCallCount());
+
+    streamListener1.closed(Status.OK);
+    assertEquals(1, server.getInFlightCallCount());
+    streamListener2.closed(Status.CANCELLED);
+    assertEquals(0, server.getInFlightCallCount());
+  }
+
+  @Test
+  public void serializedPayloadIsNotMarshalledAgain() throws Exception {
+    final AtomicInteger streamedCount = new AtomicInteger();
+    Marshaller<Integer> countingMarshaller = new Marshaller<Integer>() {
+      @Override
+      public InputStream stream(Integer value) {
+        streamedCount.incrementAndGet();
+        return INTEGER_MARSHALLER.stream(value);
+      }
+
+      @Override
+      public Integer parse(InputStream stream) {
+        return INTEGER_MARSHALLER.parse(stream);
+      }
+    };
+    final List<ServerCall<Integer>> calls = new CopyOnWriteArrayList<ServerCall<Integer>>();
+    registry.addService(ServerServiceDefinition.builder("Waiter")
+        .addMethod("serve", STRING_MARSHALLER, countingMarshaller,
+          new ServerCallHandler<String, Integer>() {
+            @Override
+            public ServerCall.Listener<String> startCall(String fullMethodName,
+                ServerCall<Integer> call, Metadata.Headers headers) {
+              calls.add(call);
+              return callListener;
+            }
+          }).build());
+    ServerTransportListener transportListener = newTransport(server);
+    ServerStream stream2 = mock(ServerStream.class);
+    transportListener.streamCreated(stream, "/Waiter/serve", new Metadata.Headers());
+    transportListener.streamCreated(stream2, "/Waiter/serve", new Metadata.Headers());
+    executeBarrier(executor).await();
+    assertEquals(2, calls.size());
+
+    SerializedMessage<Integer> message = SerializedMessage.create(countingMarshaller, 314);
+    assertEquals(1, streamedCount.get());
+    calls.get(0).sendSerializedPayload(message);
+    calls.get(1).sendSerializedPayload(message);
+    assertEquals(1, streamedCount.get());
+
+    for (ServerStream s : Arrays.asList(stream, stream2)) {
+      ArgumentCaptor<InputStream> inputCaptor = ArgumentCaptor.forClass(InputStream.class);
+      verify(s).writeMessage(inputCaptor.capture(), eq(3), isNull(Runnable.class));
+      verify(s).flush();
+      assertEquals(314, INTEGER_MARSHALLER.parse(inputCaptor.getValue()).intValue());
+    }
+  }
+
+  @Test
+  public void shutdownNowClosesInFlightCalls() throws Exception {
+    registry.addService(ServerServiceDefinition.builder("Waiter")
+        .addMethod("serve", STRING_MARSHALLER, INTEGER_MARSHALLER,
+          new ServerCallHandler<String, Integer>() {
+            @Override
+            public ServerCall.Listener<String> startCall(String fullMethodName,
+                ServerCall<Integer> call, Metadata.Headers headers) {
+              return callListener;
+            }
+          }).build());
+    ServerTransportListener transportListener = newTransport(server);
+    transportListener.streamCreated(stream, "/Waiter/serve", new Metadata.Headers());
+    executeBarrier(executor).await();
+
+    server.shutdownNow();
+    executeBarrier(executor).await();
+    ArgumentCaptor<Status> statusCaptor = ArgumentCaptor.forClass(Status.class);
+    verify(stream).close(statusCaptor.capture(), notNull(Metadata.Trailers.class));
+    assertEquals(Status.Code.UNAVAILABLE, statusCaptor.getValue().getCode());
+    assertTrue(server.isShutdown());
+  }
+
+  @Test
+  public void rejectedCallIsNotStarted() throws Exception {
+    final AtomicReference<Status> releaseStatus = new AtomicReference<Status>();
+    ServerImpl server = new ServerImpl(executor, registry, new AdmissionController() {
+      private boolean admitted;
+
+      @Override
+      public Admission tryAdmit(String method) {
+        if (admitted) {
+          return null;
+        }
+        admitted = true;
+        return new Admission() {
+          @Override
+          public void release(Status status) {
+            releaseStatus.set(status);
+          }
+        };
+      }
+    }).setTransportServer(new NoopService());
+    server.start();
+    final AtomicReference<String> startedMethod = new AtomicReference<String>();
+    registry.addService(ServerServiceDefinition.builder("Waiter")
+        .addMethod("serve", STRING_MARSHALLER, INTEGER_MARSHALLER,
+          new ServerCallHandler<String, Integer>() {
+            @Override
+            public ServerCall.Listener<String> startCall(String fullMethodName,
+                ServerCall<Integer> call, Metadata.Headers headers) {
+              startedMethod.set(fullMethodName);
+              return callListener;
+            }
+          }).build());
+    ServerTransportListener transportListener = newTransport(server);
+    ServerStreamListener admittedListener
+        = transportListener.streamCreated(stream, "/Waiter/serve", new Metadata.Headers());
+    executeBarrier(executor).await();
+    assertEquals("/Waiter/serve", startedMethod.getAndSet(null));
+
+    ServerStream rejectedStream = mock(ServerStream.class);
+    ServerStreamListener rejectedListener
+        = transportListener.streamCreated(rejectedStream, "/Waiter/serve", new Metadata.Headers());
+    // Rejected without going through the executor.
+    ArgumentCaptor<Status> statusCaptor = ArgumentCaptor.forClass(Status.class);
+    verify(rejectedStream).close(statusCaptor.capture(), notNull(Metadata.Trailers.class));
+    assertEquals(Status.Code.RESOURCE_EXHAUSTED, statusCaptor.getValue().getCode());
+    assertEquals(1, server.getInFlightCallCount());
+    executeBarrier(executor).await();
+    assertNull(startedMethod.get());
+    rejectedListener.closed(Status.OK);
+    assertNull(releaseStatus.get());
+
+    admittedListener.closed(Status.OK);
+    assertSame(Status.OK, releaseStatus.get());
+  }
+
   private static ServerTransportListener newTransport(ServerImpl server) {
     Service transport = new NoopService();
     transport.startAsync();
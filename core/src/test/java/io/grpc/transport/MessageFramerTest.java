@@ -34,6 +34,7 @@ package io.grpc.transport;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static io.grpc.transport.MessageFramer.Compression;
@@ -187,6 +188,21 @@ public class MessageFramerTest {
     assertEquals(0, buffer.data[3]);
   }
 
+  @Test
+  public void tracerSeesUncompressedAndWireSizes() throws Exception {
+    StreamTracer tracer = mock(StreamTracer.class);
+    framer.setTracer(tracer);
+    writePayload(framer, new byte[] {3, 14});
+    verify(tracer).outboundMessage(2, 2);
+
+    MessageFramer gzipFramer = new MessageFramer(sink, allocator, 100, Compression.GZIP);
+    gzipFramer.setTracer(tracer);
+    writePayload(gzipFramer, new byte[1000]);
+    ArgumentCaptor<Integer> wireSize = ArgumentCaptor.forClass(Integer.class);
+    verify(tracer).outboundMessage(eq(1000), wireSize.capture());
+    assertTrue(wireSize.getValue() < 100);
+  }
+
   private static WritableBuffer toWriteBuffer(byte[] data) {
     return toWriteBuffer(data, TRANSPORT_FRAME_SIZE);
   }
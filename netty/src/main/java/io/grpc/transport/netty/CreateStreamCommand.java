@@ -42,11 +42,25 @@ import io.netty.handler.codec.http2.Http2Headers;
 class CreateStreamCommand {
   private final Http2Headers headers;
   private final NettyClientStream stream;
+  private final boolean unaryRequest;
 
   CreateStreamCommand(Http2Headers headers,
                       NettyClientStream stream) {
+    this(headers, stream, false);
+  }
+
+  /**
+   * Creates a command for a stream whose request is a single message if {@code unaryRequest} is
+   * {@code true}. The message and the end of stream are then written right after the stream is
+   * created, so its headers are not flushed on their own but along with the message. If the message
+   * is delayed, so are the headers, unless another write on the connection flushes them first.
+   */
+  CreateStreamCommand(Http2Headers headers,
+                      NettyClientStream stream,
+                      boolean unaryRequest) {
     this.stream = Preconditions.checkNotNull(stream, "stream");
     this.headers = Preconditions.checkNotNull(headers, "headers");
+    this.unaryRequest = unaryRequest;
   }
 
   NettyClientStream stream() {
@@ -56,4 +70,8 @@ class CreateStreamCommand {
   Http2Headers headers() {
     return headers;
   }
+
+  boolean unaryRequest() {
+    return unaryRequest;
+  }
 }
@@ -0,0 +1,318 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.transport.netty;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Monitors the health of the event loops used by Netty servers and channels.
+ *
+ * <p>Each event loop that has a monitored channel registered to it periodically runs a probe task.
+ * The time between the moment the probe was due and the moment it actually ran is the scheduling
+ * delay that every other task queued on the loop experiences, for instance a message waiting to be
+ * written. The probe also samples the number of pending tasks and the CPU time used by the loop's
+ * thread, from which the fraction of time the loop was busy rather than waiting for I/O is derived.
+ *
+ * <p>A monitor is installed with {@link NettyServerBuilder#eventLoopMonitor} and {@link
+ * NettyChannelBuilder#eventLoopMonitor}, and may be shared by several servers and channels. The
+ * probes keep running until {@link #stop} is called or their event loop shuts down. A loop is
+ * forgotten once it has terminated, and registering a new channel to a loop resumes its probes if
+ * they were stopped.
+ */
+@ThreadSafe
+public final class EventLoopMonitor {
+  private static final Logger log = Logger.getLogger(EventLoopMonitor.class.getName());
+
+  private final long probeIntervalNanos;
+  private final long delayThresholdNanos;
+  private final ThreadMXBean threadMxBean = ManagementFactory.getThreadMXBean();
+  private final ConcurrentMap<EventLoop, LoopState> loops =
+      new ConcurrentHashMap<EventLoop, LoopState>();
+
+  /**
+   * Creates a monitor.
+   *
+   * @param probeInterval how often each event loop is probed.
+   * @param delayThreshold the scheduling delay above which a warning is logged.
+   * @param unit the unit of {@code probeInterval} and {@code delayThreshold}.
+   */
+  public EventLoopMonitor(long probeInterval, long delayThreshold, TimeUnit unit) {
+    Preconditions.checkArgument(probeInterval > 0, "probeInterval must be positive");
+    Preconditions.checkArgument(delayThreshold >= 0, "delayThreshold must be non-negative");
+    this.probeIntervalNanos = unit.toNanos(probeInterval);
+    this.delayThresholdNanos = unit.toNanos(delayThreshold);
+  }
+
+  /**
+   * Starts probing the event loop of the given channel if it isn't probed yet, and counts the
+   * channel against that loop until it closes. The channel must already be registered.
+   */
+  void channelRegistered(Channel channel) {
+    final EventLoop loop = channel.eventLoop();
+    LoopState state = loops.get(loop);
+    if (state == null) {
+      LoopState newState = new LoopState(loop);
+      state = loops.putIfAbsent(loop, newState);
+      if (state == null) {
+        state = newState;
+        final LoopState addedState = newState;
+        loop.terminationFuture().addListener(new GenericFutureListener<Future<Object>>() {
+          @Override
+          public void operationComplete(Future<Object> future) {
+            loops.remove(loop, addedState);
+          }
+        });
+      }
+    }
+    state.startProbing();
+    final AtomicInteger channels = state.channels;
+    channels.incrementAndGet();
+    channel.closeFuture().addListener(new ChannelFutureListener() {
+      @Override
+      public void operationComplete(ChannelFuture future) {
+        channels.decrementAndGet();
+      }
+    });
+  }
+
+  /**
+   * Returns the latest measurements of every monitored event loop.
+   */
+  public List<LoopStats> snapshot() {
+    List<LoopStats> stats = new ArrayList<LoopStats>(loops.size());
+    for (LoopState state : loops.values()) {
+      stats.add(state.stats());
+    }
+    return stats;
+  }
+
+  @VisibleForTesting
+  boolean isProbing(EventLoop loop) {
+    LoopState state = loops.get(loop);
+    return state != null && state.probing.get();
+  }
+
+  /**
+   * Stops probing the event loops. Measurements taken so far remain available from {@link
+   * #snapshot}.
+   */
+  public void stop() {
+    for (LoopState state : loops.values()) {
+      state.stopped = true;
+    }
+  }
+
+  /**
+   * The state of a single event loop. Measurements are only written by the probe, which runs on
+   * the loop, and are published through volatile fields.
+   */
+  private final class LoopState implements Runnable {
+    final EventLoop loop;
+    final AtomicInteger channels = new AtomicInteger();
+    /** Whether a probe is scheduled. */
+    private final AtomicBoolean probing = new AtomicBoolean();
+    /** Asks the scheduled probe not to reschedule itself. */
+    volatile boolean stopped;
+    private long dueNanos;
+    private long lastProbeNanos;
+    private long lastCpuNanos = -1;
+    private volatile String threadName = "";
+    private volatile long schedulingDelayNanos;
+    private volatile long maxSchedulingDelayNanos;
+    private volatile int pendingTasks = -1;
+    private volatile double busyRatio = Double.NaN;
+
+    LoopState(EventLoop loop) {
+      this.loop = loop;
+    }
+
+    /** Schedules the first probe, unless a probe is already scheduled. */
+    void startProbing() {
+      stopped = false;
+      if (probing.compareAndSet(false, true)) {
+        loop.execute(new Runnable() {
+          @Override
+          public void run() {
+            scheduleProbe();
+          }
+        });
+      }
+    }
+
+    /** Runs on the loop, so that {@link #dueNanos} is only accessed by it. */
+    private void scheduleProbe() {
+      if (stopped || loop.isShuttingDown()) {
+        probing.set(false);
+        // A channel may have been registered since the check of stopped, and seen that the loop
+        // was still being probed.
+        if (!stopped && !loop.isShuttingDown() && probing.compareAndSet(false, true)) {
+          scheduleProbe();
+        }
+        return;
+      }
+      dueNanos = System.nanoTime() + probeIntervalNanos;
+      loop.schedule(this, probeIntervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void run() {
+      long now = System.nanoTime();
+      long delay = Math.max(0, now - dueNanos);
+      schedulingDelayNanos = delay;
+      if (delay > maxSchedulingDelayNanos) {
+        maxSchedulingDelayNanos = delay;
+      }
+      if (loop instanceof SingleThreadEventExecutor) {
+        pendingTasks = ((SingleThreadEventExecutor) loop).pendingTasks();
+      }
+      if (threadMxBean.isCurrentThreadCpuTimeSupported()) {
+        long cpuNanos = threadMxBean.getCurrentThreadCpuTime();
+        if (lastCpuNanos >= 0 && cpuNanos >= 0 && now > lastProbeNanos) {
+          busyRatio = Math.min(1.0, (cpuNanos - lastCpuNanos) / (double) (now - lastProbeNanos));
+        }
+        lastCpuNanos = cpuNanos;
+      }
+      lastProbeNanos = now;
+      threadName = Thread.currentThread().getName();
+      if (delay > delayThresholdNanos) {
+        log.log(Level.WARNING, "Event loop {0} ran a task {1} ms late with {2} tasks pending",
+            new Object[] {threadName, TimeUnit.NANOSECONDS.toMillis(delay), pendingTasks});
+      }
+      scheduleProbe();
+    }
+
+    LoopStats stats() {
+      return new LoopStats(threadName, channels.get(), pendingTasks, schedulingDelayNanos,
+          maxSchedulingDelayNanos, busyRatio);
+    }
+  }
+
+  /**
+   * Measurements of a single event loop, as of its latest probe.
+   */
+  @Immutable
+  public static final class LoopStats {
+    private final String threadName;
+    private final int channelCount;
+    private final int pendingTasks;
+    private final long schedulingDelayNanos;
+    private final long maxSchedulingDelayNanos;
+    private final double busyRatio;
+
+    LoopStats(String threadName, int channelCount, int pendingTasks, long schedulingDelayNanos,
+        long maxSchedulingDelayNanos, double busyRatio) {
+      this.threadName = threadName;
+      this.channelCount = channelCount;
+      this.pendingTasks = pendingTasks;
+      this.schedulingDelayNanos = schedulingDelayNanos;
+      this.maxSchedulingDelayNanos = maxSchedulingDelayNanos;
+      this.busyRatio = busyRatio;
+    }
+
+    /**
+     * Returns the name of the loop's thread, or an empty string if it wasn't probed yet.
+     */
+    public String getThreadName() {
+      return threadName;
+    }
+
+    /**
+     * Returns the number of open monitored channels registered to the loop.
+     */
+    public int getChannelCount() {
+      return channelCount;
+    }
+
+    /**
+     * Returns the number of tasks that were queued on the loop, or -1 if unknown.
+     */
+    public int getPendingTasks() {
+      return pendingTasks;
+    }
+
+    /**
+     * Returns how late the latest probe ran, in nanoseconds.
+     */
+    public long getSchedulingDelayNanos() {
+      return schedulingDelayNanos;
+    }
+
+    /**
+     * Returns how late the latest probe ran at worst since monitoring started, in nanoseconds.
+     */
+    public long getMaxSchedulingDelayNanos() {
+      return maxSchedulingDelayNanos;
+    }
+
+    /**
+     * Returns the fraction of time the loop's thread spent on the CPU between its two latest
+     * probes, between 0 and 1. The rest of the time it was idle waiting for I/O or tasks. Returns
+     * {@link Double#NaN} if the JVM doesn't support thread CPU time or the loop was probed less
+     * than twice.
+     */
+    public double getBusyRatio() {
+      return busyRatio;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s: channels=%d, pending=%d, delay=%dus, maxDelay=%dus, busy=%.2f",
+          threadName, channelCount, pendingTasks,
+          TimeUnit.NANOSECONDS.toMicros(schedulingDelayNanos),
+          TimeUnit.NANOSECONDS.toMicros(maxSchedulingDelayNanos), busyRatio);
+    }
+  }
+}
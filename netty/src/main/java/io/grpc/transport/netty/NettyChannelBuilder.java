@@ -55,6 +55,7 @@ public final class NettyChannelBuilder extends AbstractChannelBuilder<NettyChann
   private Class<? extends Channel> channelType = NioSocketChannel.class;
   private EventLoopGroup userEventLoopGroup;
   private SslContext sslContext;
+  private EventLoopMonitor eventLoopMonitor;
 
   /**
    * Creates a new builder with the given server address.
@@ -112,12 +113,23 @@ public final class NettyChannelBuilder extends AbstractChannelBuilder<NettyChann
     return this;
   }
 
+  /**
+   * Monitors the health of the event loops serving the channel's connections.
+   *
+   * <p>It's an optional parameter. The channel won't take ownership of the given monitor, which
+   * may be shared with other channels and servers.
+   */
+  public NettyChannelBuilder eventLoopMonitor(EventLoopMonitor monitor) {
+    this.eventLoopMonitor = monitor;
+    return this;
+  }
+
   @Override
   protected ChannelEssentials buildEssentials() {
     final EventLoopGroup group = (userEventLoopGroup == null)
         ? SharedResourceHolder.get(Utils.DEFAULT_WORKER_EVENT_LOOP_GROUP) : userEventLoopGroup;
     ClientTransportFactory transportFactory = new NettyClientTransportFactory(
-        serverAddress, channelType, negotiationType, group, sslContext);
+        serverAddress, channelType, negotiationType, group, sslContext, eventLoopMonitor);
     Runnable terminationRunnable = null;
     if (userEventLoopGroup == null) {
       terminationRunnable = new Runnable() {
@@ -38,6 +38,7 @@ import com.google.common.base.Preconditions;
 import io.grpc.Metadata;
 import io.grpc.Status;
 import io.grpc.transport.HttpUtil;
+import io.grpc.transport.RefusedStreamException;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
@@ -49,6 +50,8 @@ import io.netty.handler.codec.http2.Http2ConnectionHandler;
 import io.netty.handler.codec.http2.Http2Error;
 import io.netty.handler.codec.http2.Http2Exception;
 import io.netty.handler.codec.http2.Http2FrameAdapter;
+import io.netty.handler.codec.http2.Http2FrameListener;
+import io.netty.handler.codec.http2.Http2FrameListenerDecorator;
 import io.netty.handler.codec.http2.Http2FrameReader;
 import io.netty.handler.codec.http2.Http2FrameWriter;
 import io.netty.handler.codec.http2.Http2Headers;
@@ -74,28 +77,41 @@ class NettyClientHandler extends Http2ConnectionHandler {
     private final Http2Headers headers;
     private final NettyClientStream stream;
     private final ChannelPromise promise;
+    private final boolean unaryRequest;
 
     public PendingStream(CreateStreamCommand command, ChannelPromise promise) {
       headers = command.headers();
       stream = command.stream();
+      unaryRequest = command.unaryRequest();
       this.promise = promise;
     }
   }
 
   private final Deque<PendingStream> pendingStreams = new ArrayDeque<PendingStream>();
   private final Http2LocalFlowController inboundFlow;
+  private final FlushCoalescingHandler flushCoalescer = new FlushCoalescingHandler();
   private Throwable connectionError;
   private Status goAwayStatus;
+  private boolean goAwayReceived;
+  private Runnable goAwayListener;
   private ChannelHandlerContext ctx;
 
   public NettyClientHandler(Http2Connection connection,
       Http2FrameReader frameReader,
       Http2FrameWriter frameWriter,
       Http2LocalFlowController inboundFlow) {
+    this(connection, new GoAwayFrameReader(frameReader), frameWriter, inboundFlow);
+  }
+
+  private NettyClientHandler(Http2Connection connection,
+      GoAwayFrameReader frameReader,
+      Http2FrameWriter frameWriter,
+      Http2LocalFlowController inboundFlow) {
     super(connection, frameReader, frameWriter, new LazyFrameListener());
     this.inboundFlow = Preconditions.checkNotNull(inboundFlow, "inboundFlow");
 
     initListener();
+    frameReader.setHandler(this);
 
     // Disallow stream creation by the server.
     connection.remote().maxStreams(0);
@@ -121,9 +137,18 @@ class NettyClientHandler extends Http2ConnectionHandler {
     return connectionError;
   }
 
+  /**
+   * Sets the listener that is run when a {@code GO_AWAY} is received from the server, after which
+   * no new streams are created.
+   */
+  void goAwayListener(Runnable goAwayListener) {
+    this.goAwayListener = goAwayListener;
+  }
+
   @Override
   public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
     this.ctx = ctx;
+    ctx.pipeline().addBefore(ctx.name(), null, flushCoalescer);
     super.handlerAdded(ctx);
   }
 
@@ -181,22 +206,54 @@ class NettyClientHandler extends Http2ConnectionHandler {
   /**
    * Handler for an inbound HTTP/2 RST_STREAM frame, terminating a stream.
    */
-  private void onRstStreamRead(int streamId)
+  private void onRstStreamRead(int streamId, long errorCode)
       throws Http2Exception {
-    // TODO(nmittler): do something with errorCode?
     Http2Stream http2Stream = connection().requireStream(streamId);
     NettyClientStream stream = clientStream(http2Stream);
-    stream.transportReportStatus(Status.UNKNOWN, false, new Metadata.Trailers());
+    Status status = Status.UNKNOWN;
+    if (errorCode == Http2Error.REFUSED_STREAM.code()) {
+      // The server guarantees it did not process the stream.
+      status = RefusedStreamException.markRefused(
+          Status.UNAVAILABLE.withDescription("Stream refused by the server"));
+    }
+    stream.transportReportStatus(status, false, new Metadata.Trailers());
   }
 
-  private void onGoAwayRead(long errorCode, ByteBuf debugData) {
-    Status status = HttpUtil.Http2Error.statusForCode((int) errorCode);
+  /**
+   * Handler for an inbound HTTP/2 GO_AWAY frame. It is intercepted before it reaches the decoder,
+   * which would otherwise treat frames for the remaining streams as connection errors.
+   */
+  private void onGoAwayRead(int lastStreamId, long errorCode, ByteBuf debugData) {
+    Status status;
+    if (errorCode == Http2Error.NO_ERROR.code()) {
+      // The server is shutting down gracefully; streams it did not process may be retried.
+      status = Status.UNAVAILABLE.withDescription("Server is shutting down");
+    } else {
+      status = HttpUtil.Http2Error.statusForCode((int) errorCode);
+    }
     if (debugData.isReadable()) {
       // If a debug message was provided, use it.
       String msg = debugData.toString(UTF_8);
       status = status.augmentDescription(msg);
     }
     goAwayStatus(status);
+    if (!goAwayReceived) {
+      goAwayReceived = true;
+      failPendingStreams(goAwayStatus());
+      if (goAwayListener != null) {
+        goAwayListener.run();
+      }
+    }
+
+    // A graceful shutdown sends more than one GO_AWAY, each with a lower last stream id. Fail any
+    // streams that the server will not process.
+    Status refusedStatus = RefusedStreamException.markRefused(goAwayStatus());
+    for (Http2Stream stream : http2Streams()) {
+      if (lastStreamId < stream.id()) {
+        clientStream(stream).transportReportStatus(refusedStatus, false, new Metadata.Trailers());
+        stream.close();
+      }
+    }
   }
 
   @Override
@@ -304,24 +361,11 @@ class NettyClientHandler extends Http2ConnectionHandler {
   }
 
   /**
-   * Handler for a GOAWAY being either sent or received.
+   * Handler for a GOAWAY being sent.
    */
   private void goingAway() {
     // Fail any streams that are awaiting creation.
-    Status goAwayStatus = goAwayStatus();
-    failPendingStreams(goAwayStatus);
-
-    if (connection().goAwayReceived()) {
-      // Received a GOAWAY from the remote endpoint. Fail any streams that were created after the
-      // last known stream.
-      int lastKnownStream = connection().local().lastKnownStream();
-      for (Http2Stream stream : http2Streams()) {
-        if (lastKnownStream < stream.id()) {
-          clientStream(stream).transportReportStatus(goAwayStatus, false, new Metadata.Trailers());
-          stream.close();
-        }
-      }
-    }
+    failPendingStreams(goAwayStatus());
   }
 
   /**
@@ -351,7 +395,7 @@ class NettyClientHandler extends Http2ConnectionHandler {
         return;
       }
 
-      if (connection.isGoAway()) {
+      if (connection.isGoAway() || goAwayReceived) {
         failPendingStreams(goAwayStatus);
         return;
       }
@@ -364,11 +408,16 @@ class NettyClientHandler extends Http2ConnectionHandler {
 
       // Finish creation of the stream by writing a headers frame.
       final PendingStream pendingStream = pendingStreams.remove();
+      if (pendingStream.unaryRequest) {
+        createUnaryRequestStream(pendingStream, streamId);
+        continue;
+      }
       encoder().writeHeaders(ctx, streamId, pendingStream.headers, 0, false, ctx.newPromise())
           .addListener(new ChannelFutureListener() {
             @Override
             public void operationComplete(ChannelFuture future) throws Exception {
               if (future.isSuccess()) {
+                pendingStream.stream.tracer().outboundHeaders();
                 streamCreated(pendingStream.stream, streamId, pendingStream.promise);
               } else {
                 // Fail the creation request.
@@ -380,6 +429,42 @@ class NettyClientHandler extends Http2ConnectionHandler {
     }
   }
 
+  /**
+   * Writes the headers of a stream whose request message and end of stream follow right away,
+   * without flushing them, and creates the stream without waiting for the write. The headers are
+   * flushed along with the message.
+   */
+  private void createUnaryRequestStream(final PendingStream pendingStream, int streamId) {
+    ChannelFuture future;
+    flushCoalescer.hold();
+    try {
+      future = encoder().writeHeaders(ctx, streamId, pendingStream.headers, 0, false,
+          ctx.newPromise());
+    } finally {
+      flushCoalescer.release();
+    }
+    if (future.isDone() && !future.isSuccess()) {
+      pendingStream.promise.setFailure(future.cause());
+      return;
+    }
+    try {
+      streamCreated(pendingStream.stream, streamId, pendingStream.promise);
+    } catch (Http2Exception e) {
+      pendingStream.promise.setFailure(e);
+      return;
+    }
+    pendingStream.stream.tracer().outboundHeaders();
+    future.addListener(new ChannelFutureListener() {
+      @Override
+      public void operationComplete(ChannelFuture future) {
+        if (!future.isSuccess()) {
+          pendingStream.stream.transportReportStatus(Status.fromThrowable(future.cause()), false,
+              new Metadata.Trailers());
+        }
+      }
+    });
+  }
+
   /**
    * Returns the appropriate status used to represent the cause for GOAWAY.
    */
@@ -416,9 +501,11 @@ class NettyClientHandler extends Http2ConnectionHandler {
   }
 
   /**
-   * Fails all pending streams with the given status and clears the queue.
+   * Fails all pending streams with the given status and clears the queue. Since they were never
+   * sent, they are marked as refused so that they can be retried.
    */
   private void failPendingStreams(Status status) {
+    status = RefusedStreamException.markRefused(status);
     while (!pendingStreams.isEmpty()) {
       PendingStream pending = pendingStreams.remove();
       pending.promise.setFailure(status.asException());
@@ -476,13 +563,47 @@ class NettyClientHandler extends Http2ConnectionHandler {
     @Override
     public void onRstStreamRead(ChannelHandlerContext ctx, int streamId, long errorCode)
         throws Http2Exception {
-      handler.onRstStreamRead(streamId);
+      handler.onRstStreamRead(streamId, errorCode);
+    }
+  }
+
+  /**
+   * Passes {@code GO_AWAY} frames to the handler instead of the decoder. After a {@code GO_AWAY}
+   * the decoder rejects any frames for existing streams, which prevents them from completing while
+   * the server drains the connection.
+   */
+  private static class GoAwayFrameReader implements Http2FrameReader {
+    private final Http2FrameReader delegate;
+    private NettyClientHandler handler;
+
+    GoAwayFrameReader(Http2FrameReader delegate) {
+      this.delegate = Preconditions.checkNotNull(delegate, "delegate");
+    }
+
+    void setHandler(NettyClientHandler handler) {
+      this.handler = handler;
+    }
+
+    @Override
+    public void readFrame(ChannelHandlerContext ctx, ByteBuf input, Http2FrameListener listener)
+        throws Http2Exception {
+      delegate.readFrame(ctx, input, new Http2FrameListenerDecorator(listener) {
+        @Override
+        public void onGoAwayRead(ChannelHandlerContext ctx, int lastStreamId, long errorCode,
+            ByteBuf debugData) {
+          handler.onGoAwayRead(lastStreamId, errorCode, debugData);
+        }
+      });
+    }
+
+    @Override
+    public Configuration configuration() {
+      return delegate.configuration();
     }
 
     @Override
-    public void onGoAwayRead(ChannelHandlerContext ctx, int lastStreamId, long errorCode,
-        ByteBuf debugData) throws Http2Exception {
-      handler.onGoAwayRead(errorCode, debugData);
+    public void close() {
+      delegate.close();
     }
   }
 }
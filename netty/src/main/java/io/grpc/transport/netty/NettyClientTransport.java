@@ -39,13 +39,16 @@ import com.google.common.util.concurrent.Futures;
 
 import io.grpc.Metadata;
 import io.grpc.MethodDescriptor;
+import io.grpc.MethodType;
 import io.grpc.transport.ClientStream;
 import io.grpc.transport.ClientStreamListener;
 import io.grpc.transport.ClientTransport;
+import io.grpc.transport.StreamTracer;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelPromise;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.codec.AsciiString;
@@ -71,6 +74,7 @@ import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLException;
@@ -89,6 +93,8 @@ class NettyClientTransport implements ClientTransport {
   private final NettyClientHandler handler;
   private final boolean ssl;
   private final AsciiString authority;
+  @Nullable
+  private final EventLoopMonitor eventLoopMonitor;
   // We should not send on the channel until negotiation completes. This is a hard requirement
   // by SslHandler but is appropriate for HTTP/1.1 Upgrade as well.
   private Channel channel;
@@ -109,11 +115,13 @@ class NettyClientTransport implements ClientTransport {
   private boolean terminated;
 
   NettyClientTransport(SocketAddress address, Class<? extends Channel> channelType,
-      NegotiationType negotiationType, EventLoopGroup group, SslContext sslContext) {
+      NegotiationType negotiationType, EventLoopGroup group, SslContext sslContext,
+      @Nullable EventLoopMonitor eventLoopMonitor) {
     Preconditions.checkNotNull(negotiationType, "negotiationType");
     this.address = Preconditions.checkNotNull(address, "address");
     this.group = Preconditions.checkNotNull(group, "group");
     this.channelType = Preconditions.checkNotNull(channelType, "channelType");
+    this.eventLoopMonitor = eventLoopMonitor;
 
     InetSocketAddress inetAddress = null;
     if (address instanceof InetSocketAddress) {
@@ -129,6 +137,14 @@ class NettyClientTransport implements ClientTransport {
 
     DefaultHttp2StreamRemovalPolicy streamRemovalPolicy = new DefaultHttp2StreamRemovalPolicy();
     handler = newHandler(streamRemovalPolicy);
+    handler.goAwayListener(new Runnable() {
+      @Override
+      public void run() {
+        // The server is draining this connection. Existing streams may still complete, but new
+        // streams must use another transport.
+        notifyShutdown(null);
+      }
+    });
     switch (negotiationType) {
       case PLAINTEXT:
         negotiation = Http2Negotiator.plaintext(handler);
@@ -162,10 +178,11 @@ class NettyClientTransport implements ClientTransport {
 
   @Override
   public ClientStream newStream(MethodDescriptor<?, ?> method, Metadata.Headers headers,
-      ClientStreamListener listener) {
+      ClientStreamListener listener, StreamTracer tracer) {
     Preconditions.checkNotNull(method, "method");
     Preconditions.checkNotNull(headers, "headers");
     Preconditions.checkNotNull(listener, "listener");
+    Preconditions.checkNotNull(tracer, "tracer");
 
     // We can't write to the channel until negotiation is complete.
     awaitStarted();
@@ -175,14 +192,35 @@ class NettyClientTransport implements ClientTransport {
 
     // Create the stream.
     NettyClientStream stream = new NettyClientStream(listener, channel, handler);
+    stream.setTracer(tracer);
 
     try {
       // Convert the headers into Netty HTTP/2 headers.
       AsciiString defaultPath = new AsciiString("/" + method.getName());
       Http2Headers http2Headers = Utils.convertClientHeaders(headers, ssl, defaultPath, authority);
 
-      // Write the request and await creation of the stream.
-      channel.writeAndFlush(new CreateStreamCommand(http2Headers, stream)).get();
+      // Write the request and await creation of the stream. The headers of a unary request are
+      // flushed along with its message, which the call writes right after. Until then they stay in
+      // the outbound buffer of the channel, so a call that delays its message does not reach the
+      // server before the message or another write on the connection flushes them.
+      boolean unaryRequest = method.getType() == MethodType.UNARY
+          || method.getType() == MethodType.SERVER_STREAMING;
+      final CreateStreamCommand command =
+          new CreateStreamCommand(http2Headers, stream, unaryRequest);
+      if (unaryRequest) {
+        // A write without a flush from outside the event loop does not wake the loop up, and would
+        // wait for its next select. Hand the write over as a task instead.
+        final ChannelPromise promise = channel.newPromise();
+        channel.eventLoop().execute(new Runnable() {
+          @Override
+          public void run() {
+            channel.write(command, promise);
+          }
+        });
+        promise.get();
+      } else {
+        channel.writeAndFlush(command).get();
+      }
     } catch (InterruptedException e) {
       // Restore the interrupt.
       Thread.currentThread().interrupt();
@@ -220,6 +258,9 @@ class NettyClientTransport implements ClientTransport {
           return;
         }
 
+        if (eventLoopMonitor != null) {
+          eventLoopMonitor.channelRegistered(channel);
+        }
         // Connected successfully, start the protocol negotiation.
         negotiation.onConnected(channel);
       }
@@ -40,6 +40,8 @@ import io.netty.handler.ssl.SslContext;
 
 import java.net.SocketAddress;
 
+import javax.annotation.Nullable;
+
 /**
  * Factory that manufactures instances of {@link NettyClientTransport}.
  */
@@ -50,18 +52,23 @@ class NettyClientTransportFactory implements ClientTransportFactory {
   private final Class<? extends Channel> channelType;
   private final EventLoopGroup group;
   private final SslContext sslContext;
+  @Nullable
+  private final EventLoopMonitor eventLoopMonitor;
 
   public NettyClientTransportFactory(SocketAddress address, Class<? extends Channel> channelType,
-      NegotiationType negotiationType, EventLoopGroup group, SslContext sslContext) {
+      NegotiationType negotiationType, EventLoopGroup group, SslContext sslContext,
+      @Nullable EventLoopMonitor eventLoopMonitor) {
     this.address = Preconditions.checkNotNull(address, "address");
     this.group = Preconditions.checkNotNull(group, "group");
     this.negotiationType = Preconditions.checkNotNull(negotiationType, "negotiationType");
     this.channelType = Preconditions.checkNotNull(channelType, "channelType");
     this.sslContext = sslContext;
+    this.eventLoopMonitor = eventLoopMonitor;
   }
 
   @Override
   public NettyClientTransport newClientTransport() {
-    return new NettyClientTransport(address, channelType, negotiationType, group, sslContext);
+    return new NettyClientTransport(address, channelType, negotiationType, group, sslContext,
+        eventLoopMonitor);
   }
 }
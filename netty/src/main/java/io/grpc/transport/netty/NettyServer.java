@@ -49,8 +49,11 @@ import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.ssl.SslContext;
 
 import java.net.SocketAddress;
+import java.util.HashSet;
+import java.util.Set;
 
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 
 /**
  * Implementation of the {@link com.google.common.util.concurrent.Service} interface for a
@@ -63,6 +66,11 @@ public class NettyServer extends AbstractService {
   private final EventLoopGroup bossGroup;
   private final EventLoopGroup workerGroup;
   private Channel channel;
+  /** Accepted connections that have not closed yet. */
+  @GuardedBy("this")
+  private final Set<Channel> childChannels = new HashSet<Channel>();
+  @GuardedBy("this")
+  private boolean serverChannelClosed;
 
   public NettyServer(ServerListener serverListener, SocketAddress address,
       Class<? extends ServerChannel> channelType, EventLoopGroup bossGroup,
@@ -70,19 +78,49 @@ public class NettyServer extends AbstractService {
     this(serverListener, address, channelType, bossGroup, workerGroup, null);
   }
 
-  public NettyServer(final ServerListener serverListener, SocketAddress address,
+  public NettyServer(ServerListener serverListener, SocketAddress address,
+      Class<? extends ServerChannel> channelType, EventLoopGroup bossGroup,
+      EventLoopGroup workerGroup, @Nullable SslContext sslContext) {
+    this(serverListener, address, channelType, bossGroup, workerGroup, sslContext,
+        NettyServerHandler.NO_GRACEFUL_SHUTDOWN_TIMEOUT, Integer.MAX_VALUE, null);
+  }
+
+  NettyServer(final ServerListener serverListener, SocketAddress address,
       Class<? extends ServerChannel> channelType, EventLoopGroup bossGroup,
-      EventLoopGroup workerGroup, @Nullable final SslContext sslContext) {
+      EventLoopGroup workerGroup, @Nullable final SslContext sslContext,
+      final long gracefulShutdownTimeoutNanos, final int maxConcurrentCallsPerConnection,
+      @Nullable final EventLoopMonitor eventLoopMonitor) {
     this.address = address;
     this.channelType = Preconditions.checkNotNull(channelType, "channelType");
     this.bossGroup = Preconditions.checkNotNull(bossGroup, "bossGroup");
     this.workerGroup = Preconditions.checkNotNull(workerGroup, "workerGroup");
     this.channelInitializer = new ChannelInitializer<Channel>() {
       @Override
-      public void initChannel(Channel ch) throws Exception {
-        NettyServerTransport transport = new NettyServerTransport(ch, serverListener, sslContext);
+      public void initChannel(final Channel ch) throws Exception {
+        // The server is only stopped once all of its connections are closed, so that the event
+        // loops are not released while connections are still draining.
+        synchronized (NettyServer.this) {
+          childChannels.add(ch);
+        }
+        if (eventLoopMonitor != null) {
+          eventLoopMonitor.channelRegistered(ch);
+        }
+        ch.closeFuture().addListener(new ChannelFutureListener() {
+          @Override
+          public void operationComplete(ChannelFuture future) {
+            boolean stopped;
+            synchronized (NettyServer.this) {
+              childChannels.remove(ch);
+              stopped = serverChannelClosed && childChannels.isEmpty();
+            }
+            if (stopped) {
+              notifyStopped();
+            }
+          }
+        });
+        NettyServerTransport transport = new NettyServerTransport(ch, serverListener, sslContext,
+            gracefulShutdownTimeoutNanos, maxConcurrentCallsPerConnection);
         transport.startAsync();
-        // TODO(nmittler): Should we wait for transport shutdown before shutting down server?
       }
     };
   }
@@ -119,10 +157,17 @@ public class NettyServer extends AbstractService {
       channel.close().addListener(new ChannelFutureListener() {
         @Override
         public void operationComplete(ChannelFuture future) throws Exception {
-          if (future.isSuccess()) {
-            notifyStopped();
-          } else {
+          if (!future.isSuccess()) {
             notifyFailed(future.cause());
+            return;
+          }
+          boolean stopped;
+          synchronized (NettyServer.this) {
+            serverChannelClosed = true;
+            stopped = childChannels.isEmpty();
+          }
+          if (stopped) {
+            notifyStopped();
           }
         }
       });
@@ -47,6 +47,7 @@ import io.grpc.ServerImpl;
 
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A builder to help simplify the construction of a Netty-based GRPC server.
@@ -58,6 +59,9 @@ public final class NettyServerBuilder extends AbstractServerBuilder<NettyServerB
   private EventLoopGroup userBossEventLoopGroup;
   private EventLoopGroup userWorkerEventLoopGroup;
   private SslContext sslContext;
+  private long gracefulShutdownTimeoutNanos = NettyServerHandler.NO_GRACEFUL_SHUTDOWN_TIMEOUT;
+  private int maxConcurrentCallsPerConnection = Integer.MAX_VALUE;
+  private EventLoopMonitor eventLoopMonitor;
 
   /**
    * Creates a server builder that will bind to the given port.
@@ -166,6 +170,44 @@ public final class NettyServerBuilder extends AbstractServerBuilder<NettyServerB
     return this;
   }
 
+  /**
+   * Sets the maximum time a connection may spend draining its calls once the server is shut down.
+   * When it elapses the connection is closed, failing any calls that are still running.
+   *
+   * <p>By default connections drain until their last call completes. {@link
+   * ServerImpl#shutdownNow()} can be used to end the remaining calls earlier.
+   */
+  public NettyServerBuilder gracefulShutdownTimeout(long timeout, TimeUnit unit) {
+    Preconditions.checkArgument(timeout >= 0, "timeout must be non-negative");
+    this.gracefulShutdownTimeoutNanos = unit.toNanos(timeout);
+    return this;
+  }
+
+  /**
+   * Sets the maximum number of calls a client may run concurrently on each connection. It is
+   * advertised to clients as the HTTP/2 {@code SETTINGS_MAX_CONCURRENT_STREAMS}, so that they queue
+   * calls above it instead of sending them.
+   *
+   * <p>By default the number of concurrent calls is unlimited. See also {@link
+   * #admissionController} to limit the calls accepted by the whole server.
+   */
+  public NettyServerBuilder maxConcurrentCallsPerConnection(int maxCalls) {
+    Preconditions.checkArgument(maxCalls > 0, "maxCalls must be positive");
+    this.maxConcurrentCallsPerConnection = maxCalls;
+    return this;
+  }
+
+  /**
+   * Monitors the health of the event loops serving the server's connections.
+   *
+   * <p>It's an optional parameter. The server won't take ownership of the given monitor, which may
+   * be shared with other servers and channels.
+   */
+  public NettyServerBuilder eventLoopMonitor(EventLoopMonitor monitor) {
+    this.eventLoopMonitor = monitor;
+    return this;
+  }
+
   @Override
   protected Service buildTransportServer(ServerListener serverListener) {
     final EventLoopGroup bossEventLoopGroup  = (userBossEventLoopGroup == null)
@@ -174,7 +216,8 @@ public final class NettyServerBuilder extends AbstractServerBuilder<NettyServerB
         ? SharedResourceHolder.get(Utils.DEFAULT_WORKER_EVENT_LOOP_GROUP)
         : userWorkerEventLoopGroup;
     NettyServer server = new NettyServer(serverListener, address, channelType, bossEventLoopGroup,
-        workerEventLoopGroup, sslContext);
+        workerEventLoopGroup, sslContext, gracefulShutdownTimeoutNanos,
+        maxConcurrentCallsPerConnection, eventLoopMonitor);
     if (userBossEventLoopGroup == null) {
       server.addListener(new ClosureHook() {
         @Override
@@ -51,6 +51,7 @@ import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPromise;
+import io.netty.channel.ChannelPromiseNotifier;
 import io.netty.handler.codec.AsciiString;
 import io.netty.handler.codec.http2.Http2Connection;
 import io.netty.handler.codec.http2.Http2ConnectionHandler;
@@ -65,6 +66,8 @@ import io.netty.handler.codec.http2.Http2LocalFlowController;
 import io.netty.handler.codec.http2.Http2Stream;
 import io.netty.util.ReferenceCountUtil;
 
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -80,20 +83,51 @@ class NettyServerHandler extends Http2ConnectionHandler {
 
   private static final Status GOAWAY_STATUS = Status.UNAVAILABLE;
 
+  /** Payload of the PING that separates the two GO_AWAY frames of a graceful shutdown. */
+  static final long GRACEFUL_SHUTDOWN_PING = 0x97ACEF001L;
+
+  /** How long to wait for the PING ACK before sending the final GO_AWAY regardless. */
+  private static final long GRACEFUL_SHUTDOWN_PING_TIMEOUT_SECONDS = 10;
+
+  /** Value of {@code gracefulShutdownTimeoutNanos} when connections may drain indefinitely. */
+  static final long NO_GRACEFUL_SHUTDOWN_TIMEOUT = -1;
+
   private final ServerTransportListener transportListener;
   private final Http2LocalFlowController inboundFlow;
+  private final long gracefulShutdownTimeoutNanos;
+  private final FlushCoalescingHandler flushCoalescer = new FlushCoalescingHandler();
   private Throwable connectionError;
   private ChannelHandlerContext ctx;
   private boolean teWarningLogged;
+  /** The promise of the close() that started the graceful shutdown, if one is in progress. */
+  private ChannelPromise gracefulShutdownPromise;
+  private ScheduledFuture<?> gracefulShutdownPingTimeout;
+  private ScheduledFuture<?> gracefulShutdownTimeout;
+  /**
+   * The last stream id of the final {@code GO_AWAY} of a graceful shutdown. Streams created after
+   * it are refused.
+   */
+  private int goAwayLastStreamId = Integer.MAX_VALUE;
 
   NettyServerHandler(ServerTransportListener transportListener,
       Http2Connection connection,
       Http2FrameReader frameReader,
       Http2FrameWriter frameWriter,
       Http2LocalFlowController inboundFlow) {
+    this(transportListener, connection, frameReader, frameWriter, inboundFlow,
+        NO_GRACEFUL_SHUTDOWN_TIMEOUT);
+  }
+
+  NettyServerHandler(ServerTransportListener transportListener,
+      Http2Connection connection,
+      Http2FrameReader frameReader,
+      Http2FrameWriter frameWriter,
+      Http2LocalFlowController inboundFlow,
+      long gracefulShutdownTimeoutNanos) {
     super(connection, frameReader, frameWriter, new LazyFrameListener());
     this.transportListener = Preconditions.checkNotNull(transportListener, "transportListener");
     this.inboundFlow = Preconditions.checkNotNull(inboundFlow, "inboundFlow");
+    this.gracefulShutdownTimeoutNanos = gracefulShutdownTimeoutNanos;
     initListener();
     connection.local().allowPushTo(false);
   }
@@ -110,9 +144,21 @@ class NettyServerHandler extends Http2ConnectionHandler {
   @Override
   public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
     this.ctx = ctx;
+    ctx.pipeline().addBefore(ctx.name(), null, flushCoalescer);
     super.handlerAdded(ctx);
   }
 
+  /**
+   * Gracefully shuts down the connection, as described in section 6.8 of RFC 7540. A first
+   * {@code GO_AWAY} with the maximum stream id tells the client to stop creating streams, without
+   * refusing any that are already on their way. After a PING round trip, a second {@code GO_AWAY}
+   * carries the id of the last stream that was actually created. The channel is then closed once
+   * the remaining streams complete, or when the graceful shutdown timeout elapses.
+   *
+   * <p>The {@code GO_AWAY} frames and the PING are written directly by the frame writer, so that
+   * the connection does not consider itself to be going away. The encoder and decoder keep
+   * exchanging frames for the remaining streams, which the handler tracks itself.
+   */
   @Override
   public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
     // Avoid NotYetConnectedException
@@ -120,13 +166,111 @@ class NettyServerHandler extends Http2ConnectionHandler {
       ctx.close(promise);
       return;
     }
+    if (gracefulShutdownPromise != null || connection().goAwaySent()) {
+      // Already shutting down. Complete the promise when the channel closes.
+      ctx.channel().closeFuture().addListener(new ChannelPromiseNotifier(promise));
+      return;
+    }
 
-    // Write the GO_AWAY frame to the remote endpoint and then shutdown the channel.
-    goAwayAndClose(ctx, (int) NO_ERROR.code(), EMPTY_BUFFER, promise);
+    gracefulShutdownPromise = promise;
+    frameWriter().writeGoAway(ctx, Integer.MAX_VALUE, NO_ERROR.code(), EMPTY_BUFFER,
+        ctx.newPromise());
+    ByteBuf pingData = ctx.alloc().buffer(8).writeLong(GRACEFUL_SHUTDOWN_PING);
+    frameWriter().writePing(ctx, false, pingData, ctx.newPromise());
+    ctx.flush();
+
+    gracefulShutdownPingTimeout = ctx.executor().schedule(new Runnable() {
+      @Override
+      public void run() {
+        logger.fine("Timed out waiting for the graceful shutdown PING ACK");
+        finishGracefulShutdown();
+      }
+    }, GRACEFUL_SHUTDOWN_PING_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    if (gracefulShutdownTimeoutNanos != NO_GRACEFUL_SHUTDOWN_TIMEOUT) {
+      gracefulShutdownTimeout = ctx.executor().schedule(new Runnable() {
+        @Override
+        public void run() {
+          forceClose();
+        }
+      }, gracefulShutdownTimeoutNanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  private void onPingAckRead(ByteBuf data) {
+    if (gracefulShutdownPromise != null && data.readableBytes() == 8
+        && data.getLong(data.readerIndex()) == GRACEFUL_SHUTDOWN_PING) {
+      finishGracefulShutdown();
+    }
+  }
+
+  /**
+   * Sends the final {@code GO_AWAY} of a graceful shutdown and closes the channel once there are
+   * no more active streams.
+   */
+  private void finishGracefulShutdown() {
+    if (gracefulShutdownPingTimeout == null) {
+      // Already finished.
+      return;
+    }
+    gracefulShutdownPingTimeout.cancel(false);
+    gracefulShutdownPingTimeout = null;
+    goAwayLastStreamId = connection().remote().lastStreamCreated();
+    ChannelFuture future = frameWriter().writeGoAway(ctx, goAwayLastStreamId, NO_ERROR.code(),
+        EMPTY_BUFFER, ctx.newPromise());
+    ctx.flush();
+    closeWhenDrained(future);
+  }
+
+  /**
+   * Once the given write completes, closes the channel if the final {@code GO_AWAY} of a graceful
+   * shutdown has been sent and there are no more active streams.
+   */
+  private void closeWhenDrained(ChannelFuture future) {
+    future.addListener(new ChannelFutureListener() {
+      @Override
+      public void operationComplete(ChannelFuture future) {
+        if (finalGoAwaySent() && connection().numActiveStreams() == 0
+            && ctx.channel().isActive()) {
+          ctx.close(gracefulShutdownPromise);
+        }
+      }
+    });
+  }
+
+  @Override
+  public void closeStream(Http2Stream stream, ChannelFuture future) {
+    super.closeStream(stream, future);
+    // The stream is inactive as soon as it is closed, but its last frames are only written once
+    // the future completes.
+    closeWhenDrained(future);
+  }
+
+  /**
+   * Returns whether the final {@code GO_AWAY} of a graceful shutdown has been sent.
+   */
+  private boolean finalGoAwaySent() {
+    return gracefulShutdownPromise != null && gracefulShutdownPingTimeout == null;
+  }
+
+  /**
+   * Closes the channel without waiting for the remaining streams, which fail when it becomes
+   * inactive.
+   */
+  private void forceClose() {
+    if (!ctx.channel().isOpen()) {
+      return;
+    }
+    ctx.close(gracefulShutdownPromise);
   }
 
   private void onHeadersRead(ChannelHandlerContext ctx, int streamId, Http2Headers headers)
       throws Http2Exception {
+    if (streamId > goAwayLastStreamId) {
+      // The client created the stream before it received the final GO_AWAY. It was not processed,
+      // so the client may retry it.
+      writeRstStream(ctx, streamId, Http2Error.REFUSED_STREAM.code(), ctx.newPromise());
+      return;
+    }
     if (!teWarningLogged && !TE_TRAILERS.equals(headers.get(TE_HEADER))) {
       logger.warning(String.format("Expected header TE: %s, but %s is received. This means "
             + "some intermediate proxy may not support trailers",
@@ -208,6 +352,18 @@ class NettyServerHandler extends Http2ConnectionHandler {
    */
   @Override
   public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+    if (gracefulShutdownPingTimeout != null) {
+      gracefulShutdownPingTimeout.cancel(false);
+      gracefulShutdownPingTimeout = null;
+    }
+    if (gracefulShutdownTimeout != null) {
+      gracefulShutdownTimeout.cancel(false);
+      gracefulShutdownTimeout = null;
+    }
+    if (gracefulShutdownPromise != null) {
+      // The remote endpoint may close the channel before the graceful shutdown completes.
+      gracefulShutdownPromise.trySuccess();
+    }
     super.channelInactive(ctx);
     // Any streams that are still active must be closed
     for (Http2Stream stream : connection().activeStreams()) {
@@ -225,6 +381,8 @@ class NettyServerHandler extends Http2ConnectionHandler {
       sendGrpcFrame(ctx, (SendGrpcFrameCommand) msg, promise);
     } else if (msg instanceof SendResponseHeadersCommand) {
       sendResponseHeaders(ctx, (SendResponseHeadersCommand) msg, promise);
+    } else if (msg instanceof SendResponseCommand) {
+      sendResponse(ctx, (SendResponseCommand) msg, promise);
     } else {
       AssertionError e =
           new AssertionError("Write called for unexpected type: " + msg.getClass().getName());
@@ -281,14 +439,48 @@ class NettyServerHandler extends Http2ConnectionHandler {
     ctx.flush();
   }
 
+  /**
+   * Sends response headers, a gRPC frame and trailers to the client, flushed together. The promise
+   * is completed by the last of them.
+   */
+  private void sendResponse(ChannelHandlerContext ctx, SendResponseCommand cmd,
+      ChannelPromise promise) throws Http2Exception {
+    int streamId = cmd.streamId();
+    boolean hasData = cmd.content().isReadable();
+    if (cmd.trailers() != null) {
+      closeStreamWhenDone(promise, streamId);
+    }
+    flushCoalescer.hold();
+    try {
+      if (cmd.headers() != null) {
+        boolean last = !hasData && cmd.trailers() == null;
+        encoder().writeHeaders(ctx, streamId, cmd.headers(), 0, false,
+            last ? promise : ctx.newPromise());
+      }
+      if (hasData) {
+        encoder().writeData(ctx, streamId, cmd.content(), 0, false,
+            cmd.trailers() == null ? promise : ctx.newPromise());
+      } else {
+        cmd.release();
+      }
+      if (cmd.trailers() != null) {
+        encoder().writeHeaders(ctx, streamId, cmd.trailers(), 0, true, promise);
+      }
+    } finally {
+      flushCoalescer.release();
+    }
+    ctx.flush();
+  }
+
   /**
    * Writes a {@code GO_AWAY} frame to the remote endpoint. When it completes, shuts down the
    * channel.
    */
   private void goAwayAndClose(final ChannelHandlerContext ctx, int errorCode, ByteBuf data,
       ChannelPromise promise) {
-    if (connection().goAwaySent()) {
-      // Already sent the GO_AWAY. Do nothing.
+    if (connection().goAwaySent() || finalGoAwaySent()) {
+      // Already sent the GO_AWAY, e.g. during a graceful shutdown. Just close the channel.
+      ctx.close(promise);
       return;
     }
 
@@ -335,7 +527,8 @@ class NettyServerHandler extends Http2ConnectionHandler {
   }
 
   private Http2Exception newStreamException(int streamId, Throwable cause) {
-    return Http2Exception.streamError(streamId, Http2Error.INTERNAL_ERROR, cause.getMessage(), cause);
+    return Http2Exception.streamError(streamId, Http2Error.INTERNAL_ERROR, cause.getMessage(),
+        cause);
   }
 
   private static class LazyFrameListener extends Http2FrameAdapter {
@@ -369,5 +562,10 @@ class NettyServerHandler extends Http2ConnectionHandler {
         throws Http2Exception {
       handler.onRstStreamRead(streamId);
     }
+
+    @Override
+    public void onPingAckRead(ChannelHandlerContext ctx, ByteBuf data) throws Http2Exception {
+      handler.onPingAckRead(data);
+    }
   }
 }
@@ -37,9 +37,12 @@ import io.grpc.Metadata;
 import io.grpc.transport.AbstractServerStream;
 import io.grpc.transport.WritableBuffer;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.handler.codec.http2.Http2Headers;
 
+import javax.annotation.Nullable;
+
 /**
  * Server stream for a Netty HTTP2 transport
  */
@@ -91,6 +94,16 @@ class NettyServerStream extends AbstractServerStream<Integer> {
     channel.writeAndFlush(new SendResponseHeadersCommand(id(), http2Trailers, true));
   }
 
+  @Override
+  protected void sendBatch(@Nullable Metadata.Headers headers, @Nullable WritableBuffer frame,
+      @Nullable Metadata.Trailers trailers) {
+    Http2Headers http2Headers = headers == null ? null : Utils.convertServerHeaders(headers);
+    ByteBuf bytebuf = frame == null
+        ? Unpooled.EMPTY_BUFFER : ((NettyWritableBuffer) frame).bytebuf();
+    Http2Headers http2Trailers = trailers == null ? null : Utils.convertTrailers(trailers, true);
+    channel.writeAndFlush(new SendResponseCommand(id(), http2Headers, bytebuf, http2Trailers));
+  }
+
   @Override
   protected void returnProcessedBytes(int processedBytes) {
     handler.returnProcessedBytes(id(), processedBytes);
@@ -64,13 +64,18 @@ class NettyServerTransport extends AbstractService {
   private final Channel channel;
   private final ServerListener serverListener;
   private final SslContext sslContext;
+  private final long gracefulShutdownTimeoutNanos;
+  private final int maxConcurrentStreams;
   private NettyServerHandler handler;
 
   NettyServerTransport(Channel channel, ServerListener serverListener,
-      @Nullable SslContext sslContext) {
+      @Nullable SslContext sslContext, long gracefulShutdownTimeoutNanos,
+      int maxConcurrentStreams) {
     this.channel = Preconditions.checkNotNull(channel, "channel");
     this.serverListener = Preconditions.checkNotNull(serverListener, "serverListener");
     this.sslContext = sslContext;
+    this.gracefulShutdownTimeoutNanos = gracefulShutdownTimeoutNanos;
+    this.maxConcurrentStreams = maxConcurrentStreams;
   }
 
   @Override
@@ -113,7 +118,8 @@ class NettyServerTransport extends AbstractService {
   @Override
   protected void doStop() {
     // No explicit call to notifyStopped() here, since this is automatically done when the
-    // channel closes.
+    // channel closes. Closing the channel gracefully drains the connection (see
+    // NettyServerHandler#close).
     if (channel.isOpen()) {
       channel.close();
     }
@@ -125,6 +131,8 @@ class NettyServerTransport extends AbstractService {
   private NettyServerHandler createHandler(ServerTransportListener transportListener,
       Http2StreamRemovalPolicy streamRemovalPolicy) {
     Http2Connection connection = new DefaultHttp2Connection(true, streamRemovalPolicy);
+    // Advertised to the client in the initial SETTINGS frame.
+    connection.remote().maxStreams(maxConcurrentStreams);
     Http2FrameReader frameReader =
         new Http2InboundFrameLogger(new DefaultHttp2FrameReader(), frameLogger);
     Http2FrameWriter frameWriter =
@@ -133,6 +141,6 @@ class NettyServerTransport extends AbstractService {
     DefaultHttp2LocalFlowController inboundFlow =
         new DefaultHttp2LocalFlowController(connection, frameWriter);
     return new NettyServerHandler(transportListener, connection, frameReader, frameWriter,
-        inboundFlow);
+        inboundFlow, gracefulShutdownTimeoutNanos);
   }
 }
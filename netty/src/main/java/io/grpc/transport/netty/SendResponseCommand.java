@@ -0,0 +1,131 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.transport.netty;
+
+import com.google.common.base.Objects;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.buffer.DefaultByteBufHolder;
+import io.netty.handler.codec.http2.Http2Headers;
+
+import javax.annotation.Nullable;
+
+/**
+ * Command sent from the transport to the Netty channel to send response headers, a GRPC frame and
+ * trailers to the client together, with a single flush. Any of them may be missing; the frame is
+ * missing when the content is empty.
+ */
+class SendResponseCommand extends DefaultByteBufHolder {
+  private final int streamId;
+  @Nullable private final Http2Headers headers;
+  @Nullable private final Http2Headers trailers;
+
+  SendResponseCommand(int streamId, @Nullable Http2Headers headers, ByteBuf content,
+      @Nullable Http2Headers trailers) {
+    super(content);
+    this.streamId = streamId;
+    this.headers = headers;
+    this.trailers = trailers;
+  }
+
+  int streamId() {
+    return streamId;
+  }
+
+  @Nullable
+  Http2Headers headers() {
+    return headers;
+  }
+
+  @Nullable
+  Http2Headers trailers() {
+    return trailers;
+  }
+
+  @Override
+  public ByteBufHolder copy() {
+    return new SendResponseCommand(streamId, headers, content().copy(), trailers);
+  }
+
+  @Override
+  public ByteBufHolder duplicate() {
+    return new SendResponseCommand(streamId, headers, content().duplicate(), trailers);
+  }
+
+  @Override
+  public SendResponseCommand retain() {
+    super.retain();
+    return this;
+  }
+
+  @Override
+  public SendResponseCommand retain(int increment) {
+    super.retain(increment);
+    return this;
+  }
+
+  @Override
+  public SendResponseCommand touch() {
+    super.touch();
+    return this;
+  }
+
+  @Override
+  public SendResponseCommand touch(Object hint) {
+    super.touch(hint);
+    return this;
+  }
+
+  @Override
+  public boolean equals(Object that) {
+    if (that == null || !that.getClass().equals(SendResponseCommand.class)) {
+      return false;
+    }
+    SendResponseCommand thatCmd = (SendResponseCommand) that;
+    return thatCmd.streamId == streamId
+        && Objects.equal(thatCmd.headers, headers)
+        && thatCmd.content().equals(content())
+        && Objects.equal(thatCmd.trailers, trailers);
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "(streamId=" + streamId + ", headers=" + headers
+        + ", content=" + content() + ", trailers=" + trailers + ")";
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(streamId, headers, content(), trailers);
+  }
+}
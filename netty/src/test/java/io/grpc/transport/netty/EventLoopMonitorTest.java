@@ -0,0 +1,144 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.transport.netty;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.channel.Channel;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.local.LocalChannel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Unit tests for {@link EventLoopMonitor}. */
+@RunWith(JUnit4.class)
+public class EventLoopMonitorTest {
+  private final EventLoopMonitor monitor =
+      new EventLoopMonitor(10, TimeUnit.SECONDS.toMillis(10), TimeUnit.MILLISECONDS);
+  private EventLoopGroup group;
+
+  @Before
+  public void setUp() {
+    group = new DefaultEventLoopGroup(1);
+  }
+
+  @After
+  public void tearDown() {
+    monitor.stop();
+    group.shutdownGracefully(0, 0, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void countsChannelsPerLoop() throws Exception {
+    Channel first = register();
+    Channel second = register();
+    List<EventLoopMonitor.LoopStats> stats = monitor.snapshot();
+    assertEquals(1, stats.size());
+    assertEquals(2, stats.get(0).getChannelCount());
+
+    first.close().sync();
+    second.close().sync();
+    assertEquals(0, monitor.snapshot().get(0).getChannelCount());
+  }
+
+  @Test
+  public void measuresSchedulingDelayOfBlockedLoop() throws Exception {
+    Channel channel = register();
+    // Block the loop across several probe intervals.
+    channel.eventLoop().submit(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(100);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }).sync();
+    waitForProbes();
+
+    EventLoopMonitor.LoopStats stats = monitor.snapshot().get(0);
+    assertTrue(stats.toString(),
+        stats.getMaxSchedulingDelayNanos() >= TimeUnit.MILLISECONDS.toNanos(50));
+    assertTrue(stats.toString(), stats.getPendingTasks() >= 0);
+    assertFalse(stats.getThreadName().isEmpty());
+  }
+
+  @Test
+  public void terminatedLoopIsForgotten() throws Exception {
+    register();
+    assertEquals(1, monitor.snapshot().size());
+    group.shutdownGracefully(0, 0, TimeUnit.SECONDS).sync();
+    for (int i = 0; i < 100 && !monitor.snapshot().isEmpty(); i++) {
+      Thread.sleep(10);
+    }
+    assertTrue(monitor.snapshot().isEmpty());
+  }
+
+  @Test
+  public void registeringResumesStoppedProbes() throws Exception {
+    Channel channel = register();
+    assertTrue(monitor.isProbing(channel.eventLoop()));
+    monitor.stop();
+    for (int i = 0; i < 100 && monitor.isProbing(channel.eventLoop()); i++) {
+      Thread.sleep(10);
+    }
+    assertFalse(monitor.isProbing(channel.eventLoop()));
+
+    register();
+    assertTrue(monitor.isProbing(channel.eventLoop()));
+  }
+
+  private Channel register() throws Exception {
+    Channel channel = new LocalChannel();
+    group.register(channel).sync();
+    monitor.channelRegistered(channel);
+    return channel;
+  }
+
+  private void waitForProbes() throws InterruptedException {
+    for (int i = 0; i < 100 && monitor.snapshot().get(0).getThreadName().isEmpty(); i++) {
+      Thread.sleep(10);
+    }
+    Thread.sleep(50);
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.transport.netty;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link FlushCoalescingHandler}. */
+@RunWith(JUnit4.class)
+public class FlushCoalescingHandlerTest {
+  private final FlushCoalescingHandler handler = new FlushCoalescingHandler();
+  private final NettyTestUtil.FlushCounter flushCounter = new NettyTestUtil.FlushCounter();
+  private EmbeddedChannel channel;
+
+  @Before
+  public void setUp() {
+    channel = new EmbeddedChannel(flushCounter, handler);
+  }
+
+  @Test
+  public void flushesPassWhenNotHolding() {
+    channel.writeAndFlush(Unpooled.copiedBuffer(new byte[] {1}));
+
+    assertEquals(1, flushCounter.flushes());
+    ByteBuf written = NettyTestUtil.readOutbound(channel);
+    assertEquals(1, written.readableBytes());
+    written.release();
+  }
+
+  @Test
+  public void flushesAreDroppedWhileHolding() {
+    handler.hold();
+    channel.writeAndFlush(Unpooled.copiedBuffer(new byte[] {1}));
+    channel.writeAndFlush(Unpooled.copiedBuffer(new byte[] {2}));
+
+    assertEquals(0, flushCounter.flushes());
+    assertNull(channel.readOutbound());
+  }
+
+  @Test
+  public void flushAfterReleaseWritesEverythingHeld() {
+    handler.hold();
+    channel.writeAndFlush(Unpooled.copiedBuffer(new byte[] {1}));
+    channel.writeAndFlush(Unpooled.copiedBuffer(new byte[] {2}));
+    handler.release();
+    channel.flush();
+
+    assertEquals(1, flushCounter.flushes());
+    ByteBuf written = NettyTestUtil.readOutbound(channel);
+    assertEquals(2, written.readableBytes());
+    assertEquals(1, written.readByte());
+    assertEquals(2, written.readByte());
+    written.release();
+  }
+}
@@ -40,6 +40,7 @@ import static io.grpc.transport.netty.Utils.STATUS_OK;
 import static io.grpc.transport.netty.Utils.TE_HEADER;
 import static io.grpc.transport.netty.Utils.TE_TRAILERS;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.notNull;
@@ -53,10 +54,13 @@ import static org.mockito.Mockito.when;
 
 import io.grpc.Metadata;
 import io.grpc.Status;
+import io.grpc.transport.RefusedStreamException;
+import io.grpc.transport.StreamTracer;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
 import io.netty.handler.codec.AsciiString;
 import io.netty.handler.codec.http2.DefaultHttp2Connection;
 import io.netty.handler.codec.http2.DefaultHttp2FrameReader;
@@ -106,6 +110,7 @@ public class NettyClientHandlerTest extends NettyHandlerTestBase {
     content = Unpooled.copiedBuffer("hello world", UTF_8);
 
     when(channel.isActive()).thenReturn(true);
+    when(stream.tracer()).thenReturn(StreamTracer.NOOP);
     mockContext();
     mockFuture(true);
 
@@ -161,6 +166,54 @@ public class NettyClientHandlerTest extends NettyHandlerTestBase {
     assertEquals("sometoken", headers.get(as("auth")).toString());
   }
 
+  @Test
+  public void createUnaryRequestStreamShouldNotWaitForHeadersWrite() throws Exception {
+    // The headers are only written once flushed along with the request message.
+    ChannelPromise headersPromise = newPromise();
+    when(ctx.newPromise()).thenReturn(headersPromise);
+    handler.write(ctx, new CreateStreamCommand(grpcHeaders, stream, true), promise);
+    verify(promise).setSuccess();
+    verify(stream).id(eq(3));
+
+    ByteBuf serializedHeaders = captureWrite(ctx);
+    ChannelHandlerContext ctx = newContext();
+    frameReader.readFrame(ctx, serializedHeaders, frameListener);
+    verify(frameListener).onHeadersRead(eq(ctx),
+        eq(3),
+        any(Http2Headers.class),
+        eq(0),
+        eq(Http2CodecUtil.DEFAULT_PRIORITY_WEIGHT),
+        eq(false),
+        eq(0),
+        eq(false));
+  }
+
+  @Test
+  public void unaryRequestShouldBeFlushedOnce() throws Exception {
+    NettyTestUtil.FlushCounter flushCounter = new NettyTestUtil.FlushCounter();
+    EmbeddedChannel embeddedChannel = new EmbeddedChannel(flushCounter, newHandler());
+    embeddedChannel.writeInbound(serializeSettings(new Http2Settings()));
+    NettyTestUtil.readOutbound(embeddedChannel).release();
+    flushCounter.reset();
+
+    // The transport writes the command without a flush, and the call sends its message right
+    // after.
+    embeddedChannel.write(new CreateStreamCommand(grpcHeaders, stream, true));
+    when(stream.id()).thenReturn(3);
+    embeddedChannel.writeAndFlush(new SendGrpcFrameCommand(stream, content, true));
+
+    assertEquals(1, flushCounter.flushes());
+    ByteBuf bufWritten = NettyTestUtil.readOutbound(embeddedChannel);
+    ChannelHandlerContext ctx = newContext();
+    frameReader.readFrame(ctx, bufWritten, frameListener);
+    InOrder inOrder = inOrder(frameListener);
+    inOrder.verify(frameListener).onHeadersRead(eq(ctx), eq(3), any(Http2Headers.class), eq(0),
+        eq(Http2CodecUtil.DEFAULT_PRIORITY_WEIGHT), eq(false), eq(0), eq(false));
+    inOrder.verify(frameListener).onDataRead(eq(ctx), eq(3),
+        eq(Unpooled.copiedBuffer("hello world", UTF_8)), eq(0), eq(true));
+    bufWritten.release();
+  }
+
   @Test
   public void cancelShouldSucceed() throws Exception {
     createStream();
@@ -276,7 +329,10 @@ public class NettyClientHandlerTest extends NettyHandlerTestBase {
         promise);
 
     handler.channelRead(ctx, goAwayFrame(0));
-    verify(promise).setFailure(any(Throwable.class));
+    ArgumentCaptor<Throwable> captor = ArgumentCaptor.forClass(Throwable.class);
+    verify(promise).setFailure(captor.capture());
+    // The stream was never sent, so it can be retried.
+    assertTrue(RefusedStreamException.isRefused(Status.fromThrowable(captor.getValue())));
   }
 
   @Test
@@ -292,6 +348,42 @@ public class NettyClientHandlerTest extends NettyHandlerTestBase {
     inOrder.verify(stream, calls(1)).transportReportStatus(captor.capture(), eq(false),
         notNull(Metadata.Trailers.class));
     assertEquals(Status.UNAVAILABLE.getCode(), captor.getValue().getCode());
+    assertTrue(RefusedStreamException.isRefused(captor.getValue()));
+  }
+
+  @Test
+  public void receivedGracefulGoAwayShouldLetActiveStreamsComplete() throws Exception {
+    createStream();
+
+    // The first GOAWAY of a graceful shutdown does not refuse any streams.
+    handler.channelRead(ctx, goAwayFrame(Integer.MAX_VALUE));
+    verify(stream, never()).transportReportStatus(any(Status.class), any(Boolean.class),
+        any(Metadata.Trailers.class));
+
+    // The stream still receives data.
+    ByteBuf frame = dataFrame(3, false).retain();
+    handler.channelRead(this.ctx, frame);
+    verify(stream).transportDataReceived(eq(content), eq(false));
+
+    // The final GOAWAY refuses the stream, since it was never processed.
+    handler.channelRead(ctx, goAwayFrame(1));
+    ArgumentCaptor<Status> captor = ArgumentCaptor.forClass(Status.class);
+    verify(stream).transportReportStatus(captor.capture(), eq(false),
+        notNull(Metadata.Trailers.class));
+    assertEquals(Status.UNAVAILABLE.getCode(), captor.getValue().getCode());
+  }
+
+  @Test
+  public void receivedGoAwayShouldFailNewStreams() throws Exception {
+    Runnable goAwayListener = mock(Runnable.class);
+    handler.goAwayListener(goAwayListener);
+    handler.channelRead(ctx, goAwayFrame(Integer.MAX_VALUE));
+    verify(goAwayListener).run();
+
+    handler.write(ctx, new CreateStreamCommand(grpcHeaders, stream), promise);
+    ArgumentCaptor<Throwable> captor = ArgumentCaptor.forClass(Throwable.class);
+    verify(promise).setFailure(captor.capture());
+    assertTrue(RefusedStreamException.isRefused(Status.fromThrowable(captor.getValue())));
   }
 
   @Test
@@ -46,6 +46,7 @@ import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
 import io.netty.channel.ChannelPromise;
 import io.netty.channel.EventLoop;
 import io.netty.handler.codec.http2.Http2FrameListener;
@@ -74,6 +75,9 @@ public abstract class NettyHandlerTestBase {
   @Mock
   protected ChannelHandlerContext ctx;
 
+  @Mock
+  protected ChannelPipeline pipeline;
+
   @Mock
   protected ChannelFuture future;
 
@@ -147,6 +151,7 @@ public abstract class NettyHandlerTestBase {
     Mockito.reset(promise);
     when(ctx.alloc()).thenReturn(UnpooledByteBufAllocator.DEFAULT);
     when(ctx.channel()).thenReturn(channel);
+    when(ctx.pipeline()).thenReturn(pipeline);
     when(ctx.write(any())).thenReturn(future);
     when(ctx.write(any(), eq(promise))).thenReturn(future);
     when(ctx.writeAndFlush(any())).thenReturn(future);
@@ -42,8 +42,13 @@ import static io.netty.handler.codec.http2.Http2Exception.connectionError;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -64,6 +69,8 @@ import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.Unpooled;
 import io.netty.buffer.UnpooledByteBufAllocator;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
 import io.netty.handler.codec.AsciiString;
 import io.netty.handler.codec.http2.DefaultHttp2Connection;
 import io.netty.handler.codec.http2.DefaultHttp2FrameReader;
@@ -77,17 +84,20 @@ import io.netty.handler.codec.http2.Http2FrameReader;
 import io.netty.handler.codec.http2.Http2FrameWriter;
 import io.netty.handler.codec.http2.Http2Headers;
 import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.util.concurrent.ScheduledFuture;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
 
 /** Unit tests for {@link NettyServerHandler}. */
 @RunWith(JUnit4.class)
@@ -124,6 +134,9 @@ public class NettyServerHandlerTest extends NettyHandlerTestBase {
 
     when(channel.alloc()).thenReturn(UnpooledByteBufAllocator.DEFAULT);
 
+    doReturn(mock(ScheduledFuture.class)).when(eventLoop)
+        .schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+
     // Simulate activation of the handler to force writing of the initial settings
     handler.handlerAdded(ctx);
 
@@ -155,6 +168,68 @@ public class NettyServerHandlerTest extends NettyHandlerTestBase {
     assertEquals(content, writtenContent);
   }
 
+  @Test
+  public void sendResponseShouldWriteAllFrames() throws Exception {
+    createStream();
+    ByteBuf content = Unpooled.copiedBuffer(CONTENT);
+    Http2Headers headers = new DefaultHttp2Headers()
+        .status(Utils.STATUS_OK)
+        .set(CONTENT_TYPE_HEADER, CONTENT_TYPE_GRPC);
+    Http2Headers trailers = new DefaultHttp2Headers()
+        .set(new AsciiString("grpc-status"), new AsciiString("0"));
+    // The stream is closed by the application before the trailers are written.
+    stream.close(Status.OK, new Metadata.Trailers());
+
+    handler.write(ctx, new SendResponseCommand(STREAM_ID, headers, content, trailers), promise);
+    verify(promise, never()).setFailure(any(Throwable.class));
+    verify(ctx, atLeastOnce()).flush();
+
+    ByteBuf bufWritten = captureWrite(ctx);
+    ChannelHandlerContext ctx = newContext();
+    frameReader.readFrame(ctx, bufWritten, frameListener);
+    InOrder inOrder = inOrder(frameListener);
+    inOrder.verify(frameListener).onHeadersRead(eq(ctx), eq(STREAM_ID), eq(headers), eq(0),
+        eq(Http2CodecUtil.DEFAULT_PRIORITY_WEIGHT), eq(false), eq(0), eq(false));
+    inOrder.verify(frameListener).onDataRead(eq(ctx), eq(STREAM_ID),
+        eq(Unpooled.copiedBuffer(CONTENT)), eq(0), eq(false));
+    inOrder.verify(frameListener).onHeadersRead(eq(ctx), eq(STREAM_ID), eq(trailers), eq(0),
+        eq(Http2CodecUtil.DEFAULT_PRIORITY_WEIGHT), eq(false), eq(0), eq(true));
+  }
+
+  @Test
+  public void unaryResponseShouldBeFlushedOnce() throws Exception {
+    NettyTestUtil.FlushCounter flushCounter = new NettyTestUtil.FlushCounter();
+    EmbeddedChannel embeddedChannel =
+        new EmbeddedChannel(flushCounter, newHandler(transportListener));
+    embeddedChannel.writeInbound(Http2CodecUtil.connectionPrefaceBuf(),
+        serializeSettings(new Http2Settings()), headersFrame(STREAM_ID, requestHeaders()));
+    ArgumentCaptor<NettyServerStream> streamCaptor =
+        ArgumentCaptor.forClass(NettyServerStream.class);
+    verify(transportListener).streamCreated(streamCaptor.capture(), any(String.class),
+        any(Metadata.Headers.class));
+    NettyServerStream stream = streamCaptor.getValue();
+    NettyTestUtil.readOutbound(embeddedChannel).release();
+    flushCounter.reset();
+
+    // A unary response is a message followed by the close, without a flush in between.
+    stream.writeMessage(new ByteArrayInputStream(CONTENT), CONTENT.length, null);
+    stream.close(Status.OK, new Metadata.Trailers());
+    embeddedChannel.runPendingTasks();
+
+    assertEquals(1, flushCounter.flushes());
+    ByteBuf bufWritten = NettyTestUtil.readOutbound(embeddedChannel);
+    ChannelHandlerContext ctx = newContext();
+    frameReader.readFrame(ctx, bufWritten, frameListener);
+    InOrder inOrder = inOrder(frameListener);
+    inOrder.verify(frameListener).onHeadersRead(eq(ctx), eq(STREAM_ID), any(Http2Headers.class),
+        eq(0), eq(Http2CodecUtil.DEFAULT_PRIORITY_WEIGHT), eq(false), eq(0), eq(false));
+    inOrder.verify(frameListener).onDataRead(eq(ctx), eq(STREAM_ID), any(ByteBuf.class), eq(0),
+        eq(false));
+    inOrder.verify(frameListener).onHeadersRead(eq(ctx), eq(STREAM_ID), any(Http2Headers.class),
+        eq(0), eq(Http2CodecUtil.DEFAULT_PRIORITY_WEIGHT), eq(false), eq(0), eq(true));
+    bufWritten.release();
+  }
+
   @Test
   public void inboundDataShouldForwardToStreamListener() throws Exception {
     inboundDataShouldForwardToStreamListener(false);
@@ -251,22 +326,91 @@ public class NettyServerHandlerTest extends NettyHandlerTestBase {
   public void closeShouldCloseChannel() throws Exception {
     handler.close(ctx, promise);
 
-    // Verify the expected GO_AWAY frame was written.
-    ByteBuf expected = goAwayFrame(0, (int) Http2Error.NO_ERROR.code(), Unpooled.EMPTY_BUFFER);
-    ByteBuf actual = captureWrite(ctx);
-    assertEquals(expected, actual);
+    // Verify that a GO_AWAY refusing no streams and a PING were written.
+    ByteBuf expected = Unpooled.wrappedBuffer(
+        goAwayFrame(Integer.MAX_VALUE, (int) Http2Error.NO_ERROR.code(), Unpooled.EMPTY_BUFFER),
+        gracefulShutdownPingFrame(false));
+    assertEquals(expected, captureWrite(ctx));
+    verify(ctx, never()).close(any(ChannelPromise.class));
 
-    // Verify that the context was closed.
-    verify(ctx).close();
+    // Once the PING is acknowledged, the final GO_AWAY is written.
+    mockContext();
+    handler.channelRead(ctx, gracefulShutdownPingFrame(true));
+    expected = goAwayFrame(0, (int) Http2Error.NO_ERROR.code(), Unpooled.EMPTY_BUFFER);
+    assertEquals(expected, captureWrite(ctx));
+  }
+
+  @Test
+  public void idleCloseShouldFinishOnPingAck() throws Exception {
+    ScheduledFuture<?> pingTimeout = mock(ScheduledFuture.class);
+    doReturn(pingTimeout).when(eventLoop)
+        .schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+    handler.close(ctx, promise);
+
+    // The GO_AWAY and PING are flushed, since nothing else is written on an idle connection.
+    InOrder inOrder = inOrder(ctx);
+    inOrder.verify(ctx, atLeastOnce()).write(any(ByteBuf.class), any(ChannelPromise.class));
+    inOrder.verify(ctx).flush();
+
+    // The PING ACK sends the final GO_AWAY, without waiting for the timeout.
+    mockContext();
+    handler.channelRead(ctx, gracefulShutdownPingFrame(true));
+    verify(pingTimeout).cancel(false);
+    ArgumentCaptor<ChannelPromise> writes = ArgumentCaptor.forClass(ChannelPromise.class);
+    inOrder = inOrder(ctx);
+    inOrder.verify(ctx, atLeastOnce()).write(any(ByteBuf.class), writes.capture());
+    inOrder.verify(ctx).flush();
+
+    // The channel is closed once the GO_AWAY has been written.
+    verify(ctx, never()).close(any(ChannelPromise.class));
+    for (ChannelPromise write : writes.getAllValues()) {
+      write.setSuccess();
+    }
+    verify(ctx).close(promise);
+  }
+
+  @Test
+  public void streamAfterFinalGoAwayShouldBeRefused() throws Exception {
+    createStream();
+    handler.close(ctx, promise);
+    handler.channelRead(ctx, gracefulShutdownPingFrame(true));
+
+    // A stream the client created before receiving the final GO_AWAY is refused.
+    mockContext();
+    handler.channelRead(ctx, headersFrame(STREAM_ID + 2, requestHeaders()));
+    assertEquals(rstStreamFrame(STREAM_ID + 2, (int) Http2Error.REFUSED_STREAM.code()),
+        captureWrite(ctx));
+    verify(transportListener).streamCreated(any(ServerStream.class), any(String.class),
+        any(Metadata.Headers.class));
+    verify(ctx, never()).close(any(ChannelPromise.class));
+  }
+
+  @Test
+  public void closeShouldWaitForActiveStreams() throws Exception {
+    createStream();
+    stream.request(1);
+    handler.close(ctx, promise);
+
+    // Streams may still be created until the final GO_AWAY.
+    mockContext();
+    mockFuture(promise, true);
+    handler.channelRead(ctx, gracefulShutdownPingFrame(true));
+    ByteBuf expected =
+        goAwayFrame(STREAM_ID, (int) Http2Error.NO_ERROR.code(), Unpooled.EMPTY_BUFFER);
+    assertEquals(expected, captureWrite(ctx));
+    verify(ctx, never()).close(any(ChannelPromise.class));
+
+    // The stream can still receive data.
+    handler.channelRead(ctx, dataFrame(STREAM_ID, false));
+    verify(streamListener).messageRead(any(InputStream.class));
+
+    // The channel is closed when the last stream completes.
+    handler.channelRead(ctx, rstStreamFrame(STREAM_ID, (int) Http2Error.CANCEL.code()));
+    verify(ctx).close(promise);
   }
 
   private void createStream() throws Exception {
-    Http2Headers headers = new DefaultHttp2Headers()
-        .method(HTTP_METHOD)
-        .set(CONTENT_TYPE_HEADER, CONTENT_TYPE_GRPC)
-        .set(TE_HEADER, TE_TRAILERS)
-        .path(new AsciiString("/foo.bar"));
-    ByteBuf headersFrame = headersFrame(STREAM_ID, headers);
+    ByteBuf headersFrame = headersFrame(STREAM_ID, requestHeaders());
     handler.channelRead(ctx, headersFrame);
 
     ArgumentCaptor<NettyServerStream> streamCaptor =
@@ -277,6 +421,14 @@ public class NettyServerHandlerTest extends NettyHandlerTestBase {
     stream = streamCaptor.getValue();
   }
 
+  private static Http2Headers requestHeaders() {
+    return new DefaultHttp2Headers()
+        .method(HTTP_METHOD)
+        .set(CONTENT_TYPE_HEADER, CONTENT_TYPE_GRPC)
+        .set(TE_HEADER, TE_TRAILERS)
+        .path(new AsciiString("/foo.bar"));
+  }
+
   private ByteBuf dataFrame(int streamId, boolean endStream) {
     final ByteBuf compressionFrame = Unpooled.buffer(CONTENT.length);
     MessageFramer framer = new MessageFramer(new MessageFramer.Sink() {
@@ -303,6 +455,13 @@ public class NettyServerHandlerTest extends NettyHandlerTestBase {
     return captureWrite(ctx);
   }
 
+  private ByteBuf gracefulShutdownPingFrame(boolean ack) {
+    ChannelHandlerContext ctx = newContext();
+    ByteBuf data = Unpooled.buffer(8).writeLong(NettyServerHandler.GRACEFUL_SHUTDOWN_PING);
+    frameWriter.writePing(ctx, ack, data, newPromise());
+    return captureWrite(ctx);
+  }
+
   private ByteBuf badFrame() throws Exception {
     ChannelHandlerContext ctx = newContext();
     // Write an empty PING frame - this is invalid.
@@ -37,6 +37,7 @@ import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.same;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.verifyZeroInteractions;
@@ -72,11 +73,26 @@ public class NettyServerStreamTest extends NettyStreamTestBase {
     Http2Headers headers = new DefaultHttp2Headers()
         .status(Utils.STATUS_OK)
         .set(Utils.CONTENT_TYPE_HEADER, Utils.CONTENT_TYPE_GRPC);
-    verify(channel).writeAndFlush(new SendResponseHeadersCommand(STREAM_ID, headers, false));
-    verify(channel).writeAndFlush(new SendGrpcFrameCommand(stream, messageFrame(MESSAGE), false));
+    // The headers are sent along with the first message.
+    verify(channel).writeAndFlush(
+        new SendResponseCommand(STREAM_ID, headers, messageFrame(MESSAGE), null));
     verify(accepted).run();
   }
 
+  @Test
+  public void unaryResponseShouldBeSentInOneCommand() throws Exception {
+    stream.writeMessage(input, input.available(), accepted);
+    stream().close(Status.OK, trailers);
+    Http2Headers headers = new DefaultHttp2Headers()
+        .status(Utils.STATUS_OK)
+        .set(Utils.CONTENT_TYPE_HEADER, Utils.CONTENT_TYPE_GRPC);
+    Http2Headers http2Trailers = new DefaultHttp2Headers()
+        .set(new AsciiString("grpc-status"), new AsciiString("0"));
+    verify(channel).writeAndFlush(
+        new SendResponseCommand(STREAM_ID, headers, messageFrame(MESSAGE), http2Trailers));
+    verify(channel, times(1)).writeAndFlush(any());
+  }
+
   @Test
   public void writeHeadersShouldSendHeaders() throws Exception {
     Metadata.Headers headers = new Metadata.Headers();
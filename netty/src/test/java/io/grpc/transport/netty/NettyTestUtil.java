@@ -36,7 +36,12 @@ import static io.netty.util.CharsetUtil.UTF_8;
 import com.google.common.io.ByteStreams;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
 
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
@@ -70,4 +75,49 @@ public class NettyTestUtil {
     buf.writeBytes(data);
     return buf;
   }
+
+  /**
+   * Removes the bytes written to the channel so far and returns them in one buffer.
+   */
+  static ByteBuf readOutbound(EmbeddedChannel channel) {
+    CompositeByteBuf composite = Unpooled.compositeBuffer();
+    for (ByteBuf buf = channel.readOutbound(); buf != null; buf = channel.readOutbound()) {
+      composite.addComponent(buf);
+      composite.writerIndex(composite.writerIndex() + buf.readableBytes());
+    }
+    return composite;
+  }
+
+  /**
+   * Placed first in a pipeline, counts the flushes that reach the transport with something to
+   * write, i.e. the writes to the socket.
+   */
+  static class FlushCounter extends ChannelOutboundHandlerAdapter {
+    private int pendingWrites;
+    private int flushes;
+
+    int flushes() {
+      return flushes;
+    }
+
+    void reset() {
+      flushes = 0;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise)
+        throws Exception {
+      pendingWrites++;
+      ctx.write(msg, promise);
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception {
+      if (pendingWrites > 0) {
+        pendingWrites = 0;
+        flushes++;
+      }
+      ctx.flush();
+    }
+  }
 }
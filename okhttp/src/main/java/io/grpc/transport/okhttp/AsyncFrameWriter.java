@@ -38,182 +38,286 @@ import com.squareup.okhttp.internal.spdy.FrameWriter;
 import com.squareup.okhttp.internal.spdy.Header;
 import com.squareup.okhttp.internal.spdy.Settings;
 
-import io.grpc.SerializingExecutor;
-
 import okio.Buffer;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * A {@link FrameWriter} that performs the writes asynchronously. Frames are appended to a pending
+ * batch under a lock, taken once per frame together with the check whether the writer loop is
+ * scheduled. A single writer loop running on the executor takes the whole batch at once and then
+ * flushes the socket once for it.
+ *
+ * <p>The writer loop hands the batch it has written back as the next pending batch, and the
+ * frames in it are reused, so queuing a frame does not allocate once the batches have grown to
+ * their working size.
+ *
+ * <p>The writer may be created before the socket is connected, in which case frames are queued
+ * until {@link #becomeConnected} provides the underlying {@link FrameWriter}.
+ */
 class AsyncFrameWriter implements FrameWriter {
-  private final FrameWriter frameWriter;
+  private final Object lock = new Object();
+  // Null until the socket is connected. The writer loop is only scheduled once it is set.
+  private volatile FrameWriter frameWriter;
+  @GuardedBy("lock")
+  private boolean closedBeforeConnected;
+  @GuardedBy("lock")
+  private FrameBatch pending = new FrameBatch();
+  // Whether the writer loop is scheduled or running.
+  @GuardedBy("lock")
+  private boolean scheduled;
   private final Executor executor;
-  private final OkHttpClientTransport transport;
+  private final Transport transport;
+  private final Runnable writerLoop = new Runnable() {
+    @Override
+    public void run() {
+      writeQueuedFrames();
+    }
+  };
+  // The thread running the writer loop, or null.
+  private volatile Thread writerThread;
+  // The following fields are only accessed by the writer loop.
+  // The batch being written, swapped with the pending batch.
+  private FrameBatch writing = new FrameBatch();
+  // Set once the writer failed or was closed, after which frames are dropped.
+  private boolean closed;
+  private boolean frameWriterClosed;
 
-  public AsyncFrameWriter(FrameWriter frameWriter, OkHttpClientTransport transport,
-      Executor executor) {
+  public AsyncFrameWriter(FrameWriter frameWriter, Transport transport, Executor executor) {
+    this(transport, executor);
     this.frameWriter = frameWriter;
+  }
+
+  /**
+   * Creates a writer whose socket is still connecting. Call {@link #becomeConnected} once it is.
+   */
+  public AsyncFrameWriter(Transport transport, Executor executor) {
     this.transport = transport;
-    // Although writes are thread-safe, we serialize them to prevent consuming many Threads that are
-    // just waiting on each other.
-    this.executor = new SerializingExecutor(executor);
+    this.executor = executor;
+  }
+
+  /**
+   * Starts writing the queued frames to {@code frameWriter}. Returns {@code false}, after closing
+   * {@code frameWriter}, if this writer was already closed while the socket was connecting.
+   */
+  boolean becomeConnected(FrameWriter frameWriter) {
+    boolean schedule;
+    synchronized (lock) {
+      if (closedBeforeConnected) {
+        try {
+          frameWriter.close();
+        } catch (IOException e) {
+          // The transport is already shut down, there is nobody left to report to.
+        }
+        return false;
+      }
+      this.frameWriter = frameWriter;
+      schedule = !pending.isEmpty() && !scheduled;
+      scheduled |= schedule;
+    }
+    if (schedule) {
+      executor.execute(writerLoop);
+    }
+    return true;
   }
 
   @Override
   public void connectionPreface() {
-    executor.execute(new WriteRunnable() {
-      @Override
-      public void doRun() throws IOException {
-        frameWriter.connectionPreface();
+    synchronized (lock) {
+      pending.add(FrameType.CONNECTION_PREFACE);
+      if (!scheduleWriterLoop()) {
+        return;
       }
-    });
+    }
+    executor.execute(writerLoop);
   }
 
   @Override
-  public void ackSettings(final Settings peerSettings) throws IOException {
-    executor.execute(new WriteRunnable() {
-      @Override
-      public void doRun() throws IOException {
-        frameWriter.ackSettings(peerSettings);
+  public void ackSettings(Settings peerSettings) {
+    synchronized (lock) {
+      pending.add(FrameType.ACK_SETTINGS).object1 = peerSettings;
+      if (!scheduleWriterLoop()) {
+        return;
       }
-    });
+    }
+    executor.execute(writerLoop);
   }
 
   @Override
-  public void pushPromise(final int streamId, final int promisedStreamId,
-      final List<Header> requestHeaders) {
-    executor.execute(new WriteRunnable() {
-      @Override
-      public void doRun() throws IOException {
-        frameWriter.pushPromise(streamId, promisedStreamId, requestHeaders);
+  public void pushPromise(int streamId, int promisedStreamId, List<Header> requestHeaders) {
+    synchronized (lock) {
+      Frame frame = pending.add(FrameType.PUSH_PROMISE);
+      frame.int1 = streamId;
+      frame.int2 = promisedStreamId;
+      frame.object1 = requestHeaders;
+      if (!scheduleWriterLoop()) {
+        return;
       }
-    });
+    }
+    executor.execute(writerLoop);
   }
 
+  /**
+   * Does nothing, the writer loop flushes after every batch of frames it writes.
+   */
   @Override
   public void flush() {
-    executor.execute(new WriteRunnable() {
-      @Override
-      public void doRun() throws IOException {
-        frameWriter.flush();
-      }
-    });
   }
 
   @Override
-  public void synStream(final boolean outFinished, final boolean inFinished, final int streamId,
-      final int associatedStreamId, final List<Header> headerBlock) {
-    executor.execute(new WriteRunnable() {
-      @Override
-      public void doRun() throws IOException {
-        frameWriter.synStream(outFinished, inFinished, streamId, associatedStreamId, headerBlock);
+  public void synStream(boolean outFinished, boolean inFinished, int streamId,
+      int associatedStreamId, List<Header> headerBlock) {
+    synchronized (lock) {
+      Frame frame = pending.add(FrameType.SYN_STREAM);
+      frame.flag1 = outFinished;
+      frame.flag2 = inFinished;
+      frame.int1 = streamId;
+      frame.int2 = associatedStreamId;
+      frame.object1 = headerBlock;
+      if (!scheduleWriterLoop()) {
+        return;
       }
-    });
+    }
+    executor.execute(writerLoop);
   }
 
   @Override
-  public void synReply(final boolean outFinished, final int streamId,
-      final List<Header> headerBlock) {
-    executor.execute(new WriteRunnable() {
-      @Override
-      public void doRun() throws IOException {
-        frameWriter.synReply(outFinished, streamId, headerBlock);
+  public void synReply(boolean outFinished, int streamId, List<Header> headerBlock) {
+    synchronized (lock) {
+      Frame frame = pending.add(FrameType.SYN_REPLY);
+      frame.flag1 = outFinished;
+      frame.int1 = streamId;
+      frame.object1 = headerBlock;
+      if (!scheduleWriterLoop()) {
+        return;
       }
-    });
+    }
+    executor.execute(writerLoop);
   }
 
   @Override
-  public void headers(final int streamId, final List<Header> headerBlock) {
-    executor.execute(new WriteRunnable() {
-      @Override
-      public void doRun() throws IOException {
-        frameWriter.headers(streamId, headerBlock);
+  public void headers(int streamId, List<Header> headerBlock) {
+    synchronized (lock) {
+      Frame frame = pending.add(FrameType.HEADERS);
+      frame.int1 = streamId;
+      frame.object1 = headerBlock;
+      if (!scheduleWriterLoop()) {
+        return;
       }
-    });
+    }
+    executor.execute(writerLoop);
   }
 
   @Override
-  public void rstStream(final int streamId, final ErrorCode errorCode) {
-    executor.execute(new WriteRunnable() {
-      @Override
-      public void doRun() throws IOException {
-        frameWriter.rstStream(streamId, errorCode);
+  public void rstStream(int streamId, ErrorCode errorCode) {
+    synchronized (lock) {
+      Frame frame = pending.add(FrameType.RST_STREAM);
+      frame.int1 = streamId;
+      frame.object1 = errorCode;
+      if (!scheduleWriterLoop()) {
+        return;
       }
-    });
+    }
+    executor.execute(writerLoop);
   }
 
   @Override
-  public void data(final boolean outFinished, final int streamId, final Buffer source,
-      final int byteCount) {
-    executor.execute(new WriteRunnable() {
-      @Override
-      public void doRun() throws IOException {
-        frameWriter.data(outFinished, streamId, source, byteCount);
+  public void data(boolean outFinished, int streamId, Buffer source, int byteCount) {
+    synchronized (lock) {
+      Frame frame = pending.add(FrameType.DATA);
+      frame.flag1 = outFinished;
+      frame.int1 = streamId;
+      frame.int2 = byteCount;
+      frame.object1 = source;
+      if (!scheduleWriterLoop()) {
+        return;
       }
-    });
+    }
+    executor.execute(writerLoop);
   }
 
   @Override
-  public void settings(final Settings okHttpSettings) {
-    executor.execute(new WriteRunnable() {
-      @Override
-      public void doRun() throws IOException {
-        frameWriter.settings(okHttpSettings);
+  public void settings(Settings okHttpSettings) {
+    synchronized (lock) {
+      pending.add(FrameType.SETTINGS).object1 = okHttpSettings;
+      if (!scheduleWriterLoop()) {
+        return;
       }
-    });
+    }
+    executor.execute(writerLoop);
   }
 
   @Override
-  public void ping(final boolean ack, final int payload1, final int payload2) {
-    executor.execute(new WriteRunnable() {
-      @Override
-      public void doRun() throws IOException {
-        frameWriter.ping(ack, payload1, payload2);
+  public void ping(boolean ack, int payload1, int payload2) {
+    synchronized (lock) {
+      Frame frame = pending.add(FrameType.PING);
+      frame.flag1 = ack;
+      frame.int1 = payload1;
+      frame.int2 = payload2;
+      if (!scheduleWriterLoop()) {
+        return;
       }
-    });
+    }
+    executor.execute(writerLoop);
   }
 
   @Override
-  public void goAway(final int lastGoodStreamId, final ErrorCode errorCode,
-      final byte[] debugData) {
-    executor.execute(new WriteRunnable() {
-      @Override
-      public void doRun() throws IOException {
-        frameWriter.goAway(lastGoodStreamId, errorCode, debugData);
-        // Flush it since after goAway, we are likely to close this writer.
-        frameWriter.flush();
+  public void goAway(int lastGoodStreamId, ErrorCode errorCode, byte[] debugData) {
+    synchronized (lock) {
+      Frame frame = pending.add(FrameType.GO_AWAY);
+      frame.int1 = lastGoodStreamId;
+      frame.object1 = errorCode;
+      frame.object2 = debugData;
+      if (!scheduleWriterLoop()) {
+        return;
       }
-    });
+    }
+    executor.execute(writerLoop);
   }
 
   @Override
-  public void windowUpdate(final int streamId, final long windowSizeIncrement) {
-    executor.execute(new WriteRunnable() {
-      @Override
-      public void doRun() throws IOException {
-        frameWriter.windowUpdate(streamId, windowSizeIncrement);
+  public void windowUpdate(int streamId, long windowSizeIncrement) {
+    synchronized (lock) {
+      Frame frame = pending.add(FrameType.WINDOW_UPDATE);
+      frame.int1 = streamId;
+      frame.long1 = windowSizeIncrement;
+      if (!scheduleWriterLoop()) {
+        return;
       }
-    });
+    }
+    executor.execute(writerLoop);
   }
 
   @Override
   public void close() {
+    if (Thread.currentThread() == writerThread) {
+      // The writer loop failed and is shutting down the transport, close right away since waiting
+      // on the loop would never end.
+      closeFrameWriter();
+      return;
+    }
     // Wait for the frameWriter to close.
-    final SettableFuture<?> closeFuture = SettableFuture.create();
-    executor.execute(new Runnable() {
-      @Override
-      public void run() {
-        try {
-          frameWriter.close();
-        } catch (IOException e) {
-          closeFuture.setException(e);
-        } finally {
-          closeFuture.set(null);
-        }
+    SettableFuture<Void> closeFuture = SettableFuture.create();
+    boolean schedule;
+    synchronized (lock) {
+      if (frameWriter == null) {
+        // Never connected, there is nothing to flush or close.
+        closedBeforeConnected = true;
+        pending.clear();
+        return;
       }
-    });
+      pending.add(FrameType.CLOSE).object1 = closeFuture;
+      schedule = scheduleWriterLoop();
+    }
+    if (schedule) {
+      executor.execute(writerLoop);
+    }
     try {
       closeFuture.get();
     } catch (InterruptedException e) {
@@ -224,22 +328,212 @@ class AsyncFrameWriter implements FrameWriter {
     }
   }
 
-  private abstract class WriteRunnable implements Runnable {
-    @Override
-    public final void run() {
-      try {
-        doRun();
-      } catch (IOException ex) {
-        transport.abort(ex);
-        throw new RuntimeException(ex);
+  @Override
+  public int maxDataLength() {
+    FrameWriter frameWriter = this.frameWriter;
+    // Before the socket connects, assume the initial maximum frame size of HTTP/2.
+    return frameWriter == null ? Utils.MAX_FRAME_SIZE : frameWriter.maxDataLength();
+  }
+
+  /**
+   * Marks the writer loop as scheduled for the frame just queued, unless it already is. Returns
+   * whether the caller must then execute the loop, after releasing the lock. If not connected yet,
+   * {@link #becomeConnected} schedules the loop for the frames queued so far.
+   */
+  @GuardedBy("lock")
+  private boolean scheduleWriterLoop() {
+    if (frameWriter == null || scheduled) {
+      return false;
+    }
+    scheduled = true;
+    return true;
+  }
+
+  private void writeQueuedFrames() {
+    writerThread = Thread.currentThread();
+    try {
+      while (true) {
+        synchronized (lock) {
+          if (pending.isEmpty()) {
+            scheduled = false;
+            return;
+          }
+          FrameBatch batch = pending;
+          pending = writing;
+          writing = batch;
+        }
+        boolean written = false;
+        for (int i = 0; i < writing.size(); i++) {
+          Frame frame = writing.get(i);
+          if (closed && frame.type != FrameType.CLOSE) {
+            continue;
+          }
+          try {
+            write(frame);
+            written = true;
+          } catch (IOException ex) {
+            fail(ex);
+          }
+        }
+        writing.clear();
+        if (written && !closed) {
+          try {
+            frameWriter.flush();
+          } catch (IOException ex) {
+            fail(ex);
+          }
+        }
       }
+    } finally {
+      writerThread = null;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void write(Frame frame) throws IOException {
+    switch (frame.type) {
+      case CONNECTION_PREFACE:
+        frameWriter.connectionPreface();
+        break;
+      case ACK_SETTINGS:
+        frameWriter.ackSettings((Settings) frame.object1);
+        break;
+      case PUSH_PROMISE:
+        frameWriter.pushPromise(frame.int1, frame.int2, (List<Header>) frame.object1);
+        break;
+      case SYN_STREAM:
+        frameWriter.synStream(frame.flag1, frame.flag2, frame.int1, frame.int2,
+            (List<Header>) frame.object1);
+        break;
+      case SYN_REPLY:
+        frameWriter.synReply(frame.flag1, frame.int1, (List<Header>) frame.object1);
+        break;
+      case HEADERS:
+        frameWriter.headers(frame.int1, (List<Header>) frame.object1);
+        break;
+      case RST_STREAM:
+        frameWriter.rstStream(frame.int1, (ErrorCode) frame.object1);
+        break;
+      case DATA:
+        frameWriter.data(frame.flag1, frame.int1, (Buffer) frame.object1, frame.int2);
+        break;
+      case SETTINGS:
+        frameWriter.settings((Settings) frame.object1);
+        break;
+      case PING:
+        frameWriter.ping(frame.flag1, frame.int1, frame.int2);
+        break;
+      case GO_AWAY:
+        frameWriter.goAway(frame.int1, (ErrorCode) frame.object1, (byte[]) frame.object2);
+        break;
+      case WINDOW_UPDATE:
+        frameWriter.windowUpdate(frame.int1, frame.long1);
+        break;
+      case CLOSE:
+        // Closes the frame writer, even after a failure, and notifies the thread waiting in
+        // close().
+        SettableFuture<Void> closeFuture = (SettableFuture<Void>) frame.object1;
+        try {
+          closeFrameWriter();
+          closeFuture.set(null);
+        } catch (RuntimeException e) {
+          closeFuture.setException(e);
+        }
+        break;
+      default:
+        throw new AssertionError("Unknown frame type: " + frame.type);
     }
+  }
 
-    public abstract void doRun() throws IOException;
+  private void fail(IOException ex) {
+    closed = true;
+    transport.abort(ex);
   }
 
-  @Override
-  public int maxDataLength() {
-    return frameWriter.maxDataLength();
+  private void closeFrameWriter() {
+    closed = true;
+    if (frameWriterClosed) {
+      return;
+    }
+    frameWriterClosed = true;
+    try {
+      frameWriter.close();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * The transport owning the writer, which is aborted when a write fails.
+   */
+  interface Transport {
+    void abort(Throwable failureCause);
+  }
+
+  private enum FrameType {
+    CONNECTION_PREFACE, ACK_SETTINGS, PUSH_PROMISE, SYN_STREAM, SYN_REPLY, HEADERS, RST_STREAM,
+    DATA, SETTINGS, PING, GO_AWAY, WINDOW_UPDATE, CLOSE
+  }
+
+  /**
+   * The arguments of a queued {@link FrameWriter} call. Which fields are used depends on the type.
+   */
+  private static final class Frame {
+    FrameType type;
+    boolean flag1;
+    boolean flag2;
+    int int1;
+    int int2;
+    long long1;
+    Object object1;
+    Object object2;
+  }
+
+  /**
+   * Frames in the order they were queued. Clearing a batch keeps its frames for reuse.
+   */
+  private static final class FrameBatch {
+    private final List<Frame> frames = new ArrayList<Frame>();
+    private int size;
+
+    /**
+     * Appends a frame of the given type. The caller sets the fields that the type uses.
+     */
+    Frame add(FrameType type) {
+      Frame frame;
+      if (size < frames.size()) {
+        frame = frames.get(size);
+      } else {
+        frame = new Frame();
+        frames.add(frame);
+      }
+      size++;
+      frame.type = type;
+      return frame;
+    }
+
+    Frame get(int index) {
+      return frames.get(index);
+    }
+
+    int size() {
+      return size;
+    }
+
+    boolean isEmpty() {
+      return size == 0;
+    }
+
+    /**
+     * Drops the references held by the frames, so written buffers can be collected.
+     */
+    void clear() {
+      for (int i = 0; i < size; i++) {
+        Frame frame = frames.get(i);
+        frame.object1 = null;
+        frame.object2 = null;
+      }
+      size = 0;
+    }
   }
 }
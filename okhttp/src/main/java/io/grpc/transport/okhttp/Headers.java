@@ -54,6 +54,7 @@ public class Headers {
   public static final Header CONTENT_TYPE_HEADER =
       new Header(HttpUtil.CONTENT_TYPE.name(), HttpUtil.CONTENT_TYPE_GRPC);
   public static final Header TE_HEADER = new Header(HttpUtil.TE.name(), HttpUtil.TE_TRAILERS);
+  public static final Header STATUS_OK_HEADER = new Header(Header.RESPONSE_STATUS, "200");
 
   /**
    * Serializes the given headers and creates a list of OkHttp {@link Header}s to be used when
@@ -81,7 +82,45 @@ public class Headers {
     okhttpHeaders.add(TE_HEADER);
 
     // Now add any application-provided headers.
-    byte[][] serializedHeaders = TransportFrameUtil.toHttp2Headers(headers);
+    addApplicationHeaders(headers, okhttpHeaders);
+
+    return okhttpHeaders;
+  }
+
+  /**
+   * Serializes the given headers and creates a list of OkHttp {@link Header}s to be sent as the
+   * response headers of a server stream.
+   */
+  public static List<Header> createResponseHeaders(Metadata.Headers headers) {
+    Preconditions.checkNotNull(headers, "headers");
+
+    List<Header> okhttpHeaders = new ArrayList<Header>(2);
+    okhttpHeaders.add(STATUS_OK_HEADER);
+    okhttpHeaders.add(CONTENT_TYPE_HEADER);
+    addApplicationHeaders(headers, okhttpHeaders);
+    return okhttpHeaders;
+  }
+
+  /**
+   * Serializes the given trailers and creates a list of OkHttp {@link Header}s that end a server
+   * stream. If no response headers were sent, the trailers also carry the response status, so
+   * that they form a trailers-only response.
+   */
+  public static List<Header> createResponseTrailers(Metadata.Trailers trailers,
+      boolean headersSent) {
+    Preconditions.checkNotNull(trailers, "trailers");
+
+    List<Header> okhttpHeaders = new ArrayList<Header>(4);
+    if (!headersSent) {
+      okhttpHeaders.add(STATUS_OK_HEADER);
+      okhttpHeaders.add(CONTENT_TYPE_HEADER);
+    }
+    addApplicationHeaders(trailers, okhttpHeaders);
+    return okhttpHeaders;
+  }
+
+  private static void addApplicationHeaders(Metadata metadata, List<Header> okhttpHeaders) {
+    byte[][] serializedHeaders = TransportFrameUtil.toHttp2Headers(metadata);
     for (int i = 0; i < serializedHeaders.length; i += 2) {
       ByteString key = ByteString.of(serializedHeaders[i]);
       ByteString value = ByteString.of(serializedHeaders[i + 1]);
@@ -89,8 +128,6 @@ public class Headers {
         okhttpHeaders.add(new Header(key, value));
       }
     }
-
-    return okhttpHeaders;
   }
 
   /**
@@ -32,36 +32,19 @@
 package io.grpc.transport.okhttp;
 
 import com.google.common.base.Preconditions;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import io.grpc.AbstractChannelBuilder;
 import io.grpc.SharedResourceHolder;
-import io.grpc.SharedResourceHolder.Resource;
 import io.grpc.transport.ClientTransportFactory;
 
 import java.net.InetSocketAddress;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.SSLSocketFactory;
 
 /** Convenience class for building channels with the OkHttp transport. */
 public final class OkHttpChannelBuilder extends AbstractChannelBuilder<OkHttpChannelBuilder> {
-  private static final Resource<ExecutorService> DEFAULT_TRANSPORT_THREAD_POOL
-      = new Resource<ExecutorService>() {
-        @Override
-        public ExecutorService create() {
-          return Executors.newCachedThreadPool(new ThreadFactoryBuilder()
-              .setNameFormat("grpc-okhttp-%d")
-              .build());
-        }
-
-        @Override
-        public void close(ExecutorService executor) {
-          executor.shutdown();
-        }
-      };
-
   /** Creates a new builder for the given server host and port. */
   public static OkHttpChannelBuilder forAddress(String host, int port) {
     return new OkHttpChannelBuilder(new InetSocketAddress(host, port), host);
@@ -71,6 +54,11 @@ public final class OkHttpChannelBuilder extends AbstractChannelBuilder<OkHttpCha
   private ExecutorService transportExecutor;
   private String host;
   private SSLSocketFactory sslSocketFactory;
+  private long connectTimeoutMillis = SocketOptions.DEFAULT_CONNECT_TIMEOUT_MILLIS;
+  private long handshakeTimeoutMillis = SocketOptions.DEFAULT_HANDSHAKE_TIMEOUT_MILLIS;
+  private boolean tcpNoDelay = true;
+  private int sendBufferSize;
+  private int receiveBufferSize;
 
   private OkHttpChannelBuilder(InetSocketAddress serverAddress, String host) {
     this.serverAddress = Preconditions.checkNotNull(serverAddress, "serverAddress");
@@ -106,19 +94,81 @@ public final class OkHttpChannelBuilder extends AbstractChannelBuilder<OkHttpCha
     return this;
   }
 
+  /**
+   * Sets how long to wait for the TCP connection to be established before failing the transport,
+   * so the channel can try again instead of hanging on an unreachable address. Zero means no
+   * timeout.
+   *
+   * <p>It's an optional parameter. If the user has not provided a value, it defaults to 20 seconds.
+   */
+  public OkHttpChannelBuilder connectTimeout(long timeout, TimeUnit unit) {
+    Preconditions.checkArgument(timeout >= 0, "timeout must be >= 0");
+    this.connectTimeoutMillis = unit.toMillis(timeout);
+    return this;
+  }
+
+  /**
+   * Sets how long the TLS handshake may wait on the server before failing the transport. Zero
+   * means no timeout. Has no effect without {@link #sslSocketFactory}.
+   *
+   * <p>It's an optional parameter. If the user has not provided a value, it defaults to 20 seconds.
+   */
+  public OkHttpChannelBuilder handshakeTimeout(long timeout, TimeUnit unit) {
+    Preconditions.checkArgument(timeout >= 0, "timeout must be >= 0");
+    this.handshakeTimeoutMillis = unit.toMillis(timeout);
+    return this;
+  }
+
+  /**
+   * Sets {@code TCP_NODELAY} on the socket. Disabling Nagle's algorithm avoids delaying the small
+   * frames gRPC sends, such as headers and window updates.
+   *
+   * <p>It's an optional parameter. If the user has not provided a value, it defaults to true.
+   */
+  public OkHttpChannelBuilder tcpNoDelay(boolean tcpNoDelay) {
+    this.tcpNoDelay = tcpNoDelay;
+    return this;
+  }
+
+  /**
+   * Sets the size in bytes of the socket send buffer ({@code SO_SNDBUF}).
+   *
+   * <p>It's an optional parameter. If the user has not provided a value, the platform default is
+   * used.
+   */
+  public OkHttpChannelBuilder sendBufferSize(int bytes) {
+    Preconditions.checkArgument(bytes > 0, "bytes must be positive");
+    this.sendBufferSize = bytes;
+    return this;
+  }
+
+  /**
+   * Sets the size in bytes of the socket receive buffer ({@code SO_RCVBUF}).
+   *
+   * <p>It's an optional parameter. If the user has not provided a value, the platform default is
+   * used.
+   */
+  public OkHttpChannelBuilder receiveBufferSize(int bytes) {
+    Preconditions.checkArgument(bytes > 0, "bytes must be positive");
+    this.receiveBufferSize = bytes;
+    return this;
+  }
+
   @Override
   protected ChannelEssentials buildEssentials() {
     final ExecutorService executor = (transportExecutor == null)
-        ? SharedResourceHolder.get(DEFAULT_TRANSPORT_THREAD_POOL) : transportExecutor;
-    ClientTransportFactory transportFactory
-        = new OkHttpClientTransportFactory(serverAddress, host, executor, sslSocketFactory);
+        ? SharedResourceHolder.get(Utils.DEFAULT_TRANSPORT_THREAD_POOL) : transportExecutor;
+    SocketOptions socketOptions = new SocketOptions(connectTimeoutMillis, handshakeTimeoutMillis,
+        tcpNoDelay, sendBufferSize, receiveBufferSize);
+    ClientTransportFactory transportFactory = new OkHttpClientTransportFactory(serverAddress, host,
+        executor, sslSocketFactory, socketOptions);
     Runnable terminationRunnable = null;
     // We shut down the executor only if we created it.
     if (transportExecutor == null) {
       terminationRunnable = new Runnable() {
         @Override
         public void run() {
-          SharedResourceHolder.release(DEFAULT_TRANSPORT_THREAD_POOL, executor);
+          SharedResourceHolder.release(Utils.DEFAULT_TRANSPORT_THREAD_POOL, executor);
         }
       };
     }
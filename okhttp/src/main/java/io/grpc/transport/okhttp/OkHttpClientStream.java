@@ -50,7 +50,8 @@ import javax.annotation.concurrent.GuardedBy;
 /**
  * Client stream for the okhttp transport.
  */
-class OkHttpClientStream extends Http2ClientStream {
+class OkHttpClientStream extends Http2ClientStream
+    implements OutboundFlowController.FlowControlledStream {
 
   private static int WINDOW_UPDATE_THRESHOLD =
       OkHttpClientTransport.DEFAULT_INITIAL_WINDOW_SIZE / 2;
@@ -162,11 +163,13 @@ class OkHttpClientStream extends Http2ClientStream {
     }
   }
 
-  void setOutboundFlowState(Object outboundFlowState) {
+  @Override
+  public void setOutboundFlowState(Object outboundFlowState) {
     this.outboundFlowState = outboundFlowState;
   }
 
-  Object getOutboundFlowState() {
+  @Override
+  public Object getOutboundFlowState() {
     return outboundFlowState;
   }
 }
@@ -48,6 +48,8 @@ import io.grpc.Status;
 import io.grpc.Status.Code;
 import io.grpc.transport.ClientStreamListener;
 import io.grpc.transport.ClientTransport;
+import io.grpc.transport.RefusedStreamException;
+import io.grpc.transport.StreamTracer;
 
 import okio.Buffer;
 import okio.BufferedSink;
@@ -58,10 +60,8 @@ import okio.Okio;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Executor;
@@ -70,12 +70,13 @@ import java.util.logging.Logger;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
+import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 
 /**
  * A okhttp-based {@link ClientTransport} implementation.
  */
-public class OkHttpClientTransport implements ClientTransport {
+public class OkHttpClientTransport implements ClientTransport, AsyncFrameWriter.Transport {
   /** The default initial window size in HTTP/2 is 64 KiB for the stream and connection. */
   @VisibleForTesting
   static final int DEFAULT_INITIAL_WINDOW_SIZE = 64 * 1024;
@@ -104,8 +105,9 @@ public class OkHttpClientTransport implements ClientTransport {
         Status.INTERNAL.withDescription("Stream closed"));
     errorToStatus.put(ErrorCode.FRAME_TOO_LARGE,
         Status.INTERNAL.withDescription("Frame too large"));
-    errorToStatus.put(ErrorCode.REFUSED_STREAM,
-        Status.INTERNAL.withDescription("Refused stream"));
+    // The server guarantees that it did not process a refused stream, so it may be retried.
+    errorToStatus.put(ErrorCode.REFUSED_STREAM, RefusedStreamException.markRefused(
+        Status.UNAVAILABLE.withDescription("Refused stream")));
     errorToStatus.put(ErrorCode.CANCEL, Status.CANCELLED.withDescription("Cancelled"));
     errorToStatus.put(ErrorCode.COMPRESSION_ERROR,
         Status.INTERNAL.withDescription("Compression error"));
@@ -118,14 +120,14 @@ public class OkHttpClientTransport implements ClientTransport {
   private final String authorityHost;
   private final String defaultAuthority;
   private Listener listener;
-  private FrameReader frameReader;
+  // Set by the thread that connects the socket, which then goes on to read from it.
+  private volatile FrameReader frameReader;
   private AsyncFrameWriter frameWriter;
   private OutboundFlowController outboundFlow;
   private final Object lock = new Object();
   @GuardedBy("lock")
   private int nextStreamId;
-  private final Map<Integer, OkHttpClientStream> streams =
-      Collections.synchronizedMap(new HashMap<Integer, OkHttpClientStream>());
+  private final StreamMap<OkHttpClientStream> streams = new StreamMap<OkHttpClientStream>();
   private final Executor executor;
   private int connectionUnacknowledgedBytesRead;
   private ClientFrameHandler clientFrameHandler;
@@ -137,9 +139,10 @@ public class OkHttpClientTransport implements ClientTransport {
   @GuardedBy("lock")
   private boolean stopped;
   private SSLSocketFactory sslSocketFactory;
+  private final SocketOptions socketOptions;
 
   OkHttpClientTransport(InetSocketAddress address, String authorityHost, Executor executor,
-                        SSLSocketFactory sslSocketFactory) {
+                        SSLSocketFactory sslSocketFactory, SocketOptions socketOptions) {
     this.address = Preconditions.checkNotNull(address);
     this.authorityHost = authorityHost;
     defaultAuthority = authorityHost + ":" + address.getPort();
@@ -148,6 +151,7 @@ public class OkHttpClientTransport implements ClientTransport {
     // use it. We start clients at 3 to avoid conflicting with HTTP negotiation.
     nextStreamId = 3;
     this.sslSocketFactory = sslSocketFactory;
+    this.socketOptions = Preconditions.checkNotNull(socketOptions, "socketOptions");
   }
 
   /**
@@ -162,20 +166,24 @@ public class OkHttpClientTransport implements ClientTransport {
     this.executor = Preconditions.checkNotNull(executor);
     this.frameReader = Preconditions.checkNotNull(frameReader);
     this.frameWriter = Preconditions.checkNotNull(frameWriter);
-    this.outboundFlow = new OutboundFlowController(this, frameWriter);
+    this.outboundFlow = new OutboundFlowController(streams, frameWriter);
     this.nextStreamId = nextStreamId;
+    socketOptions = null;
   }
 
   @Override
   public OkHttpClientStream newStream(MethodDescriptor<?, ?> method,
                                       Metadata.Headers headers,
-                                      ClientStreamListener listener) {
+                                      ClientStreamListener listener,
+                                      StreamTracer tracer) {
     Preconditions.checkNotNull(method, "method");
     Preconditions.checkNotNull(headers, "headers");
     Preconditions.checkNotNull(listener, "listener");
+    Preconditions.checkNotNull(tracer, "tracer");
 
     OkHttpClientStream clientStream =
         OkHttpClientStream.newStream(listener, frameWriter, this, outboundFlow);
+    clientStream.setTracer(tracer);
 
     String defaultPath = "/" + method.getName();
     List<Header> requestHeaders =
@@ -189,6 +197,7 @@ public class OkHttpClientTransport implements ClientTransport {
       assignStreamId(clientStream);
       frameWriter.synStream(false, false, clientStream.id(), 0, requestHeaders);
     }
+    tracer.outboundHeaders();
 
     return clientStream;
   }
@@ -196,32 +205,74 @@ public class OkHttpClientTransport implements ClientTransport {
   @Override
   public void start(Listener listener) {
     this.listener = Preconditions.checkNotNull(listener, "listener");
+    clientFrameHandler = new ClientFrameHandler();
     // We set host to null for test.
-    if (address != null) {
-      BufferedSource source;
-      BufferedSink sink;
-      try {
-        Socket socket = new Socket(address.getAddress(), address.getPort());
-        if (sslSocketFactory != null) {
-          // We assume the sslSocketFactory will verify the server hostname.
-          socket = sslSocketFactory.createSocket(socket, authorityHost, address.getPort(), true);
+    if (address == null) {
+      executor.execute(clientFrameHandler);
+      return;
+    }
+    // Connecting and the TLS handshake happen on the executor, so that start() never blocks the
+    // caller. Frames written in the meantime are queued until the socket is connected.
+    frameWriter = new AsyncFrameWriter(this, executor);
+    outboundFlow = new OutboundFlowController(streams, frameWriter);
+    frameWriter.connectionPreface();
+    Settings settings = new Settings();
+    frameWriter.settings(settings);
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        if (connect()) {
+          clientFrameHandler.run();
         }
-        source = Okio.buffer(Okio.source(socket));
-        sink = Okio.buffer(Okio.sink(socket));
-      } catch (IOException e) {
-        throw new RuntimeException(e);
       }
-      Variant variant = new Http20Draft16();
-      frameReader = variant.newReader(source, true);
-      frameWriter = new AsyncFrameWriter(variant.newWriter(sink, true), this, executor);
-      outboundFlow = new OutboundFlowController(this, frameWriter);
-      frameWriter.connectionPreface();
-      Settings settings = new Settings();
-      frameWriter.settings(settings);
-    }
+    });
+  }
 
-    clientFrameHandler = new ClientFrameHandler();
-    executor.execute(clientFrameHandler);
+  /**
+   * Connects the socket and performs the TLS handshake, if any. On failure, fails the transport
+   * with {@link Status#UNAVAILABLE} so that the channel can create a new one.
+   *
+   * @return whether the frame reader should start reading
+   */
+  private boolean connect() {
+    Socket socket = new Socket();
+    BufferedSource source;
+    BufferedSink sink;
+    try {
+      socketOptions.apply(socket);
+      socket.connect(address, socketOptions.connectTimeoutMillis);
+      if (sslSocketFactory != null) {
+        // Bound how long the handshake may wait on the server, then clear it for the RPCs.
+        socket.setSoTimeout(socketOptions.handshakeTimeoutMillis);
+        // We assume the sslSocketFactory will verify the server hostname.
+        SSLSocket sslSocket = (SSLSocket) sslSocketFactory.createSocket(
+            socket, authorityHost, address.getPort(), true);
+        sslSocket.startHandshake();
+        socket.setSoTimeout(0);
+        socket = sslSocket;
+      }
+      source = Okio.buffer(Okio.source(socket));
+      sink = Okio.buffer(Okio.sink(socket));
+    } catch (IOException e) {
+      try {
+        socket.close();
+      } catch (IOException ignored) {
+        // The connection attempt already failed.
+      }
+      log.log(Level.FINE, "Failed to connect to " + address, e);
+      onGoAway(0, Status.UNAVAILABLE.withDescription("Failed to connect to " + address)
+          .withCause(e));
+      return false;
+    }
+    Variant variant = new Http20Draft16();
+    synchronized (lock) {
+      if (!stopped) {
+        frameReader = variant.newReader(source, true);
+      }
+    }
+    // The writer was closed, and closes the socket, if the transport was shut down while
+    // connecting.
+    return frameWriter.becomeConnected(variant.newWriter(sink, true)) && frameReader != null;
   }
 
   @Override
@@ -246,41 +297,36 @@ public class OkHttpClientTransport implements ClientTransport {
     return clientFrameHandler;
   }
 
-  Map<Integer, OkHttpClientStream> getStreams() {
+  StreamMap<OkHttpClientStream> getStreams() {
     return streams;
   }
 
   /**
    * Finish all active streams due to a failure, then close the transport.
    */
-  void abort(Throwable failureCause) {
+  @Override
+  public void abort(Throwable failureCause) {
     log.log(Level.SEVERE, "Transport failed", failureCause);
     onGoAway(0, Status.fromThrowable(failureCause));
   }
 
   private void onGoAway(int lastKnownStreamId, Status status) {
     boolean notifyShutdown;
-    ArrayList<OkHttpClientStream> goAwayStreams = new ArrayList<OkHttpClientStream>();
+    List<OkHttpClientStream> goAwayStreams;
     synchronized (lock) {
       notifyShutdown = !goAway;
       goAway = true;
       goAwayStatus = status;
-      synchronized (streams) {
-        Iterator<Map.Entry<Integer, OkHttpClientStream>> it = streams.entrySet().iterator();
-        while (it.hasNext()) {
-          Map.Entry<Integer, OkHttpClientStream> entry = it.next();
-          if (entry.getKey() > lastKnownStreamId) {
-            goAwayStreams.add(entry.getValue());
-            it.remove();
-          }
-        }
-      }
+      goAwayStreams = streams.removeAbove(lastKnownStreamId);
     }
 
     if (notifyShutdown) {
       listener.transportShutdown();
     }
     for (OkHttpClientStream stream : goAwayStreams) {
+      if (outboundFlow != null) {
+        outboundFlow.streamClosed(stream);
+      }
       stream.transportReportStatus(status, false, new Metadata.Trailers());
     }
     stopIfNecessary();
@@ -295,6 +341,9 @@ public class OkHttpClientTransport implements ClientTransport {
     OkHttpClientStream stream;
     stream = streams.remove(streamId);
     if (stream != null) {
+      if (outboundFlow != null) {
+        outboundFlow.streamClosed(stream);
+      }
       if (status != null) {
         boolean isCancelled = status.getCode() == Code.CANCELLED;
         stream.transportReportStatus(status, isCancelled, new Metadata.Trailers());
@@ -323,10 +372,14 @@ public class OkHttpClientTransport implements ClientTransport {
       // Wait for the frame writer to close.
       if (frameWriter != null) {
         frameWriter.close();
-        try {
-          frameReader.close();
-        } catch (IOException e) {
-          throw new RuntimeException(e);
+        // The reader is null if the transport stopped before the socket connected.
+        FrameReader frameReader = this.frameReader;
+        if (frameReader != null) {
+          try {
+            frameReader.close();
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
         }
       }
       listener.transportTerminated();
@@ -358,6 +411,13 @@ public class OkHttpClientTransport implements ClientTransport {
         }
       } catch (IOException ioe) {
         abort(ioe);
+      } catch (IllegalStateException e) {
+        // Okio throws if stopIfNecessary() closes the source between two reads of a frame.
+        synchronized (lock) {
+          if (!stopped) {
+            throw e;
+          }
+        }
       } finally {
         // Restore the original thread name.
         Thread.currentThread().setName(threadName);
@@ -421,11 +481,7 @@ public class OkHttpClientTransport implements ClientTransport {
     @Override
     public void settings(boolean clearPrevious, Settings settings) {
       // not impl
-      try {
-        frameWriter.ackSettings(settings);
-      } catch (IOException e) {
-        abort(e);
-      }
+      frameWriter.ackSettings(settings);
     }
 
     @Override
@@ -442,7 +498,9 @@ public class OkHttpClientTransport implements ClientTransport {
 
     @Override
     public void goAway(int lastGoodStreamId, ErrorCode errorCode, ByteString debugData) {
-      onGoAway(lastGoodStreamId, Status.UNAVAILABLE.withDescription("Go away"));
+      // Streams above lastGoodStreamId were not processed by the server.
+      onGoAway(lastGoodStreamId,
+          RefusedStreamException.markRefused(Status.UNAVAILABLE.withDescription("Go away")));
     }
 
     @Override
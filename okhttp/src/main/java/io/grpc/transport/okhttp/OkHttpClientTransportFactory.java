@@ -49,18 +49,22 @@ class OkHttpClientTransportFactory implements ClientTransportFactory {
   private final ExecutorService executor;
   private final String authorityHost;
   private final SSLSocketFactory sslSocketFactory;
+  private final SocketOptions socketOptions;
 
   public OkHttpClientTransportFactory(InetSocketAddress address, String authorityHost,
-                                      ExecutorService executor, SSLSocketFactory factory) {
+                                      ExecutorService executor, SSLSocketFactory factory,
+                                      SocketOptions socketOptions) {
     this.address = Preconditions.checkNotNull(address, "address");
     this.executor = Preconditions.checkNotNull(executor, "executor");
     this.authorityHost = Preconditions.checkNotNull(authorityHost, "authorityHost");
     this.sslSocketFactory = factory;
+    this.socketOptions = Preconditions.checkNotNull(socketOptions, "socketOptions");
   }
 
   @Override
   public ClientTransport newClientTransport() {
-    return new OkHttpClientTransport(address, authorityHost, executor, sslSocketFactory);
+    return new OkHttpClientTransport(address, authorityHost, executor, sslSocketFactory,
+        socketOptions);
   }
 
 }
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.transport.okhttp;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.AbstractService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Service;
+
+import io.grpc.transport.ServerListener;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.net.ServerSocketFactory;
+
+/**
+ * Implementation of the {@link com.google.common.util.concurrent.Service} interface for an
+ * OkHttp-based server. Connections are accepted on a blocking server socket and each is served by
+ * an {@link OkHttpServerTransport}.
+ */
+public class OkHttpServer extends AbstractService {
+  private static final Logger log = Logger.getLogger(OkHttpServer.class.getName());
+  private static final int BACKLOG = 128;
+
+  private final ServerListener serverListener;
+  private final SocketAddress address;
+  private final ServerSocketFactory socketFactory;
+  private final Executor executor;
+  private ServerSocket serverSocket;
+  /** Accepted connections that have not closed yet. */
+  @GuardedBy("this")
+  private final Set<OkHttpServerTransport> transports = new HashSet<OkHttpServerTransport>();
+  @GuardedBy("this")
+  private boolean serverSocketClosed;
+
+  /**
+   * Creates a server. Sockets created by {@code socketFactory} should not block for longer than the
+   * executor can afford, since each connection holds one of its threads while it is open.
+   */
+  public OkHttpServer(ServerListener serverListener, SocketAddress address,
+      ServerSocketFactory socketFactory, Executor executor) {
+    this.serverListener = Preconditions.checkNotNull(serverListener, "serverListener");
+    this.address = Preconditions.checkNotNull(address, "address");
+    this.socketFactory = Preconditions.checkNotNull(socketFactory, "socketFactory");
+    this.executor = Preconditions.checkNotNull(executor, "executor");
+  }
+
+  @Override
+  protected void doStart() {
+    try {
+      serverSocket = socketFactory.createServerSocket();
+      serverSocket.bind(address, BACKLOG);
+    } catch (IOException e) {
+      notifyFailed(e);
+      return;
+    }
+    notifyStarted();
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        String threadName = Thread.currentThread().getName();
+        Thread.currentThread().setName("OkHttpServer");
+        try {
+          acceptConnections();
+        } finally {
+          Thread.currentThread().setName(threadName);
+        }
+      }
+    });
+  }
+
+  @Override
+  protected void doStop() {
+    // The server is only stopped once all of its connections are closed, which the server stops
+    // gracefully.
+    try {
+      serverSocket.close();
+    } catch (IOException e) {
+      notifyFailed(e);
+      return;
+    }
+    boolean stopped;
+    synchronized (this) {
+      serverSocketClosed = true;
+      stopped = transports.isEmpty();
+    }
+    if (stopped) {
+      notifyStopped();
+    }
+  }
+
+  private void acceptConnections() {
+    while (true) {
+      Socket socket;
+      try {
+        socket = serverSocket.accept();
+        // gRPC writes small frames such as headers and window updates, which shouldn't wait.
+        socket.setTcpNoDelay(true);
+      } catch (IOException e) {
+        if (!serverSocket.isClosed()) {
+          log.log(Level.SEVERE, "Failed accepting connections", e);
+          notifyFailed(e);
+        }
+        return;
+      }
+      final OkHttpServerTransport transport =
+          new OkHttpServerTransport(socket, serverListener, executor);
+      synchronized (this) {
+        if (serverSocketClosed) {
+          closeQuietly(socket);
+          return;
+        }
+        transports.add(transport);
+      }
+      transport.addListener(new Service.Listener() {
+        @Override
+        public void terminated(State from) {
+          transportClosed(transport);
+        }
+
+        @Override
+        public void failed(State from, Throwable failure) {
+          transportClosed(transport);
+        }
+      }, MoreExecutors.directExecutor());
+      transport.startAsync();
+    }
+  }
+
+  private void transportClosed(OkHttpServerTransport transport) {
+    boolean stopped;
+    synchronized (this) {
+      stopped = transports.remove(transport) && serverSocketClosed && transports.isEmpty();
+    }
+    if (stopped) {
+      notifyStopped();
+    }
+  }
+
+  private static void closeQuietly(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException e) {
+      log.log(Level.FINE, "Failed closing the connection", e);
+    }
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.transport.okhttp;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Service;
+
+import io.grpc.AbstractServerBuilder;
+import io.grpc.HandlerRegistry;
+import io.grpc.SharedResourceHolder;
+import io.grpc.transport.ServerListener;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.ExecutorService;
+
+import javax.net.ServerSocketFactory;
+
+/**
+ * A builder to help simplify the construction of an OkHttp-based GRPC server. It doesn't depend on
+ * Netty, which suits small deployments, but uses blocking sockets with two threads per connection,
+ * so it is not meant for a large number of connections.
+ */
+public final class OkHttpServerBuilder extends AbstractServerBuilder<OkHttpServerBuilder> {
+
+  private final SocketAddress address;
+  private ExecutorService transportExecutor;
+  private ServerSocketFactory socketFactory = ServerSocketFactory.getDefault();
+
+  /**
+   * Creates a server builder that will bind to the given port.
+   *
+   * @param port the port on which the server is to be bound.
+   * @return the server builder.
+   */
+  public static OkHttpServerBuilder forPort(int port) {
+    return new OkHttpServerBuilder(new InetSocketAddress(port));
+  }
+
+  /**
+   * Creates a server builder that will bind to the given port and use the {@link HandlerRegistry}
+   * for call dispatching.
+   *
+   * @param registry the registry of handlers used for dispatching incoming calls.
+   * @param port the port on which to the server is to be bound.
+   * @return the server builder.
+   */
+  public static OkHttpServerBuilder forRegistryAndPort(HandlerRegistry registry, int port) {
+    return new OkHttpServerBuilder(registry, new InetSocketAddress(port));
+  }
+
+  /**
+   * Creates a server builder configured with the given {@link SocketAddress}.
+   *
+   * @param address the socket address on which the server is to be bound.
+   * @return the server builder
+   */
+  public static OkHttpServerBuilder forAddress(SocketAddress address) {
+    return new OkHttpServerBuilder(address);
+  }
+
+  private OkHttpServerBuilder(SocketAddress address) {
+    this.address = Preconditions.checkNotNull(address, "address");
+  }
+
+  private OkHttpServerBuilder(HandlerRegistry registry, SocketAddress address) {
+    super(registry);
+    this.address = Preconditions.checkNotNull(address, "address");
+  }
+
+  /**
+   * Override the default executor running the accept loop and the reader and writer threads of
+   * the connections.
+   *
+   * <p>The server does not take ownership of the given executor. It is the caller's
+   * responsibility to shutdown the executor when appropriate.
+   */
+  public OkHttpServerBuilder transportExecutor(ExecutorService executor) {
+    this.transportExecutor = executor;
+    return this;
+  }
+
+  /**
+   * Provides the factory of the server socket, for example an {@link
+   * javax.net.ssl.SSLServerSocketFactory} to accept TLS connections.
+   *
+   * <p>It's an optional parameter. If the user has not provided one, the server accepts plaintext
+   * connections.
+   */
+  public OkHttpServerBuilder socketFactory(ServerSocketFactory factory) {
+    this.socketFactory = Preconditions.checkNotNull(factory, "factory");
+    return this;
+  }
+
+  @Override
+  protected Service buildTransportServer(ServerListener serverListener) {
+    final ExecutorService executor = (transportExecutor == null)
+        ? SharedResourceHolder.get(Utils.DEFAULT_TRANSPORT_THREAD_POOL) : transportExecutor;
+    OkHttpServer server = new OkHttpServer(serverListener, address, socketFactory, executor);
+    // We shut down the executor only if we created it.
+    if (transportExecutor == null) {
+      server.addListener(new Service.Listener() {
+        @Override
+        public void terminated(Service.State from) {
+          SharedResourceHolder.release(Utils.DEFAULT_TRANSPORT_THREAD_POOL, executor);
+        }
+
+        @Override
+        public void failed(Service.State from, Throwable failure) {
+          SharedResourceHolder.release(Utils.DEFAULT_TRANSPORT_THREAD_POOL, executor);
+        }
+      }, MoreExecutors.directExecutor());
+    }
+    return server;
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.transport.okhttp;
+
+import static io.grpc.transport.okhttp.Utils.DEFAULT_WINDOW_SIZE;
+
+import com.google.common.base.Preconditions;
+
+import io.grpc.Metadata;
+import io.grpc.Status;
+import io.grpc.transport.AbstractServerStream;
+import io.grpc.transport.WritableBuffer;
+
+import okio.Buffer;
+
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Server stream for the OkHttp transport.
+ */
+class OkHttpServerStream extends AbstractServerStream<Integer>
+    implements OutboundFlowController.FlowControlledStream {
+
+  private static final int WINDOW_UPDATE_THRESHOLD = DEFAULT_WINDOW_SIZE / 2;
+
+  private final OkHttpServerTransport transport;
+  private final AsyncFrameWriter frameWriter;
+  private final OutboundFlowController outboundFlow;
+  // Serializes the reader thread delivering frames with the application requesting messages.
+  private final Object lock = new Object();
+  @GuardedBy("lock")
+  private int processedWindow = DEFAULT_WINDOW_SIZE;
+  private Object outboundFlowState;
+  private final Runnable trailersWritten = new Runnable() {
+    @Override
+    public void run() {
+      transport.finishStream(OkHttpServerStream.this);
+    }
+  };
+
+  OkHttpServerStream(int id, OkHttpServerTransport transport, AsyncFrameWriter frameWriter,
+      OutboundFlowController outboundFlow) {
+    super(new OkHttpWritableBufferAllocator(), id);
+    this.transport = Preconditions.checkNotNull(transport, "transport");
+    this.frameWriter = Preconditions.checkNotNull(frameWriter, "frameWriter");
+    this.outboundFlow = Preconditions.checkNotNull(outboundFlow, "outboundFlow");
+  }
+
+  /**
+   * Called by the reader thread with the content of a DATA frame received from the client.
+   */
+  void transportDataReceived(Buffer frame, boolean endOfStream) {
+    synchronized (lock) {
+      inboundDataReceived(new OkHttpReadableBuffer(frame), endOfStream);
+    }
+  }
+
+  /**
+   * Called by the reader thread when the client reset the stream or the connection closed.
+   */
+  void transportAborted(Status status) {
+    synchronized (lock) {
+      abortStream(status, false);
+    }
+  }
+
+  @Override
+  public void request(int numMessages) {
+    synchronized (lock) {
+      requestMessagesFromDeframer(numMessages);
+    }
+  }
+
+  @Override
+  protected void inboundDeliveryPaused() {
+    // Do nothing.
+  }
+
+  @Override
+  protected void internalSendHeaders(Metadata.Headers headers) {
+    frameWriter.synReply(false, id(), Headers.createResponseHeaders(headers));
+  }
+
+  @Override
+  protected void sendFrame(WritableBuffer frame, boolean endOfStream) {
+    Buffer buffer = ((OkHttpWritableBuffer) frame).buffer();
+    outboundFlow.data(endOfStream, id(), buffer);
+  }
+
+  @Override
+  protected void sendTrailers(Metadata.Trailers trailers, boolean headersSent) {
+    outboundFlow.trailers(id(), Headers.createResponseTrailers(trailers, headersSent),
+        trailersWritten);
+  }
+
+  @Override
+  protected void returnProcessedBytes(int processedBytes) {
+    synchronized (lock) {
+      processedWindow -= processedBytes;
+      if (processedWindow <= WINDOW_UPDATE_THRESHOLD) {
+        int delta = DEFAULT_WINDOW_SIZE - processedWindow;
+        processedWindow += delta;
+        frameWriter.windowUpdate(id(), delta);
+      }
+    }
+  }
+
+  @Override
+  public void setOutboundFlowState(Object outboundFlowState) {
+    this.outboundFlowState = outboundFlowState;
+  }
+
+  @Override
+  public Object getOutboundFlowState() {
+    return outboundFlowState;
+  }
+}
@@ -0,0 +1,418 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.transport.okhttp;
+
+import static io.grpc.transport.okhttp.Utils.DEFAULT_WINDOW_SIZE;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.AbstractService;
+
+import com.squareup.okhttp.internal.spdy.ErrorCode;
+import com.squareup.okhttp.internal.spdy.FrameReader;
+import com.squareup.okhttp.internal.spdy.FrameWriter;
+import com.squareup.okhttp.internal.spdy.Header;
+import com.squareup.okhttp.internal.spdy.HeadersMode;
+import com.squareup.okhttp.internal.spdy.Http20Draft16;
+import com.squareup.okhttp.internal.spdy.Settings;
+import com.squareup.okhttp.internal.spdy.Variant;
+
+import io.grpc.Status;
+import io.grpc.transport.HttpUtil;
+import io.grpc.transport.ServerListener;
+import io.grpc.transport.ServerStreamListener;
+import io.grpc.transport.ServerTransportListener;
+import io.grpc.transport.TransportFrameUtil;
+
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ByteString;
+import okio.Okio;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * The OkHttp-based server transport. Each connection is served by a reader thread blocking on the
+ * socket, which dispatches frames to the streams, and by the writer loop of an {@link
+ * AsyncFrameWriter}. Both run on the transport executor.
+ */
+class OkHttpServerTransport extends AbstractService implements AsyncFrameWriter.Transport {
+  private static final Logger log = Logger.getLogger(OkHttpServerTransport.class.getName());
+
+  private final Socket socket;
+  private final ServerListener serverListener;
+  private final Executor executor;
+  private final StreamMap<OkHttpServerStream> streams = new StreamMap<OkHttpServerStream>();
+  private final Object lock = new Object();
+  private ServerTransportListener transportListener;
+  private FrameReader frameReader;
+  private AsyncFrameWriter frameWriter;
+  private OutboundFlowController outboundFlow;
+  private ServerFrameHandler frameHandler;
+  // The id of the last stream created by the client, sent in the GOAWAY frame.
+  @GuardedBy("lock")
+  private int lastStreamId;
+  // Set once the transport is stopping, after which new streams are refused.
+  @GuardedBy("lock")
+  private boolean goAway;
+  @GuardedBy("lock")
+  private boolean closing;
+
+  OkHttpServerTransport(Socket socket, ServerListener serverListener, Executor executor) {
+    this.socket = Preconditions.checkNotNull(socket, "socket");
+    this.serverListener = Preconditions.checkNotNull(serverListener, "serverListener");
+    this.executor = Preconditions.checkNotNull(executor, "executor");
+  }
+
+  /**
+   * Create a transport connected to a fake peer for test.
+   */
+  @VisibleForTesting
+  OkHttpServerTransport(Socket socket, ServerListener serverListener, Executor executor,
+      FrameReader frameReader, AsyncFrameWriter frameWriter) {
+    this(socket, serverListener, executor);
+    this.frameReader = Preconditions.checkNotNull(frameReader, "frameReader");
+    this.frameWriter = Preconditions.checkNotNull(frameWriter, "frameWriter");
+  }
+
+  @Override
+  protected void doStart() {
+    transportListener = serverListener.transportCreated(this);
+    // The reader and writer are already set for test.
+    if (frameReader == null) {
+      Variant variant = new Http20Draft16();
+      try {
+        frameReader = variant.newReader(Okio.buffer(Okio.source(socket)), false);
+        FrameWriter writer = variant.newWriter(Okio.buffer(Okio.sink(socket)), false);
+        frameWriter = new AsyncFrameWriter(writer, this, executor);
+      } catch (IOException e) {
+        closeSocket();
+        notifyFailed(e);
+        return;
+      }
+    }
+    outboundFlow = new OutboundFlowController(streams, frameWriter);
+    // The server's connection preface is a SETTINGS frame, which may be sent without waiting for
+    // the client's.
+    frameWriter.settings(new Settings());
+    notifyStarted();
+    frameHandler = new ServerFrameHandler();
+    executor.execute(frameHandler);
+  }
+
+  /**
+   * Sends a GOAWAY frame so that the client stops creating streams, and closes the connection once
+   * the remaining streams complete.
+   */
+  @Override
+  protected void doStop() {
+    int lastStreamId;
+    synchronized (lock) {
+      goAway = true;
+      lastStreamId = this.lastStreamId;
+    }
+    frameWriter.goAway(lastStreamId, ErrorCode.NO_ERROR, new byte[0]);
+    closeIfNecessary();
+  }
+
+  /**
+   * Closes the connection after a write failed. The reader thread then fails the transport.
+   */
+  @Override
+  public void abort(Throwable failureCause) {
+    log.log(Level.FINE, "Write failed, closing the connection", failureCause);
+    closeSocket();
+  }
+
+  @VisibleForTesting
+  ServerFrameHandler getHandler() {
+    return frameHandler;
+  }
+
+  @VisibleForTesting
+  StreamMap<OkHttpServerStream> getStreams() {
+    return streams;
+  }
+
+  /**
+   * Called once the trailers of a stream were written.
+   */
+  void finishStream(OkHttpServerStream stream) {
+    if (streams.remove(stream.id()) != null) {
+      stream.complete();
+      closeIfNecessary();
+    }
+  }
+
+  /**
+   * Closes the connection if the transport is stopping and its last stream completed.
+   */
+  private void closeIfNecessary() {
+    synchronized (lock) {
+      if (!goAway || closing || streams.size() > 0) {
+        return;
+      }
+      closing = true;
+    }
+    // Closing waits for the writer to flush the GOAWAY, which must not block the caller since it
+    // may be holding the lock of the flow controller.
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        frameWriter.close();
+      }
+    });
+  }
+
+  /**
+   * Fails the remaining streams once the connection closed, and terminates the transport.
+   */
+  private void connectionClosed(@Nullable Throwable failureCause) {
+    synchronized (lock) {
+      goAway = true;
+      closing = true;
+    }
+    closeSocket();
+    for (OkHttpServerStream stream : streams.removeAbove(0)) {
+      outboundFlow.streamClosed(stream);
+      stream.transportAborted(Status.UNAVAILABLE.withDescription("Connection closed"));
+    }
+    if (failureCause == null || state() == State.STOPPING) {
+      notifyStopped();
+    } else {
+      notifyFailed(failureCause);
+    }
+  }
+
+  private void closeSocket() {
+    try {
+      socket.close();
+    } catch (IOException e) {
+      log.log(Level.FINE, "Failed closing the connection", e);
+    }
+  }
+
+  /**
+   * Returns the full name of the method called by a request, or {@code null} if the request is not
+   * a valid gRPC request.
+   */
+  @Nullable
+  private static String determineMethod(List<Header> headerBlock) {
+    String method = null;
+    String path = null;
+    String contentType = null;
+    for (Header header : headerBlock) {
+      if (header.name.equals(Header.TARGET_METHOD)) {
+        method = header.value.utf8();
+      } else if (header.name.equals(Header.TARGET_PATH)) {
+        path = header.value.utf8();
+      } else if (header.name.equals(Headers.CONTENT_TYPE_HEADER.name)) {
+        contentType = header.value.utf8();
+      }
+    }
+    if (!HttpUtil.HTTP_METHOD.equals(method) || !HttpUtil.CONTENT_TYPE_GRPC.equals(contentType)
+        || path == null) {
+      return null;
+    }
+    return TransportFrameUtil.getFullMethodNameFromPath(path);
+  }
+
+  /**
+   * Runnable which reads frames from the client and dispatches them to the streams.
+   */
+  @VisibleForTesting
+  class ServerFrameHandler implements FrameReader.Handler, Runnable {
+    // Only accessed by the reader thread.
+    private int connectionUnacknowledgedBytesRead;
+
+    @Override
+    public void run() {
+      String threadName = Thread.currentThread().getName();
+      Thread.currentThread().setName("OkHttpServerTransport");
+      Throwable failureCause = null;
+      try {
+        frameReader.readConnectionPreface();
+        // Read until the client closes the connection.
+        while (frameReader.nextFrame(this)) {
+        }
+      } catch (Exception e) {
+        failureCause = e;
+      } finally {
+        connectionClosed(failureCause);
+        // Restore the original thread name.
+        Thread.currentThread().setName(threadName);
+      }
+    }
+
+    /**
+     * Handle a HTTP2 DATA frame.
+     */
+    @Override
+    public void data(boolean inFinished, int streamId, BufferedSource in, int length)
+        throws IOException {
+      OkHttpServerStream stream = streams.get(streamId);
+      if (stream == null) {
+        // The frame must still be consumed to reach the next one.
+        in.skip(length);
+        frameWriter.rstStream(streamId, ErrorCode.STREAM_CLOSED);
+      } else {
+        // Wait until the frame is complete.
+        in.require(length);
+
+        Buffer buf = new Buffer();
+        buf.write(in.buffer(), length);
+        stream.transportDataReceived(buf, inFinished);
+      }
+
+      // connection window update
+      connectionUnacknowledgedBytesRead += length;
+      if (connectionUnacknowledgedBytesRead >= DEFAULT_WINDOW_SIZE / 2) {
+        frameWriter.windowUpdate(0, connectionUnacknowledgedBytesRead);
+        connectionUnacknowledgedBytesRead = 0;
+      }
+    }
+
+    /**
+     * Handle HTTP2 HEADER and CONTINUATION frames, which start a new stream.
+     */
+    @Override
+    public void headers(boolean outFinished,
+        boolean inFinished,
+        int streamId,
+        int associatedStreamId,
+        List<Header> headerBlock,
+        HeadersMode headersMode) {
+      OkHttpServerStream stream = streams.get(streamId);
+      if (stream != null) {
+        // gRPC clients don't send trailers, only the end of the stream is meaningful.
+        if (inFinished) {
+          stream.transportDataReceived(new Buffer(), true);
+        }
+        return;
+      }
+
+      synchronized (lock) {
+        if (goAway) {
+          frameWriter.rstStream(streamId, ErrorCode.REFUSED_STREAM);
+          return;
+        }
+        lastStreamId = Math.max(lastStreamId, streamId);
+      }
+      String method = determineMethod(headerBlock);
+      if (method == null) {
+        log.warning("Refusing stream " + streamId + ", which is not a gRPC request: "
+            + headerBlock);
+        frameWriter.rstStream(streamId, ErrorCode.REFUSED_STREAM);
+        return;
+      }
+
+      stream = new OkHttpServerStream(streamId, OkHttpServerTransport.this, frameWriter,
+          outboundFlow);
+      streams.put(streamId, stream);
+      try {
+        ServerStreamListener listener = transportListener.streamCreated(stream, method,
+            Utils.convertRequestHeaders(headerBlock));
+        stream.setListener(listener);
+      } catch (RuntimeException e) {
+        log.log(Level.WARNING, "Exception creating stream " + streamId, e);
+        streams.remove(streamId);
+        frameWriter.rstStream(streamId, ErrorCode.INTERNAL_ERROR);
+        return;
+      }
+      if (inFinished) {
+        stream.transportDataReceived(new Buffer(), true);
+      }
+    }
+
+    @Override
+    public void rstStream(int streamId, ErrorCode errorCode) {
+      OkHttpServerStream stream = streams.remove(streamId);
+      if (stream != null) {
+        outboundFlow.streamClosed(stream);
+        stream.transportAborted(Status.CANCELLED);
+        closeIfNecessary();
+      }
+    }
+
+    @Override
+    public void settings(boolean clearPrevious, Settings settings) {
+      frameWriter.ackSettings(settings);
+    }
+
+    @Override
+    public void ping(boolean ack, int payload1, int payload2) {
+      if (!ack) {
+        frameWriter.ping(true, payload1, payload2);
+      }
+    }
+
+    @Override
+    public void ackSettings() {
+      // Do nothing currently.
+    }
+
+    @Override
+    public void goAway(int lastGoodStreamId, ErrorCode errorCode, ByteString debugData) {
+      // The client closes the connection once its streams complete.
+    }
+
+    @Override
+    public void pushPromise(int streamId, int promisedStreamId, List<Header> requestHeaders) {
+      // Clients can't push streams.
+      frameWriter.rstStream(streamId, ErrorCode.PROTOCOL_ERROR);
+    }
+
+    @Override
+    public void windowUpdate(int streamId, long delta) {
+      outboundFlow.windowUpdate(streamId, (int) delta);
+    }
+
+    @Override
+    public void priority(int streamId, int streamDependency, int weight, boolean exclusive) {
+      // Ignore priority change.
+    }
+
+    @Override
+    public void alternateService(int streamId, String origin, ByteString protocol, String host,
+        int port, long maxAge) {
+      // Only sent by servers.
+    }
+  }
+}
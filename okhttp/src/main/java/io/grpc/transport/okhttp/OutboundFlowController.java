@@ -41,26 +41,39 @@ import static java.lang.Math.min;
 import com.google.common.base.Preconditions;
 
 import com.squareup.okhttp.internal.spdy.FrameWriter;
+import com.squareup.okhttp.internal.spdy.Header;
 
 import okio.Buffer;
 
 import java.io.IOException;
 import java.util.ArrayDeque;
+import java.util.List;
 import java.util.Queue;
 
 /**
- * Simple outbound flow controller that evenly splits the connection window across all existing
- * streams.
+ * Simple outbound flow controller that evenly splits the connection window across all streams
+ * with pending data.
+ *
+ * <p>The streams with pending data are kept in an intrusive list, so a pass over them costs
+ * nothing for idle streams and allocates nothing. The frame writer only queues frames, so the
+ * controller's lock is never held during socket I/O.
+ *
+ * <p>It is shared by the client and server transports, which provide their active streams.
  */
 class OutboundFlowController {
-  private static final OkHttpClientStream[] EMPTY_STREAM_ARRAY = new OkHttpClientStream[0];
-  private final OkHttpClientTransport transport;
+  private final StreamMap<? extends FlowControlledStream> streams;
   private final FrameWriter frameWriter;
   private int initialWindowSize = DEFAULT_WINDOW_SIZE;
   private final OutboundFlowState connectionState = new OutboundFlowState(CONNECTION_STREAM_ID);
-
-  OutboundFlowController(OkHttpClientTransport transport, FrameWriter frameWriter) {
-    this.transport = Preconditions.checkNotNull(transport, "transport");
+  // The streams with queued frames. Writes start from the head, which rotates after each pass so
+  // that no stream is consistently served first.
+  private OutboundFlowState pendingHead;
+  private OutboundFlowState pendingTail;
+  private int numPending;
+
+  OutboundFlowController(StreamMap<? extends FlowControlledStream> streams,
+      FrameWriter frameWriter) {
+    this.streams = Preconditions.checkNotNull(streams, "streams");
     this.frameWriter = Preconditions.checkNotNull(frameWriter, "frameWriter");
   }
 
@@ -71,7 +84,8 @@ class OutboundFlowController {
 
     int delta = newWindowSize - initialWindowSize;
     initialWindowSize = newWindowSize;
-    for (OkHttpClientStream stream : getActiveStreams()) {
+    // Settings changes are rare, so copying the streams here is fine.
+    for (FlowControlledStream stream : streams.values()) {
       // Verify that the maximum value is not exceeded by this change.
       OutboundFlowState state = state(stream);
       state.incrementStreamWindow(delta);
@@ -89,13 +103,19 @@ class OutboundFlowController {
       connectionState.incrementStreamWindow(delta);
       writeStreams();
     } else {
+      OutboundFlowState state = state(streamId);
+      if (state == null) {
+        // The stream completed while the update was in flight.
+        return;
+      }
       // Update the stream window and write any pending frames for the stream.
-      OutboundFlowState state = stateOrFail(streamId);
       state.incrementStreamWindow(delta);
 
-      WriteStatus writeStatus = new WriteStatus();
-      state.writeBytes(state.writableWindow(), writeStatus);
-      if (writeStatus.hasWritten()) {
+      int numWrites = state.writeBytes(state.writableWindow());
+      if (!state.hasFrame()) {
+        removePending(state);
+      }
+      if (numWrites > 0) {
         flush();
       }
     }
@@ -107,7 +127,11 @@ class OutboundFlowController {
       throw new IllegalArgumentException("streamId must be > 0");
     }
 
-    OutboundFlowState state = stateOrFail(streamId);
+    OutboundFlowState state = state(streamId);
+    if (state == null) {
+      // The stream was closed, e.g. reset by the peer, while the application was still writing.
+      return;
+    }
     int window = state.writableWindow();
     boolean framesAlreadyQueued = state.hasFrame();
 
@@ -121,6 +145,7 @@ class OutboundFlowController {
 
     // Enqueue the frame to be written when the window size permits.
     frame.enqueue();
+    addPending(state);
 
     if (framesAlreadyQueued || window <= 0) {
       // Stream already has frames pending or is stalled, don't send anything now.
@@ -132,6 +157,77 @@ class OutboundFlowController {
     flush();
   }
 
+  /**
+   * Writes the trailers that end a stream. They are not flow controlled, but wait behind the DATA
+   * frames the stream has queued so that they are sent last. {@code written} runs once they are
+   * handed to the frame writer, while holding the controller's lock.
+   */
+  synchronized void trailers(int streamId, List<Header> trailers, Runnable written) {
+    Preconditions.checkNotNull(trailers, "trailers");
+    Preconditions.checkNotNull(written, "written");
+    OutboundFlowState state = state(streamId);
+    if (state == null) {
+      // The stream was already closed.
+      return;
+    }
+
+    OutboundFlowState.Frame frame = state.newTrailers(trailers, written);
+    if (!state.hasFrame()) {
+      frame.write();
+      flush();
+      return;
+    }
+    frame.enqueue();
+    addPending(state);
+  }
+
+  /**
+   * Drops the pending frames of a stream that was removed from the transport.
+   */
+  synchronized void streamClosed(FlowControlledStream stream) {
+    OutboundFlowState state = (OutboundFlowState) stream.getOutboundFlowState();
+    if (state != null) {
+      removePending(state);
+      state.clearFrames();
+    }
+  }
+
+  private void addPending(OutboundFlowState state) {
+    if (state.pending) {
+      return;
+    }
+    state.pending = true;
+    state.prevPending = pendingTail;
+    state.nextPending = null;
+    if (pendingTail == null) {
+      pendingHead = state;
+    } else {
+      pendingTail.nextPending = state;
+    }
+    pendingTail = state;
+    numPending++;
+  }
+
+  private void removePending(OutboundFlowState state) {
+    if (!state.pending) {
+      return;
+    }
+    state.pending = false;
+    if (state.prevPending == null) {
+      pendingHead = state.nextPending;
+    } else {
+      state.prevPending.nextPending = state.nextPending;
+    }
+    if (state.nextPending == null) {
+      pendingTail = state.prevPending;
+    } else {
+      state.nextPending.prevPending = state.prevPending;
+    }
+    state.prevPending = null;
+    state.nextPending = null;
+    numPending--;
+  }
+
   private void flush() {
     try {
       frameWriter.flush();
@@ -140,7 +236,7 @@ class OutboundFlowController {
     }
   }
 
-  private OutboundFlowState state(OkHttpClientStream stream) {
+  private OutboundFlowState state(FlowControlledStream stream) {
     OutboundFlowState state = (OutboundFlowState) stream.getOutboundFlowState();
     if (state == null) {
       state = new OutboundFlowState(stream.id());
@@ -150,38 +246,20 @@ class OutboundFlowController {
   }
 
   private OutboundFlowState state(int streamId) {
-    OkHttpClientStream stream = transport.getStreams().get(streamId);
+    FlowControlledStream stream = streams.get(streamId);
     return stream != null ? state(stream) : null;
   }
 
-  private OutboundFlowState stateOrFail(int streamId) {
-    OutboundFlowState state = state(streamId);
-    if (state == null) {
-      throw new RuntimeException("Missing flow control window for stream: " + streamId);
-    }
-    return state;
-  }
-
-  /**
-   * Gets all active streams as an array.
-   */
-  private OkHttpClientStream[] getActiveStreams() {
-    return transport.getStreams().values().toArray(EMPTY_STREAM_ARRAY);
-  }
-
   /**
    * Writes as much data for all the streams as possible given the current flow control windows.
    */
   private void writeStreams() {
-    OkHttpClientStream[] streams = getActiveStreams();
     int connectionWindow = connectionState.window();
-    for (int numStreams = streams.length; numStreams > 0 && connectionWindow > 0;) {
+    for (int numStreams = numPending; numStreams > 0 && connectionWindow > 0;) {
       int nextNumStreams = 0;
       int windowSlice = (int) ceil(connectionWindow / (float) numStreams);
-      for (int index = 0; index < numStreams && connectionWindow > 0; ++index) {
-        OkHttpClientStream stream = streams[index];
-        OutboundFlowState state = state(stream);
-
+      for (OutboundFlowState state = pendingHead; state != null && connectionWindow > 0;
+          state = state.nextPending) {
         int bytesForStream = min(connectionWindow, min(state.unallocatedBytes(), windowSlice));
         if (bytesForStream > 0) {
           state.allocateBytes(bytesForStream);
@@ -189,40 +267,48 @@ class OutboundFlowController {
         }
 
         if (state.unallocatedBytes() > 0) {
-          // There is more data to process for this stream. Add it to the next
-          // pass.
-          streams[nextNumStreams++] = stream;
+          // There is more data to process for this stream. Count it for the next pass.
+          nextNumStreams++;
         }
       }
       numStreams = nextNumStreams;
     }
 
-    // Now take one last pass through all of the streams and write any allocated bytes.
-    WriteStatus writeStatus = new WriteStatus();
-    for (OkHttpClientStream stream : getActiveStreams()) {
-      OutboundFlowState state = state(stream);
-      state.writeBytes(state.allocatedBytes(), writeStatus);
+    // Now take one last pass through the streams and write any allocated bytes.
+    int numWrites = 0;
+    OutboundFlowState state = pendingHead;
+    while (state != null) {
+      OutboundFlowState next = state.nextPending;
+      numWrites += state.writeBytes(state.allocatedBytes());
       state.clearAllocatedBytes();
+      if (!state.hasFrame()) {
+        removePending(state);
+      }
+      state = next;
+    }
+
+    if (pendingHead != pendingTail) {
+      // Rotate the list so that the next pass starts with another stream.
+      OutboundFlowState head = pendingHead;
+      removePending(head);
+      addPending(head);
     }
 
-    if (writeStatus.hasWritten()) {
+    if (numWrites > 0) {
       flush();
     }
   }
 
   /**
-   * Simple status that keeps track of the number of writes performed.
+   * A stream whose DATA frames are written through the controller, which keeps the stream's flow
+   * control state in it.
    */
-  private final class WriteStatus {
-    int numWrites;
+  interface FlowControlledStream {
+    Integer id();
 
-    void incrementNumWrites() {
-      numWrites++;
-    }
+    Object getOutboundFlowState();
 
-    boolean hasWritten() {
-      return numWrites > 0;
-    }
+    void setOutboundFlowState(Object outboundFlowState);
   }
 
   /**
@@ -234,6 +320,10 @@ class OutboundFlowController {
     int queuedBytes;
     int window = initialWindowSize;
     int allocatedBytes;
+    // Links in the list of streams with pending frames, guarded by the controller.
+    boolean pending;
+    OutboundFlowState prevPending;
+    OutboundFlowState nextPending;
 
     OutboundFlowState(int streamId) {
       this.streamId = streamId;
@@ -291,6 +381,17 @@ class OutboundFlowController {
       return new Frame(data, endStream);
     }
 
+    /**
+     * Creates a zero-length frame that writes the given trailers, but does not add it to the
+     * pending queue.
+     */
+    Frame newTrailers(List<Header> trailers, Runnable written) {
+      Frame frame = new Frame(new Buffer(), true);
+      frame.trailers = trailers;
+      frame.trailersWritten = written;
+      return frame;
+    }
+
     /**
      * Indicates whether or not there are frames in the pending queue.
      */
@@ -298,6 +399,12 @@ class OutboundFlowController {
       return !pendingWriteQueue.isEmpty();
     }
 
+    void clearFrames() {
+      pendingWriteQueue.clear();
+      queuedBytes = 0;
+      allocatedBytes = 0;
+    }
+
     /**
      * Returns the the head of the pending queue, or {@code null} if empty.
      */
@@ -306,16 +413,18 @@ class OutboundFlowController {
     }
 
     /**
-     * Writes up to the number of bytes from the pending queue.
+     * Writes up to the number of bytes from the pending queue and returns the number of frames
+     * written.
      */
-    int writeBytes(int bytes, WriteStatus writeStatus) {
+    int writeBytes(int bytes) {
+      int numWrites = 0;
       int bytesAttempted = 0;
       int maxBytes = min(bytes, writableWindow());
       while (hasFrame()) {
         Frame pendingWrite = peek();
         if (maxBytes >= pendingWrite.size()) {
           // Window size is large enough to send entire data frame
-          writeStatus.incrementNumWrites();
+          numWrites++;
           bytesAttempted += pendingWrite.size();
           pendingWrite.write();
         } else if (maxBytes <= 0) {
@@ -326,7 +435,7 @@ class OutboundFlowController {
         } else {
           // We can send a partial frame
           Frame partialFrame = pendingWrite.split(maxBytes);
-          writeStatus.incrementNumWrites();
+          numWrites++;
           bytesAttempted += partialFrame.size();
           partialFrame.write();
         }
@@ -334,7 +443,7 @@ class OutboundFlowController {
         // Update the threshold.
         maxBytes = min(bytes - bytesAttempted, writableWindow());
       }
-      return bytesAttempted;
+      return numWrites;
     }
 
     /**
@@ -344,6 +453,9 @@ class OutboundFlowController {
       final Buffer data;
       final boolean endStream;
       boolean enqueued;
+      // Set if this frame writes trailers instead of DATA.
+      List<Header> trailers;
+      Runnable trailersWritten;
 
       Frame(Buffer data, boolean endStream) {
         this.data = data;
@@ -372,6 +484,18 @@ class OutboundFlowController {
        * the pending queue, the written bytes are removed from this branch of the priority tree.
        */
       void write() {
+        if (trailers != null) {
+          try {
+            frameWriter.synReply(true, streamId, trailers);
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+          if (enqueued) {
+            pendingWriteQueue.remove(this);
+          }
+          trailersWritten.run();
+          return;
+        }
         // Using a do/while loop because if the buffer is empty we still need to call
         // the writer once to send the empty frame.
         do {
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.transport.okhttp;
+
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings applied to the socket of an {@link OkHttpClientTransport} while it connects.
+ */
+final class SocketOptions {
+  static final long DEFAULT_CONNECT_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(20);
+  static final long DEFAULT_HANDSHAKE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(20);
+
+  final int connectTimeoutMillis;
+  final int handshakeTimeoutMillis;
+  final boolean tcpNoDelay;
+  // Zero keeps the platform default.
+  final int sendBufferSize;
+  final int receiveBufferSize;
+
+  SocketOptions(long connectTimeoutMillis, long handshakeTimeoutMillis, boolean tcpNoDelay,
+      int sendBufferSize, int receiveBufferSize) {
+    Preconditions.checkArgument(connectTimeoutMillis >= 0, "connectTimeoutMillis must be >= 0");
+    Preconditions.checkArgument(handshakeTimeoutMillis >= 0,
+        "handshakeTimeoutMillis must be >= 0");
+    Preconditions.checkArgument(sendBufferSize >= 0, "sendBufferSize must be >= 0");
+    Preconditions.checkArgument(receiveBufferSize >= 0, "receiveBufferSize must be >= 0");
+    // Socket timeouts are ints, anything larger is as good as infinite.
+    this.connectTimeoutMillis = (int) Math.min(connectTimeoutMillis, Integer.MAX_VALUE);
+    this.handshakeTimeoutMillis = (int) Math.min(handshakeTimeoutMillis, Integer.MAX_VALUE);
+    this.tcpNoDelay = tcpNoDelay;
+    this.sendBufferSize = sendBufferSize;
+    this.receiveBufferSize = receiveBufferSize;
+  }
+
+  /**
+   * Applies the TCP options to a socket that is not connected yet. Buffer sizes must be set before
+   * connecting for them to affect the TCP window negotiated with the peer.
+   */
+  void apply(Socket socket) throws IOException {
+    socket.setTcpNoDelay(tcpNoDelay);
+    if (sendBufferSize > 0) {
+      socket.setSendBufferSize(sendBufferSize);
+    }
+    if (receiveBufferSize > 0) {
+      socket.setReceiveBufferSize(receiveBufferSize);
+    }
+  }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.transport.okhttp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * The active streams of a transport, keyed by stream id.
+ *
+ * <p>The reader thread looks up a stream for every frame it receives, while streams are added
+ * and removed only once each. Lookups therefore read an open addressing table without locking or
+ * boxing the id. Changes update the table in place under a lock, and only a resize replaces it.
+ * Each slot holds an immutable entry, so a lookup never sees the id of one stream together with
+ * another stream. Removed streams leave a marker in their slot, so that lookups keep probing past
+ * it, until the next resize drops the markers.
+ */
+@ThreadSafe
+final class StreamMap<T> {
+  private static final int MIN_CAPACITY = 8;
+  private static final Entry REMOVED = new Entry(0, null);
+
+  private volatile Table table = new Table(MIN_CAPACITY);
+  private volatile int size;
+  // The slots of the table that are not empty, including those of removed streams.
+  @GuardedBy("this")
+  private int usedSlots;
+
+  /**
+   * Returns the stream with the given id, or {@code null} if there is none.
+   */
+  @SuppressWarnings("unchecked")
+  T get(int streamId) {
+    return (T) table.get(streamId);
+  }
+
+  int size() {
+    return size;
+  }
+
+  synchronized void put(int streamId, T stream) {
+    Table current = table;
+    Entry entry = new Entry(streamId, stream);
+    int slot = current.find(streamId);
+    if (slot >= 0) {
+      current.entries.set(slot, entry);
+      return;
+    }
+    // Keep at least half of the slots empty, which ends every probe.
+    if (usedSlots >= current.entries.length() / 2) {
+      current = resize(size + 1);
+    }
+    slot = current.freeSlot(streamId);
+    if (current.entries.get(slot) == null) {
+      usedSlots++;
+    }
+    current.entries.set(slot, entry);
+    size++;
+  }
+
+  /**
+   * Removes the stream with the given id, returning it or {@code null} if there was none.
+   */
+  @SuppressWarnings("unchecked")
+  synchronized T remove(int streamId) {
+    Table current = table;
+    int slot = current.find(streamId);
+    if (slot < 0) {
+      return null;
+    }
+    T stream = (T) current.entries.get(slot).stream;
+    current.entries.set(slot, REMOVED);
+    size--;
+    return stream;
+  }
+
+  /**
+   * Removes and returns the streams with an id greater than {@code lastStreamId}.
+   */
+  @SuppressWarnings("unchecked")
+  synchronized List<T> removeAbove(int lastStreamId) {
+    AtomicReferenceArray<Entry> entries = table.entries;
+    List<T> removed = new ArrayList<T>();
+    for (int i = 0; i < entries.length(); i++) {
+      Entry entry = entries.get(i);
+      if (entry != null && entry != REMOVED && entry.streamId > lastStreamId) {
+        removed.add((T) entry.stream);
+        entries.set(i, REMOVED);
+        size--;
+      }
+    }
+    return removed;
+  }
+
+  /**
+   * Returns a copy of the active streams.
+   */
+  @SuppressWarnings("unchecked")
+  List<T> values() {
+    AtomicReferenceArray<Entry> entries = table.entries;
+    List<T> values = new ArrayList<T>(size);
+    for (int i = 0; i < entries.length(); i++) {
+      Entry entry = entries.get(i);
+      if (entry != null && entry != REMOVED) {
+        values.add((T) entry.stream);
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Replaces the table with one that has room for {@code minSize} streams, without the markers
+   * of removed streams.
+   */
+  @GuardedBy("this")
+  private Table resize(int minSize) {
+    AtomicReferenceArray<Entry> entries = table.entries;
+    Table updated = new Table(capacityFor(minSize));
+    for (int i = 0; i < entries.length(); i++) {
+      Entry entry = entries.get(i);
+      if (entry != null && entry != REMOVED) {
+        updated.entries.set(updated.freeSlot(entry.streamId), entry);
+      }
+    }
+    usedSlots = size;
+    table = updated;
+    return updated;
+  }
+
+  /**
+   * Returns the smallest power of two that keeps the table at most a quarter full, so that as
+   * many streams again can be added before the next resize.
+   */
+  private static int capacityFor(int size) {
+    int capacity = MIN_CAPACITY;
+    while (capacity < size * 4) {
+      capacity <<= 1;
+    }
+    return capacity;
+  }
+
+  /**
+   * A stream and its id, never changed once stored in a slot.
+   */
+  private static final class Entry {
+    final int streamId;
+    final Object stream;
+
+    Entry(int streamId, Object stream) {
+      this.streamId = streamId;
+      this.stream = stream;
+    }
+  }
+
+  /**
+   * Open addressing table with linear probing.
+   */
+  private static final class Table {
+    final AtomicReferenceArray<Entry> entries;
+    final int mask;
+
+    Table(int capacity) {
+      entries = new AtomicReferenceArray<Entry>(capacity);
+      mask = capacity - 1;
+    }
+
+    Object get(int streamId) {
+      for (int i = index(streamId);; i = (i + 1) & mask) {
+        Entry entry = entries.get(i);
+        if (entry == null) {
+          return null;
+        }
+        if (entry != REMOVED && entry.streamId == streamId) {
+          return entry.stream;
+        }
+      }
+    }
+
+    /**
+     * Returns the slot of the stream with the given id, or -1 if there is none.
+     */
+    int find(int streamId) {
+      for (int i = index(streamId);; i = (i + 1) & mask) {
+        Entry entry = entries.get(i);
+        if (entry == null) {
+          return -1;
+        }
+        if (entry != REMOVED && entry.streamId == streamId) {
+          return i;
+        }
+      }
+    }
+
+    /**
+     * Returns the first slot for the given id that is empty or was left by a removed stream.
+     */
+    int freeSlot(int streamId) {
+      for (int i = index(streamId);; i = (i + 1) & mask) {
+        Entry entry = entries.get(i);
+        if (entry == null || entry == REMOVED) {
+          return i;
+        }
+      }
+    }
+
+    private int index(int streamId) {
+      // Client stream ids are odd and consecutive, so this spreads them over adjacent slots.
+      return (streamId >>> 1) & mask;
+    }
+  }
+}
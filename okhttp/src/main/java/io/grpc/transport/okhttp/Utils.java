@@ -31,12 +31,17 @@
 
 package io.grpc.transport.okhttp;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import com.squareup.okhttp.internal.spdy.Header;
 
 import io.grpc.Metadata;
+import io.grpc.SharedResourceHolder.Resource;
 import io.grpc.transport.TransportFrameUtil;
 
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Common utility methods for OkHttp transport.
@@ -46,10 +51,44 @@ class Utils {
   static final int CONNECTION_STREAM_ID = 0;
   static final int MAX_FRAME_SIZE = 16384;
 
+  /**
+   * The executor running the reader and writer loops of channels and servers that were not given
+   * one.
+   */
+  static final Resource<ExecutorService> DEFAULT_TRANSPORT_THREAD_POOL
+      = new Resource<ExecutorService>() {
+        @Override
+        public ExecutorService create() {
+          return Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+              .setNameFormat("grpc-okhttp-%d")
+              .build());
+        }
+
+        @Override
+        public void close(ExecutorService executor) {
+          executor.shutdown();
+        }
+      };
+
   public static Metadata.Headers convertHeaders(List<Header> http2Headers) {
     return new Metadata.Headers(convertHeadersToArray(http2Headers));
   }
 
+  /**
+   * Converts the headers of a request received by the server, including its authority and path.
+   */
+  public static Metadata.Headers convertRequestHeaders(List<Header> http2Headers) {
+    Metadata.Headers headers = convertHeaders(http2Headers);
+    for (Header header : http2Headers) {
+      if (header.name.equals(Header.TARGET_AUTHORITY)) {
+        headers.setAuthority(header.value.utf8());
+      } else if (header.name.equals(Header.TARGET_PATH)) {
+        headers.setPath(header.value.utf8());
+      }
+    }
+    return headers;
+  }
+
   public static Metadata.Trailers convertTrailers(List<Header> http2Headers) {
     return new Metadata.Trailers(convertHeadersToArray(http2Headers));
   }
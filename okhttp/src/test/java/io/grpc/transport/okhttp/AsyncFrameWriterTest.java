@@ -0,0 +1,221 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.transport.okhttp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.squareup.okhttp.internal.spdy.ErrorCode;
+import com.squareup.okhttp.internal.spdy.FrameWriter;
+
+import okio.Buffer;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * Tests for {@link AsyncFrameWriter}.
+ */
+@RunWith(JUnit4.class)
+public class AsyncFrameWriterTest {
+  @Mock
+  private FrameWriter frameWriter;
+  @Mock
+  private OkHttpClientTransport transport;
+  private QueuedExecutor executor;
+  private AsyncFrameWriter asyncFrameWriter;
+
+  @Before
+  public void setup() {
+    MockitoAnnotations.initMocks(this);
+    executor = new QueuedExecutor();
+    asyncFrameWriter = new AsyncFrameWriter(frameWriter, transport, executor);
+  }
+
+  @Test
+  public void framesAreWrittenInOrderAndFlushedOncePerBatch() throws Exception {
+    Buffer buffer = new Buffer();
+    asyncFrameWriter.synStream(false, false, 3, 0, null);
+    asyncFrameWriter.data(false, 3, buffer, 10);
+    asyncFrameWriter.flush();
+    asyncFrameWriter.windowUpdate(3, 100);
+    asyncFrameWriter.flush();
+
+    // Only one writer loop is scheduled for the whole batch.
+    assertEquals(1, executor.tasks.size());
+    executor.runAll();
+
+    InOrder inOrder = inOrder(frameWriter);
+    inOrder.verify(frameWriter).synStream(false, false, 3, 0, null);
+    inOrder.verify(frameWriter).data(false, 3, buffer, 10);
+    inOrder.verify(frameWriter).windowUpdate(3, 100);
+    inOrder.verify(frameWriter).flush();
+    verify(frameWriter, times(1)).flush();
+  }
+
+  @Test
+  public void framesQueuedAfterBatchScheduleNewLoop() throws Exception {
+    asyncFrameWriter.rstStream(3, ErrorCode.CANCEL);
+    executor.runAll();
+    asyncFrameWriter.rstStream(5, ErrorCode.CANCEL);
+    assertEquals(1, executor.tasks.size());
+    executor.runAll();
+
+    verify(frameWriter).rstStream(3, ErrorCode.CANCEL);
+    verify(frameWriter).rstStream(5, ErrorCode.CANCEL);
+    verify(frameWriter, times(2)).flush();
+  }
+
+  @Test
+  public void framesOfEarlierBatchesAreReused() throws Exception {
+    Buffer buffer = new Buffer();
+    asyncFrameWriter.synStream(true, false, 3, 0, null);
+    asyncFrameWriter.data(true, 3, buffer, 10);
+    executor.runAll();
+    asyncFrameWriter.ping(true, 1, 2);
+    executor.runAll();
+    // Written with the frames of the first batch.
+    asyncFrameWriter.windowUpdate(5, 100);
+    asyncFrameWriter.rstStream(5, ErrorCode.CANCEL);
+    asyncFrameWriter.ping(false, 3, 4);
+    executor.runAll();
+
+    InOrder inOrder = inOrder(frameWriter);
+    inOrder.verify(frameWriter).synStream(true, false, 3, 0, null);
+    inOrder.verify(frameWriter).data(true, 3, buffer, 10);
+    inOrder.verify(frameWriter).flush();
+    inOrder.verify(frameWriter).ping(true, 1, 2);
+    inOrder.verify(frameWriter).flush();
+    inOrder.verify(frameWriter).windowUpdate(5, 100);
+    inOrder.verify(frameWriter).rstStream(5, ErrorCode.CANCEL);
+    inOrder.verify(frameWriter).ping(false, 3, 4);
+    inOrder.verify(frameWriter).flush();
+  }
+
+  @Test
+  public void writeFailureAbortsTransportAndDropsLaterFrames() throws Exception {
+    IOException failure = new IOException("network issue");
+    doThrow(failure).when(frameWriter).ping(false, 1, 2);
+    asyncFrameWriter.ping(false, 1, 2);
+    asyncFrameWriter.windowUpdate(0, 100);
+    executor.runAll();
+
+    verify(transport).abort(failure);
+    verify(frameWriter, never()).windowUpdate(anyInt(), anyLong());
+    verify(frameWriter, never()).flush();
+  }
+
+  @Test
+  public void closeFromWriterLoopDoesNotBlock() throws Exception {
+    IOException failure = new IOException("network issue");
+    doThrow(failure).when(frameWriter).goAway(0, ErrorCode.NO_ERROR, null);
+    // Like the real transport, which closes the writer when it aborts.
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        asyncFrameWriter.close();
+        return null;
+      }
+    }).when(transport).abort(any(Throwable.class));
+    asyncFrameWriter.goAway(0, ErrorCode.NO_ERROR, null);
+    executor.runAll();
+
+    verify(frameWriter).close();
+  }
+
+  @Test
+  public void framesAreQueuedUntilConnected() throws Exception {
+    AsyncFrameWriter connecting = new AsyncFrameWriter(transport, executor);
+    connecting.ping(false, 1, 2);
+    assertEquals(0, executor.tasks.size());
+
+    assertTrue(connecting.becomeConnected(frameWriter));
+    assertEquals(1, executor.tasks.size());
+    executor.runAll();
+
+    InOrder inOrder = inOrder(frameWriter);
+    inOrder.verify(frameWriter).ping(false, 1, 2);
+    inOrder.verify(frameWriter).flush();
+  }
+
+  @Test
+  public void closeBeforeConnectedClosesFrameWriterOnConnect() throws Exception {
+    AsyncFrameWriter connecting = new AsyncFrameWriter(transport, executor);
+    connecting.ping(false, 1, 2);
+    // Must not wait for a writer loop that was never scheduled.
+    connecting.close();
+
+    assertFalse(connecting.becomeConnected(frameWriter));
+    executor.runAll();
+
+    verify(frameWriter).close();
+    verify(frameWriter, never()).ping(false, 1, 2);
+  }
+
+  private static class QueuedExecutor implements Executor {
+    final Queue<Runnable> tasks = new ArrayDeque<Runnable>();
+
+    @Override
+    public void execute(Runnable task) {
+      tasks.add(task);
+    }
+
+    void runAll() {
+      Runnable task;
+      while ((task = tasks.poll()) != null) {
+        task.run();
+      }
+    }
+  }
+}
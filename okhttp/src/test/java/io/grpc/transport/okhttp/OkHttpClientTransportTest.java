@@ -38,7 +38,9 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeast;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
@@ -58,6 +60,7 @@ import io.grpc.MethodDescriptor;
 import io.grpc.Status;
 import io.grpc.transport.ClientStreamListener;
 import io.grpc.transport.ClientTransport;
+import io.grpc.transport.StreamTracer;
 import io.grpc.transport.okhttp.OkHttpClientTransport.ClientFrameHandler;
 
 import okio.Buffer;
@@ -76,11 +79,12 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -103,14 +107,13 @@ public class OkHttpClientTransportTest {
   private ClientTransport.Listener listener;
   private OkHttpClientTransport clientTransport;
   private MockFrameReader frameReader;
-  private Map<Integer, OkHttpClientStream> streams;
+  private StreamMap<OkHttpClientStream> streams;
   private ClientFrameHandler frameHandler;
   private ExecutorService executor;
 
   @Before
   public void setup() {
     MockitoAnnotations.initMocks(this);
-    streams = new HashMap<Integer, OkHttpClientStream>();
     frameReader = new MockFrameReader();
     executor = Executors.newCachedThreadPool();
     clientTransport = new OkHttpClientTransport(executor, frameReader, frameWriter, 3);
@@ -136,11 +139,13 @@ public class OkHttpClientTransportTest {
   public void nextFrameThrowIOException() throws Exception {
     MockStreamListener listener1 = new MockStreamListener();
     MockStreamListener listener2 = new MockStreamListener();
-    clientTransport.newStream(method, new Metadata.Headers(), listener1).request(1);
-    clientTransport.newStream(method, new Metadata.Headers(), listener2).request(1);
+    clientTransport.newStream(method, new Metadata.Headers(), listener1, StreamTracer.NOOP)
+        .request(1);
+    clientTransport.newStream(method, new Metadata.Headers(), listener2, StreamTracer.NOOP)
+        .request(1);
     assertEquals(2, streams.size());
-    assertTrue(streams.containsKey(3));
-    assertTrue(streams.containsKey(5));
+    assertNotNull(streams.get(3));
+    assertNotNull(streams.get(5));
     frameReader.throwIOExceptionForNextFrame();
     listener1.waitUntilStreamClosed();
     listener2.waitUntilStreamClosed();
@@ -158,8 +163,9 @@ public class OkHttpClientTransportTest {
     final int numMessages = 10;
     final String message = "Hello Client";
     MockStreamListener listener = new MockStreamListener();
-    clientTransport.newStream(method, new Metadata.Headers(), listener).request(numMessages);
-    assertTrue(streams.containsKey(3));
+    clientTransport.newStream(method, new Metadata.Headers(), listener, StreamTracer.NOOP)
+        .request(numMessages);
+    assertNotNull(streams.get(3));
     frameHandler.headers(false, false, 3, 0, grpcResponseHeaders(), HeadersMode.HTTP_20_HEADERS);
     assertNotNull(listener.headers);
     for (int i = 0; i < numMessages; i++) {
@@ -193,8 +199,9 @@ public class OkHttpClientTransportTest {
   @Test
   public void invalidInboundHeadersCancelStream() throws Exception {
     MockStreamListener listener = new MockStreamListener();
-    clientTransport.newStream(method, new Metadata.Headers(), listener).request(1);
-    assertTrue(streams.containsKey(3));
+    clientTransport.newStream(method, new Metadata.Headers(), listener, StreamTracer.NOOP)
+        .request(1);
+    assertNotNull(streams.get(3));
     // Empty headers block without correct content type or status
     frameHandler.headers(false, false, 3, 0, new ArrayList<Header>(),
         HeadersMode.HTTP_20_HEADERS);
@@ -210,8 +217,8 @@ public class OkHttpClientTransportTest {
   @Test
   public void readStatus() throws Exception {
     MockStreamListener listener = new MockStreamListener();
-    clientTransport.newStream(method,new Metadata.Headers(), listener);
-    assertTrue(streams.containsKey(3));
+    clientTransport.newStream(method, new Metadata.Headers(), listener, StreamTracer.NOOP);
+    assertNotNull(streams.get(3));
     frameHandler.headers(true, true, 3, 0, grpcResponseTrailers(), HeadersMode.HTTP_20_HEADERS);
     listener.waitUntilStreamClosed();
     assertEquals(Status.Code.OK, listener.status.getCode());
@@ -220,8 +227,8 @@ public class OkHttpClientTransportTest {
   @Test
   public void receiveReset() throws Exception {
     MockStreamListener listener = new MockStreamListener();
-    clientTransport.newStream(method,new Metadata.Headers(), listener);
-    assertTrue(streams.containsKey(3));
+    clientTransport.newStream(method, new Metadata.Headers(), listener, StreamTracer.NOOP);
+    assertNotNull(streams.get(3));
     frameHandler.rstStream(3, ErrorCode.PROTOCOL_ERROR);
     listener.waitUntilStreamClosed();
     assertEquals(OkHttpClientTransport.toGrpcStatus(ErrorCode.PROTOCOL_ERROR), listener.status);
@@ -230,7 +237,7 @@ public class OkHttpClientTransportTest {
   @Test
   public void cancelStream() throws Exception {
     MockStreamListener listener = new MockStreamListener();
-    clientTransport.newStream(method,new Metadata.Headers(), listener);
+    clientTransport.newStream(method, new Metadata.Headers(), listener, StreamTracer.NOOP);
     OkHttpClientStream stream = streams.get(3);
     assertNotNull(stream);
     stream.cancel();
@@ -244,7 +251,7 @@ public class OkHttpClientTransportTest {
   public void writeMessage() throws Exception {
     final String message = "Hello Server";
     MockStreamListener listener = new MockStreamListener();
-    clientTransport.newStream(method,new Metadata.Headers(), listener);
+    clientTransport.newStream(method, new Metadata.Headers(), listener, StreamTracer.NOOP);
     OkHttpClientStream stream = streams.get(3);
     InputStream input = new ByteArrayInputStream(message.getBytes(UTF_8));
     assertEquals(12, input.available());
@@ -261,8 +268,10 @@ public class OkHttpClientTransportTest {
   public void windowUpdate() throws Exception {
     MockStreamListener listener1 = new MockStreamListener();
     MockStreamListener listener2 = new MockStreamListener();
-    clientTransport.newStream(method,new Metadata.Headers(), listener1).request(2);
-    clientTransport.newStream(method,new Metadata.Headers(), listener2).request(2);
+    clientTransport.newStream(method, new Metadata.Headers(), listener1, StreamTracer.NOOP)
+        .request(2);
+    clientTransport.newStream(method, new Metadata.Headers(), listener2, StreamTracer.NOOP)
+        .request(2);
     assertEquals(2, streams.size());
     OkHttpClientStream stream1 = streams.get(3);
     OkHttpClientStream stream2 = streams.get(5);
@@ -311,10 +320,64 @@ public class OkHttpClientTransportTest {
         listener2.status.getCode());
   }
 
+  @Test
+  public void outboundWindowIsSplitBetweenPendingStreams() throws Exception {
+    MockStreamListener listener1 = new MockStreamListener();
+    MockStreamListener listener2 = new MockStreamListener();
+    clientTransport.newStream(method, new Metadata.Headers(), listener1, StreamTracer.NOOP);
+    clientTransport.newStream(method, new Metadata.Headers(), listener2, StreamTracer.NOOP);
+    OkHttpClientStream stream1 = streams.get(3);
+    OkHttpClientStream stream2 = streams.get(5);
+
+    // Stream 1 takes most of the connection window, stream 2 the rest and queues the remainder.
+    int messageLength = 40000;
+    writeMessage(stream1, messageLength);
+    writeMessage(stream2, messageLength);
+    // The connection window is now exhausted, so this is queued entirely.
+    writeMessage(stream1, messageLength);
+    assertEquals(Utils.DEFAULT_WINDOW_SIZE, sentBytes(3) + sentBytes(5));
+
+    reset(frameWriter);
+    when(frameWriter.maxDataLength()).thenReturn(Integer.MAX_VALUE);
+    frameHandler.windowUpdate(0, 20000);
+    assertEquals(10000, sentBytes(3));
+    assertEquals(10000, sentBytes(5));
+
+    // The frames of a cancelled stream are dropped, the whole update goes to stream 1.
+    stream2.cancel();
+    reset(frameWriter);
+    when(frameWriter.maxDataLength()).thenReturn(Integer.MAX_VALUE);
+    frameHandler.windowUpdate(0, 10000);
+    assertEquals(10000, sentBytes(3));
+    assertEquals(0, sentBytes(5));
+    stream1.cancel();
+  }
+
+  private void writeMessage(OkHttpClientStream stream, int length) {
+    InputStream input = new ByteArrayInputStream(new byte[length]);
+    stream.writeMessage(input, length, null);
+    stream.flush();
+  }
+
+  /**
+   * Returns the number of DATA bytes written for the stream.
+   */
+  private int sentBytes(int streamId) {
+    ArgumentCaptor<Integer> captor = ArgumentCaptor.forClass(Integer.class);
+    verify(frameWriter, atLeast(0)).data(anyBoolean(), eq(streamId), any(Buffer.class),
+        captor.capture());
+    int sent = 0;
+    for (int bytes : captor.getAllValues()) {
+      sent += bytes;
+    }
+    return sent;
+  }
+
   @Test
   public void windowUpdateWithInboundFlowControl() throws Exception {
     MockStreamListener listener = new MockStreamListener();
-    clientTransport.newStream(method, new Metadata.Headers(), listener).request(1);
+    clientTransport.newStream(method, new Metadata.Headers(), listener, StreamTracer.NOOP)
+        .request(1);
     OkHttpClientStream stream = streams.get(3);
 
     int messageLength = OkHttpClientTransport.DEFAULT_INITIAL_WINDOW_SIZE / 2 + 1;
@@ -340,9 +403,9 @@ public class OkHttpClientTransportTest {
     MockStreamListener listener1 = new MockStreamListener();
     MockStreamListener listener2 = new MockStreamListener();
     OkHttpClientStream stream1
-        = clientTransport.newStream(method, new Metadata.Headers(), listener1);
+        = clientTransport.newStream(method, new Metadata.Headers(), listener1, StreamTracer.NOOP);
     OkHttpClientStream stream2
-        = clientTransport.newStream(method, new Metadata.Headers(), listener2);
+        = clientTransport.newStream(method, new Metadata.Headers(), listener2, StreamTracer.NOOP);
     assertEquals(2, streams.size());
     clientTransport.shutdown();
     verify(frameWriter).goAway(eq(0), eq(ErrorCode.NO_ERROR), (byte[]) any());
@@ -364,8 +427,10 @@ public class OkHttpClientTransportTest {
     // start 2 streams.
     MockStreamListener listener1 = new MockStreamListener();
     MockStreamListener listener2 = new MockStreamListener();
-    clientTransport.newStream(method,new Metadata.Headers(), listener1).request(1);
-    clientTransport.newStream(method,new Metadata.Headers(), listener2).request(1);
+    clientTransport.newStream(method, new Metadata.Headers(), listener1, StreamTracer.NOOP)
+        .request(1);
+    clientTransport.newStream(method, new Metadata.Headers(), listener2, StreamTracer.NOOP)
+        .request(1);
     assertEquals(2, streams.size());
 
     // Receive goAway, max good id is 3.
@@ -383,7 +448,7 @@ public class OkHttpClientTransportTest {
     // New stream should be failed.
     MockStreamListener listener3 = new MockStreamListener();
     try {
-      clientTransport.newStream(method,new Metadata.Headers(), listener3);
+      clientTransport.newStream(method, new Metadata.Headers(), listener3, StreamTracer.NOOP);
       fail("new stream should no be accepted by a go-away transport.");
     } catch (IllegalStateException ex) {
       // expected.
@@ -427,10 +492,11 @@ public class OkHttpClientTransportTest {
     streams = transport.getStreams();
 
     MockStreamListener listener1 = new MockStreamListener();
-    transport.newStream(method,new Metadata.Headers(), listener1);
+    transport.newStream(method, new Metadata.Headers(), listener1, StreamTracer.NOOP);
 
     try {
-      transport.newStream(method, new Metadata.Headers(), new MockStreamListener());
+      transport.newStream(method, new Metadata.Headers(), new MockStreamListener(),
+          StreamTracer.NOOP);
       fail("new stream should not be accepted by a go-away transport.");
     } catch (IllegalStateException ex) {
       // expected.
@@ -506,6 +572,38 @@ public class OkHttpClientTransportTest {
     }
   }
 
+  @Test
+  public void connectFailureFailsTransportWithUnavailable() throws Exception {
+    ServerSocket serverSocket = new ServerSocket(0);
+    InetSocketAddress address = new InetSocketAddress("localhost", serverSocket.getLocalPort());
+    // Nothing is listening on the port anymore.
+    serverSocket.close();
+    final List<Runnable> tasks = new ArrayList<Runnable>();
+    Executor queuedExecutor = new Executor() {
+      @Override
+      public void execute(Runnable task) {
+        tasks.add(task);
+      }
+    };
+    ClientTransport.Listener connectListener = mock(ClientTransport.Listener.class);
+    OkHttpClientTransport transport = new OkHttpClientTransport(address, "localhost",
+        queuedExecutor, null, new SocketOptions(TIME_OUT_MS, TIME_OUT_MS, true, 0, 0));
+
+    transport.start(connectListener);
+    // Connecting happens on the executor, so streams can be created before it completes.
+    assertEquals(1, tasks.size());
+    MockStreamListener streamListener = new MockStreamListener();
+    transport.newStream(method, new Metadata.Headers(), streamListener, StreamTracer.NOOP);
+    tasks.remove(0).run();
+
+    streamListener.waitUntilStreamClosed();
+    assertEquals(Status.UNAVAILABLE.getCode(), streamListener.status.getCode());
+    verify(connectListener).transportShutdown();
+    verify(connectListener).transportTerminated();
+    // No frames are written to a socket that never connected.
+    assertTrue(tasks.isEmpty());
+  }
+
   private static class MockStreamListener implements ClientStreamListener {
     Status status;
     Metadata.Headers headers;
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.transport.okhttp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.util.concurrent.Service;
+
+import com.squareup.okhttp.internal.spdy.ErrorCode;
+import com.squareup.okhttp.internal.spdy.FrameReader;
+import com.squareup.okhttp.internal.spdy.Header;
+import com.squareup.okhttp.internal.spdy.HeadersMode;
+
+import io.grpc.Metadata;
+import io.grpc.Status;
+import io.grpc.transport.ServerListener;
+import io.grpc.transport.ServerStream;
+import io.grpc.transport.ServerStreamListener;
+import io.grpc.transport.ServerTransportListener;
+import io.grpc.transport.okhttp.OkHttpServerTransport.ServerFrameHandler;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.ByteArrayInputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Tests for {@link OkHttpServerTransport}.
+ */
+@RunWith(JUnit4.class)
+public class OkHttpServerTransportTest {
+  private static final String METHOD = "/grpc.testing.TestService/UnaryCall";
+
+  @Mock
+  private ServerListener serverListener;
+  @Mock
+  private ServerTransportListener transportListener;
+  @Mock
+  private ServerStreamListener streamListener;
+  @Mock
+  private FrameReader frameReader;
+  @Mock
+  private AsyncFrameWriter frameWriter;
+  private final List<Runnable> tasks = new ArrayList<Runnable>();
+  private OkHttpServerTransport transport;
+  private ServerFrameHandler frameHandler;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    when(serverListener.transportCreated(any(Service.class))).thenReturn(transportListener);
+    when(transportListener.streamCreated(any(ServerStream.class), anyString(),
+        any(Metadata.Headers.class))).thenReturn(streamListener);
+    // The reader loop is never run, frames are delivered to the handler by the tests.
+    Executor executor = new Executor() {
+      @Override
+      public void execute(Runnable task) {
+        tasks.add(task);
+      }
+    };
+    transport = new OkHttpServerTransport(new Socket(), serverListener, executor, frameReader,
+        frameWriter);
+    transport.startAsync().awaitRunning();
+    frameHandler = transport.getHandler();
+  }
+
+  @Test
+  public void headersCreateStream() {
+    frameHandler.headers(false, false, 3, 0, requestHeaders("POST", METHOD),
+        HeadersMode.HTTP_20_HEADERS);
+
+    ArgumentCaptor<Metadata.Headers> headers = ArgumentCaptor.forClass(Metadata.Headers.class);
+    verify(transportListener).streamCreated(any(ServerStream.class), eq(METHOD),
+        headers.capture());
+    assertEquals(METHOD, headers.getValue().getPath());
+    assertEquals("localhost:1234", headers.getValue().getAuthority());
+    assertNotNull(transport.getStreams().get(3));
+  }
+
+  @Test
+  public void nonGrpcRequestIsRefused() {
+    frameHandler.headers(false, true, 3, 0, requestHeaders("GET", METHOD),
+        HeadersMode.HTTP_20_HEADERS);
+
+    verify(frameWriter).rstStream(3, ErrorCode.REFUSED_STREAM);
+    verify(transportListener, never()).streamCreated(any(ServerStream.class), anyString(),
+        any(Metadata.Headers.class));
+    assertNull(transport.getStreams().get(3));
+  }
+
+  @Test
+  public void rstStreamCancelsStream() {
+    frameHandler.headers(false, false, 3, 0, requestHeaders("POST", METHOD),
+        HeadersMode.HTTP_20_HEADERS);
+    frameHandler.rstStream(3, ErrorCode.CANCEL);
+
+    ArgumentCaptor<Status> status = ArgumentCaptor.forClass(Status.class);
+    verify(streamListener).closed(status.capture());
+    assertEquals(Status.Code.CANCELLED, status.getValue().getCode());
+    assertNull(transport.getStreams().get(3));
+  }
+
+  @Test
+  public void trailersAreWrittenAfterQueuedData() throws Exception {
+    frameHandler.headers(false, true, 3, 0, requestHeaders("POST", METHOD),
+        HeadersMode.HTTP_20_HEADERS);
+    OkHttpServerStream stream = transport.getStreams().get(3);
+    // A message larger than the initial window, so that part of it waits for a window update.
+    byte[] message = new byte[Utils.DEFAULT_WINDOW_SIZE + 100];
+    stream.writeMessage(new ByteArrayInputStream(message), message.length, null);
+    stream.close(Status.OK, new Metadata.Trailers());
+
+    verify(frameWriter, never()).synReply(eq(true), eq(3), anyListOf(Header.class));
+    frameHandler.windowUpdate(Utils.CONNECTION_STREAM_ID, 1000);
+    frameHandler.windowUpdate(3, 1000);
+
+    InOrder inOrder = inOrder(frameWriter, streamListener);
+    inOrder.verify(frameWriter).synReply(eq(false), eq(3), anyListOf(Header.class));
+    inOrder.verify(frameWriter).synReply(eq(true), eq(3), anyListOf(Header.class));
+    inOrder.verify(streamListener).closed(Status.OK);
+    assertNull(transport.getStreams().get(3));
+  }
+
+  @Test
+  public void stopClosesConnectionOnceStreamsComplete() {
+    frameHandler.headers(false, false, 3, 0, requestHeaders("POST", METHOD),
+        HeadersMode.HTTP_20_HEADERS);
+    transport.stopAsync();
+
+    verify(frameWriter).goAway(eq(3), eq(ErrorCode.NO_ERROR), any(byte[].class));
+    // New streams are refused.
+    frameHandler.headers(false, false, 5, 0, requestHeaders("POST", METHOD),
+        HeadersMode.HTTP_20_HEADERS);
+    verify(frameWriter).rstStream(5, ErrorCode.REFUSED_STREAM);
+
+    runTasks();
+    verify(frameWriter, never()).close();
+    frameHandler.rstStream(3, ErrorCode.CANCEL);
+    runTasks();
+    verify(frameWriter).close();
+  }
+
+  private void runTasks() {
+    // The first task is the reader loop, which the tests replace.
+    for (Runnable task : tasks.subList(1, tasks.size())) {
+      task.run();
+    }
+    tasks.subList(1, tasks.size()).clear();
+  }
+
+  private static List<Header> requestHeaders(String method, String path) {
+    return Arrays.asList(
+        new Header(Header.TARGET_METHOD, method),
+        new Header(Header.TARGET_SCHEME, "http"),
+        new Header(Header.TARGET_PATH, path),
+        new Header(Header.TARGET_AUTHORITY, "localhost:1234"),
+        Headers.CONTENT_TYPE_HEADER,
+        Headers.TE_HEADER);
+  }
+}
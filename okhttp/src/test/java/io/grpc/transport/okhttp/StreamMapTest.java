@@ -0,0 +1,149 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.transport.okhttp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Tests for {@link StreamMap}.
+ */
+@RunWith(JUnit4.class)
+public class StreamMapTest {
+  private final StreamMap<OkHttpClientStream> map = new StreamMap<OkHttpClientStream>();
+
+  @Test
+  public void putGetRemove() {
+    OkHttpClientStream stream = mock(OkHttpClientStream.class);
+    assertNull(map.get(3));
+    map.put(3, stream);
+    assertSame(stream, map.get(3));
+    assertEquals(1, map.size());
+
+    assertSame(stream, map.remove(3));
+    assertNull(map.get(3));
+    assertNull(map.remove(3));
+    assertEquals(0, map.size());
+  }
+
+  @Test
+  public void collidingIdsAndGrowth() {
+    OkHttpClientStream[] streams = new OkHttpClientStream[100];
+    for (int i = 0; i < streams.length; i++) {
+      streams[i] = mock(OkHttpClientStream.class);
+      map.put(2 * i + 1, streams[i]);
+    }
+    assertEquals(streams.length, map.size());
+    // Remove every other stream, so that lookups have to probe past the gaps.
+    for (int i = 0; i < streams.length; i += 2) {
+      assertSame(streams[i], map.remove(2 * i + 1));
+    }
+    for (int i = 0; i < streams.length; i++) {
+      if (i % 2 == 0) {
+        assertNull(map.get(2 * i + 1));
+      } else {
+        assertSame(streams[i], map.get(2 * i + 1));
+      }
+    }
+    assertEquals(streams.length / 2, map.size());
+  }
+
+  @Test
+  public void removedSlotIsReused() {
+    // Stream ids 3 and 19 share a home slot of the initial table, so 19 is stored after 3.
+    OkHttpClientStream stream3 = mock(OkHttpClientStream.class);
+    OkHttpClientStream stream19 = mock(OkHttpClientStream.class);
+    OkHttpClientStream stream35 = mock(OkHttpClientStream.class);
+    map.put(3, stream3);
+    map.put(19, stream19);
+
+    assertSame(stream3, map.remove(3));
+    // Lookups probe past the removed stream.
+    assertSame(stream19, map.get(19));
+    map.put(35, stream35);
+    assertSame(stream35, map.get(35));
+    assertSame(stream19, map.get(19));
+    assertNull(map.get(3));
+    assertEquals(2, map.size());
+  }
+
+  @Test
+  public void manyShortLivedStreams() {
+    // Like a transport with a few active streams at a time, whose ids keep increasing.
+    OkHttpClientStream[] streams = new OkHttpClientStream[1000];
+    for (int i = 0; i < streams.length; i++) {
+      streams[i] = mock(OkHttpClientStream.class);
+      map.put(2 * i + 1, streams[i]);
+      if (i >= 3) {
+        assertSame(streams[i - 3], map.remove(2 * (i - 3) + 1));
+      }
+      assertEquals(Math.min(i + 1, 3), map.size());
+    }
+    for (int i = 0; i < streams.length; i++) {
+      if (i < streams.length - 3) {
+        assertNull(map.get(2 * i + 1));
+      } else {
+        assertSame(streams[i], map.get(2 * i + 1));
+      }
+    }
+    assertEquals(new HashSet<OkHttpClientStream>(Arrays.asList(streams).subList(997, 1000)),
+        new HashSet<OkHttpClientStream>(map.values()));
+  }
+
+  @Test
+  public void removeAbove() {
+    OkHttpClientStream stream3 = mock(OkHttpClientStream.class);
+    OkHttpClientStream stream5 = mock(OkHttpClientStream.class);
+    OkHttpClientStream stream7 = mock(OkHttpClientStream.class);
+    map.put(3, stream3);
+    map.put(5, stream5);
+    map.put(7, stream7);
+
+    List<OkHttpClientStream> removed = map.removeAbove(3);
+    assertEquals(new HashSet<OkHttpClientStream>(Arrays.asList(stream5, stream7)),
+        new HashSet<OkHttpClientStream>(removed));
+    assertSame(stream3, map.get(3));
+    assertNull(map.get(5));
+    assertEquals(1, map.size());
+    assertEquals(Arrays.asList(stream3), map.values());
+  }
+}
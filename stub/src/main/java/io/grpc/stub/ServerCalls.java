@@ -32,6 +32,7 @@
 package io.grpc.stub;
 
 import io.grpc.Metadata;
+import io.grpc.SerializedMessage;
 import io.grpc.ServerCall;
 import io.grpc.ServerCallHandler;
 import io.grpc.ServerMethodDefinition;
@@ -51,8 +52,24 @@ public class ServerCalls {
    */
   public static <ReqT, RespT> ServerMethodDefinition<ReqT, RespT> createMethodDefinition(
       Method<ReqT, RespT> method, ServerCallHandler<ReqT, RespT> handler) {
-    return ServerMethodDefinition.create(method.getName(), method.getRequestMarshaller(),
-        method.getResponseMarshaller(), handler);
+    return ServerMethodDefinition.create(method.getType(), method.getName(),
+        method.getRequestMarshaller(), method.getResponseMarshaller(), handler);
+  }
+
+  /**
+   * Sends a message that has already been serialized, for example because the same message is
+   * broadcast to many calls, on the response observer of a service method. The serialized bytes
+   * are written to the call without marshalling the message again. Observers that were not
+   * provided by the generated code receive {@link SerializedMessage#getValue} with
+   * {@link StreamObserver#onValue}.
+   */
+  public static <RespT> void sendSerialized(StreamObserver<RespT> responseObserver,
+      SerializedMessage<RespT> message) {
+    if (responseObserver instanceof ResponseObserver) {
+      ((ResponseObserver<RespT>) responseObserver).onSerializedValue(message);
+    } else {
+      responseObserver.onValue(message.getValue());
+    }
   }
 
   /**
@@ -182,6 +199,16 @@ public class ServerCalls {
       call.request(1);
     }
 
+    void onSerializedValue(SerializedMessage<RespT> response) {
+      if (cancelled) {
+        throw Status.CANCELLED.asRuntimeException();
+      }
+      call.sendSerializedPayload(response);
+
+      // Request delivery of the next inbound message.
+      call.request(1);
+    }
+
     @Override
     public void onError(Throwable t) {
       call.close(Status.fromThrowable(t), new Metadata.Trailers());
@@ -0,0 +1,365 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.stub;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import io.grpc.Call;
+import io.grpc.Channel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.MethodType;
+import io.grpc.Status;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Batches many small unary requests into streaming calls. Requests are accumulated until either
+ * {@code maxBatchSize} of them are waiting or the oldest of them has waited for {@code maxLinger},
+ * and are then sent together on one call. The responses of the call are handed back to the
+ * per-request futures, which behave like those returned by {@link Calls#unaryFutureCall}.
+ *
+ * <p>The server needs to implement the batched method accordingly:
+ * <ul>
+ *   <li>for a {@link MethodType#DUPLEX_STREAMING} method, with exactly one response per request,
+ *   in request order;</li>
+ *   <li>for a {@link MethodType#CLIENT_STREAMING} method, with a single response that the
+ *   {@code splitter} turns into one response per request, in request order.</li>
+ * </ul>
+ *
+ * <p>The requests of a batch don't have a status of their own: if the call of a batch fails, all of
+ * its requests that haven't got a response yet fail with the status of the call.
+ * Cancelling the future of a request that hasn't been sent yet removes it from its batch, while
+ * cancelling one that was already sent only discards its response.
+ *
+ * @param <ReqT> type of a single request.
+ * @param <RespT> type of the response to a single request.
+ */
+@ThreadSafe
+public final class UnaryBatcher<ReqT, RespT> {
+  private final Object lock = new Object();
+  private final BatchSender<ReqT, RespT> sender;
+  private final ScheduledExecutorService scheduler;
+  private final int maxBatchSize;
+  private final long maxLingerNanos;
+
+  @GuardedBy("lock")
+  private List<PendingRequest<ReqT, RespT>> batch;
+  @GuardedBy("lock")
+  private ScheduledFuture<?> lingerTimer;
+
+  /**
+   * Creates a batcher that sends batches on the {@link MethodType#DUPLEX_STREAMING} method
+   * {@code method}, which responds to each request in order.
+   *
+   * @param scheduler used to send batches once their linger time elapses. The batcher doesn't take
+   *     ownership of it.
+   * @param maxBatchSize the number of requests that is sent as soon as it is reached
+   * @param maxLinger how long a request may wait for the batch to fill up before being sent
+   */
+  public static <ReqT, RespT> UnaryBatcher<ReqT, RespT> forDuplexStreaming(Channel channel,
+      MethodDescriptor<ReqT, RespT> method, ScheduledExecutorService scheduler, int maxBatchSize,
+      long maxLinger, TimeUnit unit) {
+    Preconditions.checkArgument(method.getType() == MethodType.DUPLEX_STREAMING,
+        "%s is not a duplex streaming method", method.getName());
+    return new UnaryBatcher<ReqT, RespT>(new DuplexBatchSender<ReqT, RespT>(channel, method),
+        scheduler, maxBatchSize, maxLinger, unit);
+  }
+
+  /**
+   * Creates a batcher that sends batches on the {@link MethodType#CLIENT_STREAMING} method
+   * {@code method}, whose single response is split into the responses of the requests by
+   * {@code splitter}.
+   *
+   * @param splitter returns the responses to the requests of a batch, in order
+   * @param scheduler used to send batches once their linger time elapses. The batcher doesn't take
+   *     ownership of it.
+   * @param maxBatchSize the number of requests that is sent as soon as it is reached
+   * @param maxLinger how long a request may wait for the batch to fill up before being sent
+   */
+  public static <ReqT, BatchRespT, RespT> UnaryBatcher<ReqT, RespT> forClientStreaming(
+      Channel channel, MethodDescriptor<ReqT, BatchRespT> method,
+      Function<? super BatchRespT, ? extends List<RespT>> splitter,
+      ScheduledExecutorService scheduler, int maxBatchSize, long maxLinger, TimeUnit unit) {
+    Preconditions.checkArgument(method.getType() == MethodType.CLIENT_STREAMING,
+        "%s is not a client streaming method", method.getName());
+    return new UnaryBatcher<ReqT, RespT>(
+        new ClientStreamingBatchSender<ReqT, BatchRespT, RespT>(channel, method, splitter),
+        scheduler, maxBatchSize, maxLinger, unit);
+  }
+
+  private UnaryBatcher(BatchSender<ReqT, RespT> sender, ScheduledExecutorService scheduler,
+      int maxBatchSize, long maxLinger, TimeUnit unit) {
+    Preconditions.checkArgument(maxBatchSize > 0, "maxBatchSize must be positive");
+    Preconditions.checkArgument(maxLinger >= 0, "maxLinger must be non-negative");
+    this.sender = sender;
+    this.scheduler = Preconditions.checkNotNull(scheduler, "scheduler");
+    this.maxBatchSize = maxBatchSize;
+    this.maxLingerNanos = unit.toNanos(maxLinger);
+  }
+
+  /**
+   * Adds a request to the current batch, sending the batch if it is full.
+   *
+   * @return a future for the response to the request.
+   */
+  public ListenableFuture<RespT> call(ReqT request) {
+    PendingRequest<ReqT, RespT> pending = new PendingRequest<ReqT, RespT>(request);
+    List<PendingRequest<ReqT, RespT>> fullBatch = null;
+    synchronized (lock) {
+      if (batch == null) {
+        final List<PendingRequest<ReqT, RespT>> newBatch =
+            new ArrayList<PendingRequest<ReqT, RespT>>(Math.min(maxBatchSize, 64));
+        batch = newBatch;
+        if (maxBatchSize > 1) {
+          lingerTimer = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+              flush(newBatch);
+            }
+          }, maxLingerNanos, TimeUnit.NANOSECONDS);
+        }
+      }
+      batch.add(pending);
+      if (batch.size() >= maxBatchSize) {
+        fullBatch = takeBatch();
+      }
+    }
+    if (fullBatch != null) {
+      send(fullBatch);
+    }
+    return pending.future;
+  }
+
+  /**
+   * Sends the current batch without waiting for it to fill up or for its linger time to elapse.
+   */
+  public void flush() {
+    List<PendingRequest<ReqT, RespT>> toSend;
+    synchronized (lock) {
+      toSend = takeBatch();
+    }
+    send(toSend);
+  }
+
+  /**
+   * Sends {@code expected} if it is still the current batch; it may have been sent because it
+   * filled up, or have been flushed, in the meantime.
+   */
+  private void flush(List<PendingRequest<ReqT, RespT>> expected) {
+    List<PendingRequest<ReqT, RespT>> toSend = null;
+    synchronized (lock) {
+      if (batch == expected) {
+        toSend = takeBatch();
+      }
+    }
+    send(toSend);
+  }
+
+  @GuardedBy("lock")
+  private List<PendingRequest<ReqT, RespT>> takeBatch() {
+    List<PendingRequest<ReqT, RespT>> taken = batch;
+    batch = null;
+    if (lingerTimer != null) {
+      lingerTimer.cancel(false);
+      lingerTimer = null;
+    }
+    return taken;
+  }
+
+  private void send(List<PendingRequest<ReqT, RespT>> toSend) {
+    if (toSend == null) {
+      return;
+    }
+    List<PendingRequest<ReqT, RespT>> live =
+        new ArrayList<PendingRequest<ReqT, RespT>>(toSend.size());
+    for (PendingRequest<ReqT, RespT> pending : toSend) {
+      if (!pending.future.isCancelled()) {
+        live.add(pending);
+      }
+    }
+    if (!live.isEmpty()) {
+      sender.send(live);
+    }
+  }
+
+  private static final class PendingRequest<ReqT, RespT> {
+    final ReqT request;
+    final SettableFuture<RespT> future = SettableFuture.create();
+
+    PendingRequest(ReqT request) {
+      this.request = request;
+    }
+  }
+
+  /**
+   * Sends a batch of requests on a new call and completes their futures from its responses.
+   */
+  private abstract static class BatchSender<ReqT, RespT> {
+    abstract void send(List<PendingRequest<ReqT, RespT>> batch);
+
+    /**
+     * Starts {@code call}, writes the requests of {@code batch} to it and half-closes it.
+     */
+    static <ReqT, RespT, BatchRespT> void sendAll(Call<ReqT, BatchRespT> call,
+        BatchListener<ReqT, RespT, BatchRespT> listener, List<PendingRequest<ReqT, RespT>> batch,
+        int responses) {
+      call.start(listener, new Metadata.Headers());
+      call.request(responses);
+      try {
+        for (PendingRequest<ReqT, RespT> pending : batch) {
+          call.sendPayload(pending.request);
+        }
+        call.halfClose();
+      } catch (Throwable t) {
+        call.cancel();
+        listener.failRemaining(t);
+      }
+    }
+  }
+
+  private static final class DuplexBatchSender<ReqT, RespT> extends BatchSender<ReqT, RespT> {
+    private final Channel channel;
+    private final MethodDescriptor<ReqT, RespT> method;
+
+    DuplexBatchSender(Channel channel, MethodDescriptor<ReqT, RespT> method) {
+      this.channel = Preconditions.checkNotNull(channel, "channel");
+      this.method = method;
+    }
+
+    @Override
+    void send(List<PendingRequest<ReqT, RespT>> batch) {
+      BatchListener<ReqT, RespT, RespT> listener = new BatchListener<ReqT, RespT, RespT>(batch) {
+        @Override
+        public void onPayload(RespT payload) {
+          if (!complete(payload)) {
+            throw Status.INTERNAL.withDescription("More responses than requests in batch")
+                .asRuntimeException();
+          }
+        }
+      };
+      sendAll(channel.newCall(method), listener, batch, batch.size());
+    }
+  }
+
+  private static final class ClientStreamingBatchSender<ReqT, BatchRespT, RespT>
+      extends BatchSender<ReqT, RespT> {
+    private final Channel channel;
+    private final MethodDescriptor<ReqT, BatchRespT> method;
+    private final Function<? super BatchRespT, ? extends List<RespT>> splitter;
+
+    ClientStreamingBatchSender(Channel channel, MethodDescriptor<ReqT, BatchRespT> method,
+        Function<? super BatchRespT, ? extends List<RespT>> splitter) {
+      this.channel = Preconditions.checkNotNull(channel, "channel");
+      this.method = method;
+      this.splitter = Preconditions.checkNotNull(splitter, "splitter");
+    }
+
+    @Override
+    void send(final List<PendingRequest<ReqT, RespT>> batch) {
+      BatchListener<ReqT, RespT, BatchRespT> listener =
+          new BatchListener<ReqT, RespT, BatchRespT>(batch) {
+            @Override
+            public void onPayload(BatchRespT payload) {
+              List<RespT> responses = splitter.apply(payload);
+              if (responses.size() != batch.size()) {
+                throw Status.INTERNAL.withDescription("Expected " + batch.size()
+                    + " responses in batch but got " + responses.size()).asRuntimeException();
+              }
+              for (RespT response : responses) {
+                complete(response);
+              }
+            }
+          };
+      sendAll(channel.newCall(method), listener, batch, 1);
+    }
+  }
+
+  /**
+   * Completes the futures of a batch in order. Futures that are left when the call closes are
+   * failed.
+   */
+  private abstract static class BatchListener<ReqT, RespT, BatchRespT>
+      extends Call.Listener<BatchRespT> {
+    private final List<PendingRequest<ReqT, RespT>> batch;
+    private int next;
+
+    BatchListener(List<PendingRequest<ReqT, RespT>> batch) {
+      this.batch = batch;
+    }
+
+    /**
+     * Completes the future of the next request of the batch.
+     *
+     * @return {@code false} if all requests already have their response.
+     */
+    final boolean complete(RespT response) {
+      if (next == batch.size()) {
+        return false;
+      }
+      batch.get(next++).future.set(response);
+      return true;
+    }
+
+    final void failRemaining(Throwable t) {
+      while (next < batch.size()) {
+        batch.get(next++).future.setException(t);
+      }
+    }
+
+    @Override
+    public void onHeaders(Metadata.Headers headers) {
+    }
+
+    @Override
+    public void onClose(Status status, Metadata.Trailers trailers) {
+      if (status.isOk()) {
+        if (next < batch.size()) {
+          failRemaining(Status.INTERNAL.withDescription(
+              "Fewer responses than requests in batch").asRuntimeException());
+        }
+      } else {
+        failRemaining(status.asRuntimeException());
+      }
+    }
+  }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.stub;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Function;
+import com.google.common.base.Splitter;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import io.grpc.Call;
+import io.grpc.Channel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.MethodType;
+import io.grpc.Status;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/** Unit tests for {@link UnaryBatcher}. */
+@RunWith(JUnit4.class)
+public class UnaryBatcherTest {
+  private final MethodDescriptor<Integer, String> duplexMethod = MethodDescriptor.create(
+      MethodType.DUPLEX_STREAMING, "Service/vote", 1, TimeUnit.SECONDS, null, null);
+
+  @Mock
+  private Channel channel;
+  @Mock
+  private ScheduledExecutorService scheduler;
+  @Mock
+  private ScheduledFuture<?> lingerFuture;
+  @Mock
+  private Call<Integer, String> call;
+
+  private UnaryBatcher<Integer, String> batcher;
+
+  @Before
+  @SuppressWarnings("unchecked")
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    when(channel.newCall(same(duplexMethod))).thenReturn(call);
+    when(scheduler.schedule(any(Runnable.class), anyLong(), any(TimeUnit.class)))
+        .thenReturn((ScheduledFuture) lingerFuture);
+    batcher = UnaryBatcher.forDuplexStreaming(
+        channel, duplexMethod, scheduler, 3, 10, TimeUnit.MILLISECONDS);
+  }
+
+  @Test
+  public void fullBatchIsSentOnOneCall() throws Exception {
+    ListenableFuture<String> first = batcher.call(1);
+    ListenableFuture<String> second = batcher.call(2);
+    verify(channel, never()).newCall(same(duplexMethod));
+    ListenableFuture<String> third = batcher.call(3);
+
+    Call.Listener<String> listener = captureListener();
+    verify(call).request(3);
+    verify(call).sendPayload(1);
+    verify(call).sendPayload(2);
+    verify(call).sendPayload(3);
+    verify(call).halfClose();
+    verify(lingerFuture).cancel(false);
+
+    listener.onPayload("one");
+    listener.onPayload("two");
+    assertEquals("one", first.get());
+    assertEquals("two", second.get());
+    assertFalse(third.isDone());
+    listener.onPayload("three");
+    listener.onClose(Status.OK, new Metadata.Trailers());
+    assertEquals("three", third.get());
+  }
+
+  @Test
+  public void partialBatchIsSentAfterLinger() throws Exception {
+    ListenableFuture<String> future = batcher.call(1);
+    ArgumentCaptor<Runnable> timer = ArgumentCaptor.forClass(Runnable.class);
+    verify(scheduler).schedule(timer.capture(), eq(TimeUnit.MILLISECONDS.toNanos(10)),
+        eq(TimeUnit.NANOSECONDS));
+    verify(channel, never()).newCall(same(duplexMethod));
+
+    timer.getValue().run();
+    Call.Listener<String> listener = captureListener();
+    verify(call).sendPayload(1);
+    verify(call).halfClose();
+    listener.onPayload("one");
+    listener.onClose(Status.OK, new Metadata.Trailers());
+    assertEquals("one", future.get());
+  }
+
+  @Test
+  public void staleLingerTimerDoesNotSendNextBatch() {
+    batcher.call(1);
+    ArgumentCaptor<Runnable> timer = ArgumentCaptor.forClass(Runnable.class);
+    verify(scheduler).schedule(timer.capture(), anyLong(), any(TimeUnit.class));
+    batcher.flush();
+    verify(channel).newCall(same(duplexMethod));
+
+    batcher.call(2);
+    timer.getValue().run();
+    verify(channel).newCall(same(duplexMethod));
+    verify(call, never()).sendPayload(2);
+  }
+
+  @Test
+  public void failedCallFailsRequestsWithoutResponse() throws Exception {
+    ListenableFuture<String> first = batcher.call(1);
+    ListenableFuture<String> second = batcher.call(2);
+    batcher.flush();
+    Call.Listener<String> listener = captureListener();
+
+    listener.onPayload("one");
+    listener.onClose(Status.UNAVAILABLE, new Metadata.Trailers());
+    assertEquals("one", first.get());
+    try {
+      second.get();
+      fail("Should have failed");
+    } catch (ExecutionException e) {
+      assertEquals(Status.Code.UNAVAILABLE, Status.fromThrowable(e).getCode());
+    }
+  }
+
+  @Test
+  public void missingResponsesFailRequests() throws Exception {
+    batcher.call(1);
+    ListenableFuture<String> second = batcher.call(2);
+    batcher.flush();
+    Call.Listener<String> listener = captureListener();
+
+    listener.onPayload("one");
+    listener.onClose(Status.OK, new Metadata.Trailers());
+    try {
+      second.get();
+      fail("Should have failed");
+    } catch (ExecutionException e) {
+      assertEquals(Status.Code.INTERNAL, Status.fromThrowable(e).getCode());
+    }
+  }
+
+  @Test
+  public void cancelledRequestIsNotSent() throws Exception {
+    ListenableFuture<String> first = batcher.call(1);
+    ListenableFuture<String> second = batcher.call(2);
+    assertTrue(first.cancel(false));
+    batcher.flush();
+    Call.Listener<String> listener = captureListener();
+
+    verify(call, never()).sendPayload(1);
+    verify(call).sendPayload(2);
+    verify(call).request(1);
+    listener.onPayload("two");
+    assertEquals("two", second.get());
+  }
+
+  @Test
+  public void flushOfCancelledBatchDoesNotStartCall() {
+    batcher.call(1).cancel(false);
+    batcher.flush();
+    verify(channel, never()).newCall(same(duplexMethod));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void clientStreamingResponseIsSplit() throws Exception {
+    MethodDescriptor<Integer, String> clientStreamingMethod = MethodDescriptor.create(
+        MethodType.CLIENT_STREAMING, "Service/voteAll", 1, TimeUnit.SECONDS, null, null);
+    when(channel.newCall(same(clientStreamingMethod))).thenReturn(call);
+    UnaryBatcher<Integer, String> clientStreamingBatcher = UnaryBatcher.forClientStreaming(
+        channel, clientStreamingMethod, new Function<String, List<String>>() {
+          @Override
+          public List<String> apply(String batchResponse) {
+            return Splitter.on(',').splitToList(batchResponse);
+          }
+        }, scheduler, 2, 10, TimeUnit.MILLISECONDS);
+
+    ListenableFuture<String> first = clientStreamingBatcher.call(1);
+    ListenableFuture<String> second = clientStreamingBatcher.call(2);
+    Call.Listener<String> listener = captureListener();
+    verify(call).request(1);
+    verify(call).halfClose();
+
+    listener.onPayload("one,two");
+    listener.onClose(Status.OK, new Metadata.Trailers());
+    assertEquals("one", first.get());
+    assertEquals("two", second.get());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void unaryMethodIsRejected() {
+    MethodDescriptor<Integer, String> unaryMethod = MethodDescriptor.create(
+        MethodType.UNARY, "Service/vote", 1, TimeUnit.SECONDS, null, null);
+    UnaryBatcher.forDuplexStreaming(channel, unaryMethod, scheduler, 3, 10, TimeUnit.MILLISECONDS);
+  }
+
+  @SuppressWarnings("unchecked")
+  private Call.Listener<String> captureListener() {
+    ArgumentCaptor<Call.Listener> listener = ArgumentCaptor.forClass(Call.Listener.class);
+    verify(call).start(listener.capture(), any(Metadata.Headers.class));
+    return listener.getValue();
+  }
+}